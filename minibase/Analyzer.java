@@ -0,0 +1,41 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.operator.DBCatalog;
+import ed.inf.adbs.minibase.operator.RelationStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collect the statistics of the relations in a database (an ANALYZE pass, see {@link RelationStatistics}).
+ * The statistics are saved in 'stats.txt' next to 'schema.txt', and will be used by {@link Minibase}
+ * to estimate the sizes of intermediate results, until the '.csv' data file of a relation is modified.
+ */
+public class Analyzer {
+
+    public static void main(String[] args) {
+
+        if (args.length < 1) {
+            System.err.println("Usage: Analyzer database_dir [relation_name ...]");
+            return;
+        }
+
+        DBCatalog dbc = new DBCatalog(args[0]);
+
+        // analyze the listed relations, or every relation in the schema if none is listed
+        List<String> relationNames = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        if (relationNames.isEmpty())
+            relationNames.addAll(dbc.getRelationNames());
+
+        for (String relationName : relationNames) {
+            try {
+                RelationStatistics statistics = dbc.analyze(relationName);
+                System.out.println("Analyzed " + relationName + ": " + statistics.getRowCount() + " rows -> " + dbc.getStatisticsPath());
+            } catch (Exception e) {
+                System.err.println("Exception occurred during analysis of relation " + relationName);
+                e.printStackTrace();
+            }
+        }
+    }
+}
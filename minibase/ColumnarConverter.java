@@ -0,0 +1,49 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.operator.DBCatalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Convert the '.csv' data files of a database into the typed columnar format (see {@link ed.inf.adbs.minibase.operator.ColumnarFile}).
+ * The columnar file 'R.col' is written next to 'R.csv', and will be preferred by {@link Minibase} for scanning R
+ * as long as it is not older than the '.csv' file.
+ * After the conversion, the dictionary of all the strings in the database is built again ('dictionary.dat', see
+ * {@link ed.inf.adbs.minibase.operator.StringDictionary}), so the queries process the string columns as int codes.
+ */
+public class ColumnarConverter {
+
+    public static void main(String[] args) {
+
+        if (args.length < 1) {
+            System.err.println("Usage: ColumnarConverter database_dir [relation_name ...]");
+            return;
+        }
+
+        DBCatalog dbc = new DBCatalog(args[0]);
+
+        // convert the listed relations, or every relation in the schema if none is listed
+        List<String> relationNames = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        if (relationNames.isEmpty())
+            relationNames.addAll(dbc.getRelationNames());
+
+        for (String relationName : relationNames) {
+            try {
+                dbc.convertToColumnar(relationName);
+                System.out.println("Converted " + relationName + " -> " + dbc.getColumnarPath(relationName));
+            } catch (Exception e) {
+                System.err.println("Exception occurred during conversion of relation " + relationName);
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            System.out.println("Built dictionary of " + dbc.buildDictionary().size() + " strings -> " + dbc.getDictionaryPath());
+        } catch (Exception e) {
+            System.err.println("Exception occurred during building of the dictionary");
+            e.printStackTrace();
+        }
+    }
+}
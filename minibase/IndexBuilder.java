@@ -0,0 +1,37 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.operator.DBCatalog;
+
+/**
+ * Build persistent indexes on the columns of relations (see {@link ed.inf.adbs.minibase.operator.IndexFile}).
+ * Each index is written under the 'indexes' directory of the database, and will be used by {@link Minibase}
+ * to scan the relation through an index when a select condition on the column is selective enough,
+ * as long as the data file of the relation is not modified (or converted to another storage format) after the index is built.
+ * Each index is given as 'relation_name:column[:hash|btree]', the column is counted from 0 and the default type is btree.
+ */
+public class IndexBuilder {
+
+    public static void main(String[] args) {
+
+        if (args.length < 2) {
+            System.err.println("Usage: IndexBuilder database_dir relation_name:column[:hash|btree] ...");
+            return;
+        }
+
+        DBCatalog dbc = new DBCatalog(args[0]);
+
+        for (int i = 1; i < args.length; i++) {
+            try {
+                String[] parts = args[i].split(":");
+                String relationName = parts[0];
+                int column = Integer.parseInt(parts[1]);
+                DBCatalog.IndexType type = parts.length > 2 ? DBCatalog.IndexType.valueOf(parts[2].toUpperCase()) : DBCatalog.IndexType.BTREE;
+                dbc.createIndex(relationName, column, type);
+                System.out.println("Indexed " + args[i] + " -> " + dbc.getIndexPath(relationName, column, type));
+            } catch (Exception e) {
+                System.err.println("Exception occurred during indexing of " + args[i]);
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -3,10 +3,22 @@ package ed.inf.adbs.minibase;
 import ed.inf.adbs.minibase.base.*;
 import ed.inf.adbs.minibase.operator.*;
 import ed.inf.adbs.minibase.parser.QueryParser;
+import ed.inf.adbs.minibase.planner.CommonSubexpressions;
+import ed.inf.adbs.minibase.planner.Hypergraph;
+import ed.inf.adbs.minibase.planner.JoinOrderOptimizer;
 
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * In-memory database system
@@ -16,8 +28,13 @@ public class Minibase {
 
     public static void main(String[] args) {
 
-        if (args.length != 3) {
-            System.err.println("Usage: Minibase database_dir input_file output_file");
+        if (args.length >= 2 && args[1].equals("--batch")) {
+            batchMain(args);
+            return;
+        }
+        if (args.length < 3) {
+            System.err.println("Usage: Minibase database_dir input_file output_file [--memory-limit=bytes] [--cache=bytes] [--parallelism=threads] [--codegen] [--semi-join=auto|on|off]");
+            System.err.println("       Minibase database_dir --batch output_dir input_file... [options]");
             return;
         }
 
@@ -25,20 +42,86 @@ public class Minibase {
         String inputFile = args[1];
         String outputFile = args[2];
 
-        evaluateCQ(databaseDir, inputFile, outputFile);
+        DBCatalog dbc = new DBCatalog(databaseDir);
+        // optional settings after the three positional arguments
+        for (int i = 3; i < args.length; i++) {
+            if (!applyOption(dbc, args[i])) {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        evaluateCQ(dbc, inputFile, outputFile);
+    }
+
+    /**
+     * The batch mode of the command line: 'database_dir --batch output_dir input_file... [options]'.
+     * The answers of each query file are written to a file of the same name with the extension '.csv' in the output directory.
+     */
+    private static void batchMain(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: Minibase database_dir --batch output_dir input_file... [options]");
+            return;
+        }
+        DBCatalog dbc = new DBCatalog(args[0]);
+        List<String> inputFiles = new ArrayList<>();
+        List<String> outputFiles = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                String fileName = Paths.get(args[i]).getFileName().toString();
+                int extension = fileName.lastIndexOf('.');
+                inputFiles.add(args[i]);
+                outputFiles.add(Paths.get(args[2], (extension > 0 ? fileName.substring(0, extension) : fileName) + ".csv").toString());
+            } else if (!applyOption(dbc, args[i])) {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+        evaluateBatch(dbc, inputFiles, outputFiles);
+    }
+
+    /**
+     * Apply an optional setting given on the command line to a catalog.
+     * @param dbc the catalog of the database.
+     * @param option an option such as '--memory-limit=bytes' or '--codegen'.
+     * @return {@code true} if the option is recognized, {@code false} otherwise.
+     */
+    static boolean applyOption(DBCatalog dbc, String option) {
+        if (option.startsWith("--memory-limit=")) {
+            dbc.setMemoryLimit(Long.parseLong(option.substring("--memory-limit=".length())));
+        } else if (option.startsWith("--cache=")) {
+            dbc.enableRelationCache(Long.parseLong(option.substring("--cache=".length())));
+        } else if (option.startsWith("--parallelism=")) {
+            dbc.setParallelism(Integer.parseInt(option.substring("--parallelism=".length())));
+        } else if (option.equals("--codegen")) {
+            dbc.setCodeGeneration(true);
+        } else if (option.startsWith("--semi-join=")) {
+            dbc.setSemiJoinReduction(
+                    DBCatalog.SemiJoinReduction.valueOf(option.substring("--semi-join=".length()).toUpperCase()));
+        } else {
+            return false;
+        }
+        return true;
     }
 
     public static void evaluateCQ(String databaseDir, String inputFile, String outputFile) {
-        try {
-            DBCatalog dbc = DBCatalog.getInstance();
-            dbc.init(databaseDir);
+        evaluateCQ(new DBCatalog(databaseDir), inputFile, outputFile);
+    }
 
+    /**
+     * Evaluate the query in a file on the database of a catalog, and write the answers to the output file.
+     * @param dbc the catalog of the database, with the settings of the evaluation.
+     * @param inputFile the path to the query file.
+     * @param outputFile the path to the output file.
+     */
+    public static void evaluateCQ(DBCatalog dbc, String inputFile, String outputFile) {
+        try {
             Query query = QueryParser.parse(Paths.get(inputFile));
 //            System.out.println("Input query: " + query);
 
             // Build the query plan tree for the input query,
             // then execute the {@link Operator#dump(String)} method on root to get the query result
-            Operator queryPlan = buildQueryPlan(query);
+            Operator queryPlan = buildQueryPlan(dbc, query);
             if (queryPlan != null) {
                 queryPlan.dump(outputFile);
             } else {
@@ -51,68 +134,311 @@ public class Minibase {
         }
     }
 
+    /**
+     * Evaluate the queries in many files on the same database, each writing its answers to its own output file.
+     * The queries are grouped by the relations they touch: two queries reading a common relation are in the same group,
+     * directly or through other queries of the group. The groups are evaluated one after the other, and the queries of a group
+     * concurrently, each on its own thread (see {@link QueryExecutor}), with one {@link SharedScan} for each relation
+     * read by more than one body atom of the group, so its file is read once for all the plans reading it at about the same time.
+     * All the plans of a group are built before any of them starts, so the shared scans keep their first rows for all of them.
+     * A join of some body atoms found in several queries of a group, up to the names of the variables
+     * (see {@link CommonSubexpressions}), is evaluated once and its result is read by each of these queries.
+     * When the relation cache is enabled, the relations are already read once and the scans are not shared.
+     * A query which fails to parse or to evaluate is reported, the other queries are still evaluated.
+     * @param dbc the catalog of the database, with the settings of the evaluation.
+     * @param inputFiles the paths to the query files.
+     * @param outputFiles the path to the output file of each query file.
+     */
+    public static void evaluateBatch(DBCatalog dbc, List<String> inputFiles, List<String> outputFiles) {
+        List<Query> queries = new ArrayList<>();
+        for (String inputFile : inputFiles) {
+            try {
+                queries.add(QueryParser.parse(Paths.get(inputFile)));
+            } catch (Exception e) {
+                System.err.println("Exception occurred during parsing: " + inputFile);
+                e.printStackTrace();
+                queries.add(null);
+            }
+        }
+
+        // merge the groups of the relations touched by each query
+        List<List<Integer>> groups = new ArrayList<>();
+        List<Set<String>> groupRelations = new ArrayList<>();
+        for (int q = 0; q < queries.size(); q++) {
+            if (queries.get(q) == null)
+                continue;
+            Set<String> relations = new HashSet<>();
+            for (Atom atom : queries.get(q).getBody())
+                if (atom instanceof RelationalAtom)
+                    relations.add(((RelationalAtom) atom).getName());
+            List<Integer> group = new ArrayList<>(Collections.singletonList(q));
+            for (int g = groups.size() - 1; g >= 0; g--) {
+                if (Collections.disjoint(groupRelations.get(g), relations))
+                    continue;
+                group.addAll(groups.remove(g));
+                relations.addAll(groupRelations.remove(g));
+            }
+            Collections.sort(group);
+            groups.add(group);
+            groupRelations.add(relations);
+        }
+
+        try (QueryExecutor executor = new QueryExecutor(Runtime.getRuntime().maxMemory() / 2)) {
+            for (List<Integer> group : groups)
+                evaluateGroup(dbc, executor, group, queries, inputFiles, outputFiles);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Evaluate one group of queries of a batch (see {@link #evaluateBatch}): find the subplans shared by its queries,
+     * open the shared scans, build all the plans, then run them concurrently and wait for all of them.
+     * Each shared subplan (see {@link CommonSubexpressions}) is evaluated once into a {@link Spool},
+     * read by a {@link SpoolOperator} in the plan of each query containing it.
+     * @param dbc the catalog of the database.
+     * @param executor runs the plans.
+     * @param group the indices of the queries of the group.
+     * @param queries the parsed queries of the batch.
+     * @param inputFiles the path to the file of each query, for the reports.
+     * @param outputFiles the path to the output file of each query.
+     * @throws InterruptedException if interrupted while waiting for the plans.
+     */
+    private static void evaluateGroup(DBCatalog dbc, QueryExecutor executor, List<Integer> group, List<Query> queries,
+                                      List<String> inputFiles, List<String> outputFiles) throws InterruptedException {
+        // split the bodies as the planner does, so the atoms of the shared subplans are given by their index in the body
+        List<List<RelationalAtom>> bodies = new ArrayList<>();
+        List<List<ComparisonAtom>> conditions = new ArrayList<>();
+        for (int q : group) {
+            List<RelationalAtom> relationalAtoms = new ArrayList<>();
+            List<ComparisonAtom> selectConditions = new ArrayList<>();
+            splitBody(queries.get(q), relationalAtoms, selectConditions);
+            bodies.add(relationalAtoms);
+            conditions.add(selectConditions);
+        }
+        List<CommonSubexpressions.SharedSubplan> subplans = CommonSubexpressions.find(dbc, bodies, conditions);
+        CommonSubexpressions.Reader[] readers = new CommonSubexpressions.Reader[group.size()];
+        for (CommonSubexpressions.SharedSubplan subplan : subplans)
+            for (CommonSubexpressions.Reader reader : subplan.getReaders())
+                readers[reader.getQuery()] = reader;
+
+        // the atoms of a shared subplan are read by its own plan only, not by the plans of its readers
+        Map<String, SharedScan> sharedScans = new HashMap<>();
+        if (!dbc.isRelationCacheEnabled()) {
+            Map<String, Integer> scans = new HashMap<>();
+            for (int i = 0; i < group.size(); i++)
+                for (int a = 0; a < bodies.get(i).size(); a++)
+                    if (readers[i] == null || !readers[i].getAtoms().contains(a))
+                        scans.merge(bodies.get(i).get(a).getName(), 1, Integer::sum);
+            for (CommonSubexpressions.SharedSubplan subplan : subplans)
+                for (RelationalAtom atom : subplan.getAtoms())
+                    scans.merge(atom.getName(), 1, Integer::sum);
+            for (Map.Entry<String, Integer> entry : scans.entrySet())
+                if (entry.getValue() > 1)
+                    sharedScans.put(entry.getKey(), new SharedScan(dbc, entry.getKey()));
+        }
+
+        Spool[] spools = new Spool[group.size()];
+        for (CommonSubexpressions.SharedSubplan subplan : subplans) {
+            Spool spool = new Spool(buildSharedSubplan(dbc, subplan.getAtoms(), subplan.getConditions(), sharedScans));
+            for (CommonSubexpressions.Reader reader : subplan.getReaders())
+                spools[reader.getQuery()] = spool;
+        }
+
+        Map<Integer, QueryExecutor.QueryExecution> executions = new HashMap<>();
+        for (int i = 0; i < group.size(); i++) {
+            int q = group.get(i);
+            try {
+                List<Atom> body = new ArrayList<>(bodies.get(i));
+                body.addAll(conditions.get(i));
+                Query query = new Query(queries.get(q).getHead(), body);
+                long memoryEstimate = QueryExecutor.estimateMemory(dbc, query);
+                Operator queryPlan;
+                if (readers[i] == null) {
+                    queryPlan = buildQueryPlan(dbc, query, sharedScans, null, null);
+                } else {
+                    // rename the output columns of the subplan to the variables of this query
+                    List<String> variables = new ArrayList<>();
+                    for (String variable : spools[i].getVariableMask())
+                        variables.add(readers[i].getVariables().get(variable));
+                    queryPlan = buildQueryPlan(dbc, query, sharedScans, readers[i].getAtoms(), new SpoolOperator(spools[i], variables));
+                }
+                if (queryPlan != null)
+                    executions.put(q, executor.submit(queryPlan, memoryEstimate, outputFiles.get(q), 0, TimeUnit.MILLISECONDS));
+                else
+                    System.out.println("-- Empty query --");
+            } catch (Exception e) {
+                System.err.println("Exception occurred during planning: " + inputFiles.get(q));
+                e.printStackTrace();
+            }
+        }
+        for (int q : group) {
+            if (!executions.containsKey(q))
+                continue;
+            try {
+                executions.get(q).get();
+            } catch (ExecutionException e) {
+                System.err.println("Exception occurred during evaluation: " + inputFiles.get(q));
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
     /**
      * Build a query plan (as a left-deep join tree of {@link Operator} instances) for the input query.
-     * The {@code RelationalAtom} in the query body will be processed from left to right,
-     * building a tree in a Post-Order Traversal.
+     * The {@code RelationalAtom} in the query body will be processed in the order chosen by {@link JoinOrderOptimizer}
+     * (based on the estimated sizes of the intermediate results), building a tree in a Post-Order Traversal.
      * For each {@code RelationalAtom}:
-     *      (1) Generate a {@link ScanOperator} for its target relation;
-     *      (2) Generate a {@link SelectOperator} above it, depending on the {@code ComparisonAtom} related to it;
-     *      (3) Join the roots of current subtree and the previous subtree on the right, using a {@link JoinOperator}.
+     *      (1) Generate a scan operator for its target relation, which may read it through an index
+     *          if some select condition is selective enough (see {@link #buildScan(DBCatalog, RelationalAtom, List, Map)});
+     *      (2) Apply the {@code ComparisonAtom} related to it, pushed down into the scan if the scan supports it,
+     *          or by a {@link SelectOperator} above it otherwise (see {@link #buildFilteredScan(Operator, List)});
+     *      (3) Join the roots of current subtree and the previous subtree on the right, using a {@link HashJoinOperator}
+     *          if they share some variables or are connected by a '=' condition, or a {@link JoinOperator} otherwise.
+     *          If the estimated size of the new relation exceeds the memory limit in {@link DBCatalog},
+     *          the hash table can not be built and a {@link SortMergeJoinOperator} is used for the equi-join instead.
+     *          If the new relation has an index on an equi-join column, and probing it for each tuple of the previous subtree
+     *          is estimated cheaper than reading the whole relation, an {@link IndexNestedLoopJoinOperator} is used.
      * After all the body atoms are processed, one of {@link ProjectOperator}/{@link SumOperator}
      * will be built above the root of previous tree, depending on whether the query head contains {@link Sum} terms.
+     * If the parallelism in {@link DBCatalog} is larger than 1, the same plan is evaluated by a {@link ParallelOperator}
+     * instead (each worker thread builds its own tree), unless a sort-merge join is needed.
+     * Otherwise, if code generation is enabled in {@link DBCatalog}, a plan of hash joins is compiled by {@link PipelineCompiler}.
+     * A body whose hypergraph is cyclic (see {@link Hypergraph}) is joined by one {@link GenericJoinOperator} instead
+     * of the binary joins, unless some relation is estimated to exceed the memory limit.
+     * The relations of an acyclic body may be reduced by a {@link SemiJoinReducer} first (the Yannakakis algorithm),
+     * depending on the setting in {@link DBCatalog} (see {@link #useSemiJoinReduction(DBCatalog, List, List)}).
+     * @param dbc the catalog of the database, providing the relations, the estimates and the settings.
      * @param query a {@link Query} instance, represents a input query.
      * @return the root of the query plan tree (whose nodes are {@link Operator} instances) of input query.
      */
-    private static Operator buildQueryPlan(Query query) {
+    static Operator buildQueryPlan(DBCatalog dbc, Query query) {
+        return buildQueryPlan(dbc, query, Collections.emptyMap(), null, null);
+    }
+
+    /**
+     * Build a query plan as {@link #buildQueryPlan(DBCatalog, Query)}, reading some relations through shared scans,
+     * and possibly the join of some atoms from a subplan shared with other queries (see {@link #evaluateBatch}).
+     * The atoms of the shared subplan are joined first, their subtree is replaced by the reader of the subplan,
+     * and the plan is the interpreted join tree (the parallel, compiled, worst-case optimal and reduced plans are not used).
+     * @param dbc the catalog of the database, providing the relations, the estimates and the settings.
+     * @param query a {@link Query} instance, represents a input query.
+     * @param sharedScans the shared scan of each relation read together with other plans,
+     *                    the full scans of these relations are {@link SharedScanOperator} instances.
+     * @param spooledAtoms the indices of the relational atoms of the body computed by the shared subplan, in its join order,
+     *                     or {@code null} if the query reads no shared subplan.
+     * @param spool the reader of the shared subplan (a {@link SpoolOperator}), or {@code null}.
+     * @return the root of the query plan tree (whose nodes are {@link Operator} instances) of input query.
+     */
+    static Operator buildQueryPlan(DBCatalog dbc, Query query, Map<String, SharedScan> sharedScans,
+                                   List<Integer> spooledAtoms, Operator spool) {
         // Use two list to store RelationAtoms and ComparisonAtoms separately
         // Later the script will build a new tree branch (starting from ScanOperator) for each RelationalAtom,
         // and find the relative ComparisonAtoms for each ComparisonAtom, using these conditions in SelectOperator and JoinOperator.
         List<RelationalAtom> relationalAtoms = new ArrayList<>();
         List<ComparisonAtom> selectConditions = new ArrayList<>();
+        splitBody(query, relationalAtoms, selectConditions);
 
-        // Get the list of appeared variable names
-        List<String> usedVariables = new ArrayList<>();
-        for (Atom atom : query.getBody()) {
-            // the variables in ComparisonAtom are permitted to appear in some RelationalAtom
-            // so no need to check the variables in ComparisonAtom
-            if (atom instanceof RelationalAtom) {
-                for (Term term : ((RelationalAtom) atom).getTerms()) {
-                    if (term instanceof Variable && !usedVariables.contains(((Variable) term).getName()))
-                        usedVariables.add(((Variable) term).getName());
-                }
-            }
+        // Choose the join order of RelationalAtoms, the left-deep tree is built in this order
+        // (starting with the atoms of the shared subplan, if any)
+        List<RelationalAtom> joinOrder;
+        if (spool == null) {
+            joinOrder = JoinOrderOptimizer.order(dbc, relationalAtoms, selectConditions);
+        } else {
+            List<RelationalAtom> firstAtoms = new ArrayList<>();
+            List<RelationalAtom> otherAtoms = new ArrayList<>();
+            for (int i : spooledAtoms)
+                firstAtoms.add(relationalAtoms.get(i));
+            for (int i = 0; i < relationalAtoms.size(); i++)
+                if (!spooledAtoms.contains(i))
+                    otherAtoms.add(relationalAtoms.get(i));
+            joinOrder = JoinOrderOptimizer.order(dbc, firstAtoms, otherAtoms, selectConditions);
         }
 
-        // Split the body atoms into two groups: RelationalAtom and ComparisonAtom
-        // Replace the constants in RelationalAtom with new variable, and add a corresponding ComparisonAtom
-        for (Atom atom : query.getBody()) {
-            if (atom instanceof RelationalAtom) { // this branch handle relationalAtom
-                List<Term> termList = ((RelationalAtom) atom).getTerms();
-                String relationName = ((RelationalAtom) atom).getName();
-                for (int i = 0; i < termList.size(); i++) {
-                    Term originalTerm = termList.get(i);
-                    // if the RelationalAtom contains Constant, replace them by new Variable and corresponding ComparisonAtom
-                    if (originalTerm instanceof Constant) {
-                        String newVarName = generateNewVariableName(usedVariables);
-                        termList.set(i, new Variable(newVarName));
-                        selectConditions.add(new ComparisonAtom(
-                                new Variable(newVarName),
-                                originalTerm,
-                                ComparisonOperator.fromString("=")
-                        ));
-                    }
-                }
-                relationalAtoms.add(new RelationalAtom(relationName, termList));
-            } else { // this branch handles ComparisonAtom
-                selectConditions.add((ComparisonAtom)atom);
-            }
-        }
+        // Choose the operators of each RelationalAtom: the select conditions on its relation,
+        // and the join conditions and join algorithm between it and the previous subtree
+        List<List<ComparisonAtom>> selectLists = new ArrayList<>();
+        List<List<ComparisonAtom>> joinLists = new ArrayList<>();
+        List<JoinMethod> joinMethods = new ArrayList<>();
+        planJoins(dbc, joinOrder, selectConditions, selectLists, joinLists, joinMethods);
+        Map<RelationalAtom, List<ComparisonAtom>> atomConditions = new IdentityHashMap<>();
+        for (int i = 0; i < joinOrder.size(); i++)
+            atomConditions.put(joinOrder.get(i), selectLists.get(i));
+        Function<RelationalAtom, Operator> scanBuilder = atom -> buildScan(dbc, atom, atomConditions.get(atom), sharedScans);
 
-        // Generate the query plan tree
+        // A cyclic body is joined variable by variable in a worst-case optimal join, since any tree of binary joins
+        // may build intermediate results much larger than the output (the tries of all relations are kept in memory).
+        // An acyclic body may have its dangling tuples removed by semi-joins along its join tree before the binary joins.
+        int[] joinTree = Hypergraph.joinTree(joinOrder);
+        boolean worstCaseOptimal = spool == null && joinTree == null &&
+                joinOrder.stream().allMatch(atom -> dbc.estimateMemorySize(atom.getName()) <= dbc.getMemoryLimit());
+        boolean semiJoinReduction = spool == null && joinTree != null && useSemiJoinReduction(dbc, joinOrder, selectConditions);
+
+        // With more than one worker thread, the whole query is evaluated by a ParallelOperator,
+        // unless some join has to be evaluated out of core (the sort-merge join can not be split among the workers).
+        if (spool == null && !worstCaseOptimal && !semiJoinReduction && dbc.getParallelism() > 1 && !joinMethods.contains(JoinMethod.SORT_MERGE)) {
+            List<RelationalAtom> partitionedAtoms = new ArrayList<>();
+            for (int i = 0; i < joinOrder.size(); i++)
+                if (i == 0 || joinMethods.get(i) == JoinMethod.HASH)
+                    partitionedAtoms.add(joinOrder.get(i));
+            return new ParallelOperator(dbc, query.getHead(), dbc.getParallelism(), partitionedAtoms, scanBuilder,
+                    workerScans -> buildJoinTree(dbc, query.getHead(), joinOrder, selectLists, joinLists, joinMethods, workerScans, null, 0));
+        }
+        // With code generation enabled, a plan of hash joins is compiled into fused pipelines,
+        // the interpreted join tree is the fallback for the other plans (or if the compilation fails).
         Operator root = null;
+        if (worstCaseOptimal)
+            root = buildGenericJoin(joinOrder, selectLists, joinLists, scanBuilder);
+        else if (semiJoinReduction)
+            root = buildReducedJoinTree(dbc, query.getHead(), joinOrder, joinTree, selectConditions, sharedScans);
+        else if (spool == null && dbc.isCodeGenerationEnabled() && !joinMethods.contains(JoinMethod.NESTED_LOOP) && !joinMethods.contains(JoinMethod.SORT_MERGE)
+                && !joinMethods.contains(JoinMethod.INDEX_NESTED_LOOP))
+            root = PipelineCompiler.compile(dbc, query.getHead(), joinOrder, selectLists, joinLists, scanBuilder);
+        if (root == null)
+            root = buildJoinTree(dbc, query.getHead(), joinOrder, selectLists, joinLists, joinMethods, scanBuilder,
+                    spool, spool == null ? 0 : spooledAtoms.size());
+
+        // Project operation & Aggregation operations
+        List<Term> headTerms = new ArrayList<>(query.getHead().getTerms());
+        Term lastHeadTerm = headTerms.get(headTerms.size() - 1);
+        // if the last query head term is aggregation, apply corresponding AggOperator (which implements
+        //      the basic functionality of ProjectOperator, and also deals with the aggregation operation)
+        // if the last query head is not aggregation, apply simple ProjectOperator
+        if (lastHeadTerm instanceof Sum) {
+            root = new SumOperator(root, query.getHead());
+        } else {
+            root = new ProjectOperator(root, query.getHead(), dbc.getMemoryLimit());
+        }
+
+        return root;
+    }
+
+    /**
+     * The algorithms that the planner chooses from to join a subtree with the previous subtree.
+     */
+    private enum JoinMethod {
+        NESTED_LOOP,
+        HASH,
+        SORT_MERGE,
+        INDEX_NESTED_LOOP
+    }
+
+    /**
+     * Choose the operators of each RelationalAtom in join order: the select conditions on its relation,
+     * and the join conditions and the join algorithm between it and the previous subtree.
+     * @param dbc the catalog of the database.
+     * @param atoms the relational atoms in join order.
+     * @param selectConditions all the comparison atoms in the query body.
+     * @param selectLists filled with the select conditions of each atom.
+     * @param joinLists filled with the join conditions between each atom and the previous subtree.
+     * @param joinMethods filled with the join algorithm between each atom and the previous subtree ({@code null} for the first atom).
+     */
+    private static void planJoins(DBCatalog dbc, List<RelationalAtom> atoms, List<ComparisonAtom> selectConditions,
+                                  List<List<ComparisonAtom>> selectLists, List<List<ComparisonAtom>> joinLists,
+                                  List<JoinMethod> joinMethods) {
+        double[] sizes = atoms.size() > 1 ? JoinOrderOptimizer.estimateSizes(dbc, atoms, selectConditions) : null;
         List<String> previousVariables = new ArrayList<>();
-        for (RelationalAtom rAtom : relationalAtoms) {
+        for (RelationalAtom rAtom : atoms) {
             // subtreeVariables: Stores the appeared variable names in the previous built subtree,
             // it will be updated after each RelationalAtom is processed (i.e. the variables in it will be added into this list).
             // We may check whether some variables in ComparisonAtom are recorded in the list
@@ -122,56 +448,339 @@ public class Minibase {
                 if (term instanceof Variable) subtreeVariables.add(((Variable) term).getName());
             }
 
-            // Scan operation
-            Operator subtree = new ScanOperator(rAtom);
-
             // Select operation
             List<ComparisonAtom> selectCompAtomList = new ArrayList<>();
             for (ComparisonAtom cAtom : selectConditions)
                 if (variableAllAppeared(cAtom, subtreeVariables))
                     selectCompAtomList.add(cAtom);
-            subtree = new SelectOperator(subtree, selectCompAtomList);
+            selectLists.add(selectCompAtomList);
 
             // Join operation
             List<String> mergedVariables = new ArrayList<>();
             mergedVariables.addAll(previousVariables);
             mergedVariables.addAll(subtreeVariables);
-            if (root == null) {
-                // if this is the first branch of query plan tree, record it as root
-                root = subtree;
-            } else {
+            List<ComparisonAtom> joinCompAtomList = new ArrayList<>();
+            JoinMethod joinMethod = null;
+            if (!joinMethods.isEmpty()) {
                 // if before this branch starting from the current RelationalAtom,
-                // there already exists a subtree at left side,
-                // apply JoinOperator on their roots.
-                List<ComparisonAtom> joinCompAtomList = new ArrayList<>();
+                // there already exists a subtree at left side, a join is applied on their roots
                 for (ComparisonAtom cAtom : selectConditions) {
                     if (!variableAllAppeared(cAtom, previousVariables) &&
                             !variableAllAppeared(cAtom, subtreeVariables) &&
                             variableAllAppeared(cAtom, mergedVariables))
                         joinCompAtomList.add(cAtom);
                 }
-                root = new JoinOperator(root, subtree, joinCompAtomList);
+                // use a hash join whenever the two subtrees can be matched on some equal columns
+                // (or a sort-merge join, if the right side is too large to be hashed in memory),
+                // unless an index on a key column of the right relation is cheaper to probe for each left tuple;
+                // otherwise fall back to the nested-loop join
+                if (hasEquiJoinColumn(joinCompAtomList, previousVariables, subtreeVariables)) {
+                    // (costed as in JoinOrderOptimizer: the previous subtree has sizes[joinMethods.size() - 1] tuples,
+                    // the hash join reads the right relation and builds a table of its filtered tuples)
+                    int indexColumn = JoinOrderOptimizer.findJoinIndexColumn(dbc, rAtom, previousVariables, joinCompAtomList);
+                    double indexCost = indexColumn < 0 ? Double.POSITIVE_INFINITY
+                            : JoinOrderOptimizer.indexJoinCost(dbc, rAtom, indexColumn, sizes[joinMethods.size() - 1]);
+                    double scanCost = dbc.estimateRowCount(rAtom.getName())
+                            + JoinOrderOptimizer.estimateSizes(dbc, Collections.singletonList(rAtom), selectConditions)[0];
+                    if (indexCost < scanCost)
+                        joinMethod = JoinMethod.INDEX_NESTED_LOOP;
+                    else if (dbc.estimateMemorySize(rAtom.getName()) > dbc.getMemoryLimit())
+                        joinMethod = JoinMethod.SORT_MERGE;
+                    else
+                        joinMethod = JoinMethod.HASH;
+                } else {
+                    joinMethod = JoinMethod.NESTED_LOOP;
+                }
             }
+            joinLists.add(joinCompAtomList);
+            joinMethods.add(joinMethod);
 
             // update variable list after two subtrees are joined
             previousVariables = mergedVariables;
         }
+    }
 
-        // Project operation & Aggregation operations
-        List<Term> headTerms = new ArrayList<>(query.getHead().getTerms());
-        Term lastHeadTerm = headTerms.get(headTerms.size() - 1);
-        // if the last query head term is aggregation, apply corresponding AggOperator (which implements
-        //      the basic functionality of ProjectOperator, and also deals with the aggregation operation)
-        // if the last query head is not aggregation, apply simple ProjectOperator
-        if (lastHeadTerm instanceof Sum) {
-            root = new SumOperator(root, query.getHead());
-        } else {
-            root = new ProjectOperator(root, query.getHead());
+    /**
+     * Build the left-deep join tree of the body atoms, in a Post-Order Traversal.
+     * For each {@code RelationalAtom}: generate a filtered scan operator (see {@link #buildFilteredScan}),
+     * and join it with the previous subtree by the chosen {@link JoinMethod}.
+     * The scans and the joins only output the variables needed above them (see {@link #planColumns}).
+     * @param dbc the catalog of the database.
+     * @param queryHead the query head, whose variables are output by the root.
+     * @param atoms the relational atoms in join order.
+     * @param selectLists the select conditions of each atom.
+     * @param joinLists the join conditions between each atom and the previous subtree.
+     * @param joinMethods the join algorithm between each atom and the previous subtree ({@code null} for the first atom).
+     * @param scanBuilder generates the scan operator of an atom.
+     * @param firstSubtree the join of the first atoms computed elsewhere (e.g. by a shared subplan), or {@code null}.
+     * @param firstAtoms the number of atoms joined by {@code firstSubtree}, which are not built again.
+     * @return the root of the join tree.
+     */
+    private static Operator buildJoinTree(DBCatalog dbc, RelationalAtom queryHead, List<RelationalAtom> atoms, List<List<ComparisonAtom>> selectLists,
+                                          List<List<ComparisonAtom>> joinLists, List<JoinMethod> joinMethods,
+                                          Function<RelationalAtom, Operator> scanBuilder, Operator firstSubtree, int firstAtoms) {
+        List<Set<String>> scanVariables = new ArrayList<>();
+        List<Set<String>> joinVariables = new ArrayList<>();
+        planColumns(queryHead, atoms, joinLists, scanVariables, joinVariables);
+
+        Operator root = firstSubtree;
+        if (firstSubtree != null)
+            root.pruneColumns(joinVariables.get(firstAtoms - 1));
+        for (int i = firstAtoms; i < atoms.size(); i++) {
+            RelationalAtom atom = atoms.get(i);
+            Operator scan;
+            if (joinMethods.get(i) == JoinMethod.INDEX_NESTED_LOOP) {
+                int column = JoinOrderOptimizer.findJoinIndexColumn(dbc, atom, root.getVariableMask(), joinLists.get(i));
+                scan = new IndexScanOperator(dbc, atom, column, JoinOrderOptimizer.findEqualityIndex(dbc, atom.getName(), column));
+            } else {
+                scan = scanBuilder.apply(atom);
+            }
+            Operator subtree = buildFilteredScan(scan, selectLists.get(i));
+            subtree.pruneColumns(scanVariables.get(i));
+            if (root == null)
+                root = subtree;
+            else if (joinMethods.get(i) == JoinMethod.INDEX_NESTED_LOOP)
+                root = new IndexNestedLoopJoinOperator(root, (IndexScanOperator) subtree, joinLists.get(i));
+            else if (joinMethods.get(i) == JoinMethod.HASH)
+                root = new HashJoinOperator(root, subtree, joinLists.get(i));
+            else if (joinMethods.get(i) == JoinMethod.SORT_MERGE)
+                root = new SortMergeJoinOperator(root, subtree, joinLists.get(i), sortRunSize(dbc, root, subtree),
+                        dbc.getDictionary());
+            else
+                root = new JoinOperator(root, subtree, joinLists.get(i));
+            if (i > 0)
+                root.pruneColumns(joinVariables.get(i));
+        }
+        return root;
+    }
+
+    /**
+     * Work out the variables that each scan and each join of a left-deep join tree must output (projection pushdown):
+     * the variables of the query head (including the SUM term), and the variables read by the later joins,
+     * i.e. the variables of the later atoms and of their join conditions.
+     * A scan also outputs the variables read by its own join (the key columns and the join conditions).
+     * Its select conditions are not counted, they are applied below the pruning (in the scan itself),
+     * or the scan is not pruned at all (a {@link SelectOperator} above it keeps all the columns).
+     * @param queryHead the query head.
+     * @param atoms the relational atoms in join order.
+     * @param joinLists the join conditions between each atom and the previous subtree.
+     * @param scanVariables filled with the variables output by the scan of each atom.
+     * @param joinVariables filled with the variables output by the subtree joining each atom with the previous subtree.
+     */
+    private static void planColumns(RelationalAtom queryHead, List<RelationalAtom> atoms, List<List<ComparisonAtom>> joinLists,
+                                    List<Set<String>> scanVariables, List<Set<String>> joinVariables) {
+        Set<String> laterVariables = new HashSet<>();
+        for (Term term : queryHead.getTerms()) {
+            if (term instanceof Variable)
+                laterVariables.add(((Variable) term).getName());
+            else if (term instanceof Sum)
+                laterVariables.add(((Sum) term).getVariable());
         }
+        // from the last atom to the first one, collecting the variables read by the later joins
+        for (int i = atoms.size() - 1; i >= 0; i--) {
+            joinVariables.add(0, new HashSet<>(laterVariables));
+            Set<String> atomVariables = new HashSet<>();
+            for (Term term : atoms.get(i).getTerms())
+                if (term instanceof Variable)
+                    atomVariables.add(((Variable) term).getName());
+            Set<String> joinConditionVariables = new HashSet<>();
+            for (ComparisonAtom cAtom : joinLists.get(i)) {
+                if (cAtom.getTerm1() instanceof Variable)
+                    joinConditionVariables.add(((Variable) cAtom.getTerm1()).getName());
+                if (cAtom.getTerm2() instanceof Variable)
+                    joinConditionVariables.add(((Variable) cAtom.getTerm2()).getName());
+            }
+            Set<String> scanOutput = new HashSet<>(laterVariables);
+            scanOutput.addAll(joinConditionVariables);
+            for (int j = 0; j < i; j++)
+                for (Term term : atoms.get(j).getTerms())
+                    if (term instanceof Variable && atomVariables.contains(((Variable) term).getName()))
+                        scanOutput.add(((Variable) term).getName());
+            scanVariables.add(0, scanOutput);
+            laterVariables.addAll(atomVariables);
+            laterVariables.addAll(joinConditionVariables);
+        }
+    }
 
+    /**
+     * Build a worst-case optimal join of all the body atoms: a {@link GenericJoinOperator} over the filtered scan of each atom,
+     * with a {@link SelectOperator} above it for the conditions between different atoms.
+     * @param atoms the relational atoms in join order, which also breaks the ties of the variable order.
+     * @param selectLists the select conditions of each atom.
+     * @param joinLists the join conditions between each atom and the previous atoms.
+     * @param scanBuilder generates the scan operator of an atom.
+     * @return the root of the join.
+     */
+    private static Operator buildGenericJoin(List<RelationalAtom> atoms, List<List<ComparisonAtom>> selectLists,
+                                             List<List<ComparisonAtom>> joinLists, Function<RelationalAtom, Operator> scanBuilder) {
+        List<Operator> children = new ArrayList<>();
+        List<ComparisonAtom> joinConditions = new ArrayList<>();
+        for (int i = 0; i < atoms.size(); i++) {
+            children.add(buildFilteredScan(scanBuilder.apply(atoms.get(i)), selectLists.get(i)));
+            joinConditions.addAll(joinLists.get(i));
+        }
+        Operator root = new GenericJoinOperator(children, Hypergraph.variableOrder(atoms));
+        if (!joinConditions.isEmpty())
+            root = new SelectOperator(root, joinConditions);
         return root;
     }
 
+    /**
+     * Decide whether the relations of an acyclic body are reduced by semi-joins before they are joined.
+     * Unless it is forced on or off in {@link DBCatalog}, the reduction is used when the body has at least three atoms,
+     * all the relations fit in the memory limit (they are materialized by the reduction), and some intermediate result
+     * of the binary joins is estimated larger than the input relations and the join result together,
+     * i.e. the binary joins would build many tuples that are dropped by the later joins.
+     * @param dbc the catalog of the database.
+     * @param atoms the relational atoms in join order.
+     * @param conditions all the comparison atoms in the query body.
+     * @return {@code true} if the semi-join reduction should be applied.
+     */
+    private static boolean useSemiJoinReduction(DBCatalog dbc, List<RelationalAtom> atoms, List<ComparisonAtom> conditions) {
+        if (dbc.getSemiJoinReduction() != DBCatalog.SemiJoinReduction.AUTO)
+            return dbc.getSemiJoinReduction() == DBCatalog.SemiJoinReduction.ON;
+        if (atoms.size() < 3)
+            return false;
+        double inputSize = 0;
+        for (RelationalAtom atom : atoms) {
+            if (dbc.estimateMemorySize(atom.getName()) > dbc.getMemoryLimit())
+                return false;
+            inputSize += dbc.estimateRowCount(atom.getName());
+        }
+        double[] sizes = JoinOrderOptimizer.estimateSizes(dbc, atoms, conditions);
+        double outputSize = sizes[sizes.length - 1];
+        for (int i = 1; i < sizes.length - 1; i++)
+            if (sizes[i] > inputSize + outputSize)
+                return true;
+        return false;
+    }
+
+    /**
+     * Build the join tree of an acyclic body over its relations reduced by a {@link SemiJoinReducer}.
+     * The atoms are joined in the order of the join tree (each atom after its parent), so each join
+     * matches the new atom with its parent on their shared variables, and no joined tuple is dropped later.
+     * @param dbc the catalog of the database.
+     * @param queryHead the query head.
+     * @param atoms the relational atoms in join order, the first one is the root of the join tree.
+     * @param joinTree the parent of each atom in the join tree, as found by {@link Hypergraph#joinTree(List)}.
+     * @param selectConditions all the comparison atoms in the query body.
+     * @param sharedScans the shared scan of each relation read together with other plans.
+     * @return the root of the join tree.
+     */
+    private static Operator buildReducedJoinTree(DBCatalog dbc, RelationalAtom queryHead, List<RelationalAtom> atoms, int[] joinTree,
+                                                               List<ComparisonAtom> selectConditions, Map<String, SharedScan> sharedScans) {
+        List<Integer> treeOrder = Hypergraph.treeOrder(joinTree);
+        List<RelationalAtom> orderedAtoms = new ArrayList<>();
+        int[] parents = new int[atoms.size()];
+        for (int i = 0; i < treeOrder.size(); i++) {
+            orderedAtoms.add(atoms.get(treeOrder.get(i)));
+            int parent = joinTree[treeOrder.get(i)];
+            parents[i] = parent < 0 ? -1 : treeOrder.indexOf(parent);
+        }
+
+        List<List<ComparisonAtom>> selectLists = new ArrayList<>();
+        List<List<ComparisonAtom>> joinLists = new ArrayList<>();
+        List<JoinMethod> joinMethods = new ArrayList<>();
+        planJoins(dbc, orderedAtoms, selectConditions, selectLists, joinLists, joinMethods);
+        // the reduced relations are joined in memory, an index of the original relation would skip the reduction
+        joinMethods.replaceAll(method -> method == JoinMethod.INDEX_NESTED_LOOP ? JoinMethod.HASH : method);
+
+        // the select conditions and the pruning of the scans are applied before the reduction, on the scans of the atoms
+        List<Set<String>> scanVariables = new ArrayList<>();
+        planColumns(queryHead, orderedAtoms, joinLists, scanVariables, new ArrayList<>());
+        List<Operator> inputs = new ArrayList<>();
+        List<List<ComparisonAtom>> noConditions = new ArrayList<>();
+        for (int i = 0; i < orderedAtoms.size(); i++) {
+            Operator input = buildFilteredScan(buildScan(dbc, orderedAtoms.get(i), selectLists.get(i), sharedScans), selectLists.get(i));
+            input.pruneColumns(scanVariables.get(i));
+            inputs.add(input);
+            noConditions.add(new ArrayList<>());
+        }
+        SemiJoinReducer reducer = new SemiJoinReducer(inputs, parents);
+        Map<RelationalAtom, Operator> reducedInputs = new IdentityHashMap<>();
+        for (int i = 0; i < orderedAtoms.size(); i++)
+            reducedInputs.put(orderedAtoms.get(i), reducer.getReducedInput(i));
+        return buildJoinTree(dbc, queryHead, orderedAtoms, noConditions, joinLists, joinMethods, reducedInputs::get, null, 0);
+    }
+
+    /**
+     * Build the plan of a subplan shared by several queries of a batch: the join tree of its atoms with its conditions,
+     * outputting all the variables of its atoms (without duplicate elimination, so the readers see the same tuples
+     * as their own join of these atoms would give).
+     * @param dbc the catalog of the database.
+     * @param atoms the relational atoms of the subplan (containing only variables).
+     * @param conditions the comparison atoms on the variables of the atoms.
+     * @param sharedScans the shared scan of each relation read together with other plans.
+     * @return the root of the join tree.
+     */
+    private static Operator buildSharedSubplan(DBCatalog dbc, List<RelationalAtom> atoms, List<ComparisonAtom> conditions,
+                                               Map<String, SharedScan> sharedScans) {
+        List<RelationalAtom> joinOrder = JoinOrderOptimizer.order(dbc, atoms, conditions);
+        List<List<ComparisonAtom>> selectLists = new ArrayList<>();
+        List<List<ComparisonAtom>> joinLists = new ArrayList<>();
+        List<JoinMethod> joinMethods = new ArrayList<>();
+        planJoins(dbc, joinOrder, conditions, selectLists, joinLists, joinMethods);
+        Map<RelationalAtom, List<ComparisonAtom>> atomConditions = new IdentityHashMap<>();
+        for (int i = 0; i < joinOrder.size(); i++)
+            atomConditions.put(joinOrder.get(i), selectLists.get(i));
+
+        List<Term> variables = new ArrayList<>();
+        Set<String> variableNames = new HashSet<>();
+        for (RelationalAtom atom : atoms)
+            for (Term term : atom.getTerms())
+                if (variableNames.add(((Variable) term).getName()))
+                    variables.add(term);
+        return buildJoinTree(dbc, new RelationalAtom("Subplan", variables), joinOrder, selectLists, joinLists, joinMethods,
+                atom -> buildScan(dbc, atom, atomConditions.get(atom), sharedScans), null, 0);
+    }
+
+    /**
+     * Split the body of a query into its relational atoms and its comparison atoms.
+     * The constants in the relational atoms are replaced by new variables, with a corresponding '=' condition each.
+     * @param query a {@link Query} instance, whose relational atoms are modified in place.
+     * @param relationalAtoms filled with the relational atoms of the body (containing only variables), in the order of the body.
+     * @param selectConditions filled with the comparison atoms of the body, and the new '=' conditions.
+     */
+    private static void splitBody(Query query, List<RelationalAtom> relationalAtoms, List<ComparisonAtom> selectConditions) {
+        // Get the list of appeared variable names
+        List<String> usedVariables = new ArrayList<>();
+        for (Atom atom : query.getBody()) {
+            // the variables in ComparisonAtom are permitted to appear in some RelationalAtom
+            // so no need to check the variables in ComparisonAtom
+            if (atom instanceof RelationalAtom) {
+                for (Term term : ((RelationalAtom) atom).getTerms()) {
+                    if (term instanceof Variable && !usedVariables.contains(((Variable) term).getName()))
+                        usedVariables.add(((Variable) term).getName());
+                }
+            }
+        }
+
+        // Split the body atoms into two groups: RelationalAtom and ComparisonAtom
+        // Replace the constants in RelationalAtom with new variable, and add a corresponding ComparisonAtom
+        for (Atom atom : query.getBody()) {
+            if (atom instanceof RelationalAtom) { // this branch handle relationalAtom
+                List<Term> termList = ((RelationalAtom) atom).getTerms();
+                String relationName = ((RelationalAtom) atom).getName();
+                for (int i = 0; i < termList.size(); i++) {
+                    Term originalTerm = termList.get(i);
+                    // if the RelationalAtom contains Constant, replace them by new Variable and corresponding ComparisonAtom
+                    if (originalTerm instanceof Constant) {
+                        String newVarName = generateNewVariableName(usedVariables);
+                        termList.set(i, new Variable(newVarName));
+                        selectConditions.add(new ComparisonAtom(
+                                new Variable(newVarName),
+                                originalTerm,
+                                ComparisonOperator.fromString("=")
+                        ));
+                    }
+                }
+                relationalAtoms.add(new RelationalAtom(relationName, termList));
+            } else { // this branch handles ComparisonAtom
+                selectConditions.add((ComparisonAtom)atom);
+            }
+        }
+    }
+
     /**
      * Generate a new variable name that has not been used in RelationalAtoms.
      * The new variable will be used to replace the Constant in some RelationalAtom.
@@ -209,6 +818,114 @@ public class Minibase {
 
 
 
+    /**
+     * Generate the scan operator of a relational atom, choosing between a full scan and an {@link IndexScanOperator}.
+     * For each select condition between a variable and a constant (other than '!='), the indexes on the column
+     * of the variable are looked up in {@link DBCatalog}. The rows matched by the condition are estimated by
+     * {@link JoinOrderOptimizer#estimateSizes(DBCatalog, List, List)}, and fetching each of them by its position is assumed to cost
+     * as much as reading {@link JoinOrderOptimizer#INDEX_FETCH_COST} rows in a full scan.
+     * The cheapest index scan is chosen if it is cheaper than reading the whole relation.
+     * @param dbc the catalog of the database.
+     * @param rAtom a relational atom in query body.
+     * @param selectConditions the select conditions of the atom.
+     * @param sharedScans the shared scan of each relation read together with other plans.
+     * @return an {@link IndexScanOperator}, or the full scan of {@link #buildScan(DBCatalog, RelationalAtom, Map)}.
+     */
+    private static Operator buildScan(DBCatalog dbc, RelationalAtom rAtom, List<ComparisonAtom> selectConditions,
+                                      Map<String, SharedScan> sharedScans) {
+        List<String> variables = new ArrayList<>();
+        for (Term term : rAtom.getTerms())
+            variables.add(term instanceof Variable ? ((Variable) term).getName() : null);
+
+        double bestCost = dbc.estimateRowCount(rAtom.getName());
+        ComparisonAtom bestCondition = null;
+        DBCatalog.IndexType bestType = null;
+        for (ComparisonAtom cAtom : selectConditions) {
+            SelectCondition condition = new SelectCondition(cAtom, variables);
+            int column = condition.getConstantColumn();
+            if (column < 0 || condition.getConstantOp().equals("!="))
+                continue;
+            for (DBCatalog.IndexType type : DBCatalog.IndexType.values()) {
+                IndexFile index = dbc.getIndex(rAtom.getName(), column, type);
+                if (index == null || !index.supports(condition.getConstantOp()))
+                    continue;
+                double matchedRows = JoinOrderOptimizer.estimateSizes(dbc, Collections.singletonList(rAtom), Collections.singletonList(cAtom))[0];
+                if (JoinOrderOptimizer.INDEX_FETCH_COST * matchedRows < bestCost) {
+                    bestCost = JoinOrderOptimizer.INDEX_FETCH_COST * matchedRows;
+                    bestCondition = cAtom;
+                    bestType = type;
+                }
+            }
+        }
+        if (bestCondition == null)
+            return buildScan(dbc, rAtom, sharedScans);
+        return new IndexScanOperator(dbc, rAtom, bestCondition, bestType);
+    }
+
+    /**
+     * Generate the full scan operator of a relational atom, according to the settings of the relation in {@link DBCatalog}.
+     * @param dbc the catalog of the database.
+     * @param rAtom a relational atom in query body.
+     * @param sharedScans the shared scan of each relation read together with other plans.
+     * @return a {@link SharedScanOperator} if the relation has a shared scan, a {@link CachedScanOperator} if the relation cache is enabled,
+     *         otherwise a {@link ColumnarScanOperator} if the relation is stored as a columnar file, a {@link ScanOperator} otherwise.
+     */
+    private static Operator buildScan(DBCatalog dbc, RelationalAtom rAtom, Map<String, SharedScan> sharedScans) {
+        if (sharedScans.containsKey(rAtom.getName()))
+            return new SharedScanOperator(rAtom, sharedScans.get(rAtom.getName()));
+        if (dbc.isRelationCacheEnabled())
+            return new CachedScanOperator(dbc, rAtom);
+        if (dbc.getStorageFormat(rAtom.getName()) == DBCatalog.StorageFormat.COLUMNAR)
+            return new ColumnarScanOperator(dbc, rAtom);
+        return new ScanOperator(dbc, rAtom);
+    }
+
+    /**
+     * Apply the select conditions of an atom to its scan operator.
+     * The conditions are pushed down into the scan if it can filter the rows while reading them
+     * (see {@link Operator#pushDownConditions(List)}), otherwise a {@link SelectOperator} is generated above the scan.
+     * @param scan the scan operator of an atom.
+     * @param selectConditions the select conditions of the atom.
+     * @return the scan itself, or a {@link SelectOperator} above it.
+     */
+    private static Operator buildFilteredScan(Operator scan, List<ComparisonAtom> selectConditions) {
+        if (selectConditions.isEmpty() || scan.pushDownConditions(selectConditions))
+            return scan;
+        return new SelectOperator(scan, selectConditions);
+    }
+
+    /**
+     * Check whether two subtrees can be joined on at least one pair of equal columns,
+     * either by a variable appeared in both subtrees, or by a '=' join condition between them.
+     * @param joinConditions the ComparisonAtoms to be applied as join conditions.
+     * @param leftVariables the variables appeared on the left subtree.
+     * @param rightVariables the variables appeared on the right subtree.
+     * @return {@code true} if an equi-join is applicable, {@code false} otherwise.
+     */
+    private static boolean hasEquiJoinColumn(List<ComparisonAtom> joinConditions, List<String> leftVariables, List<String> rightVariables) {
+        for (String var : rightVariables)
+            if (var != null && leftVariables.contains(var))
+                return true;
+        for (ComparisonAtom cAtom : joinConditions)
+            if (cAtom.getOp() == ComparisonOperator.EQ)
+                return true;
+        return false;
+    }
+
+    /**
+     * Compute the number of tuples that each sort operator of a {@link SortMergeJoinOperator} may hold in memory,
+     * the memory limit is shared by the sort operators on both sides.
+     * @param dbc the catalog of the database.
+     * @param left the left child of the join.
+     * @param right the right child of the join.
+     * @return the size of sorted runs, at least 1.
+     */
+    private static int sortRunSize(DBCatalog dbc, Operator left, Operator right) {
+        int columns = Math.max(left.getVariableMask().size(), right.getVariableMask().size());
+        long tuples = dbc.getMemoryLimit() / 2 / Tuple.estimateSize(columns);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, tuples));
+    }
+
     /**
      * Example method for getting started with the parser.
      * Reads CQ from a file and prints it to screen, then extracts Head and Body
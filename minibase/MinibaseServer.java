@@ -0,0 +1,280 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.base.Query;
+import ed.inf.adbs.minibase.operator.DBCatalog;
+import ed.inf.adbs.minibase.parser.QueryParser;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A long-running server evaluating the queries on databases, so the JVM startup, the parsing of the schema
+ * and the warm-up of the code are paid once instead of once per query: the catalog of a database is created once
+ * and shared by all the connections using it, the relation cache keeps the relations read by the previous queries
+ * in memory (see {@link DBCatalog#enableRelationCache(long)}), and the generated pipelines are compiled once
+ * (see {@link ed.inf.adbs.minibase.operator.PipelineCompiler}).
+ *
+ * The server listens on a TCP port of the loopback interface. A client sends requests, one per line:
+ *      QUERY query: evaluate the query given on the line, e.g. 'QUERY Q(x) :- R(x, y, z), y > 3';
+ *      FILE input_file [output_file]: evaluate the query in a file, and write the answers to the output file
+ *          (in the same format as {@link Minibase}) if one is given;
+ *      USE database_dir: evaluate the next queries of the connection on another database
+ *          (whose catalog is created on first use, with the same options);
+ *      SHUTDOWN: stop the server.
+ * The answers which are not written to a file are streamed back while the query is running, one tuple per line,
+ * and each response ends with a line 'OK number_of_tuples', or 'ERROR message' if the query fails.
+ * Each connection is served by its own thread (a virtual thread if the JVM supports them), so idle connections
+ * do not hold back the others, and the queries are evaluated by a {@link QueryExecutor},
+ * so the queries of different connections run concurrently, within a memory budget and an optional timeout;
+ * e.g. {@code echo "QUERY Q(x) :- R(x, y, z)" | nc localhost 5433}.
+ */
+public class MinibaseServer {
+
+    private static final int DEFAULT_PORT = 5433;
+
+    private static final Map<String, DBCatalog> catalogs = new ConcurrentHashMap<>();
+    // <database directory : catalog shared by the connections using the database>
+    private static final List<String> catalogOptions = new ArrayList<>();
+    // the options given on the command line, applied to the catalog of each database
+
+    private static QueryExecutor executor;
+    private static long queryTimeout = 0;
+    // evaluates the queries of all the connections, each cancelled after queryTimeout milliseconds (0 for no timeout)
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.err.println("Usage: MinibaseServer database_dir [--port=port] [--timeout=milliseconds] [--memory-budget=bytes] [--memory-limit=bytes] [--cache=bytes] [--parallelism=threads] [--codegen] [--semi-join=auto|on|off]");
+            return;
+        }
+
+        DBCatalog dbc = createCatalog(args[0]);
+        int port = DEFAULT_PORT;
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--port=")) {
+                port = Integer.parseInt(args[i].substring("--port=".length()));
+            } else if (args[i].startsWith("--timeout=")) {
+                queryTimeout = Long.parseLong(args[i].substring("--timeout=".length()));
+            } else if (args[i].startsWith("--memory-budget=")) {
+                memoryBudget = Long.parseLong(args[i].substring("--memory-budget=".length()));
+            } else if (Minibase.applyOption(dbc, args[i])) {
+                catalogOptions.add(args[i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+        catalogs.put(args[0], dbc);
+        executor = new QueryExecutor(memoryBudget);
+
+        ExecutorService connections = newConnectionThreads();
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("Serving " + args[0] + " on port " + serverSocket.getLocalPort());
+            while (true) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+                    break; // the server socket is closed by a SHUTDOWN request
+                }
+                connections.execute(() -> serve(socket, serverSocket, dbc));
+            }
+        } finally {
+            connections.shutdownNow();
+            executor.close();
+        }
+    }
+
+    /**
+     * Create the threads serving the connections, one per connection whatever the number of processors:
+     * a connection holds its thread while it waits for the next request of the client.
+     * These are virtual threads if the JVM supports them, or daemon platform threads created on demand
+     * (and reused once their connection is closed) otherwise.
+     */
+    private static ExecutorService newConnectionThreads() {
+        ExecutorService virtualThreads = QueryExecutor.newVirtualThreadPerTaskExecutor();
+        if (virtualThreads != null)
+            return virtualThreads;
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "minibase-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param databaseDir the database directory.
+     * @return a new catalog of the database, with the relation cache enabled.
+     */
+    private static DBCatalog createCatalog(String databaseDir) {
+        DBCatalog dbc = new DBCatalog(databaseDir);
+        // the relations stay in memory between the queries, unless another capacity is given by '--cache='
+        dbc.enableRelationCache(Runtime.getRuntime().maxMemory() / 4);
+        return dbc;
+    }
+
+    /**
+     * Return the catalog of a database, created with the options of the server on the first call.
+     * @param databaseDir the database directory.
+     * @return the catalog shared by the connections using the database.
+     */
+    private static DBCatalog catalogOf(String databaseDir) {
+        return catalogs.computeIfAbsent(databaseDir, directory -> {
+            DBCatalog dbc = createCatalog(directory);
+            for (String option : catalogOptions)
+                Minibase.applyOption(dbc, option);
+            return dbc;
+        });
+    }
+
+    /**
+     * Serve the requests of a connection until the client closes it.
+     * @param socket the connection.
+     * @param serverSocket the listening socket, closed by a SHUTDOWN request.
+     * @param dbc the catalog of the database queried by the connection, until a USE request.
+     */
+    private static void serve(Socket socket, ServerSocket serverSocket, DBCatalog dbc) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8)))) {
+            String request = reader.readLine();
+            while (request != null) {
+                request = request.trim();
+                if (request.equals("SHUTDOWN")) {
+                    writer.println("OK 0");
+                    writer.flush();
+                    serverSocket.close();
+                    return;
+                }
+                if (request.startsWith("USE ")) {
+                    String databaseDir = request.substring("USE ".length()).trim();
+                    if (new File(databaseDir, "schema.txt").isFile()) {
+                        dbc = catalogOf(databaseDir);
+                        writer.println("OK 0");
+                    } else {
+                        writer.println("ERROR No schema.txt in " + databaseDir);
+                    }
+                    writer.flush();
+                } else if (!request.isEmpty()) {
+                    respond(dbc, request, writer);
+                }
+                request = reader.readLine();
+            }
+        } catch (IOException e) {
+            System.err.println("Exception occurred during serving of connection " + socket.getRemoteSocketAddress());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Evaluate the query of a request, and write the response.
+     * @param dbc the catalog of the database.
+     * @param request a 'QUERY' or 'FILE' request.
+     * @param writer the writer of the connection.
+     */
+    private static void respond(DBCatalog dbc, String request, PrintWriter writer) {
+        // the query writes its rows through a writer detached once the response ends,
+        // so the rows still produced by a query being cancelled do not follow the response
+        DetachableWriter rows = new DetachableWriter(writer);
+        try {
+            String[] parts = request.split("\\s+", 2);
+            QueryExecutor.QueryExecution execution;
+            if (parts[0].equals("QUERY") && parts.length == 2) {
+                execution = executor.submit(dbc, QueryParser.parse(parts[1]), new PrintWriter(rows), queryTimeout, TimeUnit.MILLISECONDS);
+            } else if (parts[0].equals("FILE") && parts.length == 2) {
+                String[] files = parts[1].split("\\s+");
+                Query query = QueryParser.parse(Paths.get(files[0]));
+                execution = files.length > 1
+                        ? executor.submit(dbc, query, files[1], queryTimeout, TimeUnit.MILLISECONDS)
+                        : executor.submit(dbc, query, new PrintWriter(rows), queryTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                writer.println("ERROR Unknown request: " + request);
+                writer.flush();
+                return;
+            }
+            try {
+                long count = execution.get();
+                rows.detach();
+                writer.println("OK " + count);
+            } catch (CancellationException e) {
+                rows.detach();
+                writer.println(execution.isTimedOut() ? "ERROR Query timed out after " + queryTimeout + " ms" : "ERROR Query cancelled");
+            } catch (ExecutionException e) {
+                rows.detach();
+                writer.println("ERROR " + e.getCause());
+            }
+        } catch (Exception e) {
+            rows.detach();
+            writer.println("ERROR " + e);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Forwards the rows of a query to the writer of its connection, until it is detached.
+     */
+    private static class DetachableWriter extends Writer {
+        private final Writer out;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private boolean detached = false;
+
+        private DetachableWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            this.writeLock.lock();
+            try {
+                if (!this.detached)
+                    this.out.write(buffer, offset, length);
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.writeLock.lock();
+            try {
+                if (!this.detached)
+                    this.out.flush();
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        /**
+         * Detach the writer, the connection itself is left open.
+         */
+        @Override
+        public void close() {
+            this.detach();
+        }
+
+        private void detach() {
+            this.writeLock.lock();
+            try {
+                this.detached = true;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.operator.DBCatalog;
+import ed.inf.adbs.minibase.operator.Operator;
+import ed.inf.adbs.minibase.operator.Tuple;
+
+import java.io.PrintWriter;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Evaluate many queries concurrently in one JVM, each query on its own thread.
+ * On a JVM supporting virtual threads (Java 21 or later), each submitted query runs on a new virtual thread,
+ * so hundreds of small lookups interleave with a few heavy queries without an OS thread per query;
+ * on older JVMs the queries share a bounded pool of platform threads instead.
+ * The locks of the catalog, the operators and the server, which a query thread may hold while it is blocked
+ * (on a file read, a socket write, or a shared result being evaluated), are {@link ReentrantLock}s rather than monitors,
+ * so a blocked virtual thread does not pin its carrier thread.
+ *
+ * Each query can be cancelled through its {@link QueryExecution}, or is cancelled when its timeout expires:
+ * the thread running it is interrupted, and the scans of its plan stop at their next batch.
+ * The queries also share a global memory budget: before a query starts, it reserves an estimate of the heap its plan
+ * may hold (see {@link #estimateMemory(DBCatalog, Query)}), and waits while the reservations of the running queries
+ * leave too little of the budget. A query whose estimate exceeds the whole budget runs once no other query holds a reservation.
+ */
+public class QueryExecutor implements AutoCloseable {
+
+    private final ExecutorService queryThreads;
+    private final ScheduledExecutorService timer;
+    // runs the queries, and cancels those whose timeout expires
+
+    private final long memoryBudget;
+    private long reservedMemory = 0;
+    private final ReentrantLock budgetLock = new ReentrantLock();
+    private final Condition budgetReleased = this.budgetLock.newCondition();
+    // the heap (in bytes) shared by the running queries, and the sum of their reservations
+
+    /**
+     * @param memoryBudget the estimated heap (in bytes) that the running queries may hold together.
+     */
+    public QueryExecutor(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.queryThreads = newQueryThreads();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "minibase-query-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A query submitted to the executor. Its result is the number of tuples written;
+     * {@link #get()} throws a {@link CancellationException} if the query is cancelled or times out.
+     */
+    public static class QueryExecution implements Future<Long> {
+        private volatile Future<Long> future;
+        private volatile ScheduledFuture<?> timeout = null;
+        private volatile boolean timedOut = false;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return this.future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.future.isDone();
+        }
+
+        @Override
+        public Long get() throws InterruptedException, ExecutionException {
+            return this.future.get();
+        }
+
+        @Override
+        public Long get(long time, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return this.future.get(time, unit);
+        }
+
+        /**
+         * @return {@code true} if the query has been cancelled because its timeout expired.
+         */
+        public boolean isTimedOut() {
+            return this.timedOut;
+        }
+    }
+
+    /**
+     * Submit a query without timeout.
+     * @param dbc the catalog of the database to query.
+     * @param query the query.
+     * @param writer the writer to print the answers to, one tuple per line (see {@link Operator#stream(PrintWriter)}).
+     * @return the execution of the query.
+     */
+    public QueryExecution submit(DBCatalog dbc, Query query, PrintWriter writer) {
+        return this.submit(dbc, query, writer, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submit a query, which is cancelled if it does not complete within the timeout
+     * (the time spent waiting for the memory budget included).
+     * @param dbc the catalog of the database to query.
+     * @param query the query.
+     * @param writer the writer to print the answers to, one tuple per line (see {@link Operator#stream(PrintWriter)}).
+     * @param timeout the maximum time of the query, 0 for no timeout.
+     * @param unit the unit of the timeout.
+     * @return the execution of the query.
+     */
+    public QueryExecution submit(DBCatalog dbc, Query query, PrintWriter writer, long timeout, TimeUnit unit) {
+        return this.submit(() -> estimateMemory(dbc, query), () -> Minibase.buildQueryPlan(dbc, query),
+                queryPlan -> queryPlan.stream(writer), timeout, unit);
+    }
+
+    /**
+     * Submit a query writing its answers to a file, which is cancelled if it does not complete within the timeout.
+     * @param dbc the catalog of the database to query.
+     * @param query the query.
+     * @param outputFile the path to the output file, written in the same format as {@link Minibase} (see {@link Operator#dump(String)}).
+     * @param timeout the maximum time of the query, 0 for no timeout.
+     * @param unit the unit of the timeout.
+     * @return the execution of the query.
+     */
+    public QueryExecution submit(DBCatalog dbc, Query query, String outputFile, long timeout, TimeUnit unit) {
+        return this.submit(() -> estimateMemory(dbc, query), () -> Minibase.buildQueryPlan(dbc, query),
+                queryPlan -> queryPlan.dump(outputFile), timeout, unit);
+    }
+
+    /**
+     * Submit a query whose plan has already been built, e.g. a plan reading shared scans which must all be opened
+     * before any of the plans starts (see {@link Minibase#evaluateBatch}).
+     * @param queryPlan the root of the query plan.
+     * @param memoryEstimate the estimated heap the plan may hold, computed by {@link #estimateMemory(DBCatalog, Query)}
+     *                       before the query is planned.
+     * @param outputFile the path to the output file, written in the same format as {@link Minibase} (see {@link Operator#dump(String)}).
+     * @param timeout the maximum time of the query, 0 for no timeout.
+     * @param unit the unit of the timeout.
+     * @return the execution of the query.
+     */
+    public QueryExecution submit(Operator queryPlan, long memoryEstimate, String outputFile, long timeout, TimeUnit unit) {
+        return this.submit(() -> memoryEstimate, () -> queryPlan, plan -> plan.dump(outputFile), timeout, unit);
+    }
+
+    private QueryExecution submit(LongSupplier memoryEstimate, Supplier<Operator> planner, ToLongFunction<Operator> output,
+                                  long timeout, TimeUnit unit) {
+        QueryExecution execution = new QueryExecution();
+        execution.future = this.queryThreads.submit(() -> {
+            long reservation = Math.min(memoryEstimate.getAsLong(), this.memoryBudget);
+            this.reserve(reservation);
+            try {
+                Operator queryPlan = planner.get();
+                return queryPlan == null ? 0L : output.applyAsLong(queryPlan);
+            } finally {
+                this.release(reservation);
+                if (execution.timeout != null)
+                    execution.timeout.cancel(false);
+            }
+        });
+        if (timeout > 0) {
+            execution.timeout = this.timer.schedule(() -> {
+                // set before cancelling, so a caller woken by the cancellation sees it
+                execution.timedOut = true;
+                if (!execution.cancel(true))
+                    execution.timedOut = false;
+            }, timeout, unit);
+        }
+        return execution;
+    }
+
+    /**
+     * Estimate the heap a query may hold: for each relational atom of the body, the tuples of its relation
+     * left by the '=' conditions between its variables and constants (estimated with the distinct counts in the catalog),
+     * bounded by the memory limit of one operator, since larger inputs are sorted or partitioned on disk.
+     * This is an upper bound of the hash tables and materialized inputs of the plan, whatever the join order.
+     * @param dbc the catalog of the database.
+     * @param query the query, before it is planned.
+     * @return the estimated size in bytes.
+     */
+    public static long estimateMemory(DBCatalog dbc, Query query) {
+        long total = 0;
+        for (Atom atom : query.getBody()) {
+            if (!(atom instanceof RelationalAtom))
+                continue;
+            RelationalAtom rAtom = (RelationalAtom) atom;
+            double rows = dbc.estimateRowCount(rAtom.getName());
+            for (int c = 0; c < rAtom.getTerms().size(); c++)
+                if (rAtom.getTerms().get(c) instanceof Constant || isEqualToConstant(rAtom.getTerms().get(c), query))
+                    rows /= Math.max(1, dbc.estimateDistinctCount(rAtom.getName(), c));
+            double size = Math.ceil(rows) * Tuple.estimateSize(rAtom.getTerms().size());
+            total += (long) Math.min(size, dbc.getMemoryLimit());
+        }
+        return total;
+    }
+
+    /**
+     * @return {@code true} if the term is a variable compared by '=' with a constant in the body of the query.
+     */
+    private static boolean isEqualToConstant(Term term, Query query) {
+        if (!(term instanceof Variable))
+            return false;
+        String name = ((Variable) term).getName();
+        for (Atom atom : query.getBody()) {
+            if (!(atom instanceof ComparisonAtom) || ((ComparisonAtom) atom).getOp() != ComparisonOperator.EQ)
+                continue;
+            ComparisonAtom cAtom = (ComparisonAtom) atom;
+            if ((isVariable(cAtom.getTerm1(), name) && cAtom.getTerm2() instanceof Constant)
+                    || (isVariable(cAtom.getTerm2(), name) && cAtom.getTerm1() instanceof Constant))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isVariable(Term term, String name) {
+        return term instanceof Variable && ((Variable) term).getName().equals(name);
+    }
+
+    /**
+     * Wait until the memory budget has room for a reservation, then take it.
+     * A reservation is always granted when no other query holds one, so a query larger than the budget still runs alone.
+     * @param bytes the size of the reservation.
+     * @throws InterruptedException if the query is cancelled while waiting.
+     */
+    private void reserve(long bytes) throws InterruptedException {
+        this.budgetLock.lockInterruptibly();
+        try {
+            while (this.reservedMemory > 0 && this.reservedMemory + bytes > this.memoryBudget)
+                this.budgetReleased.await();
+            this.reservedMemory += bytes;
+        } finally {
+            this.budgetLock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        this.budgetLock.lock();
+        try {
+            this.reservedMemory -= bytes;
+            this.budgetReleased.signalAll();
+        } finally {
+            this.budgetLock.unlock();
+        }
+    }
+
+    /**
+     * @return the sum of the reservations of the running queries, in bytes.
+     */
+    public long getReservedMemory() {
+        this.budgetLock.lock();
+        try {
+            return this.reservedMemory;
+        } finally {
+            this.budgetLock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting queries, and cancel the running ones.
+     */
+    @Override
+    public void close() {
+        this.queryThreads.shutdownNow();
+        this.timer.shutdownNow();
+    }
+
+    /**
+     * Create the threads running the queries: a virtual thread per query if the JVM supports them
+     * (looked up by reflection, as the code is compiled for older versions too),
+     * or a pool of twice as many daemon platform threads as processors otherwise.
+     */
+    private static ExecutorService newQueryThreads() {
+        ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+        if (virtualThreads != null)
+            return virtualThreads;
+        return Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "minibase-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return an executor starting a new virtual thread for each task,
+     *         or {@code null} if the JVM does not support virtual threads (before Java 21).
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
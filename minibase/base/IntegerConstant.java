@@ -25,4 +25,9 @@ public class IntegerConstant extends Constant {
         IntegerConstant integerConstant = (IntegerConstant) obj;
         return Objects.equals(value, integerConstant.value);
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
 }
@@ -1,5 +1,7 @@
 package ed.inf.adbs.minibase.base;
 
+import java.util.Objects;
+
 public class StringConstant extends Constant {
     private String value;
 
@@ -15,4 +17,17 @@ public class StringConstant extends Constant {
     public String toString() {
         return "'" + value + "'";
     }
+
+    @Override
+    public boolean equals(Object obj){
+        if(this == obj) return true;
+        if(obj == null || getClass()!=obj.getClass()) return false;
+        StringConstant stringConstant = (StringConstant) obj;
+        return Objects.equals(value, stringConstant.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
 }
\ No newline at end of file
@@ -3,17 +3,16 @@ package ed.inf.adbs.minibase.operator;
 import ed.inf.adbs.minibase.base.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
  * This class implements a project operation with an AVG or SUM term at the end of the query head term list.
  * The main logic of processing the project is similar as {@link ProjectOperator}.
- * The implementation of sum accumulation and tuple counts are processed by {@link AggBuffer}.
+ * The groups, their sum accumulation and tuple counts are kept in an {@link AggregationHashTable}.
  *
  * The main logic of aggregation is implemented in this class.
- * {@link SumOperator} only needs to override the {@link #getNextTuple()},
- * calling {@link AggBuffer#getSumTuple()} depends on use case.
+ * {@link SumOperator} only needs to override the {@link #getNextTuple()} and {@link #getNextBatch()},
+ * reading the accumulated values from the table depends on use case.
  */
 abstract public class AggregateOperator extends Operator {
     protected Operator child;
@@ -25,15 +24,11 @@ abstract public class AggregateOperator extends Operator {
     // a mapping from columns after projection to columns before projection,
     // indicates where to find the projection column in child tuple
 
-    protected List<AggBuffer> outputBuffer = new ArrayList<>();
-    // Store the AggBuffer instances, each of which represent an output tuple of this operator,
-    // the accumulation of aggregation term will be processed within the AggBuffer
+    protected int[] groupIndices;
+    // the child columns of the non-aggregation terms, i.e. projectIndices without the aggregation column
 
-    protected HashMap<String, Integer> tuple2BufferIndex = new HashMap<>();
-    // map a tuple in string format to its index in outputBuffer.
-    // used to check whether a tuple without aggregation term has been observed,
-    // if it has been observed, the aggregation term will be accumulated to existing record in outputBuffer
-    // otherwise a new record in outputBuffer will be inserted into outputBuffer
+    protected AggregationHashTable groups = null;
+    // the groups of child rows and their accumulated values, built once by aggregate()
 
     /**
      * Initialise the operator. Process the last aggregation term and other normal terms separately.
@@ -59,67 +54,82 @@ abstract public class AggregateOperator extends Operator {
         int idx = childVariableMask.indexOf(aggVar);
         this.projectIndices.add(idx);
         this.variableMask.add(avgTerm.toString()); // this.variableMask will record the variable positions after projection
+        this.groupIndices = new int[this.aggIndex];
+        for (int i = 0; i < this.aggIndex; i++)
+            this.groupIndices[i] = this.projectIndices.get(i);
 
 //        System.out.println(childVariableMask + "- -> " + this.variableMask + "(" + this.projectIndices + ")");
     }
 
     /**
-     * Reset child operator, buffer states and the map to buffer.
+     * Reset child operator and drop the aggregation table, it will be built again on the next read.
      */
     @Override
     public void reset() {
+        this.resetBatchAdapter();
         this.child.reset();
-        this.tuple2BufferIndex = new HashMap<>();
-        this.outputBuffer = new ArrayList<>();
+        this.groups = null;
+    }
+
+    /**
+     * Do the aggregation (if not done yet) and expose the table of groups,
+     * so the tables built by parallel workers over parts of the input can be merged (see {@link ParallelOperator}).
+     * @return the aggregation table over all the child rows.
+     */
+    public AggregationHashTable aggregateGroups() {
+        this.aggregate();
+        return this.groups;
+    }
+
+    /**
+     * Replace the aggregation table by a table built elsewhere, the operator will output its groups without reading the child.
+     * @param groups an aggregation table with the group columns of this operator.
+     */
+    public void setGroups(AggregationHashTable groups) {
+        this.groups = groups;
     }
 
     /**
      * The child class needs to override this method and do following things:
-     * First call {@link #aggregate()} to iterate over all child operator tuples and do aggregation.
-     * After the blocking operation travel through all the child output tuples,
-     * each call of this method will remove and return the first output tuple from the buffer.
-     * Notice: the aggregation operation and output tuple construction is implemented in {@link AggBuffer}.
+     * First call {@link #aggregate()} to iterate over all child operator batches and do aggregation.
+     * After the blocking operation travel through all the child output rows,
+     * each call of this method will return the next output tuple, iterating over the groups in the table.
      * @return a tuple after projection and aggregation.
      */
     @Override
     abstract public Tuple getNextTuple();
 
     /**
-     * Iterate over all the output tuples from child operator, do aggregation operation over them.
-     * For each child operator tuple:
-     *      (1) extract the term list and remove the aggregation term.
-     *      (2) The rest of term list will be converted to a string as a key in {@code tuple2BufferIndex}.
-     *      (3) Check key duplication to see if it needs a GROUP operation:
-     *          If a tuple without aggregation term has already been recorded, a GROUP operation is required,
-     *          and the new tuple will be merged into the existing record, i.e. the new aggregation term will be
-     *          accumulated on the existing record.
-     *          Otherwise, a new buffer record will be created for the new tuple.
+     * Iterate over all the output batches from child operator, do aggregation operation over their active rows.
+     * For each child operator row, the values of the projection columns except the aggregation term form the group key,
+     * and the aggregation term is accumulated on the group of that key in {@code this.groups}
+     * (a new group is created if the key has not been observed).
+     * The aggregation is done once, the later calls have no effect until the operator is reset.
      */
     protected void aggregate() {
-        Tuple childOutput = this.child.getNextTuple();
-        while (childOutput != null) {
-            // extract the term list and remove the aggregation term
-            List<Term> termList = new ArrayList<>();
-            for (int pi : this.projectIndices) {
-                termList.add(childOutput.getTerms().get(pi));
-            }
-            Tuple newTuple = new Tuple(this.projectionName, termList);
-            IntegerConstant aggTerm = (IntegerConstant) newTuple.getTerms().remove(this.aggIndex);
+        if (this.groups != null)
+            return;
+        int aggColumn = this.projectIndices.get(this.aggIndex);
+        TupleBatch childBatch = this.child.getNextBatch();
+        if (childBatch == null) {
+            this.groups = new AggregationHashTable(new boolean[this.aggIndex]);
+            return;
+        }
+        boolean[] groupColumnTypes = new boolean[this.aggIndex];
+        StringDictionary[] groupDictionaries = new StringDictionary[this.aggIndex];
+        for (int i = 0; i < this.aggIndex; i++) {
+            groupColumnTypes[i] = childBatch.isIntColumn(this.groupIndices[i]);
+            groupDictionaries[i] = childBatch.getDictionary(this.groupIndices[i]);
+        }
+        this.groups = new AggregationHashTable(groupColumnTypes, groupDictionaries);
 
-            // convert the term list (without aggregation term) into string, acting as a key for hashmap
-            String bufferKey = newTuple.getTerms().toString();
-            if (this.tuple2BufferIndex.containsKey(bufferKey)) {
-                // GROUP operation, accumulate the aggregation term
-                int bufferIndex = this.tuple2BufferIndex.get(bufferKey);
-                this.outputBuffer.get(bufferIndex).addSum(aggTerm.getValue());
-            } else {
-                // new tuple, create a new buffer record for it
-                AggBuffer aggBuffer = new AggBuffer(newTuple.getTerms(), this.aggIndex, this.aggVariable);
-                aggBuffer.addSum(aggTerm.getValue());
-                this.outputBuffer.add(aggBuffer);
-                this.tuple2BufferIndex.put(bufferKey, this.outputBuffer.size()-1);
+        while (childBatch != null) {
+            int[] aggValues = childBatch.getIntColumn(aggColumn);
+            for (int i = 0; i < childBatch.getSelectedCount(); i++) {
+                int row = childBatch.getSelected(i);
+                this.groups.add(childBatch, row, this.groupIndices, aggValues[row]);
             }
-            childOutput = this.child.getNextTuple();
+            childBatch = this.child.getNextBatch();
         }
     }
 }
@@ -0,0 +1,226 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A hash table of aggregation groups, used by {@link AggregateOperator}.
+ * Each group is identified by the values of its group columns, and accumulates a {@code long} sum and a row count.
+ *      (1) The group keys are primitive: an int column keeps its values, a string column is encoded by a dictionary
+ *          (each distinct string gets a code), so a key is a fixed number of ints stored in the flat array {@code keys}.
+ *      (2) The table holds group ids with open addressing (linear probing), and is resized at half load.
+ *      (3) The groups are numbered in the order they first appear, {@link #getGroupCount()} and the getters
+ *          of a group id serve as the iterator over the result.
+ * Adding a row only allocates when it creates a new group (or a new dictionary entry).
+ */
+public class AggregationHashTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final boolean[] isIntColumn;
+    private final StringDictionary[] columnDictionaries;
+    private final int keyWidth;
+    private final List<HashMap<String, Integer>> dictionaries = new ArrayList<>();
+    private final List<List<String>> dictionaryValues = new ArrayList<>();
+    // the code of each string and the string of each code, for each group column (null for int columns)
+
+    private int[] keys;
+    private int[] hashes;
+    private long[] sums;
+    private long[] counts;
+    // the encoded key, hash, sum and row count of each group, indexed by group id
+
+    private int[] table;
+    // the group id in each slot, -1 for an empty slot
+    private int groupCount = 0;
+    private final int[] probeKey;
+    // the encoded key of the row being added, reused for each row
+
+    /**
+     * Create an empty table.
+     * @param isIntColumn the type of each group column, {@code true} for int columns and {@code false} for string columns.
+     */
+    public AggregationHashTable(boolean[] isIntColumn) {
+        this(isIntColumn, new StringDictionary[isIntColumn.length]);
+    }
+
+    /**
+     * Create an empty table, whose group columns may be encoded string columns (grouped on their codes).
+     * @param isIntColumn the storage type of each group column, {@code true} for int columns and encoded string columns.
+     * @param columnDictionaries the dictionary of each encoded group column, {@code null} for the other columns.
+     */
+    public AggregationHashTable(boolean[] isIntColumn, StringDictionary[] columnDictionaries) {
+        this.isIntColumn = isIntColumn;
+        this.columnDictionaries = columnDictionaries;
+        this.keyWidth = isIntColumn.length;
+        for (boolean isInt : isIntColumn) {
+            this.dictionaries.add(isInt ? null : new HashMap<>());
+            this.dictionaryValues.add(isInt ? null : new ArrayList<>());
+        }
+        this.keys = new int[INITIAL_CAPACITY * this.keyWidth];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.sums = new long[INITIAL_CAPACITY];
+        this.counts = new long[INITIAL_CAPACITY];
+        this.table = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(this.table, -1);
+        this.probeKey = new int[this.keyWidth];
+    }
+
+    /**
+     * Add a value to the group of a row, the group is created if it does not exist.
+     * @param batch the batch containing the row.
+     * @param row the physical row index.
+     * @param groupColumns the columns of the batch that form the group key, matching the column types of this table.
+     * @param value the value to be accumulated.
+     */
+    public void add(TupleBatch batch, int row, int[] groupColumns, long value) {
+        for (int c = 0; c < this.keyWidth; c++) {
+            int column = groupColumns[c];
+            this.probeKey[c] = this.isIntColumn[c] ? batch.getIntColumn(column)[row] : this.encode(c, batch.getStringColumn(column)[row]);
+        }
+        int group = this.findOrCreateGroup();
+        this.sums[group] += value;
+        this.counts[group]++;
+    }
+
+    /**
+     * Add the groups of another table (with the same column types) into this table,
+     * the sums and counts of the groups with equal keys are added up.
+     * Used to merge the tables pre-aggregated by parallel workers (see {@link ParallelOperator}).
+     * @param other the table to be merged.
+     */
+    public void merge(AggregationHashTable other) {
+        for (int otherGroup = 0; otherGroup < other.groupCount; otherGroup++) {
+            for (int c = 0; c < this.keyWidth; c++)
+                this.probeKey[c] = this.isIntColumn[c] ? other.getIntKey(otherGroup, c) : this.encode(c, other.getStringKey(otherGroup, c));
+            int group = this.findOrCreateGroup();
+            this.sums[group] += other.sums[otherGroup];
+            this.counts[group] += other.counts[otherGroup];
+        }
+    }
+
+    public int getGroupCount() {
+        return this.groupCount;
+    }
+
+    public boolean isIntColumn(int column) {
+        return this.isIntColumn[column];
+    }
+
+    /**
+     * @return the dictionary of an encoded group column, {@code null} for the other columns.
+     */
+    public StringDictionary getDictionary(int column) {
+        return this.columnDictionaries[column];
+    }
+
+    /**
+     * @param group a group id, in range [0, {@link #getGroupCount()}).
+     * @param column a group column of int type.
+     * @return the value of that column in the group key.
+     */
+    public int getIntKey(int group, int column) {
+        return this.keys[group * this.keyWidth + column];
+    }
+
+    /**
+     * @param group a group id, in range [0, {@link #getGroupCount()}).
+     * @param column a group column of string type.
+     * @return the value of that column in the group key, decoded by the dictionary.
+     */
+    public String getStringKey(int group, int column) {
+        return this.dictionaryValues.get(column).get(this.keys[group * this.keyWidth + column]);
+    }
+
+    public long getSum(int group) {
+        return this.sums[group];
+    }
+
+    public long getCount(int group) {
+        return this.counts[group];
+    }
+
+    /**
+     * Find the group of the key in {@code probeKey}, a new group with zero sum and count is created if it does not exist.
+     * @return the group id.
+     */
+    private int findOrCreateGroup() {
+        int hash = 0;
+        for (int c = 0; c < this.keyWidth; c++)
+            hash = hash * 31 + mix(this.probeKey[c]);
+        hash = mix(hash);
+
+        int mask = this.table.length - 1;
+        int slot = hash & mask;
+        while (this.table[slot] >= 0) {
+            int group = this.table[slot];
+            if (this.hashes[group] == hash && this.keyEquals(group))
+                return group;
+            slot = (slot + 1) & mask;
+        }
+
+        if (this.groupCount == this.hashes.length)
+            this.growGroups();
+        int group = this.groupCount++;
+        System.arraycopy(this.probeKey, 0, this.keys, group * this.keyWidth, this.keyWidth);
+        this.hashes[group] = hash;
+        this.sums[group] = 0;
+        this.counts[group] = 0;
+        this.table[slot] = group;
+        if (this.groupCount * 2 > this.table.length)
+            this.growTable();
+        return group;
+    }
+
+    private int encode(int column, String value) {
+        Integer code = this.dictionaries.get(column).get(value);
+        if (code == null) {
+            code = this.dictionaryValues.get(column).size();
+            this.dictionaries.get(column).put(value, code);
+            this.dictionaryValues.get(column).add(value);
+        }
+        return code;
+    }
+
+    private boolean keyEquals(int group) {
+        int offset = group * this.keyWidth;
+        for (int c = 0; c < this.keyWidth; c++)
+            if (this.keys[offset + c] != this.probeKey[c])
+                return false;
+        return true;
+    }
+
+    private void growGroups() {
+        int capacity = this.hashes.length * 2;
+        this.keys = Arrays.copyOf(this.keys, capacity * this.keyWidth);
+        this.hashes = Arrays.copyOf(this.hashes, capacity);
+        this.sums = Arrays.copyOf(this.sums, capacity);
+        this.counts = Arrays.copyOf(this.counts, capacity);
+    }
+
+    private void growTable() {
+        this.table = new int[this.table.length * 2];
+        Arrays.fill(this.table, -1);
+        int mask = this.table.length - 1;
+        for (int group = 0; group < this.groupCount; group++) {
+            int slot = this.hashes[group] & mask;
+            while (this.table[slot] >= 0)
+                slot = (slot + 1) & mask;
+            this.table[slot] = group;
+        }
+    }
+
+    /**
+     * The finalizer of MurmurHash3 (fmix32), spreads the bits of an int over the whole word.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
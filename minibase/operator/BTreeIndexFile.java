@@ -0,0 +1,161 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A static B+-tree index (see {@link IndexFile}), for the '=' and range lookups.
+ * The tree is bulk-loaded from the entries sorted by key (then by row):
+ *      (1) the leaves are the consecutive blocks of {@link #NODE_KEYS} entries, so a range is a contiguous run of entries;
+ *      (2) each inner level holds the first key of each node in the level below,
+ *          and its nodes are the consecutive blocks of {@link #NODE_KEYS} keys (the children of a node are implicit);
+ *      (3) the levels are added until one fits in a single node, the root.
+ * The access structure is the number of inner levels, followed by each level (from the one above the leaves to the root)
+ * as its number of keys and the keys.
+ * A lookup descends from the root to a leaf, searching one node per level, and then the entries of that leaf.
+ */
+public class BTreeIndexFile extends IndexFile {
+
+    public static final int NODE_KEYS = 256;
+    // the number of entries in a leaf, and the fanout of an inner node
+
+    private final int[] levelOffsets;
+    private final int[] levelSizes;
+    // the offset of the keys of each inner level and their number, from the level above the leaves to the root
+
+    BTreeIndexFile(ByteBuffer buffer) {
+        super(buffer);
+        int levelCount = buffer.getInt(this.structureOffset);
+        this.levelOffsets = new int[levelCount];
+        this.levelSizes = new int[levelCount];
+        int offset = this.structureOffset + 4;
+        for (int level = 0; level < levelCount; level++) {
+            this.levelSizes[level] = buffer.getInt(offset);
+            this.levelOffsets[level] = offset + 4;
+            offset += 4 + 4 * this.levelSizes[level];
+        }
+    }
+
+    @Override
+    public long[] lookup(Term key) {
+        return this.lookup("=", key);
+    }
+
+    @Override
+    public long[] lookup(String op, Term key) {
+        if (!this.supports(op))
+            throw new UnsupportedOperationException("A B+-tree index does not support '" + op + "' lookups");
+        if (!this.hasKeyType(key))
+            return new long[0];
+        switch (op) {
+            case "=":
+                return this.getPositions(this.search(key, false), this.search(key, true));
+            case "<":
+                return this.getPositions(0, this.search(key, false));
+            case "<=":
+                return this.getPositions(0, this.search(key, true));
+            case ">":
+                return this.getPositions(this.search(key, true), this.entryCount);
+            default:
+                return this.getPositions(this.search(key, false), this.entryCount);
+        }
+    }
+
+    @Override
+    public boolean supports(String op) {
+        return !op.equals("!=");
+    }
+
+    /**
+     * Find the first entry whose key is not less than (or, if strict, greater than) a constant.
+     * At each inner level, the search descends into the last child whose first key is less than
+     * (or not greater than) the constant, since the earlier children hold only smaller keys;
+     * if the result is past the end of the leaf, it is the first entry of the next leaf.
+     * @param key a constant of the same type as the keys.
+     * @param strict {@code false} to find the first key {@code >= key}, {@code true} to find the first key {@code > key}.
+     * @return the index of the entry, {@link #getEntryCount()} if no key satisfies it.
+     */
+    private int search(Term key, boolean strict) {
+        int node = 0;
+        for (int level = this.levelSizes.length - 1; level >= 0; level--) {
+            int from = node * NODE_KEYS;
+            int to = Math.min(from + NODE_KEYS, this.levelSizes[level]);
+            int offset = this.levelOffsets[level];
+            int first = this.bound(from, to, key, strict, i -> this.buffer.getInt(offset + 4 * i));
+            node = Math.max(from, first - 1);
+        }
+        int from = node * NODE_KEYS;
+        int to = Math.min(from + NODE_KEYS, this.entryCount);
+        return this.bound(from, to, key, strict, this::getRawKey);
+    }
+
+    private interface RawKeys {
+        int get(int index);
+    }
+
+    /**
+     * Binary search in a sorted run of keys.
+     * @return the first index in [from, to) whose key is not less than (or, if strict, greater than) the constant, or {@code to}.
+     */
+    private int bound(int from, int to, Term key, boolean strict, RawKeys keys) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int result = this.compareKey(keys.get(middle), key);
+            if (result < 0 || (strict && result == 0))
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Order the entries by key, then by row.
+     * @param keys the key of each row.
+     * @return the rows in the order of the entries.
+     */
+    static int[] order(List<Term> keys) {
+        Integer[] rows = new Integer[keys.size()];
+        for (int r = 0; r < rows.length; r++)
+            rows[r] = r;
+        Arrays.sort(rows, (r1, r2) -> {
+            int result = TupleComparator.compareTerms(keys.get(r1), keys.get(r2));
+            return result != 0 ? result : Integer.compare(r1, r2);
+        });
+        return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param rawKeys the stored keys of the entries, in order.
+     * @return the inner levels of the tree.
+     */
+    static int[] buildStructure(int[] rawKeys) {
+        List<int[]> levels = new ArrayList<>();
+        int[] below = rawKeys;
+        while (below.length > NODE_KEYS) {
+            int[] level = new int[(below.length + NODE_KEYS - 1) / NODE_KEYS];
+            for (int node = 0; node < level.length; node++)
+                level[node] = below[node * NODE_KEYS];
+            levels.add(level);
+            below = level;
+        }
+        int size = 1;
+        for (int[] level : levels)
+            size += 1 + level.length;
+        int[] structure = new int[size];
+        structure[0] = levels.size();
+        int offset = 1;
+        for (int[] level : levels) {
+            structure[offset] = level.length;
+            System.arraycopy(level, 0, structure, offset + 1, level.length);
+            offset += 1 + level.length;
+        }
+        return structure;
+    }
+}
@@ -0,0 +1,108 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class implements the SCAN operation over the in-memory copy of a relation in the {@link RelationCache}.
+ * It plays the same role as {@link ScanOperator} (a leaf node of the query plan, with the same variable mask),
+ * but only the first scan of a relation reads its file; the later scans and every {@link #reset()}
+ * iterate the cached {@link RelationTable} instead.
+ * It is used when the relation cache is enabled in {@link DBCatalog}.
+ * With pushed-down conditions (see {@link ScanFilter}), the blocks excluded by the zone maps of the table are skipped,
+ * and the other blocks are filtered before they are returned.
+ */
+public class CachedScanOperator extends Operator {
+
+    private final DBCatalog dbc;
+    private final String relationName;
+    private RelationTable table;
+    private int nextRow = 0;
+    private ScanFilter filter = null;
+    // the pushed-down select conditions, null if the rows are not filtered
+    private int[] outputColumns = null;
+    // the columns returned after pruning, null if all the columns are returned
+
+    /**
+     * Fetch the relation table from the cache, and use the terms in the relational atom to build the variable mask.
+     * @param dbc the catalog of the database, whose relation cache is enabled.
+     * @param baseQueryAtom a relational atom in query body, providing information like relation name and variable mask.
+     */
+    public CachedScanOperator(DBCatalog dbc, RelationalAtom baseQueryAtom) {
+        for (Term term : baseQueryAtom.getTerms()) {
+            if (term instanceof Variable)
+                this.variableMask.add(((Variable) term).getName());
+            else
+                this.variableMask.add(null);
+        }
+
+        this.dbc = dbc;
+        this.relationName = baseQueryAtom.getName();
+        this.reset();
+    }
+
+    /**
+     * Reset the operator state, the following reads will start from the first row.
+     * The table is fetched from the cache again, so the access is counted and the relation becomes the most recently used.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.table = this.dbc.getRelationCache().get(this.relationName);
+        this.nextRow = 0;
+    }
+
+    /**
+     * Filter the rows while reading them.
+     * @param conditions the select conditions on the variables of this scan.
+     * @return {@code true}, the conditions are always applied.
+     */
+    @Override
+    public boolean pushDownConditions(List<ComparisonAtom> conditions) {
+        this.filter = new ScanFilter(conditions, this.variableMask);
+        return true;
+    }
+
+    /**
+     * Return only the columns of the given variables.
+     * @param variables the variables read by the operators above this scan.
+     */
+    @Override
+    public void pruneColumns(Set<String> variables) {
+        this.outputColumns = this.retainVariables(variables);
+    }
+
+    /**
+     * @return a {@link Tuple} instance that represents the next row of the cached table, or {@code null} if reaches the end.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * With pushed-down conditions, the blocks excluded by the zone maps and the batches in which no row passes are skipped.
+     * @return a batch over the next rows of the cached table (the column arrays are shared, not copied),
+     *         or {@code null} if reaches the end.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        checkInterrupted();
+        while (this.nextRow < this.table.getRowCount()) {
+            int from = this.nextRow;
+            int end = Math.min(from + TupleBatch.DEFAULT_CAPACITY, this.table.getRowCount());
+            this.nextRow = end;
+            if (this.filter != null && !this.table.mayMatch(from, end, this.filter))
+                continue;
+            TupleBatch batch = TupleBatch.wrap(this.relationName, this.table.getIntColumns(), this.table.getStringColumns(),
+                    this.table.getDictionaries(), from, end);
+            if (this.filter != null && this.filter.filter(batch) == 0)
+                continue;
+            return this.outputColumns == null ? batch : batch.project(this.outputColumns, this.relationName);
+        }
+        return null;
+    }
+
+}
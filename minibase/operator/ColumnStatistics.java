@@ -0,0 +1,114 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.List;
+
+/**
+ * The statistics of a column in a relation, collected by {@link RelationStatistics}:
+ * the minimum and maximum values, the (estimated) number of distinct values,
+ * and an equi-depth histogram, whose {@code k + 1} bounds split the sorted values into {@code k} buckets of the same size.
+ * They are used to estimate the selectivity of conditions on the column (see {@link SelectCondition#estimateSelectivity(List)}).
+ */
+public class ColumnStatistics {
+
+    private final boolean isIntColumn;
+    private final long distinctCount;
+    private final Term min;
+    private final Term max;
+    private final Term[] histogramBounds;
+    // min, max are null and histogramBounds is empty for an empty relation
+
+    public ColumnStatistics(boolean isIntColumn, long distinctCount, Term min, Term max, Term[] histogramBounds) {
+        this.isIntColumn = isIntColumn;
+        this.distinctCount = distinctCount;
+        this.min = min;
+        this.max = max;
+        this.histogramBounds = histogramBounds;
+    }
+
+    public boolean isIntColumn() {
+        return this.isIntColumn;
+    }
+
+    public long getDistinctCount() {
+        return this.distinctCount;
+    }
+
+    public Term getMin() {
+        return this.min;
+    }
+
+    public Term getMax() {
+        return this.max;
+    }
+
+    public Term[] getHistogramBounds() {
+        return this.histogramBounds;
+    }
+
+    /**
+     * Estimate the fraction of rows satisfying {@code column op constant}.
+     * @param op the comparison operator, e.g. '=', '>'.
+     * @param constant the constant operand.
+     * @return the estimated selectivity, in [0, 1].
+     */
+    public double estimateSelectivity(String op, Term constant) {
+        if (this.min == null)
+            return 0; // empty relation
+        if ((constant instanceof IntegerConstant) != this.isIntColumn)
+            return op.equals("!=") ? 1 : 0; // values of different types are never equal, nor comparable
+
+        double equal = TupleComparator.compareTerms(constant, this.min) < 0 || TupleComparator.compareTerms(constant, this.max) > 0
+                ? 0 : 1.0 / Math.max(1, this.distinctCount);
+        switch (op) {
+            case "=":
+                return equal;
+            case "!=":
+                return 1 - equal;
+            case "<":
+                return this.fractionBelow(constant, false);
+            case "<=":
+                return this.fractionBelow(constant, true);
+            case ">":
+                return 1 - this.fractionBelow(constant, true);
+            case ">=":
+                return 1 - this.fractionBelow(constant, false);
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Estimate the fraction of rows whose value is smaller than (or equal to) a constant, using the histogram.
+     * Each bucket holds the same fraction of rows; inside the bucket containing the constant,
+     * the integer values are assumed to be uniformly distributed, and half of the bucket is taken for strings.
+     */
+    private double fractionBelow(Term constant, boolean inclusive) {
+        int buckets = this.histogramBounds.length - 1;
+        if (buckets < 1)
+            return TupleComparator.compareTerms(this.min, constant) < 0 || (inclusive && this.min.equals(constant)) ? 1 : 0;
+
+        double fraction = 0;
+        for (int b = 0; b < buckets; b++) {
+            Term low = this.histogramBounds[b];
+            Term high = this.histogramBounds[b + 1];
+            int compareLow = TupleComparator.compareTerms(constant, low);
+            int compareHigh = TupleComparator.compareTerms(constant, high);
+            double portion;
+            if (compareHigh > 0 || (compareHigh == 0 && inclusive))
+                portion = 1;
+            else if (compareLow < 0 || (compareLow == 0 && !inclusive))
+                portion = 0;
+            else if (this.isIntColumn) {
+                long lowValue = ((IntegerConstant) low).getValue();
+                long width = (long) ((IntegerConstant) high).getValue() - lowValue + 1;
+                long below = (long) ((IntegerConstant) constant).getValue() - lowValue + (inclusive ? 1 : 0);
+                portion = Math.min(1, (double) below / width);
+            } else
+                portion = 0.5;
+            fraction += portion / buckets;
+        }
+        return fraction;
+    }
+}
@@ -0,0 +1,464 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A typed, column-oriented binary file of a relation, an alternative to the '.csv' data file.
+ * The file is read through a memory-mapped {@link ByteBuffer}, so the values are accessed without any text parsing.
+ *
+ * File layout (all numbers are big-endian):
+ *      header: magic number, version, number of rows, number of columns,
+ *              number of rows in a zone, offset of the zone maps;
+ *      column directory: for each column, a type byte ({@link #INT_COLUMN}, {@link #STRING_COLUMN} or {@link #DICTIONARY_COLUMN})
+ *                        and the offset of its data in the file;
+ *      column data: an int column is a sequence of 4-byte values, one per row;
+ *                   a string column is a sequence of (rows + 1) offsets into its UTF-8 bytes, followed by the bytes;
+ *                   a dictionary column is a sequence of 4-byte codes, one per row, followed by its dictionary:
+ *                   the number of distinct values, (values + 1) offsets into their UTF-8 bytes, and the bytes (in ascending order);
+ *      zone maps: for each zone (a block of {@link #ZONE_ROWS} consecutive rows) and each column, the smallest and the largest
+ *                 value of the column in the zone (for a string column, the rows holding these values;
+ *                 for a dictionary column, their codes).
+ * The zone maps let a scan skip the zones in which no row satisfies its pushed-down conditions (see {@link ScanFilter}).
+ * The string columns are written as dictionary columns since version 3: the codes are ordered as the values
+ * (see {@link StringDictionary}), and each distinct value is stored once. When the scanned batches are encoded
+ * by the database dictionary, the codes of a column are translated into the codes of that dictionary through an int array,
+ * so the strings are never decoded while the rows are scanned.
+ * The files of version 1 have no zone maps (their header ends after the number of columns), the files of version 2
+ * have no dictionary columns, both are still readable.
+ */
+public class ColumnarFile {
+
+    public static final int MAGIC = 0x4D42434F; // "MBCO"
+    public static final int VERSION = 3;
+    public static final int ZONE_ROWS = TupleBatch.DEFAULT_CAPACITY;
+    // the number of rows summarized by each zone map entry, one batch of a scan
+    public static final byte INT_COLUMN = 0;
+    public static final byte STRING_COLUMN = 1;
+    public static final byte DICTIONARY_COLUMN = 2;
+
+    private static final int HEADER_SIZE = 28;
+    private static final int VERSION_1_HEADER_SIZE = 16;
+    private static final int ZONE_ENTRY_SIZE = 8;
+    private static final int DIRECTORY_ENTRY_SIZE = 9;
+
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final byte[] columnTypes;
+    private final int[] columnOffsets;
+    private final int zoneRows;
+    private final int zoneOffset;
+    // the number of rows in a zone and the offset of the zone maps, both 0 if the file has no zone maps
+
+    private final StringDictionary[] columnDictionaries;
+    private final StringDictionary[] remapTargets;
+    private final int[][] remaps;
+    // the dictionary of each dictionary column, read on first use,
+    // and the translation of its codes into the codes of another dictionary (the last one requested), computed on first use
+    private final ReentrantLock dictionaryLock = new ReentrantLock();
+    // guards the reads of the column dictionaries and the computation of the translations
+
+    /**
+     * Map a columnar file into memory and read its header.
+     * @param path the path to the columnar file.
+     * @throws IOException if the file can not be mapped, or it is not a columnar file.
+     */
+    public ColumnarFile(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int version = this.buffer.getInt(4);
+        if (this.buffer.getInt(0) != MAGIC || version < 1 || version > VERSION)
+            throw new IOException("Not a columnar relation file: " + path);
+        this.rowCount = this.buffer.getInt(8);
+        int columnCount = this.buffer.getInt(12);
+        int headerSize = version == 1 ? VERSION_1_HEADER_SIZE : HEADER_SIZE;
+        this.zoneRows = version == 1 ? 0 : this.buffer.getInt(16);
+        this.zoneOffset = version == 1 ? 0 : (int) this.buffer.getLong(20);
+        this.columnTypes = new byte[columnCount];
+        this.columnOffsets = new int[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            int entry = headerSize + c * DIRECTORY_ENTRY_SIZE;
+            this.columnTypes[c] = this.buffer.get(entry);
+            this.columnOffsets[c] = (int) this.buffer.getLong(entry + 1);
+        }
+        this.columnDictionaries = new StringDictionary[columnCount];
+        this.remapTargets = new StringDictionary[columnCount];
+        this.remaps = new int[columnCount][];
+    }
+
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    public int getColumnCount() {
+        return this.columnTypes.length;
+    }
+
+    /**
+     * @return {@code true} for an 'int' column, {@code false} for a 'string' column (stored with a dictionary or not).
+     */
+    public boolean isIntColumn(int column) {
+        return this.columnTypes[column] == INT_COLUMN;
+    }
+
+    /**
+     * @return {@code true} if the column is a 'string' column stored as the codes of its own dictionary.
+     */
+    public boolean isDictionaryColumn(int column) {
+        return this.columnTypes[column] == DICTIONARY_COLUMN;
+    }
+
+    /**
+     * Read the dictionary stored after the codes of a dictionary column, on the first call for that column.
+     * @param column the index of a dictionary column.
+     * @return the dictionary of the column.
+     */
+    public StringDictionary getColumnDictionary(int column) {
+        StringDictionary dictionary = this.columnDictionaries[column];
+        return dictionary != null ? dictionary : this.readColumnDictionary(column);
+    }
+
+    private StringDictionary readColumnDictionary(int column) {
+        this.dictionaryLock.lock();
+        try {
+            if (this.columnDictionaries[column] == null) {
+                int base = this.columnOffsets[column] + 4 * this.rowCount;
+                String[] values = new String[this.buffer.getInt(base)];
+                int dataBase = base + 4 + 4 * (values.length + 1);
+                ByteBuffer view = this.buffer.duplicate();
+                for (int code = 0; code < values.length; code++) {
+                    int start = this.buffer.getInt(base + 4 + 4 * code);
+                    byte[] bytes = new byte[this.buffer.getInt(base + 4 + 4 * (code + 1)) - start];
+                    view.position(dataBase + start);
+                    view.get(bytes);
+                    values[code] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                this.columnDictionaries[column] = new StringDictionary(values);
+            }
+            return this.columnDictionaries[column];
+        } finally {
+            this.dictionaryLock.unlock();
+        }
+    }
+
+    /**
+     * @param column the index of a dictionary column.
+     * @param target another dictionary holding all the values of the column.
+     * @return the code in the target dictionary of each code of the column.
+     * @throws IllegalStateException if some value of the column is not in the target dictionary.
+     */
+    private int[] getRemap(int column, StringDictionary target) {
+        this.dictionaryLock.lock();
+        try {
+            if (this.remapTargets[column] != target) {
+                StringDictionary dictionary = this.getColumnDictionary(column);
+                int[] remap = new int[dictionary.size()];
+                for (int code = 0; code < remap.length; code++)
+                    remap[code] = TupleBatch.encode(target, dictionary.decode(code));
+                this.remaps[column] = remap;
+                this.remapTargets[column] = target;
+            }
+            return this.remaps[column];
+        } finally {
+            this.dictionaryLock.unlock();
+        }
+    }
+
+    /**
+     * @param row the row index.
+     * @param column the index of an int column.
+     * @return the value stored in the row.
+     */
+    public int getInt(int row, int column) {
+        return this.buffer.getInt(this.columnOffsets[column] + 4 * row);
+    }
+
+    /**
+     * @param row the row index.
+     * @param column the index of a string column.
+     * @return the value stored in the row, decoded from UTF-8 (or from the dictionary of the column).
+     */
+    public String getString(int row, int column) {
+        if (this.isDictionaryColumn(column))
+            return this.getColumnDictionary(column).decode(this.getInt(row, column));
+        int offsetBase = this.columnOffsets[column];
+        int dataBase = offsetBase + 4 * (this.rowCount + 1);
+        int start = this.buffer.getInt(offsetBase + 4 * row);
+        int end = this.buffer.getInt(offsetBase + 4 * (row + 1));
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(dataBase + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param row the row index.
+     * @param column the column index.
+     * @return the value stored in the row as a constant term.
+     */
+    public Term getTerm(int row, int column) {
+        if (this.isIntColumn(column))
+            return new IntegerConstant(this.getInt(row, column));
+        return new StringConstant(this.getString(row, column));
+    }
+
+    /**
+     * Copy a range of rows into a batch, column by column.
+     * The file may be read by several threads at the same time, each with its own batch.
+     * @param from the first row to be copied.
+     * @param to the end (exclusive) of the rows to be copied.
+     * @param batch the batch to append the rows to, whose column types follow this file (its string columns may be encoded).
+     */
+    public void readRows(int from, int to, TupleBatch batch) {
+        int first = -1;
+        for (int r = from; r < to; r++) {
+            int row = batch.addRow();
+            if (first < 0)
+                first = row;
+        }
+        for (int c = 0; c < this.getColumnCount(); c++)
+            this.readColumn(c, from, to, batch, first);
+    }
+
+    /**
+     * Copy some columns of a range of rows into an empty batch, the other columns of the batch are left unset.
+     * @param from the first row to be copied, which becomes the row 0 of the batch.
+     * @param to the end (exclusive) of the rows to be copied.
+     * @param batch an empty batch, whose column types follow this file (its string columns may be encoded).
+     * @param columns the columns to be copied.
+     */
+    public void readColumns(int from, int to, TupleBatch batch, int[] columns) {
+        for (int r = from; r < to; r++)
+            batch.addRow();
+        for (int c : columns)
+            this.readColumn(c, from, to, batch, 0);
+    }
+
+    /**
+     * Copy a column of a range of rows into consecutive rows of a batch.
+     * If the column is encoded in the batch, the codes of a dictionary column are translated into the codes of the batch,
+     * and the values of a plain string column are encoded.
+     */
+    private void readColumn(int c, int from, int to, TupleBatch batch, int first) {
+        if (this.isIntColumn(c) || batch.isEncodedColumn(c)) {
+            int[] column = batch.getIntColumn(c);
+            if (this.isIntColumn(c)) {
+                for (int r = from; r < to; r++)
+                    column[first + r - from] = this.getInt(r, c);
+            } else if (this.isDictionaryColumn(c)) {
+                int[] remap = this.getRemap(c, batch.getDictionary(c));
+                for (int r = from; r < to; r++)
+                    column[first + r - from] = remap[this.getInt(r, c)];
+            } else {
+                for (int r = from; r < to; r++)
+                    column[first + r - from] = TupleBatch.encode(batch.getDictionary(c), this.getString(r, c));
+            }
+        } else {
+            String[] column = batch.getStringColumn(c);
+            for (int r = from; r < to; r++)
+                column[first + r - from] = this.getString(r, c);
+        }
+    }
+
+    /**
+     * Copy some columns of the active rows of a batch filled by {@link #readColumns(int, int, TupleBatch, int[])}.
+     * @param from the first row of the range read into the batch.
+     * @param batch the batch, whose row {@code i} holds the row {@code from + i} of this file.
+     * @param columns the columns to be copied.
+     */
+    public void readSelectedColumns(int from, TupleBatch batch, int[] columns) {
+        for (int c : columns) {
+            if (this.isIntColumn(c) || batch.isEncodedColumn(c)) {
+                int[] column = batch.getIntColumn(c);
+                if (this.isIntColumn(c)) {
+                    for (int i = 0; i < batch.getSelectedCount(); i++)
+                        column[batch.getSelected(i)] = this.getInt(from + batch.getSelected(i), c);
+                } else if (this.isDictionaryColumn(c)) {
+                    int[] remap = this.getRemap(c, batch.getDictionary(c));
+                    for (int i = 0; i < batch.getSelectedCount(); i++)
+                        column[batch.getSelected(i)] = remap[this.getInt(from + batch.getSelected(i), c)];
+                } else {
+                    for (int i = 0; i < batch.getSelectedCount(); i++)
+                        column[batch.getSelected(i)] = TupleBatch.encode(batch.getDictionary(c), this.getString(from + batch.getSelected(i), c));
+                }
+            } else {
+                String[] column = batch.getStringColumn(c);
+                for (int i = 0; i < batch.getSelectedCount(); i++)
+                    column[batch.getSelected(i)] = this.getString(from + batch.getSelected(i), c);
+            }
+        }
+    }
+
+    /**
+     * Check the zone maps of a range of rows against the pushed-down conditions of a scan.
+     * @param from the first row of the range.
+     * @param to the end (exclusive) of the range.
+     * @param filter the conditions of the scan.
+     * @return {@code false} if no row in the range satisfies the conditions,
+     *         {@code true} if some row may satisfy them (or the file has no zone maps).
+     */
+    public boolean mayMatch(int from, int to, ScanFilter filter) {
+        if (this.zoneRows == 0 || from >= to)
+            return true;
+        int columnCount = this.getColumnCount();
+        Term[] minimums = new Term[columnCount];
+        Term[] maximums = new Term[columnCount];
+        for (int zone = from / this.zoneRows; zone <= (to - 1) / this.zoneRows; zone++) {
+            for (int c = 0; c < columnCount; c++) {
+                int entry = this.zoneOffset + (zone * columnCount + c) * ZONE_ENTRY_SIZE;
+                if (this.isIntColumn(c)) {
+                    minimums[c] = new IntegerConstant(this.buffer.getInt(entry));
+                    maximums[c] = new IntegerConstant(this.buffer.getInt(entry + 4));
+                } else if (this.isDictionaryColumn(c)) {
+                    minimums[c] = new StringConstant(this.getColumnDictionary(c).decode(this.buffer.getInt(entry)));
+                    maximums[c] = new StringConstant(this.getColumnDictionary(c).decode(this.buffer.getInt(entry + 4)));
+                } else {
+                    minimums[c] = new StringConstant(this.getString(this.buffer.getInt(entry), c));
+                    maximums[c] = new StringConstant(this.getString(this.buffer.getInt(entry + 4), c));
+                }
+            }
+            if (filter.mayMatch(minimums, maximums))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Convert a '.csv' data file into a columnar file, the string columns are written as dictionary columns.
+     * The data file is parsed in the same way as {@link ScanOperator}, using the data types in the relation schema.
+     * @param csvPath the path to the data file.
+     * @param relationSchema the data types of columns ('int' or 'string').
+     * @param outputPath the path to the columnar file to be written.
+     * @throws IOException if the data file can not be read or the output can not be written.
+     */
+    public static void convert(String csvPath, List<String> relationSchema, String outputPath) throws IOException {
+        int columnCount = relationSchema.size();
+        int[][] intValues = new int[columnCount][];
+        // the values of the int columns, and the codes of the string columns
+        List<Map<String, Integer>> firstCodes = new ArrayList<>();
+        List<List<String>> distinctValues = new ArrayList<>();
+        // for each string column, the code of each value in the order it is first read, and the values in that order
+        for (int c = 0; c < columnCount; c++) {
+            intValues[c] = new int[1024];
+            boolean isString = !relationSchema.get(c).equals("int");
+            firstCodes.add(isString ? new HashMap<>() : null);
+            distinctValues.add(isString ? new ArrayList<>() : null);
+        }
+
+        // read the data file column by column into memory
+        int rowCount = 0;
+        try (Scanner scanner = new Scanner(new File(csvPath))) {
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine();
+                if (line.trim().isEmpty())
+                    continue;
+                List<Term> terms = ScanOperator.parseLine(line, relationSchema);
+                for (int c = 0; c < columnCount; c++) {
+                    if (rowCount == intValues[c].length)
+                        intValues[c] = Arrays.copyOf(intValues[c], rowCount * 2);
+                    if (firstCodes.get(c) == null) {
+                        intValues[c][rowCount] = ((IntegerConstant) terms.get(c)).getValue();
+                    } else {
+                        String value = ((StringConstant) terms.get(c)).getValue();
+                        List<String> values = distinctValues.get(c);
+                        intValues[c][rowCount] = firstCodes.get(c).computeIfAbsent(value, v -> {
+                            values.add(v);
+                            return values.size() - 1;
+                        });
+                    }
+                }
+                rowCount++;
+            }
+        }
+
+        // sort the values of each string column into its dictionary, and translate the first-read codes into the ranks
+        StringDictionary[] dictionaries = new StringDictionary[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            if (firstCodes.get(c) == null)
+                continue;
+            dictionaries[c] = StringDictionary.build(distinctValues.get(c));
+            int[] ranks = new int[distinctValues.get(c).size()];
+            for (int code = 0; code < ranks.length; code++)
+                ranks[code] = dictionaries[c].encode(distinctValues.get(c).get(code));
+            for (int r = 0; r < rowCount; r++)
+                intValues[c][r] = ranks[intValues[c][r]];
+        }
+        byte[][][] dictionaryBytes = new byte[columnCount][][];
+        int[] dictionarySizes = new int[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            if (dictionaries[c] == null)
+                continue;
+            dictionaryBytes[c] = new byte[dictionaries[c].size()][];
+            for (int code = 0; code < dictionaryBytes[c].length; code++) {
+                dictionaryBytes[c][code] = dictionaries[c].decode(code).getBytes(StandardCharsets.UTF_8);
+                dictionarySizes[c] += dictionaryBytes[c][code].length;
+            }
+        }
+
+        // compute the offset of each column, then write header, directory and column data
+        long[] columnOffsets = new long[columnCount];
+        long offset = HEADER_SIZE + (long) columnCount * DIRECTORY_ENTRY_SIZE;
+        for (int c = 0; c < columnCount; c++) {
+            columnOffsets[c] = offset;
+            offset += 4L * rowCount;
+            if (dictionaries[c] != null)
+                offset += 4 + 4L * (dictionaries[c].size() + 1) + dictionarySizes[c];
+        }
+        long zoneOffset = offset;
+        int zoneCount = (rowCount + ZONE_ROWS - 1) / ZONE_ROWS;
+        offset += (long) zoneCount * columnCount * ZONE_ENTRY_SIZE;
+        if (offset > Integer.MAX_VALUE)
+            throw new IOException("Relation is too large for a single columnar file: " + csvPath);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rowCount);
+            out.writeInt(columnCount);
+            out.writeInt(ZONE_ROWS);
+            out.writeLong(zoneOffset);
+            for (int c = 0; c < columnCount; c++) {
+                out.writeByte(dictionaries[c] == null ? INT_COLUMN : DICTIONARY_COLUMN);
+                out.writeLong(columnOffsets[c]);
+            }
+            for (int c = 0; c < columnCount; c++) {
+                for (int r = 0; r < rowCount; r++)
+                    out.writeInt(intValues[c][r]);
+                if (dictionaries[c] != null) {
+                    out.writeInt(dictionaryBytes[c].length);
+                    int valueOffset = 0;
+                    out.writeInt(valueOffset);
+                    for (byte[] bytes : dictionaryBytes[c]) {
+                        valueOffset += bytes.length;
+                        out.writeInt(valueOffset);
+                    }
+                    for (byte[] bytes : dictionaryBytes[c])
+                        out.write(bytes);
+                }
+            }
+            // the codes compare as the strings, so the zone maps of all the columns are the bounds of the ints
+            for (int zone = 0; zone < zoneCount; zone++) {
+                int end = Math.min((zone + 1) * ZONE_ROWS, rowCount);
+                for (int c = 0; c < columnCount; c++) {
+                    int min = intValues[c][zone * ZONE_ROWS];
+                    int max = min;
+                    for (int r = zone * ZONE_ROWS + 1; r < end; r++) {
+                        min = Math.min(min, intValues[c][r]);
+                        max = Math.max(max, intValues[c][r]);
+                    }
+                    out.writeInt(min);
+                    out.writeInt(max);
+                }
+            }
+        }
+    }
+}
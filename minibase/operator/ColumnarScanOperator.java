@@ -0,0 +1,135 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class implements the SCAN operation over a relation stored as a {@link ColumnarFile}.
+ * It plays the same role as {@link ScanOperator} (a leaf node of the query plan, with the same variable mask),
+ * but the values are read from a memory-mapped file by their types, instead of being parsed from text lines.
+ * {@link DBCatalog#getStorageFormat(String)} decides which of the two scan operators is used for a relation.
+ * With pushed-down conditions (see {@link ScanFilter}), the blocks excluded by the zone maps of the file are skipped,
+ * and in the other blocks the remaining columns are only read for the rows that satisfy the conditions.
+ * The columns pruned from the output (see {@link #pruneColumns(Set)}) are not read at all.
+ */
+public class ColumnarScanOperator extends Operator {
+
+    private final DBCatalog dbc;
+    private final String relationName;
+    private final ColumnarFile relationFile;
+    private int nextRow = 0;
+    private TupleBatch batch = null;
+    // the batch returned by getNextBatch(), reused for each call
+    private ScanFilter filter = null;
+    // the pushed-down select conditions, null if the rows are not filtered
+    private int[] outputColumns = null;
+    private int[] lateColumns = null;
+    // the columns returned after pruning (null if all the columns are returned),
+    // and the returned columns that are read only for the rows satisfying the conditions
+
+    /**
+     * Map the columnar file of the relation, and use the terms in the relational atom to build the variable mask.
+     * @param dbc the catalog of the database.
+     * @param baseQueryAtom a relational atom in query body, providing information like relation name and variable mask.
+     */
+    public ColumnarScanOperator(DBCatalog dbc, RelationalAtom baseQueryAtom) {
+        for (Term term : baseQueryAtom.getTerms()) {
+            if (term instanceof Variable)
+                this.variableMask.add(((Variable) term).getName());
+            else
+                this.variableMask.add(null);
+        }
+
+        this.dbc = dbc;
+        this.relationName = baseQueryAtom.getName();
+        try {
+            this.relationFile = new ColumnarFile(dbc.getColumnarPath(relationName));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open columnar relation file: " + dbc.getColumnarPath(relationName), e);
+        }
+    }
+
+    /**
+     * Reset the operator state, the following reads will start from the first row.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.nextRow = 0;
+    }
+
+    /**
+     * Filter the rows while reading them.
+     * @param conditions the select conditions on the variables of this scan.
+     * @return {@code true}, the conditions are always applied.
+     */
+    @Override
+    public boolean pushDownConditions(List<ComparisonAtom> conditions) {
+        this.filter = new ScanFilter(conditions, this.variableMask);
+        return true;
+    }
+
+    /**
+     * Return only the columns of the given variables, the other columns are not read from the file.
+     * @param variables the variables read by the operators above this scan.
+     */
+    @Override
+    public void pruneColumns(Set<String> variables) {
+        this.outputColumns = this.retainVariables(variables);
+    }
+
+    /**
+     * Read the next row of the relation, return it as a {@link Tuple} instance.
+     * @return a {@link Tuple} instance that represents the next row, or {@code null} if reaches the end.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * Copy the next rows of the relation into a batch, column by column.
+     * With pushed-down conditions, the filter columns are read first, then the other columns of the rows that pass;
+     * the blocks in which no row passes are skipped. With pruned columns, the batch is returned as a view of the kept columns.
+     * @return a batch of up to {@link TupleBatch#DEFAULT_CAPACITY} rows, or {@code null} if reaches the end.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        checkInterrupted();
+        if (this.batch == null) {
+            this.batch = TupleBatch.forSchema(this.relationName, this.dbc.getSchema(this.relationName), this.dbc.getDictionary(),
+                    TupleBatch.DEFAULT_CAPACITY);
+            if (this.filter != null)
+                this.lateColumns = this.filter.getOtherColumns(this.outputColumns);
+            else
+                this.lateColumns = this.outputColumns;
+        }
+
+        while (this.nextRow < this.relationFile.getRowCount()) {
+            int from = this.nextRow;
+            int end = Math.min(from + TupleBatch.DEFAULT_CAPACITY, this.relationFile.getRowCount());
+            this.nextRow = end;
+            this.batch.clear();
+            if (this.filter == null) {
+                if (this.outputColumns == null) {
+                    this.relationFile.readRows(from, end, this.batch);
+                    return this.batch;
+                }
+                this.relationFile.readColumns(from, end, this.batch, this.outputColumns);
+                return this.batch.project(this.outputColumns, this.relationName);
+            }
+            if (!this.relationFile.mayMatch(from, end, this.filter))
+                continue;
+            this.relationFile.readColumns(from, end, this.batch, this.filter.getFilterColumns());
+            if (this.filter.filter(this.batch) == 0)
+                continue;
+            this.relationFile.readSelectedColumns(from, this.batch, this.lateColumns);
+            return this.outputColumns == null ? this.batch : this.batch.project(this.outputColumns, this.relationName);
+        }
+        return null;
+    }
+}
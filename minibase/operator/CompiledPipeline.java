@@ -0,0 +1,87 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The super class of the pipeline classes generated at runtime by {@link PipelineCompiler}.
+ * A generated class fuses the pipelines of one query into straight-line code over the primitive columns of the batches:
+ *      (1) {@link #filter(int, TupleBatch)}: the select conditions of a body atom, applied on a scanned batch
+ *          (used for the build sides of the hash joins, before the rows are put into the {@link JoinHashTable});
+ *      (2) {@link #consume(TupleBatch)}: a batch of the first atom is filtered, probed through all the hash tables
+ *          in nested loops, and the head columns of each joined row are written into the output batches.
+ * The generated code only calls the public methods of this package, it is loaded by its own class loader.
+ */
+public abstract class CompiledPipeline {
+
+    protected JoinHashTable[] tables;
+    // the hash table of each body atom (null for the first atom), probed in join order
+    protected Object[] constants;
+    // the string constants of the conditions, referred to by index in the generated code
+
+    private boolean[] outputTypes;
+    private StringDictionary[] outputDictionaries;
+    private String outputName;
+    protected TupleBatch out;
+    // the output batch being filled
+    private final Deque<TupleBatch> output = new ArrayDeque<>();
+    // the full output batches, not yet taken
+
+    /**
+     * Provide the runtime state of the generated code.
+     * @param tables the hash tables of the body atoms, indexed as the atoms (null for the first atom).
+     * @param constants the constants referred to by the generated code.
+     * @param outputTypes the column types of the output rows.
+     * @param outputDictionaries the dictionary of each encoded string column of the output rows, {@code null} for the others.
+     * @param outputName the relation name of the output batches.
+     */
+    public void init(JoinHashTable[] tables, Object[] constants, boolean[] outputTypes,
+                     StringDictionary[] outputDictionaries, String outputName) {
+        this.tables = tables;
+        this.constants = constants;
+        this.outputTypes = outputTypes;
+        this.outputDictionaries = outputDictionaries;
+        this.outputName = outputName;
+        this.out = new TupleBatch(outputName, outputTypes, outputDictionaries, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Keep only the active rows of a batch that satisfy the select conditions of a body atom.
+     * @param atom the index of the body atom in join order.
+     * @param batch a batch scanned from the relation of that atom.
+     * @return the number of active rows after filtering.
+     */
+    public abstract int filter(int atom, TupleBatch batch);
+
+    /**
+     * Push a batch of the first body atom through the pipeline, the results are appended to the output batches.
+     * @param batch a batch scanned from the relation of the first atom.
+     */
+    public abstract void consume(TupleBatch batch);
+
+    /**
+     * Move the output batch being filled (if not empty) to the full output batches, called by the generated code
+     * when the output batch is full, and by the caller after the last input batch.
+     */
+    public void flush() {
+        if (this.out.getSelectedCount() == 0)
+            return;
+        this.output.add(this.out);
+        this.out = new TupleBatch(this.outputName, this.outputTypes, this.outputDictionaries, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return the next full output batch, or {@code null} if there is none.
+     */
+    public TupleBatch poll() {
+        return this.output.poll();
+    }
+
+    /**
+     * Drop the output batches, e.g. when the query is restarted.
+     */
+    public void clear() {
+        this.output.clear();
+        this.out.clear();
+    }
+}
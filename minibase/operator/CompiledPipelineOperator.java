@@ -0,0 +1,108 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.List;
+
+/**
+ * Runs the pipelines of a query generated by {@link PipelineCompiler}, in place of the interpreted join tree.
+ * Its output rows hold the head variables of the joined rows (the SUM variable in the place of the SUM term),
+ * and are the input of the {@link ProjectOperator} or {@link SumOperator} of the query head.
+ *      (1) On the first read, the scan of each atom except the first is filtered by the generated code
+ *          and put into a {@link JoinHashTable}.
+ *      (2) Then each batch scanned from the first atom is pushed through the generated probe pipeline,
+ *          which fills the output batches returned by {@link #getNextBatch()}.
+ */
+public class CompiledPipelineOperator extends Operator {
+
+    private final CompiledPipeline pipeline;
+    private final List<Operator> scans;
+    private final List<int[]> keyColumns;
+    private final Object[] constants;
+    private final boolean[] outputTypes;
+    private final StringDictionary[] outputDictionaries;
+    private final String outputName;
+
+    private boolean built = false;
+    // whether the hash tables are built, they are kept on reset
+    private boolean finished = false;
+    // whether the scan of the first atom reaches the end
+
+    /**
+     * @param pipeline an instance of the generated class.
+     * @param scans the scan operator of each body atom, in join order.
+     * @param keyColumns the key columns of the hash table of each atom (ignored for the first atom).
+     * @param constants the constants referred to by the generated code.
+     * @param outputVariables the variables of the output columns.
+     * @param outputTypes the types of the output columns.
+     * @param outputDictionaries the dictionaries of the encoded string output columns, {@code null} for the others.
+     * @param outputName the relation name of the output batches.
+     */
+    public CompiledPipelineOperator(CompiledPipeline pipeline, List<Operator> scans, List<int[]> keyColumns, Object[] constants,
+                                    List<String> outputVariables, boolean[] outputTypes,
+                                    StringDictionary[] outputDictionaries, String outputName) {
+        this.pipeline = pipeline;
+        this.scans = scans;
+        this.keyColumns = keyColumns;
+        this.constants = constants;
+        this.outputTypes = outputTypes;
+        this.outputDictionaries = outputDictionaries;
+        this.outputName = outputName;
+        this.variableMask.addAll(outputVariables);
+    }
+
+    /**
+     * Reset the scan of the first atom and drop the pending output, the hash tables are kept.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.scans.get(0).reset();
+        if (this.built)
+            this.pipeline.clear();
+        this.finished = false;
+    }
+
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * @return the next batch of output rows of the probe pipeline, or {@code null} if the pipeline is complete.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (!this.built)
+            this.build();
+        TupleBatch batch = this.pipeline.poll();
+        while (batch == null && !this.finished) {
+            TupleBatch input = this.scans.get(0).getNextBatch();
+            if (input == null) {
+                this.pipeline.flush();
+                this.finished = true;
+            } else {
+                this.pipeline.consume(input);
+            }
+            batch = this.pipeline.poll();
+        }
+        return batch;
+    }
+
+    /**
+     * Run the build pipelines: filter the scan of each atom (except the first) and put the rows into its hash table.
+     */
+    private void build() {
+        JoinHashTable[] tables = new JoinHashTable[this.scans.size()];
+        // the constants are needed by the filters of the build pipelines, the tables are filled after
+        this.pipeline.init(tables, this.constants, this.outputTypes, this.outputDictionaries, this.outputName);
+        for (int i = 1; i < this.scans.size(); i++) {
+            tables[i] = new JoinHashTable(this.keyColumns.get(i));
+            TupleBatch batch = this.scans.get(i).getNextBatch();
+            while (batch != null) {
+                if (this.pipeline.filter(i, batch) > 0)
+                    tables[i].add(batch);
+                batch = this.scans.get(i).getNextBatch();
+            }
+        }
+        this.built = true;
+    }
+}
@@ -1,58 +1,132 @@
 package ed.inf.adbs.minibase.operator;
 
+import ed.inf.adbs.minibase.base.StringConstant;
+import ed.inf.adbs.minibase.base.Term;
+
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * A catalog for storing global information like relation schema and database directory.
+ * A catalog for storing the information of a database like relation schema and database directory.
  * Be used in {@link ScanOperator} to support the data file access and data type identification.
  *
- * Singleton design pattern is applied, only on instance of catalog will be created during each run.
+ * A catalog is created for one database directory, and passed explicitly to the planner and the operators
+ * of each query evaluated on that database, so several databases (or sessions with different settings)
+ * can be used in one JVM. The schema is read once by the constructor and never changes; the estimates and
+ * statistics filled lazily are kept in concurrent maps, so the queries of a catalog may be planned and evaluated
+ * in several threads at the same time (e.g. by a {@code MinibaseServer}).
  */
 public class DBCatalog {
 
-    public static DBCatalog instance;
-    private String dbDirectory;
+    private final String dbDirectory;
 
-    Map<String, List<String>> relationSchemaMap = new HashMap<>();
-    // <relation name : ArrayList of data type>
+    private final Map<String, List<String>> relationSchemaMap;
+    // <relation name : List of data type>, unmodifiable
     // e.g. <'R' : ['int', 'int', 'string']>
 
-    private DBCatalog() {}
+    private final Map<String, Long> rowCountEstimates = new ConcurrentHashMap<>();
+    // <relation name : estimated number of tuples>, filled lazily by estimateRowCount()
+
+    private final Map<String, long[]> distinctCountEstimates = new ConcurrentHashMap<>();
+    // <relation name : estimated number of distinct values of each column>, filled lazily by estimateDistinctCount()
+
+    private volatile Map<String, RelationStatistics> statisticsMap = null;
+    // <relation name : statistics collected by analyze()>, loaded lazily from 'stats.txt' by getStatistics(),
+    // never modified once published (analyze() replaces it by a new map), so it is read without locking
+
+    private volatile long memoryLimit = Runtime.getRuntime().maxMemory() / 2;
+    // the heap budget (in bytes) that a single operator may use to hold tuples, e.g. the hash table of a hash join
+
+    private volatile int parallelism = 1;
+    // the number of worker threads evaluating a query, 1 for the serial plans
+
+    private volatile boolean codeGeneration = false;
+    // whether the planner compiles the pipelines of a query into generated code (see PipelineCompiler)
+
+    private volatile SemiJoinReduction semiJoinReduction = SemiJoinReduction.AUTO;
+    // whether the planner removes the dangling tuples of acyclic queries by semi-joins (see SemiJoinReducer)
+
+    private final Map<String, StorageFormat> storageFormatMap = new ConcurrentHashMap<>();
+    // <relation name : storage format chosen explicitly>, relations not in this map are detected by getStorageFormat()
+
+    private volatile RelationCache relationCache = null;
+    // the in-memory copies of relations, null if the cache is disabled
+
+    private volatile StringDictionary dictionary = null;
+    private volatile boolean dictionaryLoaded = false;
+    // the dictionary encoding the strings of all relations, loaded lazily by getDictionary() (null if there is no usable one)
+
+    private final ReentrantLock loadLock = new ReentrantLock();
+    // guards the lazy loading of the dictionary and the statistics, and the writes of the statistics file
+
+    private static final int ROW_ESTIMATE_SAMPLE_LINES = 100;
+    // the number of lines to read from the head of a data file to estimate the average line length
+
+    private static final int DISTINCT_ESTIMATE_SAMPLE_ROWS = 1000;
+    // the number of rows to read from the head of a relation to estimate the distinct counts of its columns
 
     /**
-     * A getter for catalog instance (accords to Singleton design pattern).
-     * Create and return an instance if this class has not been instantiated.
-     * Otherwise, return the reference to existing instance.
-     * @return the reference to instance of catalog
+     * The formats a relation can be stored in under the 'files' directory.
+     *      CSV: the text data file 'R.csv', read by {@link ScanOperator};
+     *      COLUMNAR: the typed binary file 'R.col' (see {@link ColumnarFile}), read by {@link ColumnarScanOperator}.
      */
-    public static DBCatalog getInstance(){
-        if (instance == null)
-            instance = new DBCatalog();
-        return instance;
+    public enum StorageFormat {
+        CSV,
+        COLUMNAR
     }
 
     /**
-     * Initialise the catalog, scan and read the schema information under the database directory.
+     * The types of the persistent indexes on a column of a relation (see {@link IndexFile}).
+     *      HASH: a hash index ({@link HashIndexFile}), for the '=' conditions;
+     *      BTREE: a B+-tree ({@link BTreeIndexFile}), for the '=' and the range conditions.
+     */
+    public enum IndexType {
+        HASH,
+        BTREE
+    }
+
+    /**
+     * The settings of the semi-join reduction (the Yannakakis algorithm) for the queries with an acyclic body.
+     *      AUTO: the planner reduces the relations when the binary joins are estimated to build an intermediate result
+     *            larger than the inputs and the output together;
+     *      ON: the relations of every acyclic query are reduced;
+     *      OFF: the relations are never reduced.
+     */
+    public enum SemiJoinReduction {
+        AUTO,
+        ON,
+        OFF
+    }
+
+    /**
+     * Create the catalog of a database, scan and read the schema information under the database directory.
      * @param dbDirectory the relative path to the 'db' directory
      */
-    public void init(String dbDirectory) {
+    public DBCatalog(String dbDirectory) {
         this.dbDirectory = dbDirectory;
+        Map<String, List<String>> schemaMap = new HashMap<>();
         String schema_path = this.dbDirectory + File.separator + "schema.txt";
         try {
             File f = new File(schema_path);
             Scanner scanner = new Scanner(f);
             while (scanner.hasNextLine()) {
-                ArrayList<String> line = new ArrayList<>(Arrays.asList(scanner.nextLine().split("\\s+")));
-                this.relationSchemaMap.put(line.get(0), line.subList(1, line.size()));
+                List<String> line = Arrays.asList(scanner.nextLine().split("\\s+"));
+                schemaMap.put(line.get(0), Collections.unmodifiableList(new ArrayList<>(line.subList(1, line.size()))));
             }
             scanner.close();
-//            System.out.println(this.relationSchemaMap.get("R"));
         } catch (FileNotFoundException e) {
             System.out.println("Schema file not found at : " + schema_path);
             e.printStackTrace();
         }
+        this.relationSchemaMap = Collections.unmodifiableMap(schemaMap);
     }
 
     /**
@@ -64,6 +138,258 @@ public class DBCatalog {
         return (this.dbDirectory + File.separator + "files" + File.separator + relationName + ".csv");
     }
 
+    /**
+     * Return the relative path to the statistics file, which is next to the schema file
+     * @return the relative path as a String
+     */
+    public String getStatisticsPath() {
+        return (this.dbDirectory + File.separator + "stats.txt");
+    }
+
+    /**
+     * Return the relative path to the dictionary file of the database (which may not exist), next to the schema file
+     * @return the relative path as a String
+     */
+    public String getDictionaryPath() {
+        return (this.dbDirectory + File.separator + "dictionary.dat");
+    }
+
+    /**
+     * Return the relative path to the columnar file of required relation (which may not exist)
+     * @param relationName the name of relation
+     * @return the relative path as a String
+     */
+    public String getColumnarPath(String relationName) {
+        return (this.dbDirectory + File.separator + "files" + File.separator + relationName + ".col");
+    }
+
+    /**
+     * Return the relative path to the index file on a column of required relation (which may not exist),
+     * under the 'indexes' directory next to the schema file
+     * @param relationName the name of relation
+     * @param column the index of column
+     * @param type the type of index
+     * @return the relative path as a String
+     */
+    public String getIndexPath(String relationName, int column, IndexType type) {
+        return (this.dbDirectory + File.separator + "indexes" + File.separator
+                + relationName + "." + column + "." + type.name().toLowerCase() + ".idx");
+    }
+
+    /**
+     * Build an index on a column of a relation, from the data file of its current storage format.
+     * The index has to be built again after the data file is modified, or the relation is converted to another format.
+     * @param relationName the name of relation
+     * @param column the index of column
+     * @param type the type of index
+     * @throws IOException if the index can not be built
+     */
+    public void createIndex(String relationName, int column, IndexType type) throws IOException {
+        File indexFile = new File(getIndexPath(relationName, column, type));
+        if (!indexFile.getParentFile().exists() && !indexFile.getParentFile().mkdirs())
+            throw new IOException("Failed to create the index directory: " + indexFile.getParent());
+        IndexFile.build(this, relationName, column, type, indexFile.getPath());
+    }
+
+    /**
+     * Open the index on a column of a relation, if it can be used to scan the relation:
+     * the index file exists, it was built on the current storage format of the relation,
+     * and it is not older than the data file of that format.
+     * @param relationName the name of relation
+     * @param column the index of column
+     * @param type the type of index
+     * @return the index, or {@code null} if there is no usable index
+     */
+    public IndexFile getIndex(String relationName, int column, IndexType type) {
+        File indexFile = new File(getIndexPath(relationName, column, type));
+        if (!indexFile.exists())
+            return null;
+        StorageFormat format = getStorageFormat(relationName);
+        File dataFile = new File(format == StorageFormat.COLUMNAR ? getColumnarPath(relationName) : getRelationPath(relationName));
+        if (indexFile.lastModified() < dataFile.lastModified())
+            return null;
+        try {
+            IndexFile index = IndexFile.open(indexFile.getPath());
+            return index.getStorageFormat() == format ? index : null;
+        } catch (IOException e) {
+            System.out.println("Failed to read index file: " + indexFile.getPath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Decide the storage format to be scanned for a relation.
+     * If a format is set by {@link #setStorageFormat(String, StorageFormat)}, use it.
+     * Otherwise the columnar file is preferred, as long as it exists and is not older than the '.csv' data file.
+     * @param relationName the name of relation
+     * @return the storage format of the relation
+     */
+    public StorageFormat getStorageFormat(String relationName) {
+        StorageFormat format = storageFormatMap.get(relationName);
+        if (format != null)
+            return format;
+        File columnarFile = new File(getColumnarPath(relationName));
+        File csvFile = new File(getRelationPath(relationName));
+        if (columnarFile.exists() && (!csvFile.exists() || columnarFile.lastModified() >= csvFile.lastModified()))
+            return StorageFormat.COLUMNAR;
+        return StorageFormat.CSV;
+    }
+
+    /**
+     * Force the storage format of a relation, e.g. to keep using the '.csv' file while a columnar file exists.
+     * @param relationName the name of relation
+     * @param format the storage format to be scanned, or {@code null} to detect it automatically
+     */
+    public void setStorageFormat(String relationName, StorageFormat format) {
+        if (format == null)
+            storageFormatMap.remove(relationName);
+        else
+            storageFormatMap.put(relationName, format);
+    }
+
+    /**
+     * Convert the '.csv' data file of a relation into a columnar file next to it.
+     * @param relationName the name of relation
+     * @throws IOException if the conversion fails
+     */
+    public void convertToColumnar(String relationName) throws IOException {
+        ColumnarFile.convert(getRelationPath(relationName), getSchema(relationName), getColumnarPath(relationName));
+        rowCountEstimates.remove(relationName);
+        distinctCountEstimates.remove(relationName);
+        if (relationCache != null)
+            relationCache.clear();
+    }
+
+    /**
+     * Build the dictionary of all the strings in the relations (see {@link StringDictionary}), and write it next to the schema file.
+     * The values of each string column are taken from the dictionary of its columnar file, or parsed from the '.csv' file.
+     * The dictionary has to be built again after a data file is modified.
+     * @return the dictionary
+     * @throws IOException if a data file can not be read, or the dictionary can not be written
+     */
+    public StringDictionary buildDictionary() throws IOException {
+        Set<String> values = new HashSet<>();
+        for (String relationName : getRelationNames()) {
+            List<String> schema = getSchema(relationName);
+            if (getStorageFormat(relationName) == StorageFormat.COLUMNAR) {
+                ColumnarFile file = new ColumnarFile(getColumnarPath(relationName));
+                for (int c = 0; c < schema.size(); c++) {
+                    if (file.isDictionaryColumn(c)) {
+                        StringDictionary columnDictionary = file.getColumnDictionary(c);
+                        for (int code = 0; code < columnDictionary.size(); code++)
+                            values.add(columnDictionary.decode(code));
+                    } else if (!file.isIntColumn(c)) {
+                        for (int r = 0; r < file.getRowCount(); r++)
+                            values.add(file.getString(r, c));
+                    }
+                }
+            } else {
+                try (BufferedReader reader = new BufferedReader(new FileReader(getRelationPath(relationName)))) {
+                    String line = reader.readLine();
+                    while (line != null) {
+                        if (!line.trim().isEmpty()) {
+                            List<Term> terms = ScanOperator.parseLine(line, schema);
+                            for (int c = 0; c < schema.size(); c++)
+                                if (!schema.get(c).equals("int"))
+                                    values.add(((StringConstant) terms.get(c)).getValue());
+                        }
+                        line = reader.readLine();
+                    }
+                }
+            }
+        }
+        StringDictionary built = StringDictionary.build(values);
+        built.write(getDictionaryPath());
+        this.loadLock.lock();
+        try {
+            this.dictionary = built;
+            this.dictionaryLoaded = true;
+        } finally {
+            this.loadLock.unlock();
+        }
+        if (relationCache != null)
+            relationCache.clear();
+        return built;
+    }
+
+    /**
+     * Load the dictionary of the database on the first call, if it can be used to encode the string columns:
+     * the dictionary file exists, and it is not older than the data file of any relation.
+     * Then every scan encodes the string columns of its batches by this dictionary (see {@link TupleBatch#forSchema}).
+     * @return the dictionary, or {@code null} if there is no usable dictionary
+     */
+    public StringDictionary getDictionary() {
+        if (this.dictionaryLoaded)
+            return this.dictionary;
+        this.loadLock.lock();
+        try {
+            if (!this.dictionaryLoaded) {
+                this.dictionary = this.readDictionary();
+                this.dictionaryLoaded = true;
+            }
+            return this.dictionary;
+        } finally {
+            this.loadLock.unlock();
+        }
+    }
+
+    private StringDictionary readDictionary() {
+        File dictionaryFile = new File(getDictionaryPath());
+        if (!dictionaryFile.exists())
+            return null;
+        for (String relationName : getRelationNames()) {
+            File csvFile = new File(getRelationPath(relationName));
+            File columnarFile = new File(getColumnarPath(relationName));
+            if (dictionaryFile.lastModified() < csvFile.lastModified() || dictionaryFile.lastModified() < columnarFile.lastModified())
+                return null;
+        }
+        try {
+            return StringDictionary.read(dictionaryFile.getPath());
+        } catch (IOException e) {
+            System.out.println("Failed to read dictionary file: " + dictionaryFile.getPath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Enable the relation cache, so each relation is read from its file once and then scanned in memory
+     * (see {@link CachedScanOperator}). An existing cache will be replaced.
+     * @param capacity the maximum total estimated size (in bytes) of the cached relations
+     */
+    public void enableRelationCache(long capacity) {
+        this.relationCache = new RelationCache(this, capacity);
+    }
+
+    /**
+     * Disable the relation cache and release the cached relations.
+     */
+    public void disableRelationCache() {
+        this.relationCache = null;
+    }
+
+    /**
+     * @return {@code true} if the relations should be scanned through the relation cache
+     */
+    public boolean isRelationCacheEnabled() {
+        return this.relationCache != null;
+    }
+
+    /**
+     * @return the relation cache, which also provides the hit/miss counters; {@code null} if the cache is disabled
+     */
+    public RelationCache getRelationCache() {
+        return this.relationCache;
+    }
+
+    /**
+     * @return the names of all relations in the schema
+     */
+    public Set<String> getRelationNames() {
+        return relationSchemaMap.keySet();
+    }
+
     /**
      * Return the schema of a relation as a List of data types ('int' or 'string')
      * @param relationName a String of the relation name
@@ -72,4 +398,267 @@ public class DBCatalog {
     public List<String> getSchema(String relationName) {
         return relationSchemaMap.get(relationName);
     }
+
+    /**
+     * @return the heap budget (in bytes) for the tuples held in memory by a single operator.
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Configure the heap budget for a single operator, the planner will switch to the out-of-core algorithms
+     * (e.g. {@link SortMergeJoinOperator}) when the estimated input size exceeds it.
+     * @param memoryLimit the budget in bytes.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * @return the number of worker threads evaluating a query.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Configure the degree of parallelism, the planner will build a {@link ParallelOperator} when it is larger than 1.
+     * @param parallelism the number of worker threads, at least 1.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be at least 1: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    public boolean isCodeGenerationEnabled() {
+        return codeGeneration;
+    }
+
+    /**
+     * Enable or disable the code-generation backend, the interpreted operators are used when it is disabled
+     * (and for the plans that {@link PipelineCompiler} does not support).
+     * @param codeGeneration whether to compile the query pipelines.
+     */
+    public void setCodeGeneration(boolean codeGeneration) {
+        this.codeGeneration = codeGeneration;
+    }
+
+    public SemiJoinReduction getSemiJoinReduction() {
+        return semiJoinReduction;
+    }
+
+    /**
+     * Force the semi-join reduction of the acyclic queries on or off, or let the planner decide.
+     * @param semiJoinReduction the setting of the semi-join reduction.
+     */
+    public void setSemiJoinReduction(SemiJoinReduction semiJoinReduction) {
+        this.semiJoinReduction = semiJoinReduction;
+    }
+
+    /**
+     * Collect the statistics of a relation (see {@link RelationStatistics}), and save them into the statistics file,
+     * together with the statistics of the other relations analyzed before.
+     * @param relationName the name of relation
+     * @return the collected statistics
+     * @throws IOException if the statistics file can not be written
+     */
+    public RelationStatistics analyze(String relationName) throws IOException {
+        RelationStatistics statistics = RelationStatistics.collect(this, relationName, new File(getRelationPath(relationName)).lastModified());
+        loadStatistics();
+        this.loadLock.lock();
+        try {
+            Map<String, RelationStatistics> analyzed = new TreeMap<>(statisticsMap);
+            analyzed.put(relationName, statistics);
+            statisticsMap = analyzed;
+            rowCountEstimates.remove(relationName);
+            distinctCountEstimates.remove(relationName);
+
+            try (PrintWriter writer = new PrintWriter(new FileWriter(getStatisticsPath()))) {
+                for (RelationStatistics relationStatistics : analyzed.values())
+                    writer.println(relationStatistics.toLine());
+            }
+        } finally {
+            this.loadLock.unlock();
+        }
+        return statistics;
+    }
+
+    /**
+     * Return the statistics of a relation. The statistics file is read on the first call.
+     * @param relationName the name of relation
+     * @return the statistics, or {@code null} if the relation has not been analyzed,
+     *         or its '.csv' data file has been modified since it was analyzed
+     */
+    public RelationStatistics getStatistics(String relationName) {
+        loadStatistics();
+        RelationStatistics statistics = statisticsMap.get(relationName);
+        if (statistics == null || statistics.getLastModified() != new File(getRelationPath(relationName)).lastModified())
+            return null;
+        return statistics;
+    }
+
+    private void loadStatistics() {
+        if (statisticsMap != null)
+            return;
+        this.loadLock.lock();
+        try {
+            if (statisticsMap == null)
+                statisticsMap = this.readStatistics();
+        } finally {
+            this.loadLock.unlock();
+        }
+    }
+
+    private Map<String, RelationStatistics> readStatistics() {
+        Map<String, RelationStatistics> loaded = new TreeMap<>();
+        File file = new File(getStatisticsPath());
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line = reader.readLine();
+                while (line != null) {
+                    String relationName = line.trim().split("\\s+")[0];
+                    if (!relationName.isEmpty() && getSchema(relationName) != null)
+                        loaded.put(relationName, RelationStatistics.parseLine(line, getSchema(relationName)));
+                    line = reader.readLine();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Failed to read statistics file: " + file.getPath());
+                e.printStackTrace();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Estimate the number of tuples in a relation, without reading the whole data file:
+     * the average line length is measured on the first lines, and the file length is divided by it.
+     * (A columnar file records the exact number of rows, which is used instead.)
+     * The estimate of each relation is computed once and cached.
+     * If the relation has been analyzed, the row count in its statistics is used instead.
+     * @param relationName the name of relation
+     * @return the estimated number of tuples
+     */
+    public long estimateRowCount(String relationName) {
+        RelationStatistics statistics = getStatistics(relationName);
+        if (statistics != null)
+            return statistics.getRowCount();
+        Long estimate = rowCountEstimates.get(relationName);
+        if (estimate != null)
+            return estimate;
+
+        if (getStorageFormat(relationName) == StorageFormat.COLUMNAR) {
+            try {
+                estimate = (long) new ColumnarFile(getColumnarPath(relationName)).getRowCount();
+                rowCountEstimates.put(relationName, estimate);
+                return estimate;
+            } catch (IOException e) {
+                System.out.println("Failed to read columnar file: " + getColumnarPath(relationName));
+                e.printStackTrace();
+            }
+        }
+
+        File file = new File(getRelationPath(relationName));
+        long sampledBytes = 0;
+        int sampledLines = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            while (line != null && sampledLines < ROW_ESTIMATE_SAMPLE_LINES) {
+                sampledBytes += line.length() + 1;
+                sampledLines++;
+                line = reader.readLine();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to sample data file: " + file.getPath());
+            e.printStackTrace();
+        }
+        estimate = sampledLines == 0 ? 0 : Math.max(sampledLines, file.length() * sampledLines / sampledBytes);
+        rowCountEstimates.put(relationName, estimate);
+        return estimate;
+    }
+
+    /**
+     * Estimate the heap footprint of a relation when all its tuples are held in memory.
+     * @param relationName the name of relation
+     * @return the estimated size in bytes
+     */
+    public long estimateMemorySize(String relationName) {
+        return estimateRowCount(relationName) * Tuple.estimateSize(getSchema(relationName).size());
+    }
+
+    /**
+     * Estimate the number of distinct values in a column of a relation.
+     * The first rows of the relation are sampled, and the count in the sample is scaled to the whole relation
+     * by the GEE estimator: the values seen once in the sample are scaled by {@code sqrt(rows / sampledRows)},
+     * the values seen more than once are counted once.
+     * (If the sample covers the whole relation, the count is exact.)
+     * The estimates of each relation are computed once and cached.
+     * If the relation has been analyzed, the distinct count in its statistics is used instead.
+     * @param relationName the name of relation
+     * @param column the index of column
+     * @return the estimated number of distinct values, at least 1
+     */
+    public long estimateDistinctCount(String relationName, int column) {
+        RelationStatistics statistics = getStatistics(relationName);
+        if (statistics != null)
+            return Math.max(1, statistics.getColumn(column).getDistinctCount());
+        long[] estimates = distinctCountEstimates.get(relationName);
+        if (estimates == null) {
+            estimates = sampleDistinctCounts(relationName);
+            distinctCountEstimates.put(relationName, estimates);
+        }
+        return estimates[column];
+    }
+
+    private long[] sampleDistinctCounts(String relationName) {
+        List<String> schema = getSchema(relationName);
+        List<Map<String, Integer>> frequencies = new ArrayList<>();
+        for (int c = 0; c < schema.size(); c++)
+            frequencies.add(new HashMap<>());
+        int sampledRows = 0;
+
+        try {
+            if (getStorageFormat(relationName) == StorageFormat.COLUMNAR) {
+                ColumnarFile file = new ColumnarFile(getColumnarPath(relationName));
+                sampledRows = Math.min(file.getRowCount(), DISTINCT_ESTIMATE_SAMPLE_ROWS);
+                for (int r = 0; r < sampledRows; r++)
+                    for (int c = 0; c < schema.size(); c++)
+                        frequencies.get(c).merge(file.getTerm(r, c).toString(), 1, Integer::sum);
+            } else {
+                try (BufferedReader reader = new BufferedReader(new FileReader(getRelationPath(relationName)))) {
+                    String line = reader.readLine();
+                    while (line != null && sampledRows < DISTINCT_ESTIMATE_SAMPLE_ROWS) {
+                        if (!line.trim().isEmpty()) {
+                            List<Term> terms = ScanOperator.parseLine(line, schema);
+                            for (int c = 0; c < schema.size(); c++)
+                                frequencies.get(c).merge(terms.get(c).toString(), 1, Integer::sum);
+                            sampledRows++;
+                        }
+                        line = reader.readLine();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to sample relation: " + relationName);
+            e.printStackTrace();
+        }
+
+        long rows = Math.max(estimateRowCount(relationName), sampledRows);
+        long[] estimates = new long[schema.size()];
+        for (int c = 0; c < schema.size(); c++) {
+            long seenOnce = 0;
+            long seenMore = 0;
+            for (int frequency : frequencies.get(c).values()) {
+                if (frequency == 1)
+                    seenOnce++;
+                else
+                    seenMore++;
+            }
+            double scale = sampledRows == 0 ? 1 : Math.sqrt((double) rows / sampledRows);
+            long estimate = sampledRows >= rows ? seenOnce + seenMore : Math.round(scale * seenOnce) + seenMore;
+            estimates[c] = Math.max(1, Math.min(rows, estimate));
+        }
+        return estimates;
+    }
 }
@@ -0,0 +1,236 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sort the output tuples of child operator on some key columns, using an external multi-way merge sort.
+ * This is a blocking operator, on the first call of {@link #getNextTuple()}:
+ *      (1) The child output is read in runs of at most {@code runSize} tuples,
+ *          each run is sorted in memory and spilled into a {@link SpillFile}.
+ *      (2) If there are more runs than {@link #MAX_FAN_IN}, groups of runs are merged into longer runs,
+ *          until the number of runs can be merged in a single pass.
+ *      (3) The final runs are merged on the fly, using a priority queue over the head tuple of each run.
+ * If the whole child output fits in a single run, no file will be created and the tuples are sorted in memory.
+ * The variable mask is the same as the child operator.
+ */
+public class ExternalSortOperator extends Operator {
+
+    public static final int MAX_FAN_IN = 64;
+    // the maximum number of runs to be merged at the same time (each run holds an open file and a read buffer)
+
+    private final Operator child;
+    private final TupleComparator comparator;
+    private final int runSize;
+    private final StringDictionary dictionary;
+
+    private boolean sorted = false;
+
+    private List<Tuple> memoryRun = null;
+    private int memoryRunIndex = 0;
+    // used when the child output fits into a single run
+
+    private List<SpillFile> runs = null;
+    private PriorityQueue<RunCursor> mergeQueue = null;
+    // used when the child output has been spilled
+
+    /**
+     * Initialise the operator, copy the variable mask of child.
+     * @param child the child operator.
+     * @param keyIndices the indices of sort key columns in child output tuples.
+     * @param runSize the maximum number of tuples to be held in memory, at least 1.
+     * @param dictionary the dictionary encoding the string columns of the output batches, or {@code null} if they are not encoded.
+     */
+    public ExternalSortOperator(Operator child, List<Integer> keyIndices, int runSize, StringDictionary dictionary) {
+        this.child = child;
+        this.comparator = new TupleComparator(keyIndices);
+        this.runSize = Math.max(1, runSize);
+        this.dictionary = dictionary;
+        this.variableMask = child.getVariableMask();
+    }
+
+    /**
+     * Restart from the first sorted tuple. The child will not be read again, the sorted runs are reused.
+     */
+    @Override
+    public void reset() {
+        if (!this.sorted)
+            return;
+        if (this.memoryRun != null) {
+            this.memoryRunIndex = 0;
+        } else {
+            this.closeMerge();
+            this.openMerge();
+        }
+    }
+
+    /**
+     * @return the next tuple in the order of key columns, or {@code null} if all tuples are returned.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (!this.sorted)
+            this.sort();
+
+        if (this.memoryRun != null) {
+            if (this.memoryRunIndex < this.memoryRun.size())
+                return this.memoryRun.get(this.memoryRunIndex++);
+            return null;
+        }
+
+        RunCursor cursor = this.mergeQueue.poll();
+        if (cursor == null)
+            return null;
+        Tuple nextTuple = cursor.current;
+        if (cursor.advance())
+            this.mergeQueue.add(cursor);
+        return nextTuple;
+    }
+
+    /**
+     * The sort is implemented on tuples, so the batches are packed from {@link #getNextTuple()},
+     * with the string columns encoded by the dictionary given to the constructor.
+     * @return the next batch of sorted rows, or {@code null} if all rows are returned.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        return this.batchFromTuples(this.dictionary);
+    }
+
+    /**
+     * Read all the child output tuples, generate the sorted runs, and prepare the final merge.
+     */
+    private void sort() {
+        this.sorted = true;
+        List<Tuple> buffer = new ArrayList<>();
+        List<SpillFile> spilled = new ArrayList<>();
+        Tuple childTuple = this.child.getNextTuple();
+        while (childTuple != null) {
+            buffer.add(childTuple);
+            if (buffer.size() >= this.runSize) {
+                spilled.add(this.spillRun(buffer));
+                buffer = new ArrayList<>();
+            }
+            childTuple = this.child.getNextTuple();
+        }
+
+        if (spilled.isEmpty()) {
+            // the whole input fits in memory
+            buffer.sort(this.comparator);
+            this.memoryRun = buffer;
+            return;
+        }
+        if (!buffer.isEmpty())
+            spilled.add(this.spillRun(buffer));
+
+        // reduce the number of runs until they can be merged in one pass
+        while (spilled.size() > MAX_FAN_IN) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < spilled.size(); i += MAX_FAN_IN)
+                merged.add(this.mergeRuns(spilled.subList(i, Math.min(i + MAX_FAN_IN, spilled.size()))));
+            spilled = merged;
+        }
+        this.runs = spilled;
+        this.openMerge();
+    }
+
+    /**
+     * Sort the tuples in memory and write them into a new run file.
+     */
+    private SpillFile spillRun(List<Tuple> buffer) {
+        buffer.sort(this.comparator);
+        try {
+            SpillFile run = new SpillFile("sort");
+            for (Tuple tuple : buffer)
+                run.write(tuple);
+            run.finishWrite();
+            return run;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill sorted run", e);
+        }
+    }
+
+    /**
+     * Merge several sorted runs into a single sorted run, the input runs are deleted afterwards.
+     */
+    private SpillFile mergeRuns(List<SpillFile> inputRuns) {
+        try {
+            SpillFile output = new SpillFile("sort");
+            PriorityQueue<RunCursor> queue = new PriorityQueue<>();
+            for (SpillFile run : inputRuns) {
+                RunCursor cursor = new RunCursor(run.openReader());
+                if (cursor.advance())
+                    queue.add(cursor);
+            }
+            while (!queue.isEmpty()) {
+                RunCursor cursor = queue.poll();
+                output.write(cursor.current);
+                if (cursor.advance())
+                    queue.add(cursor);
+            }
+            output.finishWrite();
+            for (SpillFile run : inputRuns)
+                run.delete();
+            return output;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to merge sorted runs", e);
+        }
+    }
+
+    private void openMerge() {
+        this.mergeQueue = new PriorityQueue<>();
+        try {
+            for (SpillFile run : this.runs) {
+                RunCursor cursor = new RunCursor(run.openReader());
+                if (cursor.advance())
+                    this.mergeQueue.add(cursor);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open sorted runs", e);
+        }
+    }
+
+    private void closeMerge() {
+        for (RunCursor cursor : this.mergeQueue) {
+            try {
+                cursor.reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.mergeQueue = null;
+    }
+
+    /**
+     * The read position in a sorted run: the reader and the tuple at its head.
+     */
+    private class RunCursor implements Comparable<RunCursor> {
+        private final SpillFile.Reader reader;
+        private Tuple current = null;
+
+        private RunCursor(SpillFile.Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Move to the next tuple in this run.
+         * @return {@code false} if the run is exhausted.
+         */
+        private boolean advance() {
+            try {
+                this.current = this.reader.read("Sort");
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read sorted run", e);
+            }
+            return this.current != null;
+        }
+
+        @Override
+        public int compareTo(RunCursor other) {
+            return comparator.compare(this.current, other.current);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.*;
+
+/**
+ * Join the outputs of several child operators (one per body atom) at once, by the Leapfrog Triejoin algorithm,
+ * a worst-case optimal Generic Join: instead of joining two relations at a time, the variables are bound one at a time
+ * in a global order, and each value of a variable is found by intersecting the relations containing it.
+ * The number of steps is bounded by the largest possible output of the query (e.g. {@code N^1.5} for a triangle
+ * over relations of {@code N} tuples), while a tree of binary joins may build intermediate results of {@code N^2} tuples.
+ *      (1) Build: the output of each child is materialized as a trie, i.e. its rows are sorted lexicographically
+ *          on the columns of its variables taken in the global order, so the rows sharing a prefix are contiguous.
+ *          Duplicate rows are stored once with their count.
+ *      (2) Join: for the variable at depth {@code d}, the trie iterators of the atoms containing it are positioned
+ *          on the same value by leapfrogging: the iterator with the smallest key seeks the largest key, until all agree.
+ *          Then the iterators open the next level (the rows under that value), for the variable at depth {@code d + 1}.
+ * Each complete binding of the variables is output as many times as the product of the counts of the matched rows,
+ * so the result is the same bag as the one of the binary joins.
+ * The output columns are the variables in the global order; the conditions between different atoms are not applied here.
+ */
+public class GenericJoinOperator extends Operator {
+
+    private final List<Operator> children;
+    private final int[][] childLevels;
+    // for each child, the position in the global order of the variable of each of its trie levels (ascending)
+    private final int[][][] childColumns;
+    // for each child and each trie level, the columns of the child output holding that variable (several if repeated in the atom)
+
+    private Trie[] tries = null;
+    // the materialized children, built on the first call of getNextBatch() and kept on reset
+    private boolean[] outputTypes;
+    private StringDictionary[] outputDictionaries;
+    // the storage type and the dictionary (for an encoded string) of each variable
+    private boolean empty = false;
+    // whether some trie is empty, or some variable has different types in two atoms
+    private TrieIterator[] iterators;
+    // an iterator over each trie
+    private TrieIterator[][] levelIterators;
+    // for each variable in the global order, the iterators of the tries containing it
+    private TrieIterator[] outputIterators;
+    private int[] outputLevels;
+    // for each variable, an iterator whose key at some level is the value of the variable in the current binding
+    private int[] leapfrogPosition;
+    private boolean[] levelAtEnd;
+    // for each variable, the iterator to be moved next by leapfrogging, and whether the intersection is exhausted
+    private boolean started = false;
+    private boolean finished = false;
+    private long pendingCopies = 0;
+    // the remaining copies of the current binding to be output
+    private TupleBatch outputBatch = null;
+
+    /**
+     * Initialise the operator, the variable mask is the global variable order.
+     * @param children the operator of each body atom, whose variable masks hold only variables.
+     * @param variableOrder all the variables of the children, in the order they are bound.
+     */
+    public GenericJoinOperator(List<Operator> children, List<String> variableOrder) {
+        this.children = children;
+        this.variableMask = new ArrayList<>(variableOrder);
+        this.childLevels = new int[children.size()][];
+        this.childColumns = new int[children.size()][][];
+        for (int i = 0; i < children.size(); i++) {
+            List<String> mask = children.get(i).getVariableMask();
+            List<Integer> levels = new ArrayList<>();
+            for (int v = 0; v < variableOrder.size(); v++)
+                if (mask.contains(variableOrder.get(v)))
+                    levels.add(v);
+            this.childLevels[i] = levels.stream().mapToInt(Integer::intValue).toArray();
+            this.childColumns[i] = new int[levels.size()][];
+            for (int l = 0; l < levels.size(); l++) {
+                String var = variableOrder.get(levels.get(l));
+                List<Integer> columns = new ArrayList<>();
+                for (int c = 0; c < mask.size(); c++)
+                    if (var.equals(mask.get(c)))
+                        columns.add(c);
+                this.childColumns[i][l] = columns.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+    }
+
+    /**
+     * Restart the join from the first binding, the tries are kept, so the children will not be read again.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        if (this.tries != null)
+            this.initIterators();
+        this.pendingCopies = 0;
+    }
+
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * @return the next batch of the joined rows, or {@code null} if all the bindings are output.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.tries == null) {
+            this.build();
+            this.initIterators();
+        }
+        if (this.outputBatch == null)
+            this.outputBatch = new TupleBatch("Join", this.outputTypes, this.outputDictionaries, TupleBatch.DEFAULT_CAPACITY);
+        this.outputBatch.clear();
+
+        while (!this.outputBatch.isFull()) {
+            if (this.pendingCopies == 0) {
+                if (!this.nextBinding())
+                    break;
+                this.pendingCopies = this.bindingCount();
+            }
+            int row = this.outputBatch.addRow();
+            for (int v = 0; v < this.outputIterators.length; v++)
+                this.outputIterators[v].writeKey(this.outputLevels[v], this.outputBatch, row, v);
+            this.pendingCopies--;
+        }
+        return this.outputBatch.getSelectedCount() == 0 ? null : this.outputBatch;
+    }
+
+    /**
+     * Materialize the output of each child into a trie, and find the type of each variable.
+     * If a variable has different types in two atoms, no binding can match and the join is empty.
+     */
+    private void build() {
+        this.tries = new Trie[this.children.size()];
+        for (int i = 0; i < this.children.size(); i++)
+            this.tries[i] = new Trie(this.children.get(i), this.childColumns[i]);
+
+        this.outputTypes = new boolean[this.variableMask.size()];
+        this.outputDictionaries = new StringDictionary[this.variableMask.size()];
+        boolean[] typed = new boolean[this.variableMask.size()];
+        for (int i = 0; i < this.tries.length; i++) {
+            if (this.tries[i].size() == 0)
+                continue;
+            for (int l = 0; l < this.childLevels[i].length; l++) {
+                int v = this.childLevels[i][l];
+                boolean isInt = this.tries[i].isIntLevel(l);
+                StringDictionary dictionary = this.tries[i].levelDictionaries[l];
+                if (typed[v] && (this.outputTypes[v] != isInt || this.outputDictionaries[v] != dictionary))
+                    this.empty = true;
+                this.outputTypes[v] = isInt;
+                this.outputDictionaries[v] = dictionary;
+                typed[v] = true;
+            }
+        }
+        for (Trie trie : this.tries)
+            if (trie.size() == 0)
+                this.empty = true;
+    }
+
+    /**
+     * Create the trie iterators at the root of each trie, and group them by the variables.
+     */
+    private void initIterators() {
+        int variableCount = this.variableMask.size();
+        List<List<TrieIterator>> iterators = new ArrayList<>();
+        for (int v = 0; v < variableCount; v++)
+            iterators.add(new ArrayList<>());
+        this.iterators = new TrieIterator[this.tries.length];
+        this.outputIterators = new TrieIterator[variableCount];
+        this.outputLevels = new int[variableCount];
+        for (int i = 0; i < this.tries.length; i++) {
+            this.iterators[i] = new TrieIterator(this.tries[i]);
+            for (int l = 0; l < this.childLevels[i].length; l++) {
+                int v = this.childLevels[i][l];
+                iterators.get(v).add(this.iterators[i]);
+                if (this.outputIterators[v] == null) {
+                    this.outputIterators[v] = this.iterators[i];
+                    this.outputLevels[v] = l;
+                }
+            }
+        }
+        this.levelIterators = new TrieIterator[variableCount][];
+        for (int v = 0; v < variableCount; v++)
+            this.levelIterators[v] = iterators.get(v).toArray(new TrieIterator[0]);
+        this.leapfrogPosition = new int[variableCount];
+        this.levelAtEnd = new boolean[variableCount];
+        this.started = false;
+        this.finished = this.empty;
+    }
+
+    /**
+     * Move to the next complete binding of the variables, in lexicographic order.
+     * @return {@code true} if a binding is found, {@code false} if the join is exhausted.
+     */
+    private boolean nextBinding() {
+        if (this.finished)
+            return false;
+        int last = this.levelIterators.length - 1;
+        int depth;
+        if (!this.started) {
+            this.started = true;
+            depth = 0;
+            this.openLevel(0);
+        } else {
+            depth = last;
+            this.leapfrogNext(depth);
+        }
+        while (true) {
+            if (this.levelAtEnd[depth]) {
+                // no more value of this variable under the current prefix, go back to the previous variable
+                for (TrieIterator iterator : this.levelIterators[depth])
+                    iterator.up();
+                if (depth == 0) {
+                    this.finished = true;
+                    return false;
+                }
+                depth--;
+                this.leapfrogNext(depth);
+            } else if (depth == last) {
+                return true;
+            } else {
+                depth++;
+                this.openLevel(depth);
+            }
+        }
+    }
+
+    private void openLevel(int depth) {
+        TrieIterator[] iterators = this.levelIterators[depth];
+        this.levelAtEnd[depth] = false;
+        for (TrieIterator iterator : iterators) {
+            iterator.open();
+            if (iterator.atEnd())
+                this.levelAtEnd[depth] = true;
+        }
+        if (this.levelAtEnd[depth])
+            return;
+        Arrays.sort(iterators, TrieIterator::compareKey);
+        this.leapfrogPosition[depth] = 0;
+        this.leapfrogSearch(depth);
+    }
+
+    private void leapfrogNext(int depth) {
+        TrieIterator[] iterators = this.levelIterators[depth];
+        int p = this.leapfrogPosition[depth];
+        iterators[p].next();
+        if (iterators[p].atEnd()) {
+            this.levelAtEnd[depth] = true;
+            return;
+        }
+        this.leapfrogPosition[depth] = (p + 1) % iterators.length;
+        this.leapfrogSearch(depth);
+    }
+
+    /**
+     * Move the iterators of a variable until all of them are on the same key (or one of them reaches the end).
+     * The iterators are kept in a cyclic order of their keys, so the one before the current is on the largest key.
+     */
+    private void leapfrogSearch(int depth) {
+        TrieIterator[] iterators = this.levelIterators[depth];
+        int k = iterators.length;
+        int p = this.leapfrogPosition[depth];
+        TrieIterator max = iterators[(p + k - 1) % k];
+        while (iterators[p].compareKey(max) != 0) {
+            iterators[p].seek(max);
+            if (iterators[p].atEnd()) {
+                this.levelAtEnd[depth] = true;
+                return;
+            }
+            max = iterators[p];
+            p = (p + 1) % k;
+        }
+        this.leapfrogPosition[depth] = p;
+    }
+
+    /**
+     * @return the number of copies of the current binding, i.e. the product of the counts of the matched rows.
+     */
+    private long bindingCount() {
+        long count = 1;
+        for (TrieIterator iterator : this.iterators)
+            count *= iterator.rowCount();
+        return count;
+    }
+
+    /**
+     * The distinct rows of a child output, sorted lexicographically on its trie levels.
+     * Each level is stored as an int or a string column (an encoded string level is stored as its codes).
+     */
+    private static final class Trie {
+        private final int[][] intLevels;
+        private final String[][] stringLevels;
+        private final StringDictionary[] levelDictionaries;
+        // the dictionary of each encoded string level, null for the other levels
+        private final int[] counts;
+        // the number of occurrences of each distinct row in the child output
+
+        private Trie(Operator child, int[][] levelColumns) {
+            int levelCount = levelColumns.length;
+            List<Object[]> rows = new ArrayList<>();
+            boolean[] isIntLevel = new boolean[levelCount];
+            this.levelDictionaries = new StringDictionary[levelCount];
+            TupleBatch batch = child.getNextBatch();
+            while (batch != null) {
+                for (int l = 0; l < levelCount; l++) {
+                    isIntLevel[l] = batch.isIntColumn(levelColumns[l][0]);
+                    this.levelDictionaries[l] = batch.getDictionary(levelColumns[l][0]);
+                }
+                for (int i = 0; i < batch.getSelectedCount(); i++) {
+                    Object[] row = readRow(batch, batch.getSelected(i), levelColumns);
+                    if (row != null)
+                        rows.add(row);
+                }
+                batch = child.getNextBatch();
+            }
+            rows.sort(Trie::compareRows);
+
+            int distinct = 0;
+            for (int r = 0; r < rows.size(); r++)
+                if (r == 0 || compareRows(rows.get(r - 1), rows.get(r)) != 0)
+                    distinct++;
+            this.intLevels = new int[levelCount][];
+            this.stringLevels = new String[levelCount][];
+            for (int l = 0; l < levelCount; l++) {
+                if (isIntLevel[l])
+                    this.intLevels[l] = new int[distinct];
+                else
+                    this.stringLevels[l] = new String[distinct];
+            }
+            this.counts = new int[distinct];
+            int d = -1;
+            for (int r = 0; r < rows.size(); r++) {
+                if (r == 0 || compareRows(rows.get(r - 1), rows.get(r)) != 0) {
+                    d++;
+                    for (int l = 0; l < levelCount; l++) {
+                        if (isIntLevel[l])
+                            this.intLevels[l][d] = (Integer) rows.get(r)[l];
+                        else
+                            this.stringLevels[l][d] = (String) rows.get(r)[l];
+                    }
+                }
+                this.counts[d]++;
+            }
+        }
+
+        /**
+         * @return the values of the trie levels in a row, or {@code null} if the columns of a repeated variable differ.
+         */
+        private static Object[] readRow(TupleBatch batch, int row, int[][] levelColumns) {
+            Object[] values = new Object[levelColumns.length];
+            for (int l = 0; l < levelColumns.length; l++) {
+                int[] columns = levelColumns[l];
+                values[l] = batch.isIntColumn(columns[0]) ? (Object) batch.getIntColumn(columns[0])[row] : batch.getStringColumn(columns[0])[row];
+                for (int c = 1; c < columns.length; c++) {
+                    if (batch.isStringColumn(columns[c]) != batch.isStringColumn(columns[0]))
+                        return null;
+                    Object other = batch.isIntColumn(columns[c]) ? (Object) batch.getIntColumn(columns[c])[row] : batch.getStringColumn(columns[c])[row];
+                    if (!values[l].equals(other))
+                        return null;
+                }
+            }
+            return values;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compareRows(Object[] row1, Object[] row2) {
+            for (int l = 0; l < row1.length; l++) {
+                int result = ((Comparable<Object>) row1[l]).compareTo(row2[l]);
+                if (result != 0)
+                    return result;
+            }
+            return 0;
+        }
+
+        private int size() {
+            return this.counts.length;
+        }
+
+        private int levelCount() {
+            return this.intLevels.length;
+        }
+
+        private boolean isIntLevel(int level) {
+            return this.intLevels[level] != null;
+        }
+
+        /**
+         * Compare the key of a row at a level with the key of a row in another trie (at the level of the same variable).
+         */
+        private int compare(int level, int row, Trie other, int otherLevel, int otherRow) {
+            if (this.isIntLevel(level))
+                return Integer.compare(this.intLevels[level][row], other.intLevels[otherLevel][otherRow]);
+            return this.stringLevels[level][row].compareTo(other.stringLevels[otherLevel][otherRow]);
+        }
+
+        /**
+         * Find the first row in {@code [from, to)} whose key at a level is greater than (or equal to, if not strict)
+         * a reference key, by a galloping search from {@code from} (the iterators only move forward, mostly by small steps).
+         */
+        private int search(int level, int from, int to, Trie reference, int referenceLevel, int referenceRow, boolean strict) {
+            int threshold = strict ? 0 : -1;
+            if (from >= to || this.compare(level, from, reference, referenceLevel, referenceRow) > threshold)
+                return from;
+            int low = from;
+            int step = 1;
+            while (low + step < to && this.compare(level, low + step, reference, referenceLevel, referenceRow) <= threshold) {
+                low += step;
+                step <<= 1;
+            }
+            int high = Math.min(low + step, to);
+            // the rows up to low are before the reference, the row at high (if not the end) is not
+            while (high - low > 1) {
+                int middle = (low + high) >>> 1;
+                if (this.compare(level, middle, reference, referenceLevel, referenceRow) <= threshold)
+                    low = middle;
+                else
+                    high = middle;
+            }
+            return high;
+        }
+    }
+
+    /**
+     * An iterator over the levels of a {@link Trie}: at each level it ranges over the distinct keys
+     * of the rows under the keys chosen at the upper levels.
+     */
+    private static final class TrieIterator {
+        private final Trie trie;
+        private int level = -1;
+        private final int[] positions;
+        private final int[] ends;
+        // at each opened level, the current row and the end of the rows under the keys of the upper levels
+
+        private TrieIterator(Trie trie) {
+            this.trie = trie;
+            this.positions = new int[trie.levelCount()];
+            this.ends = new int[trie.levelCount()];
+        }
+
+        /**
+         * Go down to the next level, ranging over the rows under the current key.
+         */
+        private void open() {
+            this.level++;
+            if (this.level == 0) {
+                this.positions[0] = 0;
+                this.ends[0] = this.trie.size();
+            } else {
+                int start = this.positions[this.level - 1];
+                this.positions[this.level] = start;
+                this.ends[this.level] = this.trie.search(this.level - 1, start, this.ends[this.level - 1],
+                        this.trie, this.level - 1, start, true);
+            }
+        }
+
+        private void up() {
+            this.level--;
+        }
+
+        private boolean atEnd() {
+            return this.positions[this.level] >= this.ends[this.level];
+        }
+
+        /**
+         * Move to the next distinct key at the current level.
+         */
+        private void next() {
+            int position = this.positions[this.level];
+            this.positions[this.level] = this.trie.search(this.level, position, this.ends[this.level],
+                    this.trie, this.level, position, true);
+        }
+
+        /**
+         * Move to the first key at the current level that is not less than the current key of another iterator.
+         */
+        private void seek(TrieIterator target) {
+            this.positions[this.level] = this.trie.search(this.level, this.positions[this.level], this.ends[this.level],
+                    target.trie, target.level, target.positions[target.level], false);
+        }
+
+        private int compareKey(TrieIterator other) {
+            return this.trie.compare(this.level, this.positions[this.level], other.trie, other.level, other.positions[other.level]);
+        }
+
+        /**
+         * @return the count of the current row, the iterator is at the last level.
+         */
+        private int rowCount() {
+            return this.trie.counts[this.positions[this.level]];
+        }
+
+        private void writeKey(int level, TupleBatch batch, int row, int column) {
+            int position = this.positions[level];
+            if (this.trie.isIntLevel(level))
+                batch.setInt(row, column, this.trie.intLevels[level][position]);
+            else
+                batch.setString(row, column, this.trie.stringLevels[level][position]);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A static hash index (see {@link IndexFile}), for the '=' lookups.
+ * The entries are grouped by the hash bucket of their keys (the equal keys are adjacent in a bucket),
+ * and the access structure is the bucket directory: the number of buckets (a power of two, at least the number of entries),
+ * followed by the first entry of each bucket and the end of the entries.
+ * A lookup reads the directory entry of the bucket of its key, and compares the keys of that bucket only.
+ */
+public class HashIndexFile extends IndexFile {
+
+    private final int bucketCount;
+
+    HashIndexFile(ByteBuffer buffer) {
+        super(buffer);
+        this.bucketCount = buffer.getInt(this.structureOffset);
+    }
+
+    @Override
+    public long[] lookup(Term key) {
+        if (!this.hasKeyType(key))
+            return new long[0];
+        int bucket = bucketOf(key, this.bucketCount);
+        int start = this.buffer.getInt(this.structureOffset + 4 * (bucket + 1));
+        int end = this.buffer.getInt(this.structureOffset + 4 * (bucket + 2));
+        // the equal keys are adjacent in the bucket
+        while (start < end && this.compareKey(this.getRawKey(start), key) != 0)
+            start++;
+        int matchEnd = start;
+        while (matchEnd < end && this.compareKey(this.getRawKey(matchEnd), key) == 0)
+            matchEnd++;
+        return this.getPositions(start, matchEnd);
+    }
+
+    @Override
+    public long[] lookup(String op, Term key) {
+        if (!this.supports(op))
+            throw new UnsupportedOperationException("A hash index only supports '=' lookups: " + op);
+        return this.lookup(key);
+    }
+
+    @Override
+    public boolean supports(String op) {
+        return op.equals("=");
+    }
+
+    /**
+     * Order the entries by bucket, then by key, then by row.
+     * @param keys the key of each row.
+     * @return the rows in the order of the entries.
+     */
+    static int[] order(List<Term> keys) {
+        int bucketCount = bucketCountFor(keys.size());
+        int[] buckets = new int[keys.size()];
+        Integer[] rows = new Integer[keys.size()];
+        for (int r = 0; r < rows.length; r++) {
+            buckets[r] = bucketOf(keys.get(r), bucketCount);
+            rows[r] = r;
+        }
+        Arrays.sort(rows, (r1, r2) -> {
+            if (buckets[r1] != buckets[r2])
+                return Integer.compare(buckets[r1], buckets[r2]);
+            int result = TupleComparator.compareTerms(keys.get(r1), keys.get(r2));
+            return result != 0 ? result : Integer.compare(r1, r2);
+        });
+        return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param keys the key of each row.
+     * @param order the rows in the order of the entries, as returned by {@link #order(List)}.
+     * @return the bucket directory.
+     */
+    static int[] buildStructure(List<Term> keys, int[] order) {
+        int bucketCount = bucketCountFor(keys.size());
+        int[] structure = new int[bucketCount + 2];
+        structure[0] = bucketCount;
+        int entry = 0;
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            structure[bucket + 1] = entry;
+            while (entry < order.length && bucketOf(keys.get(order[entry]), bucketCount) == bucket)
+                entry++;
+        }
+        structure[bucketCount + 1] = order.length;
+        return structure;
+    }
+
+    private static int bucketCountFor(int entryCount) {
+        return entryCount <= 1 ? 1 : Integer.highestOneBit(entryCount - 1) << 1;
+    }
+
+    /**
+     * The bucket of a key, the hash is stable across runs (the hash code of a string is specified by the language).
+     */
+    private static int bucketOf(Term key, int bucketCount) {
+        int hash = key instanceof IntegerConstant ? ((IntegerConstant) key).getValue() : ((StringConstant) key).getValue().hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash & (bucketCount - 1);
+    }
+}
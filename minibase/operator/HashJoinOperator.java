@@ -0,0 +1,133 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.List;
+
+/**
+ * Apply an equi-JOIN on the output tuple sets of two child operators, using a build/probe hash join.
+ * The variable mask, the inner join conditions and the explicit join conditions are interpreted
+ * in the same way as {@link JoinOperator} (which also splits them into key columns and residual conditions),
+ * only the evaluation strategy is different:
+ *      (1) Build: the output of right child is read only once, and materialized into a hash table,
+ *          keyed on the columns recorded in {@code joinConditionIndices}
+ *          (and the right operands of explicit '=' conditions between the two children).
+ *      (2) Probe: the left child is streamed, each left tuple looks up the matching right tuples by its own key columns.
+ * The remaining (non-equality) {@link JoinCondition} are checked on each matched pair.
+ * This avoids the {@code rightChild.reset()} call for every left tuple in {@link JoinOperator}.
+ * The right rows are stored in a {@link JoinHashTable}, which may also be built outside and shared by several
+ * operators (see {@link #setHashTable(JoinHashTable)}).
+ */
+public class HashJoinOperator extends JoinOperator {
+
+    private JoinHashTable hashTable = null;
+    // the right rows hashed on their key columns; built on the first call of getNextBatch(), unless it is set from outside
+
+    private TupleBatch probeBatch = null;
+    private int probePosition = 0;
+    private int probeChain = -1;
+    // the current left batch, the position of current left row in its selection vector, and the next build row to be checked
+
+    /**
+     * Initialise the operator, the variable mask, key columns and residual conditions are handled by {@link JoinOperator}.
+     * @param leftChild left child operator (probe side).
+     * @param rightChild right child operator (build side).
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     */
+    public HashJoinOperator(Operator leftChild, Operator rightChild, List<ComparisonAtom> comparisonAtoms) {
+        super(leftChild, rightChild, comparisonAtoms);
+    }
+
+    /**
+     * Reset the probe side only. The hash table is kept, so the right child will not be read again.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.leftChild.reset();
+        this.probeBatch = null;
+        this.probePosition = 0;
+        this.probeChain = -1;
+    }
+
+    /**
+     * Use a hash table built outside of this operator (e.g. built in parallel by {@link ParallelOperator}),
+     * the right child will not be read.
+     * @param hashTable a complete table of the right rows, keyed on {@link #getRightKeys()}.
+     */
+    public void setHashTable(JoinHashTable hashTable) {
+        this.hashTable = hashTable;
+    }
+
+    /**
+     * @return the key columns of the right rows, i.e. the key columns of the hash table.
+     */
+    public int[] getRightKeys() {
+        return toArray(this.rightKeyIndices);
+    }
+
+    /**
+     * Read all the output batches of right child operator into the hash table.
+     */
+    private void build() {
+        this.hashTable = new JoinHashTable(this.getRightKeys());
+        this.hashTable.addAll(this.rightChild);
+    }
+
+    /**
+     * Get the next joined tuple, taken from the batches produced by {@link #getNextBatch()}.
+     * @return the next joined tuple that satisfies the join conditions.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * Get the next batch of joined rows.
+     * On the first call the right child will be materialized into the hash table,
+     * then each left row is joined with the right rows in the chain of its key.
+     * @return the next batch of joined rows that satisfy the join conditions, or {@code null} if the join is complete.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.hashTable == null)
+            this.build();
+        if (this.outputBatch != null)
+            this.outputBatch.clear();
+        int[] leftKeys = toArray(this.leftKeyIndices);
+
+        while (this.outputBatch == null || !this.outputBatch.isFull()) {
+            // continue with the chain of current left row
+            if (this.probeChain >= 0) {
+                int buildRow = this.probeChain;
+                this.probeChain = this.hashTable.next(buildRow);
+                TupleBatch rightBatch = this.hashTable.getBatch(buildRow);
+                int rightRow = JoinHashTable.getRow(buildRow);
+                int leftRow = this.probeBatch.getSelected(this.probePosition);
+                if (this.satisfyResidualConditions(this.probeBatch, leftRow, rightBatch, rightRow))
+                    this.appendJoinedRow(this.probeBatch, leftRow, rightBatch, rightRow);
+                continue;
+            }
+
+            // move to the next left row (fetch a new left batch if needed), and look up its chain
+            if (this.probeBatch != null)
+                this.probePosition++;
+            if (this.probeBatch == null || this.probePosition >= this.probeBatch.getSelectedCount()) {
+                this.probeBatch = this.leftChild.getNextBatch();
+                this.probePosition = 0;
+                if (this.probeBatch == null)
+                    break;
+            }
+            this.probeChain = this.hashTable.lookup(this.probeBatch, this.probeBatch.getSelected(this.probePosition), leftKeys);
+        }
+
+        if (this.outputBatch == null || this.outputBatch.getSelectedCount() == 0)
+            return null;
+        return this.outputBatch;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,67 @@
+package ed.inf.adbs.minibase.operator;
+
+/**
+ * A HyperLogLog sketch, estimating the number of distinct values in a stream with a fixed amount of memory
+ * ({@code 2^PRECISION} one-byte registers, the standard error is about {@code 1.04 / sqrt(2^PRECISION)}, i.e. 1.6%).
+ * Each value is hashed into 64 bits: the first {@code PRECISION} bits choose a register,
+ * and the register keeps the largest position of the first 1-bit in the remaining bits.
+ * Used by {@link RelationStatistics} to estimate the distinct counts of columns.
+ */
+public class HyperLogLog {
+
+    private static final int PRECISION = 12;
+    private final byte[] registers = new byte[1 << PRECISION];
+
+    public void add(int value) {
+        this.addHash(mix(value));
+    }
+
+    public void add(String value) {
+        // FNV-1a over the characters, then mixed to spread the bits
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        this.addHash(mix(hash));
+    }
+
+    private void addHash(long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        // the sentinel bit bounds the rank when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > this.registers[index])
+            this.registers[index] = (byte) rank;
+    }
+
+    /**
+     * @return the estimated number of distinct values added to the sketch.
+     */
+    public long estimate() {
+        int m = this.registers.length;
+        double sum = 0;
+        int zeroRegisters = 0;
+        for (byte register : this.registers) {
+            sum += Math.pow(2, -register);
+            if (register == 0)
+                zeroRegisters++;
+        }
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        // small range correction: linear counting on the empty registers
+        if (estimate <= 2.5 * m && zeroRegisters > 0)
+            estimate = m * Math.log((double) m / zeroRegisters);
+        return Math.round(estimate);
+    }
+
+    /**
+     * The finalizer of MurmurHash3 (fmix64), every input bit affects every output bit.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,250 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A persistent secondary index on one column of a relation, stored under the 'indexes' directory of the database
+ * (see {@link DBCatalog#createIndex(String, int, DBCatalog.IndexType)}).
+ * An index maps each value of the column to the positions of the rows holding it in the data file of the relation:
+ * the row numbers in the columnar file, or the byte offsets of the lines in the '.csv' file,
+ * depending on the storage format the index was built on (see {@link IndexScanOperator}).
+ * The file is read through a memory-mapped {@link ByteBuffer}, like a {@link ColumnarFile}.
+ *
+ * File layout (all numbers are big-endian):
+ *      header: magic number, version, index type, storage format, key type, number of entries,
+ *              offset of the entries, offset of the key heap, offset of the access structure;
+ *      entries: for each row, a 4-byte key and an 8-byte row position, in the order chosen by the index type;
+ *               an int key is the value itself, a string key is the offset of the value in the key heap;
+ *      key heap: the string keys, each as its length and its UTF-8 bytes;
+ *      access structure: the hash buckets ({@link HashIndexFile}) or the inner levels of the tree ({@link BTreeIndexFile}).
+ */
+public abstract class IndexFile {
+
+    public static final int MAGIC = 0x4D424958; // "MBIX"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 36;
+    private static final int ENTRY_SIZE = 12;
+
+    protected final ByteBuffer buffer;
+    private final DBCatalog.StorageFormat storageFormat;
+    private final boolean intKeys;
+    protected final int entryCount;
+    private final int entriesOffset;
+    private final int heapOffset;
+    protected final int structureOffset;
+
+    protected IndexFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.storageFormat = DBCatalog.StorageFormat.values()[buffer.getInt(12)];
+        this.intKeys = buffer.getInt(16) == 1;
+        this.entryCount = buffer.getInt(20);
+        this.entriesOffset = buffer.getInt(24);
+        this.heapOffset = buffer.getInt(28);
+        this.structureOffset = buffer.getInt(32);
+    }
+
+    /**
+     * Map an index file into memory and read its header.
+     * @param path the path to the index file.
+     * @return a {@link HashIndexFile} or a {@link BTreeIndexFile}, depending on the type recorded in the file.
+     * @throws IOException if the file can not be mapped, or it is not an index file.
+     */
+    public static IndexFile open(String path) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("Not an index file: " + path);
+        if (buffer.getInt(8) == DBCatalog.IndexType.HASH.ordinal())
+            return new HashIndexFile(buffer);
+        return new BTreeIndexFile(buffer);
+    }
+
+    /**
+     * @return the storage format whose row positions are recorded in the index.
+     */
+    public DBCatalog.StorageFormat getStorageFormat() {
+        return this.storageFormat;
+    }
+
+    public int getEntryCount() {
+        return this.entryCount;
+    }
+
+    /**
+     * Find the rows whose key equals a constant.
+     * @param key the constant to look up.
+     * @return the positions of the matched rows.
+     */
+    public abstract long[] lookup(Term key);
+
+    /**
+     * Find the rows whose key satisfies a comparison with a constant, as "key op constant".
+     * @param op one of '=', '<', '<=', '>', '>='.
+     * @param key the constant compared with.
+     * @return the positions of the matched rows.
+     * @throws UnsupportedOperationException if the index can not answer the comparison (e.g. a range on a hash index).
+     */
+    public abstract long[] lookup(String op, Term key);
+
+    /**
+     * @param op a comparison operator.
+     * @return {@code true} if {@link #lookup(String, Term)} supports it.
+     */
+    public abstract boolean supports(String op);
+
+    protected long getPosition(int entry) {
+        return this.buffer.getLong(this.entriesOffset + entry * ENTRY_SIZE + 4);
+    }
+
+    protected int getRawKey(int entry) {
+        return this.buffer.getInt(this.entriesOffset + entry * ENTRY_SIZE);
+    }
+
+    protected long[] getPositions(int from, int to) {
+        long[] positions = new long[Math.max(0, to - from)];
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = this.getPosition(from + i);
+        return positions;
+    }
+
+    /**
+     * Compare a stored key with a constant.
+     * @param rawKey an int key, or the heap offset of a string key.
+     * @param key a constant of the same type as the keys.
+     * @return a negative number, zero, or a positive number, as the stored key is less than, equal to, or greater than the constant.
+     */
+    protected int compareKey(int rawKey, Term key) {
+        if (this.intKeys)
+            return Integer.compare(rawKey, ((IntegerConstant) key).getValue());
+        return this.getString(rawKey).compareTo(((StringConstant) key).getValue());
+    }
+
+    /**
+     * @param key a constant.
+     * @return {@code true} if the constant has the type of the keys, otherwise it equals no key.
+     */
+    protected boolean hasKeyType(Term key) {
+        return this.intKeys == (key instanceof IntegerConstant);
+    }
+
+    protected String getString(int heapEntry) {
+        int start = this.heapOffset + heapEntry;
+        byte[] bytes = new byte[this.buffer.getInt(start)];
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(start + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Build an index on a column of a relation, from the data file of its current storage format.
+     * @param dbc the catalog of the database.
+     * @param relationName the name of relation.
+     * @param column the index of the column.
+     * @param type the type of the index.
+     * @param outputPath the path to the index file to be written.
+     * @throws IOException if the data file can not be read or the output can not be written.
+     */
+    public static void build(DBCatalog dbc, String relationName, int column, DBCatalog.IndexType type, String outputPath) throws IOException {
+        List<String> schema = dbc.getSchema(relationName);
+        if (column < 0 || column >= schema.size())
+            throw new IllegalArgumentException("Relation " + relationName + " has no column " + column);
+        boolean intKeys = schema.get(column).equals("int");
+        DBCatalog.StorageFormat format = dbc.getStorageFormat(relationName);
+
+        // read the key and the position of each row
+        List<Term> keys = new ArrayList<>();
+        long[] positions = new long[1024];
+        if (format == DBCatalog.StorageFormat.COLUMNAR) {
+            ColumnarFile file = new ColumnarFile(dbc.getColumnarPath(relationName));
+            positions = new long[file.getRowCount()];
+            for (int r = 0; r < file.getRowCount(); r++) {
+                keys.add(file.getTerm(r, column));
+                positions[r] = r;
+            }
+        } else {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(dbc.getRelationPath(relationName)))) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                long offset = 0;
+                long lineStart = 0;
+                int b = in.read();
+                while (b >= 0 || line.size() > 0) {
+                    if (b < 0 || b == '\n') {
+                        String text = line.toString(StandardCharsets.UTF_8.name());
+                        if (!text.trim().isEmpty()) {
+                            if (keys.size() == positions.length)
+                                positions = Arrays.copyOf(positions, positions.length * 2);
+                            positions[keys.size()] = lineStart;
+                            keys.add(ScanOperator.parseLine(text, schema).get(column));
+                        }
+                        line.reset();
+                        lineStart = offset + 1;
+                        if (b < 0)
+                            break;
+                    } else {
+                        line.write(b);
+                    }
+                    offset++;
+                    b = in.read();
+                }
+            }
+        }
+
+        // order the entries and build the access structure, then write the file
+        int[] order = type == DBCatalog.IndexType.HASH ? HashIndexFile.order(keys) : BTreeIndexFile.order(keys);
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        int[] rawKeys = new int[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            Term key = keys.get(order[i]);
+            if (intKeys) {
+                rawKeys[i] = ((IntegerConstant) key).getValue();
+            } else if (i > 0 && key.equals(keys.get(order[i - 1]))) {
+                rawKeys[i] = rawKeys[i - 1]; // the equal strings are stored once
+            } else {
+                byte[] bytes = ((StringConstant) key).getValue().getBytes(StandardCharsets.UTF_8);
+                rawKeys[i] = heap.size();
+                new DataOutputStream(heap).writeInt(bytes.length);
+                heap.write(bytes);
+            }
+        }
+        int[] structure = type == DBCatalog.IndexType.HASH
+                ? HashIndexFile.buildStructure(keys, order) : BTreeIndexFile.buildStructure(rawKeys);
+
+        long entriesOffset = HEADER_SIZE;
+        long heapOffset = entriesOffset + (long) ENTRY_SIZE * order.length;
+        long structureOffset = heapOffset + heap.size();
+        if (structureOffset + 4L * structure.length > Integer.MAX_VALUE)
+            throw new IOException("Relation is too large for a single index file: " + relationName);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(type.ordinal());
+            out.writeInt(format.ordinal());
+            out.writeInt(intKeys ? 1 : 0);
+            out.writeInt(order.length);
+            out.writeInt((int) entriesOffset);
+            out.writeInt((int) heapOffset);
+            out.writeInt((int) structureOffset);
+            for (int i = 0; i < order.length; i++) {
+                out.writeInt(rawKeys[i]);
+                out.writeLong(positions[order[i]]);
+            }
+            heap.writeTo(out);
+            for (int value : structure)
+                out.writeInt(value);
+        }
+    }
+}
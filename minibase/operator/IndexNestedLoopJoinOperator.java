@@ -0,0 +1,114 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.List;
+
+/**
+ * Apply an equi-JOIN on the output tuple sets of two child operators, by probing a persistent index of the right relation.
+ * The variable mask, the inner join conditions and the explicit join conditions are interpreted
+ * in the same way as {@link JoinOperator}, only the evaluation strategy is different:
+ * the right child is an {@link IndexScanOperator} on one of the equi-join key columns, and for each left row,
+ * it is probed with the key of that row, so only the right rows with the same key are fetched
+ * (instead of scanning the whole right relation once per left block, or hashing all of it).
+ * All the join conditions are checked on each fetched pair, since the index only matches one of the keys.
+ * This pays off when the left side is small compared with the right relation.
+ */
+public class IndexNestedLoopJoinOperator extends JoinOperator {
+
+    private final IndexScanOperator indexScan;
+    private final int leftKeyColumn;
+    // the right child, and the column of left rows holding the key probed in its index
+
+    private TupleBatch probeBatch = null;
+    private int probePosition = 0;
+    private TupleBatch matchBatch = null;
+    private int matchPosition = 0;
+    // the current left batch and the position of current left row in its selection vector,
+    // the current batch of right rows matched by its key and the position of the next one to be checked
+
+    /**
+     * Initialise the operator, the variable mask, key columns and residual conditions are handled by {@link JoinOperator}.
+     * @param leftChild left child operator (outer side).
+     * @param rightChild the index scan of the right relation (inner side), whose key variable is an equi-join key.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     */
+    public IndexNestedLoopJoinOperator(Operator leftChild, IndexScanOperator rightChild, List<ComparisonAtom> comparisonAtoms) {
+        super(leftChild, rightChild, comparisonAtoms);
+        this.indexScan = rightChild;
+        int rightKeyColumn = rightChild.getVariableMask().indexOf(rightChild.getKeyVariable());
+        int keyIndex = this.rightKeyIndices.indexOf(rightKeyColumn);
+        if (keyIndex < 0)
+            throw new IllegalArgumentException("The index on " + rightChild.getKeyVariable() + " does not match an equi-join key");
+        this.leftKeyColumn = this.leftKeyIndices.get(keyIndex);
+    }
+
+    /**
+     * Reset the outer side. The right child is probed again for each left row.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.leftChild.reset();
+        this.probeBatch = null;
+        this.probePosition = 0;
+        this.matchBatch = null;
+        this.matchPosition = 0;
+    }
+
+    /**
+     * Get the next joined tuple, taken from the batches produced by {@link #getNextBatch()}.
+     * @return the next joined tuple that satisfies the join conditions.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * Get the next batch of joined rows: each left row probes the index with its key,
+     * and is joined with the fetched right rows that satisfy all the join conditions.
+     * @return the next batch of joined rows that satisfy the join conditions, or {@code null} if the join is complete.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.outputBatch != null)
+            this.outputBatch.clear();
+
+        while (this.outputBatch == null || !this.outputBatch.isFull()) {
+            // continue with the matched rows of current left row
+            if (this.matchBatch != null && this.matchPosition < this.matchBatch.getSelectedCount()) {
+                int leftRow = this.probeBatch.getSelected(this.probePosition);
+                int rightRow = this.matchBatch.getSelected(this.matchPosition++);
+                if (this.satisfyConditions(this.probeBatch, leftRow, this.matchBatch, rightRow))
+                    this.appendJoinedRow(this.probeBatch, leftRow, this.matchBatch, rightRow);
+                continue;
+            }
+            if (this.matchBatch != null) {
+                this.matchBatch = this.indexScan.getNextBatch();
+                this.matchPosition = 0;
+                if (this.matchBatch != null)
+                    continue;
+            }
+
+            // move to the next left row (fetch a new left batch if needed), and probe the index with its key
+            if (this.probeBatch != null)
+                this.probePosition++;
+            if (this.probeBatch == null || this.probePosition >= this.probeBatch.getSelectedCount()) {
+                this.probeBatch = this.leftChild.getNextBatch();
+                this.probePosition = 0;
+                if (this.probeBatch == null)
+                    break;
+                if (this.probeBatch.getSelectedCount() == 0)
+                    continue;
+            }
+            this.indexScan.probe(this.probeBatch.getTerm(this.probeBatch.getSelected(this.probePosition), this.leftKeyColumn));
+            this.matchBatch = this.indexScan.getNextBatch();
+            this.matchPosition = 0;
+        }
+
+        if (this.outputBatch == null || this.outputBatch.getSelectedCount() == 0)
+            return null;
+        return this.outputBatch;
+    }
+}
@@ -0,0 +1,217 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class implements the SCAN operation through a persistent index (see {@link IndexFile}):
+ * instead of reading the whole relation, the rows satisfying one select condition ("column op constant")
+ * are looked up in the index on that column, and fetched from the data file by their positions
+ * (the rows of a {@link ColumnarFile}, or the lines of the '.csv' file read by seeking to their offsets).
+ * It plays the same role as {@link ScanOperator} (a leaf node of the query plan, with the same variable mask).
+ * The positions are sorted before the rows are fetched, so the data file is read in one forward pass.
+ * The other select conditions of the atom may be pushed down (see {@link ScanFilter}), and the columns pruned,
+ * as in the other scans.
+ * An index scan may also be built without a condition, as the inner side of an {@link IndexNestedLoopJoinOperator}:
+ * it is then probed with one key at a time (see {@link #probe(Term)}), and returns the rows whose column equals that key.
+ */
+public class IndexScanOperator extends Operator {
+
+    private final DBCatalog dbc;
+    private final String relationName;
+    private final IndexFile index;
+    private final String keyVariable;
+    private final String op;
+    private Term constant;
+    private ColumnarFile columnarFile = null;
+    private RandomAccessFile csvFile = null;
+    private final byte[] lineBuffer = new byte[256];
+    // the data file of the relation, in the storage format the index was built on, and the buffer reading a line of '.csv' file
+
+    private long[] positions = null;
+    private int nextPosition = 0;
+    // the positions of the matched rows, looked up on the first call of getNextBatch(), and the next one to be fetched
+
+    private TupleBatch batch = null;
+    // the batch returned by getNextBatch(), reused for each call
+    private ScanFilter filter = null;
+    private int[] outputColumns = null;
+    // the pushed-down select conditions (null if the rows are not filtered),
+    // and the columns returned after pruning (null if all the columns are returned)
+
+    /**
+     * Open the index and the data file of the relation, and use the terms in the relational atom to build the variable mask.
+     * @param dbc the catalog of the database.
+     * @param baseQueryAtom a relational atom in query body, providing information like relation name and variable mask.
+     * @param condition a select condition between a variable of the atom and a constant, supported by the index.
+     * @param type the type of the index on the column of that variable.
+     */
+    public IndexScanOperator(DBCatalog dbc, RelationalAtom baseQueryAtom, ComparisonAtom condition, DBCatalog.IndexType type) {
+        this(dbc, baseQueryAtom, new SelectCondition(condition, variablesOf(baseQueryAtom)), type);
+    }
+
+    private IndexScanOperator(DBCatalog dbc, RelationalAtom baseQueryAtom, SelectCondition condition, DBCatalog.IndexType type) {
+        this(dbc, baseQueryAtom, condition.getConstantColumn(), condition.getConstantOp(), condition.getConstant(), type);
+    }
+
+    /**
+     * Open the index and the data file of the relation for the probes of an {@link IndexNestedLoopJoinOperator},
+     * no row is returned until the first call of {@link #probe(Term)}.
+     * @param dbc the catalog of the database.
+     * @param baseQueryAtom a relational atom in query body, providing information like relation name and variable mask.
+     * @param column the column of the atom probed by the join, which holds a variable.
+     * @param type the type of the index on that column, it must support '=' lookups.
+     */
+    public IndexScanOperator(DBCatalog dbc, RelationalAtom baseQueryAtom, int column, DBCatalog.IndexType type) {
+        this(dbc, baseQueryAtom, column, "=", null, type);
+    }
+
+    private IndexScanOperator(DBCatalog dbc, RelationalAtom baseQueryAtom, int column, String op, Term constant, DBCatalog.IndexType type) {
+        this.variableMask.addAll(variablesOf(baseQueryAtom));
+        this.relationName = baseQueryAtom.getName();
+        this.keyVariable = column < 0 ? null : this.variableMask.get(column);
+        this.op = op;
+        this.constant = constant;
+        this.dbc = dbc;
+        this.index = column < 0 ? null : dbc.getIndex(this.relationName, column, type);
+        if (this.index == null || !this.index.supports(this.op))
+            throw new IllegalArgumentException("No " + type + " index on column " + column + " of " + this.relationName
+                    + " supports '" + this.op + "' lookups");
+
+        try {
+            if (this.index.getStorageFormat() == DBCatalog.StorageFormat.COLUMNAR)
+                this.columnarFile = new ColumnarFile(dbc.getColumnarPath(this.relationName));
+            else
+                this.csvFile = new RandomAccessFile(dbc.getRelationPath(this.relationName), "r");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open the data file of relation: " + this.relationName, e);
+        }
+    }
+
+    private static List<String> variablesOf(RelationalAtom atom) {
+        List<String> variables = new ArrayList<>();
+        for (Term term : atom.getTerms())
+            variables.add(term instanceof Variable ? ((Variable) term).getName() : null);
+        return variables;
+    }
+
+    /**
+     * @return the variable in the indexed column.
+     */
+    public String getKeyVariable() {
+        return this.keyVariable;
+    }
+
+    /**
+     * Look up another key, the following reads will return the rows whose indexed column equals it.
+     * Probing the same key again only restarts from the first matched row.
+     * @param key the constant to look up.
+     */
+    public void probe(Term key) {
+        if (!key.equals(this.constant)) {
+            this.constant = key;
+            this.positions = null;
+        }
+        this.reset();
+    }
+
+    /**
+     * Reset the operator state, the following reads will start from the first matched row.
+     * The looked up positions are kept.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.nextPosition = 0;
+    }
+
+    /**
+     * Filter the fetched rows.
+     * @param conditions the select conditions on the variables of this scan.
+     * @return {@code true}, the conditions are always applied.
+     */
+    @Override
+    public boolean pushDownConditions(List<ComparisonAtom> conditions) {
+        this.filter = new ScanFilter(conditions, this.variableMask);
+        return true;
+    }
+
+    /**
+     * Return only the columns of the given variables.
+     * @param variables the variables read by the operators above this scan.
+     */
+    @Override
+    public void pruneColumns(Set<String> variables) {
+        this.outputColumns = this.retainVariables(variables);
+    }
+
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * Fetch the next matched rows into a batch. The batches in which no row satisfies the pushed-down conditions are skipped.
+     * @return a batch of up to {@link TupleBatch#DEFAULT_CAPACITY} rows, or {@code null} if all the matched rows are returned
+     *         (or if no key has been probed yet).
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        checkInterrupted();
+        if (this.constant == null)
+            return null;
+        if (this.positions == null) {
+            this.positions = this.index.lookup(this.op, this.constant);
+            Arrays.sort(this.positions);
+        }
+        if (this.batch == null)
+            this.batch = TupleBatch.forSchema(this.relationName, this.dbc.getSchema(this.relationName), this.dbc.getDictionary(),
+                    TupleBatch.DEFAULT_CAPACITY);
+
+        while (this.nextPosition < this.positions.length) {
+            this.batch.clear();
+            while (!this.batch.isFull() && this.nextPosition < this.positions.length)
+                this.fetchRow(this.positions[this.nextPosition++]);
+            if (this.filter != null && this.filter.filter(this.batch) == 0)
+                continue;
+            return this.outputColumns == null ? this.batch : this.batch.project(this.outputColumns, this.relationName);
+        }
+        return null;
+    }
+
+    /**
+     * Append the row at a position of the data file to the batch.
+     */
+    private void fetchRow(long position) {
+        if (this.columnarFile != null) {
+            this.columnarFile.readRows((int) position, (int) position + 1, this.batch);
+            return;
+        }
+        try {
+            this.csvFile.seek(position);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int length = this.csvFile.read(this.lineBuffer);
+            while (length > 0) {
+                int end = 0;
+                while (end < length && this.lineBuffer[end] != '\n')
+                    end++;
+                line.write(this.lineBuffer, 0, end);
+                if (end < length)
+                    break;
+                length = this.csvFile.read(this.lineBuffer);
+            }
+            ScanOperator.parseLine(line.toString(StandardCharsets.UTF_8.name()), this.batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read relation file: " + this.relationName, e);
+        }
+    }
+}
@@ -46,6 +46,80 @@ public class JoinCondition {
         }
     }
 
+    /**
+     * Whether this condition is an equality between a left column and a right column,
+     * such a condition can be used as a key of equi-join (e.g. in {@link HashJoinOperator}).
+     * @return {@code true} if the comparison operator is '='; {@code false} otherwise
+     */
+    public boolean isEquality() {
+        return this.op.equals("=");
+    }
+
+    /**
+     * @return the index of the operand in the tuples from left child operator
+     */
+    public int getLeftIndex() {
+        return this.reverseOrder ? this.operand2Idx : this.operand1Idx;
+    }
+
+    /**
+     * @return the index of the operand in the tuples from right child operator
+     */
+    public int getRightIndex() {
+        return this.reverseOrder ? this.operand1Idx : this.operand2Idx;
+    }
+
+    /**
+     * Compile the condition into an evaluator specialized for the column types (see {@link JoinPredicate}),
+     * with the operands put in left-right order.
+     * @param leftBatch a batch from the left child operator, providing the column types.
+     * @param rightBatch a batch from the right child operator, providing the column types.
+     * @return the compiled predicate.
+     */
+    public JoinPredicate compile(TupleBatch leftBatch, TupleBatch rightBatch) {
+        return compile(this.getLeftIndex(), this.getLeftToRightOperator(), this.getRightIndex(), leftBatch, rightBatch);
+    }
+
+    /**
+     * Compile a comparison between a left column and a right column, e.g. the equality of a variable shared by both children.
+     * @param leftIndex the column of the left rows.
+     * @param op the comparison operator, with the left column as the first operand.
+     * @param rightIndex the column of the right rows.
+     * @param leftBatch a batch from the left child operator, providing the column types.
+     * @param rightBatch a batch from the right child operator, providing the column types.
+     * @return the compiled predicate.
+     */
+    public static JoinPredicate compile(int leftIndex, ComparisonOperator op, int rightIndex, TupleBatch leftBatch, TupleBatch rightBatch) {
+        if (leftBatch.isStringColumn(leftIndex) != rightBatch.isStringColumn(rightIndex))
+            return JoinPredicate.constant(op == ComparisonOperator.NEQ); // values of different types are never equal
+        if (!leftBatch.isStringColumn(leftIndex))
+            return JoinPredicate.intColumns(leftIndex, op, rightIndex);
+        if (leftBatch.isEncodedColumn(leftIndex) && leftBatch.getDictionary(leftIndex) == rightBatch.getDictionary(rightIndex))
+            return JoinPredicate.intColumns(leftIndex, op, rightIndex); // the codes compare as the strings
+        return JoinPredicate.stringColumns(leftIndex, op, rightIndex);
+    }
+
+    /**
+     * @return the comparison operator with the left operand first, e.g. '<' for {@code right > left}.
+     */
+    private ComparisonOperator getLeftToRightOperator() {
+        ComparisonOperator operator = ComparisonOperator.fromString(this.op);
+        if (!this.reverseOrder)
+            return operator;
+        switch (operator) {
+            case GT:
+                return ComparisonOperator.LT;
+            case GEQ:
+                return ComparisonOperator.LEQ;
+            case LT:
+                return ComparisonOperator.GT;
+            case LEQ:
+                return ComparisonOperator.GEQ;
+            default:
+                return operator;
+        }
+    }
+
     /**
      * Check whether two input tuples satisfy the join condition.
      * First the operand will be extracted from the input tuples by their indices,
@@ -56,41 +130,37 @@ public class JoinCondition {
      * @return {@code true} if join condition is satisfied on these two tuples; {@code false} otherwise
      */
     public boolean check(Tuple leftTuple, Tuple rightTuple) {
-        Term operand1;
-        Term operand2;
         // extract operand from input tuples, order of operands depends on the reverseOrder flag
-        if (!reverseOrder) {
-            operand1 = leftTuple.getTerms().get(this.operand1Idx);
-            operand2 = rightTuple.getTerms().get(this.operand2Idx);
-        } else {
-            operand1 = rightTuple.getTerms().get(this.operand1Idx);
-            operand2 = leftTuple.getTerms().get(this.operand2Idx);
-        }
+        Tuple tuple1 = this.reverseOrder ? rightTuple : leftTuple;
+        Tuple tuple2 = this.reverseOrder ? leftTuple : rightTuple;
 
-        // check the join condition on extracted operands
-        if (this.op.equals("=")) {
-            return operand1.equals(operand2);
-        } else if (this.op.equals("!=")) {
-            return (!operand1.equals(operand2));
-        } else if (this.op.equals(">")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() > ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) > 0;
-        } else if (this.op.equals(">=")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() >= ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) >= 0;
-        } else if (this.op.equals("<")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() < ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) < 0;
-        } else if (this.op.equals("<=")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() <= ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) <= 0;
-        } else {
-            System.out.println("!!!! None of the if-branches is evoked in the Selection Operator !!!!");
-            return false;
-        }
+        if (tuple1.isString(this.operand1Idx) != tuple2.isString(this.operand2Idx))
+            return this.op.equals("!="); // values of different types are never equal
+        return SelectCondition.satisfies(this.op, tuple1.compareColumn(this.operand1Idx, tuple2, this.operand2Idx));
+    }
+
+    /**
+     * Check whether two rows of {@link TupleBatch} satisfy the join condition.
+     * The operands are read from the primitive columns of the batches, without constructing tuples.
+     * @param leftBatch a batch from the left child operator of {@link JoinOperator}
+     * @param leftRow the physical index of the row in left batch
+     * @param rightBatch a batch from the right child operator of {@link JoinOperator}
+     * @param rightRow the physical index of the row in right batch
+     * @return {@code true} if join condition is satisfied on these two rows; {@code false} otherwise
+     */
+    public boolean check(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+        TupleBatch batch1 = this.reverseOrder ? rightBatch : leftBatch;
+        int row1 = this.reverseOrder ? rightRow : leftRow;
+        TupleBatch batch2 = this.reverseOrder ? leftBatch : rightBatch;
+        int row2 = this.reverseOrder ? leftRow : rightRow;
+
+        if (batch1.isStringColumn(this.operand1Idx) != batch2.isStringColumn(this.operand2Idx))
+            return this.op.equals("!="); // values of different types are never equal
+        int comparison;
+        if (!batch1.isStringColumn(this.operand1Idx))
+            comparison = Integer.compare(batch1.getIntColumn(this.operand1Idx)[row1], batch2.getIntColumn(this.operand2Idx)[row2]);
+        else
+            comparison = batch1.getString(row1, this.operand1Idx).compareTo(batch2.getString(row2, this.operand2Idx));
+        return SelectCondition.satisfies(this.op, comparison);
     }
 }
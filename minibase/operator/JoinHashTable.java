@@ -0,0 +1,226 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The build side of a {@link HashJoinOperator}: the rows of the right child, hashed on their key columns.
+ * The rows are stored in the batches copied from the right child,
+ * a build row is identified by {@code batchIndex * TupleBatch.DEFAULT_CAPACITY + row},
+ * and the rows with the same key are chained through {@code chainNext}.
+ * A table can be filled by one thread, and several tables filled in parallel can be merged into one
+ * (see {@link ParallelOperator}); a complete table is only read, so it can be probed by many threads.
+ *
+ * The keys are stored in the layout of the first build batch: a string key column encoded by a dictionary is keyed by its codes,
+ * a plain one by the strings. The key of a row in another layout (e.g. a plain string probed against encoded build rows)
+ * is converted into this layout, so the two sides match whatever the encoding of their batches.
+ */
+public class JoinHashTable {
+
+    private final int[] keyColumns;
+    private StringDictionary[] keyDictionaries = null;
+    // the dictionary of each encoded key column of the build rows (null for the other columns), set by the first build batch
+    private final HashMap<JoinKey, Integer> heads = new HashMap<>();
+    // the key of build rows : the first build row in the chain of that key
+
+    private final List<TupleBatch> batches = new ArrayList<>();
+    private int[] chainNext = new int[TupleBatch.DEFAULT_CAPACITY];
+    // the next build row with the same key, -1 at the end of a chain
+
+    /**
+     * Create an empty table.
+     * @param keyColumns the key columns of the build rows.
+     */
+    public JoinHashTable(int[] keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Read all the output batches of an operator into the table.
+     * @param input the operator producing the build rows.
+     */
+    public void addAll(Operator input) {
+        TupleBatch batch = input.getNextBatch();
+        while (batch != null) {
+            this.add(batch);
+            batch = input.getNextBatch();
+        }
+    }
+
+    /**
+     * Copy the active rows of a batch, and put them into the table by their key columns.
+     * @param batch a batch of build rows, the producer may reuse it after this call.
+     */
+    public void add(TupleBatch batch) {
+        TupleBatch copy = new TupleBatch(batch.getName(), batch.getColumnTypes(), batch.getDictionaries(), TupleBatch.DEFAULT_CAPACITY);
+        int[] allColumns = new int[batch.getColumnCount()];
+        for (int c = 0; c < allColumns.length; c++)
+            allColumns[c] = c;
+        for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int row = copy.addRow();
+            copy.copyRow(row, 0, batch, batch.getSelected(i), allColumns);
+        }
+
+        if (this.keyDictionaries == null)
+            this.keyDictionaries = keyDictionariesOf(copy, this.keyColumns);
+        int batchBase = this.appendBatch(copy);
+        for (int row = 0; row < copy.getSelectedCount(); row++) {
+            JoinKey key = new JoinKey(copy, row, this.keyColumns, this.keyDictionaries);
+            Integer head = this.heads.get(key);
+            this.chainNext[batchBase + row] = head == null ? -1 : head;
+            this.heads.put(key, batchBase + row);
+        }
+    }
+
+    /**
+     * Move all the rows of another table (with the same key columns) into this table.
+     * The chains of the other table are re-numbered and linked in front of the chains of the same keys in this table.
+     * @param other a table that will not be used after this call.
+     * @throws IllegalArgumentException if the key columns of the other table are encoded differently.
+     */
+    public void merge(JoinHashTable other) {
+        if (other.keyDictionaries == null)
+            return;
+        if (this.keyDictionaries == null)
+            this.keyDictionaries = other.keyDictionaries;
+        else if (!Arrays.equals(this.keyDictionaries, other.keyDictionaries))
+            throw new IllegalArgumentException("Cannot merge hash tables whose keys are encoded differently");
+        int[] batchBases = new int[other.batches.size()];
+        for (int b = 0; b < other.batches.size(); b++)
+            batchBases[b] = this.appendBatch(other.batches.get(b));
+        for (int b = 0; b < other.batches.size(); b++) {
+            int otherBase = b * TupleBatch.DEFAULT_CAPACITY;
+            for (int row = 0; row < other.batches.get(b).getSelectedCount(); row++) {
+                int next = other.chainNext[otherBase + row];
+                this.chainNext[batchBases[b] + row] = next < 0 ? -1 : renumber(next, batchBases);
+            }
+        }
+        for (Map.Entry<JoinKey, Integer> entry : other.heads.entrySet()) {
+            int head = renumber(entry.getValue(), batchBases);
+            Integer existing = this.heads.get(entry.getKey());
+            if (existing != null) {
+                int tail = head;
+                while (this.chainNext[tail] >= 0)
+                    tail = this.chainNext[tail];
+                this.chainNext[tail] = existing;
+            }
+            this.heads.put(entry.getKey(), head);
+        }
+    }
+
+    /**
+     * Find the chain of the build rows whose key equals the key of a probe row.
+     * @param batch the batch containing the probe row.
+     * @param row the physical index of the probe row.
+     * @param probeKeyColumns the key columns of the probe row, matching the key columns of this table.
+     * @return the first build row in the chain, or -1 if no build row has that key.
+     */
+    public int lookup(TupleBatch batch, int row, int[] probeKeyColumns) {
+        if (this.batches.isEmpty())
+            return -1;
+        for (int i = 0; i < probeKeyColumns.length; i++)
+            if (batch.isStringColumn(probeKeyColumns[i]) != this.batches.get(0).isStringColumn(this.keyColumns[i]))
+                return -1; // values of different types are never equal (an encoded string may have the same code as an int)
+        Integer head = this.heads.get(new JoinKey(batch, row, probeKeyColumns, this.keyDictionaries));
+        return head == null ? -1 : head;
+    }
+
+    /**
+     * Find the chain of the build rows whose key equals the given values (used by the generated code of {@link CompiledPipeline}).
+     * @param key the values of the key in the order of the key columns, an {@link Integer} or a {@link String} for each column.
+     * @return the first build row in the chain, or -1 if no build row has that key.
+     */
+    public int lookup(Object[] key) {
+        Integer head = this.heads.get(new JoinKey(key));
+        return head == null ? -1 : head;
+    }
+
+    /**
+     * @param buildRow a build row.
+     * @return the next build row with the same key, or -1 at the end of the chain.
+     */
+    public int next(int buildRow) {
+        return this.chainNext[buildRow];
+    }
+
+    /**
+     * @param buildRow a build row.
+     * @return the batch storing the build row.
+     */
+    public TupleBatch getBatch(int buildRow) {
+        return this.batches.get(buildRow / TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param buildRow a build row.
+     * @return the physical index of the build row in its batch.
+     */
+    public static int getRow(int buildRow) {
+        return buildRow % TupleBatch.DEFAULT_CAPACITY;
+    }
+
+    private int appendBatch(TupleBatch batch) {
+        int batchBase = this.batches.size() * TupleBatch.DEFAULT_CAPACITY;
+        this.batches.add(batch);
+        if (this.chainNext.length < batchBase + TupleBatch.DEFAULT_CAPACITY)
+            this.chainNext = Arrays.copyOf(this.chainNext, Math.max(this.chainNext.length * 2, batchBase + TupleBatch.DEFAULT_CAPACITY));
+        return batchBase;
+    }
+
+    private static StringDictionary[] keyDictionariesOf(TupleBatch batch, int[] keyColumns) {
+        StringDictionary[] dictionaries = new StringDictionary[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++)
+            dictionaries[i] = batch.getDictionary(keyColumns[i]);
+        return dictionaries;
+    }
+
+    private static int renumber(int otherRow, int[] batchBases) {
+        return batchBases[otherRow / TupleBatch.DEFAULT_CAPACITY] + otherRow % TupleBatch.DEFAULT_CAPACITY;
+    }
+
+    /**
+     * The values in the key columns of a row, used as the key of hash table.
+     * An encoded string column is keyed by its codes, a plain string column by its strings.
+     */
+    private static final class JoinKey {
+        private final Object[] values;
+        private final int hash;
+
+        /**
+         * @param keyDictionaries the dictionary of each key column in the layout of the table ({@code null} for a plain column),
+         *                        the values of a column encoded otherwise in the batch are converted into that layout.
+         */
+        private JoinKey(TupleBatch batch, int row, int[] keyColumns, StringDictionary[] keyDictionaries) {
+            this.values = new Object[keyColumns.length];
+            for (int i = 0; i < keyColumns.length; i++) {
+                int c = keyColumns[i];
+                StringDictionary dictionary = batch.getDictionary(c);
+                if (dictionary == keyDictionaries[i])
+                    this.values[i] = batch.isIntColumn(c) ? (Object) batch.getIntColumn(c)[row] : batch.getStringColumn(c)[row];
+                else if (keyDictionaries[i] == null)
+                    this.values[i] = batch.getString(row, c);
+                else
+                    this.values[i] = keyDictionaries[i].encode(batch.getString(row, c)); // -1 (no build row) if not in the dictionary
+            }
+            this.hash = Arrays.hashCode(this.values);
+        }
+
+        private JoinKey(Object[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof JoinKey && Arrays.equals(this.values, ((JoinKey) obj).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import ed.inf.adbs.minibase.base.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Apply JOIN operation on the output tuple sets of two child operators.
@@ -17,21 +18,48 @@ import java.util.List;
  */
 public class JoinOperator extends Operator {
 
-    private Operator leftChild;
-    private Operator rightChild;
+    protected Operator leftChild;
+    protected Operator rightChild;
 
-    private List<JoinCondition> conditions = new ArrayList<>();
+    protected List<JoinCondition> conditions = new ArrayList<>();
 
-    private HashMap<Integer, Integer> joinConditionIndices = new HashMap<>();
+    protected HashMap<Integer, Integer> joinConditionIndices = new HashMap<>();
     // a map from variable index in left tuples to index in right tuples that represents the same variable
     // this is used for inner join checks, duplication columns will be removed by referring to this map.
 
-    private List<Integer> rightDuplicateColumns = new ArrayList<>();
+    protected List<Integer> rightDuplicateColumns = new ArrayList<>();
     // the columns in right child to be removed (due to inner join / duplicates with columns in left child)
 
-    private Tuple leftTuple = null;
+    protected Tuple leftTuple = null;
     // the current being checked output tuple of left child
 
+    protected List<Integer> leftKeyIndices = new ArrayList<>();
+    protected List<Integer> rightKeyIndices = new ArrayList<>();
+    // the equi-join key columns of left and right tuples, leftKeyIndices[i] should equal to rightKeyIndices[i],
+    // collected from the inner join conditions and the explicit '=' join conditions (used by the equi-join subclasses)
+
+    protected List<JoinCondition> residualConditions = new ArrayList<>();
+    // the explicit join conditions that can not be used as equi-join keys
+
+    private JoinPredicate joinPredicate = null;
+    private JoinPredicate residualPredicate = null;
+    // all the join conditions (for the nested loop) and the residual conditions (for the equi-joins),
+    // compiled for the column types of the child batches on the first check
+
+    protected int[] leftColumns;
+    protected int[] rightKeptColumns;
+    // the columns of left and right child copied into the join result
+    // (all the left columns and the non-duplicate right columns, unless some are pruned by pruneColumns())
+
+    protected TupleBatch outputBatch = null;
+    // the batch returned by getNextBatch(), reused for each call
+
+    private TupleBatch leftBatch = null;
+    private TupleBatch rightBatch = null;
+    private int leftPosition = 0;
+    private int rightPosition = 0;
+    // the state of block nested loop in getNextBatch(): the current pair of batches, and the positions in their selection vectors
+
     /**
      * Initialise the operator:
      *      (1) Convert the input {@link ComparisonAtom} list into {@link JoinCondition} list,
@@ -71,6 +99,57 @@ public class JoinOperator extends Operator {
                     this.variableMask.add(rightVar);
             }
         }
+
+        this.leftColumns = new int[leftVariableMask.size()];
+        for (int i = 0; i < this.leftColumns.length; i++)
+            this.leftColumns[i] = i;
+        List<Integer> rightKept = new ArrayList<>();
+        for (int i = 0; i < rightVariableMask.size(); i++)
+            if (!this.rightDuplicateColumns.contains(i))
+                rightKept.add(i);
+        this.rightKeptColumns = rightKept.stream().mapToInt(Integer::intValue).toArray();
+
+        // Split the join conditions into equi-join keys and residual conditions
+        for (Integer leftIndex : this.joinConditionIndices.keySet()) {
+            this.leftKeyIndices.add(leftIndex);
+            this.rightKeyIndices.add(this.joinConditionIndices.get(leftIndex));
+        }
+        for (JoinCondition condition : this.conditions) {
+            if (condition.isEquality()) {
+                this.leftKeyIndices.add(condition.getLeftIndex());
+                this.rightKeyIndices.add(condition.getRightIndex());
+            } else {
+                this.residualConditions.add(condition);
+            }
+        }
+    }
+
+    /**
+     * Copy only the columns of the given variables into the join result.
+     * The key columns and the join conditions still read the (complete) rows of the children.
+     * @param variables the variables read by the operators above this join.
+     */
+    @Override
+    public void pruneColumns(Set<String> variables) {
+        List<String> leftVariableMask = this.leftChild.getVariableMask();
+        List<String> rightVariableMask = this.rightChild.getVariableMask();
+        this.variableMask = new ArrayList<>();
+        List<Integer> leftKept = new ArrayList<>();
+        for (int column : this.leftColumns) {
+            if (variables.contains(leftVariableMask.get(column))) {
+                leftKept.add(column);
+                this.variableMask.add(leftVariableMask.get(column));
+            }
+        }
+        List<Integer> rightKept = new ArrayList<>();
+        for (int column : this.rightKeptColumns) {
+            if (variables.contains(rightVariableMask.get(column))) {
+                rightKept.add(column);
+                this.variableMask.add(rightVariableMask.get(column));
+            }
+        }
+        this.leftColumns = leftKept.stream().mapToInt(Integer::intValue).toArray();
+        this.rightKeptColumns = rightKept.stream().mapToInt(Integer::intValue).toArray();
     }
 
     /**
@@ -78,70 +157,174 @@ public class JoinOperator extends Operator {
      */
     @Override
     public void reset() {
+        this.resetBatchAdapter();
         this.leftChild.reset();
         this.rightChild.reset();
         this.leftTuple = null;
+        this.leftBatch = null;
+        this.rightBatch = null;
+        this.leftPosition = 0;
+        this.rightPosition = 0;
     }
 
     /**
-     * Get the next joined tuple from output of left and right child operators.
-     * Implements an outer loop on left child tuples (and use {@code this.leftTuple} to track the being checked left tuple).
-     * Implements an inner loop on right child tuples.
+     * Get the next joined tuple, taken from the batches produced by {@link #getNextBatch()}.
      * @return the next joined tuple that satisfies the join conditions.
      */
     @Override
     public Tuple getNextTuple() {
-        // the leftTuple is stored in the instance, otherwise each left tuple can only be joined with at most one right tuple
-        if (this.leftTuple == null)
-            this.leftTuple = this.leftChild.getNextTuple();
-
-        while (this.leftTuple != null) {
-            // Fix a tuple in outer loop, then iterate over the tuples in inner loop
-            Tuple rightTuple = this.rightChild.getNextTuple();
-            while (rightTuple != null) {
-
-                boolean pass = true;
-                // check the inner join conditions provided by same variable names in two query atoms
-                for (Integer leftIndex : this.joinConditionIndices.keySet()) {
-                    int rightIndex = this.joinConditionIndices.get(leftIndex);
-                    if (!this.leftTuple.getTerms().get(leftIndex).equals(rightTuple.getTerms().get(rightIndex))) {
-                        pass = false;
-                        break;
-                    }
-                }
-                // check the join conditions provided by extra ComparisonAtom, and involves different variables
-                if (pass) {
-                    for (JoinCondition condition : this.conditions) {
-                        if (!condition.check(this.leftTuple, rightTuple)) {
-                            pass = false;
-                            break;
-                        }
-                    }
-                }
+        return this.nextTupleFromBatch();
+    }
 
-                // if all conditions are satisfied, construct a new Tuple instance as join result
-                if (pass) {
-                    List<Term> joinTermList = new ArrayList<>();
-                    // the join result contains all columns in left tuple, and the non-duplicate columns in right tuple
-                    for (Term leftTerm : this.leftTuple.getTerms())
-                        joinTermList.add(leftTerm);
-                    for (int i = 0; i < rightTuple.getTerms().size(); i++) {
-                        if (!this.rightDuplicateColumns.contains(i)) {
-                            joinTermList.add(rightTuple.getTerms().get(i));
-                        }
-                    }
-                    return new Tuple("Join", joinTermList);
+    /**
+     * Get the next batch of joined rows, using a block nested loop:
+     * a batch of left child is kept as the outer block, and the right child is iterated in batches as the inner loop.
+     * So the right child is reset once per left batch, instead of once per left tuple.
+     * @return the next batch of joined rows that satisfy the join conditions, or {@code null} if the join is complete.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.outputBatch != null)
+            this.outputBatch.clear();
+
+        while (this.outputBatch == null || !this.outputBatch.isFull()) {
+            // fix a block of tuples in outer loop
+            if (this.leftBatch == null) {
+                this.leftBatch = this.leftChild.getNextBatch();
+                if (this.leftBatch == null)
+                    break;
+                this.rightBatch = null;
+            }
+            // iterate over the batches in inner loop
+            if (this.rightBatch == null || this.rightPosition >= this.rightBatch.getSelectedCount()) {
+                this.rightBatch = this.rightChild.getNextBatch();
+                this.rightPosition = 0;
+                this.leftPosition = 0;
+                if (this.rightBatch == null) {
+                    // reset the right child operator, so the inner loop will be restarted from beginning for the next block
+                    this.rightChild.reset();
+                    this.leftBatch = null;
+                    continue;
                 }
+            }
 
-                // otherwise, check the next right tuple
-                rightTuple = this.rightChild.getNextTuple();
+            int leftRow = this.leftBatch.getSelected(this.leftPosition);
+            int rightRow = this.rightBatch.getSelected(this.rightPosition);
+            if (this.satisfyConditions(this.leftBatch, leftRow, this.rightBatch, rightRow))
+                this.appendJoinedRow(this.leftBatch, leftRow, this.rightBatch, rightRow);
+
+            this.leftPosition++;
+            if (this.leftPosition >= this.leftBatch.getSelectedCount()) {
+                this.leftPosition = 0;
+                this.rightPosition++;
+            }
+        }
+
+        if (this.outputBatch == null || this.outputBatch.getSelectedCount() == 0)
+            return null;
+        return this.outputBatch;
+    }
+
+    /**
+     * Check the inner join conditions provided by same variable names in two query atoms,
+     * and the join conditions provided by extra ComparisonAtom, which involve different variables.
+     * On the first call they are compiled into one {@link JoinPredicate}, specialized for the column types.
+     * @param leftBatch a batch from the left child operator.
+     * @param leftRow the physical row in left batch.
+     * @param rightBatch a batch from the right child operator.
+     * @param rightRow the physical row in right batch.
+     * @return {@code true} if every shared variable takes the same value in both rows
+     *         and all the explicit join conditions are satisfied; {@code false} otherwise.
+     */
+    protected boolean satisfyConditions(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+        if (this.joinPredicate == null) {
+            List<JoinPredicate> predicates = new ArrayList<>();
+            for (Integer leftIndex : this.joinConditionIndices.keySet())
+                predicates.add(JoinCondition.compile(leftIndex, ComparisonOperator.EQ, this.joinConditionIndices.get(leftIndex), leftBatch, rightBatch));
+            for (JoinCondition condition : this.conditions)
+                predicates.add(condition.compile(leftBatch, rightBatch));
+            this.joinPredicate = JoinPredicate.and(predicates);
+        }
+        return this.joinPredicate.test(leftBatch, leftRow, rightBatch, rightRow);
+    }
+
+    /**
+     * The batch version of {@link #satisfyResidualConditions(Tuple, Tuple)}.
+     * On the first call the residual conditions are compiled into one {@link JoinPredicate}.
+     */
+    protected boolean satisfyResidualConditions(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+        if (this.residualPredicate == null) {
+            List<JoinPredicate> predicates = new ArrayList<>();
+            for (JoinCondition condition : this.residualConditions)
+                predicates.add(condition.compile(leftBatch, rightBatch));
+            this.residualPredicate = JoinPredicate.and(predicates);
+        }
+        return this.residualPredicate.test(leftBatch, leftRow, rightBatch, rightRow);
+    }
+
+    /**
+     * Append the join result of two matched rows to {@code this.outputBatch}, which is created on the first call
+     * (its column types and dictionaries are those of the left columns followed by those of the non-duplicate right columns).
+     * @param leftBatch a batch from the left child operator.
+     * @param leftRow the physical row in left batch.
+     * @param rightBatch a batch from the right child operator.
+     * @param rightRow the physical row in right batch.
+     */
+    protected void appendJoinedRow(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+        if (this.outputBatch == null) {
+            boolean[] types = new boolean[this.leftColumns.length + this.rightKeptColumns.length];
+            StringDictionary[] dictionaries = new StringDictionary[types.length];
+            for (int i = 0; i < this.leftColumns.length; i++) {
+                types[i] = leftBatch.isIntColumn(this.leftColumns[i]);
+                dictionaries[i] = leftBatch.getDictionary(this.leftColumns[i]);
+            }
+            for (int i = 0; i < this.rightKeptColumns.length; i++) {
+                types[this.leftColumns.length + i] = rightBatch.isIntColumn(this.rightKeptColumns[i]);
+                dictionaries[this.leftColumns.length + i] = rightBatch.getDictionary(this.rightKeptColumns[i]);
             }
-            // reset the right child operator, so the inner loop will be restarted from beginning
-            this.rightChild.reset();
-            // move to the next outer loop tuple
-            this.leftTuple = this.leftChild.getNextTuple();
+            this.outputBatch = new TupleBatch("Join", types, dictionaries, TupleBatch.DEFAULT_CAPACITY);
+        }
+        int row = this.outputBatch.addRow();
+        this.outputBatch.copyRow(row, 0, leftBatch, leftRow, this.leftColumns);
+        this.outputBatch.copyRow(row, this.leftColumns.length, rightBatch, rightRow, this.rightKeptColumns);
+    }
+
+    /**
+     * Check the explicit join conditions that are not used as equi-join keys.
+     * @param leftTuple a tuple from the left child operator.
+     * @param rightTuple a tuple from the right child operator.
+     * @return {@code true} if all the residual join conditions are satisfied; {@code false} otherwise.
+     */
+    protected boolean satisfyResidualConditions(Tuple leftTuple, Tuple rightTuple) {
+        for (JoinCondition condition : this.residualConditions) {
+            if (!condition.check(leftTuple, rightTuple))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Construct the join result of two matched tuples.
+     * The join result contains the columns of left tuple in {@code this.leftColumns},
+     * and the columns of right tuple in {@code this.rightKeptColumns} (i.e. not duplicate, not pruned).
+     * @param leftTuple a tuple from the left child operator.
+     * @param rightTuple a tuple from the right child operator.
+     * @return a new {@link Tuple} whose columns are aligned with {@code this.variableMask}.
+     */
+    protected Tuple joinTuples(Tuple leftTuple, Tuple rightTuple) {
+        int size = this.leftColumns.length + this.rightKeptColumns.length;
+        int[] ints = new int[size];
+        String[] strings = new String[size];
+        int i = 0;
+        for (int column : this.leftColumns) {
+            ints[i] = leftTuple.getInt(column);
+            strings[i++] = leftTuple.getString(column);
+        }
+        for (int column : this.rightKeptColumns) {
+            ints[i] = rightTuple.getInt(column);
+            strings[i++] = rightTuple.getString(column);
         }
-        return null;
+        return new Tuple("Join", ints, strings);
     }
 
     /**
@@ -149,8 +332,7 @@ public class JoinOperator extends Operator {
      * @param args Command line inputs, can be empty.
      */
     public static void main(String[] args) {
-        DBCatalog dbc = DBCatalog.getInstance();
-        dbc.init("data/evaluation/db");
+        DBCatalog dbc = new DBCatalog("data/evaluation/db");
 
         // Test on query 5:   Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u
         System.out.println("Testing query: Q(x, y, z, u, w, t) :- R(x, y, z), S(u, w, t), x = u");
@@ -191,15 +373,15 @@ public class JoinOperator extends Operator {
 
         System.out.println("-----------------------------------");
 
-        ScanOperator scanOpR = new ScanOperator(queryBodyAtomR);
-        ScanOperator scanOpS = new ScanOperator(queryBodyAtomS);
+        ScanOperator scanOpR = new ScanOperator(dbc, queryBodyAtomR);
+        ScanOperator scanOpS = new ScanOperator(dbc, queryBodyAtomS);
 
         JoinOperator joinOp = new JoinOperator(scanOpR, scanOpS, compAtomList);
         joinOp.dump(null);
         joinOp.reset();
         System.out.println("-----------------------------------");
 
-        ProjectOperator projOp = new ProjectOperator(joinOp, queryHeadAtom);
+        ProjectOperator projOp = new ProjectOperator(joinOp, queryHeadAtom, dbc.getMemoryLimit());
         projOp.dump(null);
     }
 }
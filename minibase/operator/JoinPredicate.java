@@ -0,0 +1,159 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.ComparisonOperator;
+
+import java.util.List;
+
+/**
+ * A compiled form of the join conditions of a {@link JoinOperator}, which checks a pair of rows from the two children.
+ * The conditions are compiled once the column types are known (see {@link JoinCondition#compile(TupleBatch, TupleBatch)}),
+ * into evaluators specialized for the column types (int vs int, string vs string), with the operands
+ * already put in left-right order, so a check only reads two primitive values and compares them.
+ * The conditions of an operator are fused by {@link #and(List)} into one evaluator.
+ */
+public abstract class JoinPredicate {
+
+    /**
+     * @param leftBatch a batch from the left child operator.
+     * @param leftRow the physical row in left batch.
+     * @param rightBatch a batch from the right child operator.
+     * @param rightRow the physical row in right batch.
+     * @return {@code true} if the pair of rows satisfies the predicate; {@code false} otherwise.
+     */
+    public abstract boolean test(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow);
+
+    /**
+     * @return a predicate on an int column of the left rows and an int column of the right rows, i.e. {@code left op right}.
+     */
+    public static JoinPredicate intColumns(int leftColumn, ComparisonOperator op, int rightColumn) {
+        if (op == ComparisonOperator.EQ)
+            return new IntEquals(leftColumn, rightColumn);
+        return new IntColumns(leftColumn, op, rightColumn);
+    }
+
+    /**
+     * @return a predicate on a string column of the left rows and a string column of the right rows, i.e. {@code left op right}.
+     */
+    public static JoinPredicate stringColumns(int leftColumn, ComparisonOperator op, int rightColumn) {
+        return new StringColumns(leftColumn, op, rightColumn);
+    }
+
+    /**
+     * @return a predicate with the same result for every pair (e.g. a comparison between columns of different types).
+     */
+    public static JoinPredicate constant(boolean result) {
+        return new Constant(result);
+    }
+
+    /**
+     * Fuse a conjunction of predicates into one.
+     * @param predicates the predicates to be satisfied together.
+     * @return the fused predicate.
+     */
+    public static JoinPredicate and(List<JoinPredicate> predicates) {
+        if (predicates.isEmpty())
+            return constant(true);
+        if (predicates.size() == 1)
+            return predicates.get(0);
+        return new Conjunction(predicates.toArray(new JoinPredicate[0]));
+    }
+
+    private static final class IntEquals extends JoinPredicate {
+        private final int leftColumn;
+        private final int rightColumn;
+
+        private IntEquals(int leftColumn, int rightColumn) {
+            this.leftColumn = leftColumn;
+            this.rightColumn = rightColumn;
+        }
+
+        @Override
+        public boolean test(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+            return leftBatch.getIntColumn(this.leftColumn)[leftRow] == rightBatch.getIntColumn(this.rightColumn)[rightRow];
+        }
+    }
+
+    private static final class IntColumns extends JoinPredicate {
+        private final int leftColumn;
+        private final ComparisonOperator op;
+        private final int rightColumn;
+
+        private IntColumns(int leftColumn, ComparisonOperator op, int rightColumn) {
+            this.leftColumn = leftColumn;
+            this.op = op;
+            this.rightColumn = rightColumn;
+        }
+
+        @Override
+        public boolean test(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+            int left = leftBatch.getIntColumn(this.leftColumn)[leftRow];
+            int right = rightBatch.getIntColumn(this.rightColumn)[rightRow];
+            switch (this.op) {
+                case NEQ:
+                    return left != right;
+                case GT:
+                    return left > right;
+                case GEQ:
+                    return left >= right;
+                case LT:
+                    return left < right;
+                case LEQ:
+                    return left <= right;
+                default:
+                    return left == right;
+            }
+        }
+    }
+
+    private static final class StringColumns extends JoinPredicate {
+        private final int leftColumn;
+        private final ComparisonOperator op;
+        private final int rightColumn;
+
+        private StringColumns(int leftColumn, ComparisonOperator op, int rightColumn) {
+            this.leftColumn = leftColumn;
+            this.op = op;
+            this.rightColumn = rightColumn;
+        }
+
+        @Override
+        public boolean test(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+            String left = leftBatch.getString(leftRow, this.leftColumn);
+            String right = rightBatch.getString(rightRow, this.rightColumn);
+            if (this.op == ComparisonOperator.EQ)
+                return left.equals(right);
+            if (this.op == ComparisonOperator.NEQ)
+                return !left.equals(right);
+            return SelectPredicate.satisfies(this.op, left.compareTo(right));
+        }
+    }
+
+    private static final class Constant extends JoinPredicate {
+        private final boolean result;
+
+        private Constant(boolean result) {
+            this.result = result;
+        }
+
+        @Override
+        public boolean test(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+            return this.result;
+        }
+    }
+
+    private static final class Conjunction extends JoinPredicate {
+        private final JoinPredicate[] terms;
+
+        private Conjunction(JoinPredicate[] terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        public boolean test(TupleBatch leftBatch, int leftRow, TupleBatch rightBatch, int rightRow) {
+            for (JoinPredicate term : this.terms)
+                if (!term.test(leftBatch, leftRow, rightBatch, rightRow))
+                    return false;
+            return true;
+        }
+    }
+}
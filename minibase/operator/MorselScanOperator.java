@@ -0,0 +1,53 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+/**
+ * This class implements the SCAN operation of one worker in a parallel plan (see {@link ParallelOperator}).
+ * It plays the same role as {@link ScanOperator} (a leaf node of the query plan, with the same variable mask),
+ * but its batches are the morsels claimed from a {@link MorselSource} shared by all the workers,
+ * so each worker only sees its own part of the relation.
+ * A shared source can not be rewound, so this operator can not be {@link #reset()}:
+ * {@link ParallelOperator} only places it where it is read once (the probe side and the build sides of hash joins),
+ * and checks the shape of each worker tree before running it.
+ */
+public class MorselScanOperator extends Operator {
+
+    private final MorselSource source;
+    private TupleBatch batch = null;
+    // the last morsel returned by getNextBatch(), passed back to the source for reuse
+
+    /**
+     * @param baseQueryAtom a relational atom in query body, providing the variable mask.
+     * @param source the source of morsels of the relation, shared with the other workers.
+     */
+    public MorselScanOperator(RelationalAtom baseQueryAtom, MorselSource source) {
+        for (Term term : baseQueryAtom.getTerms()) {
+            if (term instanceof Variable)
+                this.variableMask.add(((Variable) term).getName());
+            else
+                this.variableMask.add(null);
+        }
+        this.source = source;
+    }
+
+    @Override
+    public void reset() {
+        throw new IllegalStateException("A morsel scan of " + this.source.getRelationName() + " can not be reset");
+    }
+
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * @return the next morsel claimed from the shared source, or {@code null} if all the morsels have been claimed.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        checkInterrupted();
+        this.batch = this.source.nextMorsel(this.batch);
+        return this.batch;
+    }
+}
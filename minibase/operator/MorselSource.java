@@ -0,0 +1,167 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A relation split into morsels (blocks of up to {@link TupleBatch#DEFAULT_CAPACITY} rows),
+ * which are handed out to the {@link MorselScanOperator} of several worker threads (see {@link ParallelOperator}).
+ * Each morsel is given to exactly one caller, so the workers together scan the relation once.
+ * The storage of the relation is chosen in the same way as the scan operators:
+ *      (1) the relation cache: a morsel is a view over a range of rows of the cached {@link RelationTable};
+ *      (2) a columnar file: a morsel is a range of rows, claimed by an atomic counter and copied by {@link ColumnarFile#readRows};
+ *      (3) a '.csv' data file: the lines of a morsel are read under a lock, then parsed by the caller without the lock.
+ */
+public abstract class MorselSource {
+
+    protected final String relationName;
+
+    protected MorselSource(String relationName) {
+        this.relationName = relationName;
+    }
+
+    /**
+     * Open the source of a relation, according to the settings of the relation in {@link DBCatalog}.
+     * @param dbc the catalog of the database.
+     * @param relationName the name of relation.
+     * @return a new source, positioned at the first row.
+     */
+    public static MorselSource open(DBCatalog dbc, String relationName) {
+        if (dbc.isRelationCacheEnabled())
+            return new CachedSource(relationName, dbc.getRelationCache().get(relationName));
+        if (dbc.getStorageFormat(relationName) == DBCatalog.StorageFormat.COLUMNAR)
+            return new ColumnarSource(dbc, relationName);
+        return new TextSource(dbc, relationName);
+    }
+
+    /**
+     * Claim the next morsel, this method can be called by several threads at the same time.
+     * @param reuse the batch returned by the previous call of the same caller (or {@code null}),
+     *              which may be cleared and filled again.
+     * @return a batch with at least one active row, or {@code null} if all the morsels have been claimed.
+     */
+    public abstract TupleBatch nextMorsel(TupleBatch reuse);
+
+    public String getRelationName() {
+        return this.relationName;
+    }
+
+    private static class CachedSource extends MorselSource {
+        private final RelationTable table;
+        private final AtomicInteger nextRow = new AtomicInteger();
+
+        private CachedSource(String relationName, RelationTable table) {
+            super(relationName);
+            this.table = table;
+        }
+
+        @Override
+        public TupleBatch nextMorsel(TupleBatch reuse) {
+            int from = this.nextRow.getAndAdd(TupleBatch.DEFAULT_CAPACITY);
+            int to = Math.min(from + TupleBatch.DEFAULT_CAPACITY, this.table.getRowCount());
+            if (from >= to)
+                return null;
+            return TupleBatch.wrap(this.relationName, this.table.getIntColumns(), this.table.getStringColumns(),
+                    this.table.getDictionaries(), from, to);
+        }
+    }
+
+    private static class ColumnarSource extends MorselSource {
+        private final ColumnarFile relationFile;
+        private final List<String> relationSchema;
+        private final StringDictionary dictionary;
+        private final AtomicInteger nextRow = new AtomicInteger();
+
+        private ColumnarSource(DBCatalog dbc, String relationName) {
+            super(relationName);
+            try {
+                this.relationFile = new ColumnarFile(dbc.getColumnarPath(relationName));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open columnar relation file: " + dbc.getColumnarPath(relationName), e);
+            }
+            this.relationSchema = dbc.getSchema(relationName);
+            this.dictionary = dbc.getDictionary();
+        }
+
+        @Override
+        public TupleBatch nextMorsel(TupleBatch reuse) {
+            int from = this.nextRow.getAndAdd(TupleBatch.DEFAULT_CAPACITY);
+            int to = Math.min(from + TupleBatch.DEFAULT_CAPACITY, this.relationFile.getRowCount());
+            if (from >= to)
+                return null;
+            TupleBatch batch = reuse != null ? reuse : TupleBatch.forSchema(this.relationName, this.relationSchema, this.dictionary, TupleBatch.DEFAULT_CAPACITY);
+            batch.clear();
+            this.relationFile.readRows(from, to, batch);
+            return batch;
+        }
+    }
+
+    private static class TextSource extends MorselSource {
+        private BufferedReader reader = null;
+        // opened by the first claim, so a source that is never read does not hold the file
+        private final String relationPath;
+        private final List<String> relationSchema;
+        private final StringDictionary dictionary;
+        private boolean finished = false;
+        private final ReentrantLock readLock = new ReentrantLock();
+        // serializes the reads of the file
+
+        private TextSource(DBCatalog dbc, String relationName) {
+            super(relationName);
+            this.relationPath = dbc.getRelationPath(relationName);
+            this.relationSchema = dbc.getSchema(relationName);
+            this.dictionary = dbc.getDictionary();
+        }
+
+        @Override
+        public TupleBatch nextMorsel(TupleBatch reuse) {
+            String[] lines = this.readLines();
+            if (lines == null)
+                return null;
+            TupleBatch batch = reuse != null ? reuse : TupleBatch.forSchema(this.relationName, this.relationSchema, this.dictionary, TupleBatch.DEFAULT_CAPACITY);
+            batch.clear();
+            for (String line : lines) {
+                if (line == null)
+                    break;
+                ScanOperator.parseLine(line, batch);
+            }
+            return batch;
+        }
+
+        /**
+         * Read the next (up to {@link TupleBatch#DEFAULT_CAPACITY}) non-empty lines, the file is closed at the end.
+         * @return the lines (followed by {@code null} if fewer lines are left), or {@code null} if no line is left.
+         */
+        private String[] readLines() {
+            String[] lines = new String[TupleBatch.DEFAULT_CAPACITY];
+            int count = 0;
+            this.readLock.lock();
+            try {
+                if (this.finished)
+                    return null;
+                if (this.reader == null)
+                    this.reader = new BufferedReader(new FileReader(this.relationPath));
+                while (count < lines.length) {
+                    String line = this.reader.readLine();
+                    if (line == null) {
+                        this.finished = true;
+                        this.reader.close();
+                        break;
+                    }
+                    if (!line.trim().isEmpty())
+                        lines[count++] = line;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read relation data file: " + this.relationPath, e);
+            } finally {
+                this.readLock.unlock();
+            }
+            return count > 0 ? lines : null;
+        }
+    }
+}
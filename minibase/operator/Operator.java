@@ -1,8 +1,13 @@
 package ed.inf.adbs.minibase.operator;
 
+import ed.inf.adbs.minibase.base.ComparisonAtom;
+
+import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 /**
  * This is the super class for all the operators.
@@ -15,47 +20,78 @@ public abstract class Operator {
      */
     protected List<String> variableMask = new ArrayList<>();
 
+    private TupleBatch adapterBatch = null;
+    private int adapterBatchIndex = 0;
+    // the batch being converted into tuples by nextTupleFromBatch(), and the position of next row in its selection vector
+
     /**
      * Dump the tuples of the current query plan.
-     * This method will iteratively call the {@link Operator#getNextTuple()} until reach the end.
+     * This method will iteratively call the {@link Operator#getNextBatch()} until reach the end.
      * The resulted tuples will be printed into specified file or console, depending on the input parameter.
+     * If the query is cancelled, the output file is closed and deleted, so no partial output is left.
      * @param outputFile the path to output file; if provided as {@code null}, this method will output to the default console.
+     * @return the number of tuples dumped.
      */
-    public void dump(String outputFile) {
-        try {
-            PrintWriter writer = null;
-            if (outputFile != null && !outputFile.equals("")) {
-                writer = new PrintWriter(outputFile);
-            }
+    public long dump(String outputFile) {
+        long count = 0;
+        boolean toFile = outputFile != null && !outputFile.equals("");
+        try (PrintWriter writer = toFile ? new PrintWriter(outputFile) : null) {
 
             boolean isFirstLine = true;
             // use this flag to let the print of later lines to begin with a '\n' token
             // (the purpose is to remove the empty line at the end occurred when the print operations are all PrintWriter.println() )
 
-            Tuple nextTuple = this.getNextTuple();
-            while (nextTuple != null) {
-                if (writer == null) {
-                    System.out.println(nextTuple);
-                } else {
-                    if (isFirstLine) {
-                        // if the current tuple is the first line of output, print it without modification
-                        writer.print(nextTuple.toString());
-                        isFirstLine = false;
+            TupleBatch nextBatch = this.getNextBatch();
+            while (nextBatch != null) {
+                for (int i = 0; i < nextBatch.getSelectedCount(); i++) {
+                    String line = nextBatch.rowToString(nextBatch.getSelected(i));
+                    if (writer == null) {
+                        System.out.println(line);
                     } else {
-                        // when the output file already has some lines, use '\n' to start a new line and then print this tuple
-                        writer.print("\n" + nextTuple.toString());
+                        if (isFirstLine) {
+                            // if the current tuple is the first line of output, print it without modification
+                            writer.print(line);
+                            isFirstLine = false;
+                        } else {
+                            // when the output file already has some lines, use '\n' to start a new line and then print this tuple
+                            writer.print("\n" + line);
+                        }
                     }
                 }
-                nextTuple = this.getNextTuple();
+                count += nextBatch.getSelectedCount();
+                nextBatch = this.getNextBatch();
             }
 
-            if (writer!=null)
-                writer.close();
-
+        } catch (CancellationException e) {
+            // the query is cancelled (see checkInterrupted()), not failed; the writer is closed at this point
+            if (toFile)
+                new File(outputFile).delete();
+            throw e;
         } catch (Exception e) {
             System.err.println("Exception occurred during dump operation");
             e.printStackTrace();
         }
+        return count;
+    }
+
+    /**
+     * Write the tuples of the current query plan to a writer, each tuple on its own line,
+     * in the same format as {@link #dump(String)}. The writer is flushed after each batch, so the rows are
+     * streamed to the reader while the query is running, and it is not closed.
+     * @param writer the writer to print the tuples to.
+     * @return the number of tuples written.
+     */
+    public long stream(PrintWriter writer) {
+        long count = 0;
+        TupleBatch nextBatch = this.getNextBatch();
+        while (nextBatch != null) {
+            for (int i = 0; i < nextBatch.getSelectedCount(); i++)
+                writer.println(nextBatch.rowToString(nextBatch.getSelected(i)));
+            count += nextBatch.getSelectedCount();
+            writer.flush();
+            nextBatch = this.getNextBatch();
+        }
+        return count;
     }
 
     /**
@@ -71,6 +107,120 @@ public abstract class Operator {
      */
     public abstract Tuple getNextTuple();
 
+    /**
+     * Call this method to get the next block of output rows, as a column-oriented {@link TupleBatch}.
+     * The returned batch has at least one active row, and stays valid until the next call of this method or {@link #reset()}.
+     * This default implementation packs up to {@link TupleBatch#DEFAULT_CAPACITY} tuples from {@link #getNextTuple()},
+     * the operators which process batches natively override it
+     * (and implement {@link #getNextTuple()} by {@link #nextTupleFromBatch()} instead).
+     * An operator should be consumed by only one of the two methods between two resets.
+     * @return the next batch, or {@code null} if the operator reaches the end.
+     */
+    public TupleBatch getNextBatch() {
+        return this.batchFromTuples();
+    }
+
+    /**
+     * An adapter from the tuple interface to the batch interface:
+     * pack up to {@link TupleBatch#DEFAULT_CAPACITY} tuples from {@link #getNextTuple()} into a new batch.
+     * @return the next batch, or {@code null} if the operator reaches the end.
+     */
+    protected TupleBatch batchFromTuples() {
+        return this.batchFromTuples(null);
+    }
+
+    /**
+     * The same adapter as {@link #batchFromTuples()}, with the string columns encoded by a dictionary,
+     * so that the batches have the same layout as the batches of the scans (see {@link TupleBatch#forSchema}).
+     * @param dictionary the dictionary of the database, or {@code null} if the strings are not encoded.
+     * @return the next batch, or {@code null} if the operator reaches the end.
+     */
+    protected TupleBatch batchFromTuples(StringDictionary dictionary) {
+        Tuple nextTuple = this.getNextTuple();
+        if (nextTuple == null)
+            return null;
+        TupleBatch batch = TupleBatch.forSchema(nextTuple.getName(), TupleBatch.schemaOf(nextTuple), dictionary, TupleBatch.DEFAULT_CAPACITY);
+        while (nextTuple != null) {
+            batch.addTuple(nextTuple);
+            if (batch.isFull())
+                break;
+            nextTuple = this.getNextTuple();
+        }
+        return batch;
+    }
+
+    /**
+     * An adapter from the batch interface to the tuple interface, for the operators implementing {@link #getNextBatch()} natively.
+     * The active rows of the batches are converted into tuples one by one.
+     * @return the next output tuple, or {@code null} if the operator reaches the end.
+     */
+    protected Tuple nextTupleFromBatch() {
+        while (this.adapterBatch == null || this.adapterBatchIndex >= this.adapterBatch.getSelectedCount()) {
+            this.adapterBatch = this.getNextBatch();
+            this.adapterBatchIndex = 0;
+            if (this.adapterBatch == null)
+                return null;
+        }
+        return this.adapterBatch.getTuple(this.adapterBatch.getSelected(this.adapterBatchIndex++));
+    }
+
+    /**
+     * Discard the batch held by {@link #nextTupleFromBatch()}, should be called when the operator is reset.
+     */
+    protected void resetBatchAdapter() {
+        this.adapterBatch = null;
+        this.adapterBatchIndex = 0;
+    }
+
+    /**
+     * Stop the evaluation if the thread running the query has been interrupted, e.g. when the query is cancelled
+     * or times out (see {@code QueryExecutor}). Called by the scans before reading each batch, so a cancelled query
+     * stops after at most one more batch from each leaf of its plan.
+     * @throws CancellationException if the current thread is interrupted.
+     */
+    protected static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("The query is cancelled");
+    }
+
+    /**
+     * Let this operator apply select conditions on its own output, e.g. a scan operator filtering the rows while reading them
+     * (see {@link ScanFilter}). This default implementation accepts no condition.
+     * Should be called before the first read of the operator.
+     * @param conditions the select conditions on the variables of this operator.
+     * @return {@code true} if the operator applies the conditions, {@code false} if they must be applied by a {@link SelectOperator}.
+     */
+    public boolean pushDownConditions(List<ComparisonAtom> conditions) {
+        return false;
+    }
+
+    /**
+     * Let this operator drop the output columns that are not needed by the operators above it (projection pushdown).
+     * This default implementation keeps all the columns.
+     * Should be called at most once, before the first read of the operator, and after {@link #pushDownConditions(List)}.
+     * @param variables the variables read by the operators above this one.
+     */
+    public void pruneColumns(Set<String> variables) {
+    }
+
+    /**
+     * Keep only the columns of the given variables in the variable mask, used by the implementations of {@link #pruneColumns(Set)}.
+     * @param variables the variables to be kept.
+     * @return the kept columns, as indices in the variable mask before pruning.
+     */
+    protected int[] retainVariables(Set<String> variables) {
+        List<String> retainedMask = new ArrayList<>();
+        List<Integer> retainedColumns = new ArrayList<>();
+        for (int c = 0; c < this.variableMask.size(); c++) {
+            if (this.variableMask.get(c) != null && variables.contains(this.variableMask.get(c))) {
+                retainedMask.add(this.variableMask.get(c));
+                retainedColumns.add(c);
+            }
+        }
+        this.variableMask = retainedMask;
+        return retainedColumns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     /**
      * Get the variable mask of current query plan node.
      * The variable mask helps the alignment of variables in new operator with the variables in output tuples of current operator.
@@ -0,0 +1,332 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Evaluate a query with several worker threads, using morsel-driven parallelism.
+ * Each worker runs its own copy of the join tree (built by a {@link PipelineBuilder}), in which the scans of
+ * the partitioned atoms are {@link MorselScanOperator} sharing one {@link MorselSource} per atom;
+ * the workers claim the morsels (blocks of rows) of these relations dynamically, so a slow worker simply takes fewer morsels.
+ *      (1) Build: the right subtrees of the {@link HashJoinOperator} in the workers read their morsels into thread-local
+ *          {@link JoinHashTable}, which are merged into one table per join and shared (read only) by all the workers.
+ *      (2) Probe: the workers stream the morsels of the first atom through their join trees.
+ *      (3) Head: with a {@link SumOperator}, each worker aggregates its rows locally, and the tables are merged at the end;
+ *          with a {@link ProjectOperator}, each worker eliminates its local duplicates, and the rows are sent through
+ *          a queue to a final {@link ProjectOperator} on the calling thread, which eliminates the duplicates between workers.
+ * The atoms which are not partitioned (e.g. the right side of a nested loop join, which is scanned again for each left row)
+ * are scanned in full by each worker.
+ */
+public class ParallelOperator extends Operator {
+
+    /**
+     * Builds the join tree of the query body (without the head operator), using the given scans as the leaves.
+     */
+    public interface PipelineBuilder {
+        Operator build(Function<RelationalAtom, Operator> scanBuilder);
+    }
+
+    private static final int QUEUE_CAPACITY_PER_WORKER = 4;
+    private static final TupleBatch END_OF_WORKER = new TupleBatch("", new boolean[0], 1);
+    // put into the queue by a worker after its last batch
+
+    private final DBCatalog dbc;
+    private final RelationalAtom queryHead;
+    private final int parallelism;
+    private final PipelineBuilder pipelineBuilder;
+    private final List<RelationalAtom> partitionedAtoms;
+    private final Function<RelationalAtom, Operator> scanBuilder;
+
+    private List<JoinHashTable> hashTables = null;
+    // the merged build side of each hash join (from the root down), built once and kept on reset
+
+    private ExecutorService executor = null;
+    private Operator output = null;
+    // the operator producing the final rows on the calling thread, created on the first call of getNextBatch()
+
+    /**
+     * @param dbc the catalog of the database, the morsel sources are opened on its relations.
+     * @param queryHead the query head, processed by a {@link SumOperator} or {@link ProjectOperator}.
+     * @param parallelism the number of worker threads.
+     * @param partitionedAtoms the body atoms whose relations are split into morsels among the workers,
+     *                         i.e. the first atom of the join tree and the build sides of hash joins.
+     * @param scanBuilder builds the full scan of the other atoms.
+     * @param pipelineBuilder builds the join tree of one worker.
+     */
+    public ParallelOperator(DBCatalog dbc, RelationalAtom queryHead, int parallelism, List<RelationalAtom> partitionedAtoms,
+                            Function<RelationalAtom, Operator> scanBuilder, PipelineBuilder pipelineBuilder) {
+        this.dbc = dbc;
+        this.queryHead = queryHead;
+        this.parallelism = parallelism;
+        this.partitionedAtoms = partitionedAtoms;
+        this.scanBuilder = scanBuilder;
+        this.pipelineBuilder = pipelineBuilder;
+        // the same variable mask as the head operator
+        for (Term term : queryHead.getTerms())
+            this.variableMask.add(term instanceof Variable ? ((Variable) term).getName() : term.toString());
+    }
+
+    /**
+     * Stop the workers, the next read will start the query again. The merged hash tables are kept.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.shutdown();
+        this.output = null;
+    }
+
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * On the first call, start the workers, then return the batches of the final output.
+     * The workers are stopped when the output is complete, or if it fails (e.g. the calling thread is interrupted).
+     * @return the next batch of query results, or {@code null} if the query is complete.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        TupleBatch batch;
+        try {
+            if (this.output == null)
+                this.output = this.start();
+            batch = this.output.getNextBatch();
+        } catch (RuntimeException | Error e) {
+            this.shutdown();
+            throw e;
+        }
+        if (batch == null)
+            this.shutdown();
+        return batch;
+    }
+
+    /**
+     * Build the worker trees over new morsel sources, fill the hash tables, and start the evaluation of the query head.
+     * @return the operator producing the final rows.
+     */
+    private Operator start() {
+        this.executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "minibase-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Map<RelationalAtom, MorselSource> sources = new IdentityHashMap<>();
+        for (RelationalAtom atom : this.partitionedAtoms)
+            sources.put(atom, MorselSource.open(this.dbc, atom.getName()));
+        Function<RelationalAtom, Operator> workerScans = atom -> sources.containsKey(atom)
+                ? new MorselScanOperator(atom, sources.get(atom)) : this.scanBuilder.apply(atom);
+        List<Operator> workers = new ArrayList<>();
+        List<List<HashJoinOperator>> workerJoins = new ArrayList<>();
+        for (int w = 0; w < this.parallelism; w++) {
+            Operator tree = this.pipelineBuilder.build(workerScans);
+            checkPartitionedScans(tree);
+            workers.add(tree);
+            workerJoins.add(hashJoinsOf(tree));
+        }
+
+        if (this.hashTables == null)
+            this.buildHashTables(workerJoins);
+        for (List<HashJoinOperator> joins : workerJoins)
+            for (int j = 0; j < joins.size(); j++)
+                joins.get(j).setHashTable(this.hashTables.get(j));
+
+        Term lastHeadTerm = this.queryHead.getTerms().get(this.queryHead.getTerms().size() - 1);
+        if (lastHeadTerm instanceof Sum)
+            return this.aggregate(workers);
+        return this.project(workers);
+    }
+
+    /**
+     * Each worker fills a table for each of its hash joins, from the morsels it claims; then the tables of each join are merged.
+     */
+    private void buildHashTables(List<List<HashJoinOperator>> workerJoins) {
+        List<Callable<List<JoinHashTable>>> tasks = new ArrayList<>();
+        for (List<HashJoinOperator> joins : workerJoins) {
+            tasks.add(() -> {
+                List<JoinHashTable> tables = new ArrayList<>();
+                for (HashJoinOperator join : joins) {
+                    JoinHashTable table = new JoinHashTable(join.getRightKeys());
+                    table.addAll(join.rightChild);
+                    tables.add(table);
+                }
+                return tables;
+            });
+        }
+        List<List<JoinHashTable>> results = this.runAll(tasks);
+
+        this.hashTables = new ArrayList<>(results.get(0));
+        for (int w = 1; w < results.size(); w++)
+            for (int j = 0; j < this.hashTables.size(); j++)
+                this.hashTables.get(j).merge(results.get(w).get(j));
+    }
+
+    /**
+     * Each worker aggregates its rows into a local table, the tables are merged into the table of the first worker,
+     * whose {@link SumOperator} then outputs the groups.
+     */
+    private Operator aggregate(List<Operator> workers) {
+        List<AggregateOperator> heads = new ArrayList<>();
+        List<Callable<AggregationHashTable>> tasks = new ArrayList<>();
+        for (Operator worker : workers) {
+            AggregateOperator head = new SumOperator(worker, this.queryHead);
+            heads.add(head);
+            tasks.add(head::aggregateGroups);
+        }
+        List<AggregationHashTable> tables = this.runAll(tasks);
+
+        // merge into a table that has seen some rows, an empty table does not know the types of string columns
+        AggregationHashTable merged = tables.get(0);
+        for (AggregationHashTable table : tables)
+            if (merged.getGroupCount() == 0)
+                merged = table;
+        for (AggregationHashTable table : tables)
+            if (table != merged)
+                merged.merge(table);
+        heads.get(0).setGroups(merged);
+        return heads.get(0);
+    }
+
+    /**
+     * Each worker eliminates its local duplicates and sends copies of its output batches through a queue,
+     * the final {@link ProjectOperator} reads the queue and eliminates the duplicates between the workers.
+     */
+    private Operator project(List<Operator> workers) {
+        BlockingQueue<TupleBatch> queue = new ArrayBlockingQueue<>(this.parallelism * QUEUE_CAPACITY_PER_WORKER);
+        ExchangeOperator exchange = new ExchangeOperator(queue, workers.size());
+        for (Operator worker : workers) {
+            Operator head = new ProjectOperator(worker, this.queryHead, this.dbc.getMemoryLimit());
+            exchange.variableMask = head.getVariableMask();
+            this.executor.submit(() -> {
+                try {
+                    TupleBatch batch = head.getNextBatch();
+                    while (batch != null) {
+                        queue.put(batch.copy());
+                        batch = head.getNextBatch();
+                    }
+                } catch (InterruptedException e) {
+                    return; // cancelled by reset()
+                } catch (RuntimeException | Error e) {
+                    exchange.failure = e;
+                }
+                try {
+                    queue.put(END_OF_WORKER);
+                } catch (InterruptedException ignored) {
+                    // cancelled by reset()
+                }
+            });
+        }
+        return new ProjectOperator(exchange, this.queryHead, this.dbc.getMemoryLimit());
+    }
+
+    /**
+     * Run the tasks on the workers and wait for all of them.
+     * @return the results of the tasks, in order.
+     */
+    private <T> List<T> runAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : this.executor.invokeAll(tasks))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the workers", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A worker failed: " + e.getCause(), e.getCause());
+        }
+        return results;
+    }
+
+    private void shutdown() {
+        if (this.executor != null)
+            this.executor.shutdownNow();
+        this.executor = null;
+    }
+
+    /**
+     * Check that the morsel scans of a worker tree are read once: a {@link MorselScanOperator} can not be reset,
+     * since its source is shared with the other workers. So in the left-deep join tree, the morsel scans must be
+     * the first atom (the probe side, at the bottom of the left spine) or the build side of a {@link HashJoinOperator};
+     * the right child of any other join (e.g. the block nested loop join of {@link JoinOperator}) is scanned again
+     * for each block of left rows, and must be a full scan.
+     * @param root the root of the join tree of a worker.
+     * @throws IllegalStateException if a morsel scan is the right child of a join which resets it.
+     */
+    private static void checkPartitionedScans(Operator root) {
+        Operator node = root;
+        while (node instanceof JoinOperator) {
+            JoinOperator join = (JoinOperator) node;
+            Operator right = join.rightChild instanceof SelectOperator ? ((SelectOperator) join.rightChild).getChild() : join.rightChild;
+            if (!(join instanceof HashJoinOperator) && right instanceof MorselScanOperator)
+                throw new IllegalStateException("The right side of a " + join.getClass().getSimpleName()
+                        + " is scanned again for each left block, it can not be split into morsels");
+            node = join.leftChild;
+        }
+    }
+
+    /**
+     * @return the hash joins on the left spine of a left-deep join tree, from the root down.
+     */
+    private static List<HashJoinOperator> hashJoinsOf(Operator root) {
+        List<HashJoinOperator> joins = new ArrayList<>();
+        Operator node = root;
+        while (node instanceof JoinOperator) {
+            if (node instanceof HashJoinOperator)
+                joins.add((HashJoinOperator) node);
+            node = ((JoinOperator) node).leftChild;
+        }
+        return joins;
+    }
+
+    /**
+     * The receiving end of the queue filled by the workers, used as the child of the final {@link ProjectOperator}.
+     * It is never reset: {@link ParallelOperator#reset()} stops the workers and discards the final operator with its exchange,
+     * and the next read starts new ones.
+     */
+    private static class ExchangeOperator extends Operator {
+        private final BlockingQueue<TupleBatch> queue;
+        private int runningWorkers;
+        private volatile Throwable failure = null;
+
+        private ExchangeOperator(BlockingQueue<TupleBatch> queue, int workerCount) {
+            this.queue = queue;
+            this.runningWorkers = workerCount;
+        }
+
+        @Override
+        public void reset() {
+            throw new IllegalStateException("The exchange of a parallel plan is replaced rather than reset");
+        }
+
+        @Override
+        public Tuple getNextTuple() {
+            return this.nextTupleFromBatch();
+        }
+
+        @Override
+        public TupleBatch getNextBatch() {
+            try {
+                while (this.runningWorkers > 0) {
+                    TupleBatch batch = this.queue.take();
+                    if (batch != END_OF_WORKER)
+                        return batch;
+                    this.runningWorkers--;
+                    if (this.failure != null)
+                        throw new IllegalStateException("A worker failed: " + this.failure, this.failure);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the workers", e);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.Minibase;
+import ed.inf.adbs.minibase.base.*;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Generate and load a {@link CompiledPipeline} class for a query, as a code-generation backend of the planner.
+ * The plan is a left-deep tree of hash joins (the same plan that {@code Minibase.buildQueryPlan} interprets):
+ * the first body atom is the probe pipeline (scan - filter - probe each hash table - project),
+ * and each other atom is a build pipeline (scan - filter - hash table).
+ * The Java source of one class holding all the pipelines is generated, in which:
+ *      (1) the variables are bound to the primitive column arrays of the scanned batches and of the build rows;
+ *      (2) the select conditions and the residual join conditions become inline comparisons of the column types;
+ *      (3) each hash join becomes a nested loop over the chain of matching build rows;
+ *      (4) the head variables of each joined row are written into the output batches, which are consumed by the
+ *          (interpreted) {@link ProjectOperator} or {@link SumOperator}.
+ * The source is compiled in memory by the JDK compiler ({@link ToolProvider#getSystemJavaCompiler()}) and loaded
+ * by a new class loader; the classes are kept by their source, so the same plan is compiled once per JVM. When the plan is not supported (e.g. a nested loop join, or an atom repeating a variable),
+ * or no compiler is available (e.g. running on a JRE), {@link #compile} returns {@code null}
+ * and the interpreted operators are used instead.
+ */
+public class PipelineCompiler {
+
+    private static final String PACKAGE = "ed.inf.adbs.minibase.generated";
+    private static final AtomicInteger classCount = new AtomicInteger();
+    private static final Map<String, Class<?>> compiledClasses = new ConcurrentHashMap<>();
+    // <source generated under the name 'Pipeline' : class compiled from it>, so a query planned again
+    // (e.g. by a long-running MinibaseServer) reuses the loaded and JIT-compiled class instead of compiling it again
+    private static final int MAX_COMPILED_CLASSES = 256;
+
+    private final DBCatalog dbc;
+    private final RelationalAtom queryHead;
+    private final List<RelationalAtom> atoms;
+    private final List<List<ComparisonAtom>> selectLists;
+    private final List<List<ComparisonAtom>> joinLists;
+
+    private final Map<String, int[]> bindings = new HashMap<>();
+    // <variable name : {atom, column}>, the first column holding the variable in join order
+    private final List<boolean[]> columnTypes = new ArrayList<>();
+    // the column types of each atom, as stored in the scanned batches (true for the int and the encoded string columns)
+    private StringDictionary dictionary = null;
+    // the database dictionary encoding the string columns of the scanned batches, null if they are not encoded
+    private final List<int[]> keyColumns = new ArrayList<>();
+    private final List<List<String>> probeVariables = new ArrayList<>();
+    // for each atom (except the first), the key columns of its hash table, and the variables bound earlier that probe them
+    private final List<List<ComparisonAtom>> residualLists = new ArrayList<>();
+    // for each atom, the join conditions that are not used as keys, checked on each matched build row
+    private final List<String> outputVariables = new ArrayList<>();
+    private final List<Object> constants = new ArrayList<>();
+
+    private PipelineCompiler(DBCatalog dbc, RelationalAtom queryHead, List<RelationalAtom> atoms,
+                             List<List<ComparisonAtom>> selectLists, List<List<ComparisonAtom>> joinLists) {
+        this.dbc = dbc;
+        this.queryHead = queryHead;
+        this.atoms = atoms;
+        this.selectLists = selectLists;
+        this.joinLists = joinLists;
+    }
+
+    /**
+     * Generate, compile and load the pipelines of a query.
+     * @param dbc the catalog of the database.
+     * @param queryHead the query head.
+     * @param atoms the relational atoms of the body in join order, joined by hash joins.
+     * @param selectLists the select conditions of each atom.
+     * @param joinLists the join conditions between each atom and the previous atoms.
+     * @param scanBuilder generates the scan operator of an atom.
+     * @return the operator running the compiled pipelines (whose output is the input of the head operator),
+     *         or {@code null} if the plan can not be compiled.
+     */
+    public static Operator compile(DBCatalog dbc, RelationalAtom queryHead, List<RelationalAtom> atoms, List<List<ComparisonAtom>> selectLists,
+                                   List<List<ComparisonAtom>> joinLists, Function<RelationalAtom, Operator> scanBuilder) {
+        PipelineCompiler compiler = new PipelineCompiler(dbc, queryHead, atoms, selectLists, joinLists);
+        if (!compiler.bindVariables())
+            return null;
+        String key = compiler.generate("Pipeline");
+        Class<?> pipelineClass = compiledClasses.get(key);
+        if (pipelineClass == null) {
+            String className = "Pipeline" + classCount.incrementAndGet();
+            pipelineClass = load(PACKAGE + "." + className, compiler.generate(className));
+            if (pipelineClass == null)
+                return null;
+            if (compiledClasses.size() >= MAX_COMPILED_CLASSES)
+                compiledClasses.clear();
+            compiledClasses.put(key, pipelineClass);
+        }
+
+        CompiledPipeline pipeline;
+        try {
+            pipeline = (CompiledPipeline) pipelineClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to instantiate the generated pipeline " + pipelineClass.getName(), e);
+        }
+        List<Operator> scans = new ArrayList<>();
+        for (RelationalAtom atom : atoms)
+            scans.add(scanBuilder.apply(atom));
+        boolean[] outputTypes = new boolean[compiler.outputVariables.size()];
+        StringDictionary[] outputDictionaries = new StringDictionary[outputTypes.length];
+        for (int i = 0; i < outputTypes.length; i++) {
+            outputTypes[i] = compiler.isInt(compiler.outputVariables.get(i));
+            outputDictionaries[i] = compiler.isIntValue(compiler.outputVariables.get(i)) ? null : compiler.dictionary;
+        }
+        return new CompiledPipelineOperator(pipeline, scans, compiler.keyColumns, compiler.constants.toArray(),
+                compiler.outputVariables, outputTypes, outputDictionaries, queryHead.getName());
+    }
+
+    /**
+     * Bind each variable to the first column holding it, and split the join conditions into hash keys and residual conditions.
+     * @return {@code false} if the plan is not supported by the generated code.
+     */
+    private boolean bindVariables() {
+        this.dictionary = this.dbc.getDictionary();
+        for (int i = 0; i < this.atoms.size(); i++) {
+            RelationalAtom atom = this.atoms.get(i);
+            boolean[] types = TupleBatch.typesOf(this.dbc.getSchema(atom.getName()));
+            for (int c = 0; c < types.length; c++)
+                types[c] |= this.dictionary != null;
+            this.columnTypes.add(types);
+            List<Integer> keys = new ArrayList<>();
+            List<String> probes = new ArrayList<>();
+            List<String> atomVariables = new ArrayList<>();
+            for (Term term : atom.getTerms()) {
+                if (!(term instanceof Variable) || atomVariables.contains(((Variable) term).getName()))
+                    return false;
+                atomVariables.add(((Variable) term).getName());
+            }
+            // the variables shared with the previous atoms are the keys, the others are bound to this atom
+            for (int c = 0; c < atomVariables.size(); c++) {
+                String name = atomVariables.get(c);
+                if (this.bindings.containsKey(name)) {
+                    keys.add(c);
+                    probes.add(name);
+                } else {
+                    this.bindings.put(name, new int[] {i, c});
+                }
+            }
+            // an equality between a variable of this atom and a variable of the previous atoms is also a key
+            List<ComparisonAtom> residuals = new ArrayList<>();
+            for (ComparisonAtom cAtom : i == 0 ? Collections.<ComparisonAtom>emptyList() : this.joinLists.get(i)) {
+                int[] binding1 = this.bindingOf(cAtom.getTerm1());
+                int[] binding2 = this.bindingOf(cAtom.getTerm2());
+                if (cAtom.getOp() == ComparisonOperator.EQ && binding1 != null && binding2 != null
+                        && (binding1[0] == i) != (binding2[0] == i)) {
+                    boolean firstInAtom = binding1[0] == i;
+                    keys.add(firstInAtom ? binding1[1] : binding2[1]);
+                    probes.add(((Variable) (firstInAtom ? cAtom.getTerm2() : cAtom.getTerm1())).getName());
+                } else {
+                    residuals.add(cAtom);
+                }
+            }
+            if (i > 0 && keys.isEmpty())
+                return false; // a cross product is left to the nested loop join
+            List<String> schema = dbc.getSchema(atom.getName());
+            for (int k = 0; k < keys.size(); k++)
+                if (schema.get(keys.get(k)).equals("int") != this.isIntValue(probes.get(k)))
+                    return false; // keys of different types, which may have the same int value once the strings are encoded
+            this.keyColumns.add(keys.stream().mapToInt(Integer::intValue).toArray());
+            this.probeVariables.add(probes);
+            this.residualLists.add(residuals);
+        }
+
+        List<Term> headTerms = this.queryHead.getTerms();
+        for (Term term : headTerms) {
+            String name = term instanceof Sum ? ((Sum) term).getVariable() : ((Variable) term).getName();
+            if (!this.bindings.containsKey(name))
+                return false;
+            this.outputVariables.add(name);
+        }
+        return true;
+    }
+
+    /**
+     * Generate the source of the pipeline class.
+     * @param className the simple name of the class.
+     * @return the Java source.
+     */
+    private String generate(String className) {
+        // the build pipelines: filter the scanned batches of an atom
+        StringBuilder filter = new StringBuilder();
+        filter.append("    @Override\n    public int filter(int atom, TupleBatch b) {\n        switch (atom) {\n");
+        for (int i = 1; i < this.atoms.size(); i++) {
+            List<String> atomVariables = variablesOf(this.atoms.get(i));
+            List<String> schema = this.dbc.getSchema(this.atoms.get(i).getName());
+            String condition = this.conjunction(this.selectLists.get(i),
+                    name -> "v" + atomVariables.indexOf(name) + "[r]", name -> schema.get(atomVariables.indexOf(name)).equals("int"));
+            if (condition == null)
+                continue;
+            filter.append("            case ").append(i).append(": {\n");
+            this.declareColumns(filter, "                ", i, "v", "b");
+            filter.append("                int n = b.getSelectedCount();\n");
+            filter.append("                int passed = 0;\n");
+            filter.append("                for (int i = 0; i < n; i++) {\n");
+            filter.append("                    int r = b.getSelected(i);\n");
+            filter.append("                    if (").append(condition).append(")\n");
+            filter.append("                        b.setSelected(passed++, r);\n");
+            filter.append("                }\n");
+            filter.append("                b.setSelectedCount(passed);\n");
+            filter.append("                return passed;\n");
+            filter.append("            }\n");
+        }
+        filter.append("            default:\n                return b.getSelectedCount();\n        }\n    }\n\n");
+
+        // the probe pipeline: filter the batches of the first atom, probe the hash tables, write the head columns
+        StringBuilder consume = new StringBuilder();
+        consume.append("    @Override\n    public void consume(TupleBatch b0) {\n");
+        this.declareColumns(consume, "        ", 0, "v0_", "b0");
+        for (int i = 1; i < this.atoms.size(); i++)
+            consume.append("        JoinHashTable t").append(i).append(" = this.tables[").append(i).append("];\n");
+        consume.append("        int n0 = b0.getSelectedCount();\n");
+        consume.append("        for (int i0 = 0; i0 < n0; i0++) {\n");
+        consume.append("            int r0 = b0.getSelected(i0);\n");
+        String indent = "            ";
+        String selection = this.conjunction(this.selectLists.get(0), this::variable, this::isIntValue);
+        if (selection != null)
+            consume.append(indent).append("if (!(").append(selection).append("))\n").append(indent).append("    continue;\n");
+        for (int i = 1; i < this.atoms.size(); i++) {
+            StringJoiner key = new StringJoiner(", ");
+            for (String name : this.probeVariables.get(i))
+                key.add(this.variable(name));
+            consume.append(indent).append("for (int e").append(i).append(" = t").append(i).append(".lookup(new Object[] {")
+                    .append(key).append("}); e").append(i).append(" >= 0; e").append(i).append(" = t").append(i)
+                    .append(".next(e").append(i).append(")) {\n");
+            indent += "    ";
+            consume.append(indent).append("TupleBatch b").append(i).append(" = t").append(i).append(".getBatch(e").append(i).append(");\n");
+            consume.append(indent).append("int r").append(i).append(" = JoinHashTable.getRow(e").append(i).append(");\n");
+            String residual = this.conjunction(this.residualLists.get(i), this::variable, this::isIntValue);
+            if (residual != null)
+                consume.append(indent).append("if (!(").append(residual).append("))\n").append(indent).append("    continue;\n");
+        }
+        consume.append(indent).append("int o = this.out.addRow();\n");
+        for (int c = 0; c < this.outputVariables.size(); c++) {
+            String name = this.outputVariables.get(c);
+            consume.append(indent).append(this.isInt(name) ? "this.out.setInt(o, " : "this.out.setString(o, ")
+                    .append(c).append(", ").append(this.variable(name)).append(");\n");
+        }
+        consume.append(indent).append("if (this.out.isFull())\n").append(indent).append("    this.flush();\n");
+        for (int i = this.atoms.size() - 1; i >= 0; i--) {
+            indent = indent.substring(4);
+            consume.append(indent).append("}\n");
+        }
+        consume.append("    }\n");
+
+        // the string constants collected from the conditions become fields, set by init()
+        StringBuilder code = new StringBuilder();
+        code.append("package ").append(PACKAGE).append(";\n\n");
+        code.append("import ed.inf.adbs.minibase.operator.*;\n\n");
+        code.append("public final class ").append(className).append(" extends CompiledPipeline {\n\n");
+        for (int k = 0; k < this.constants.size(); k++)
+            code.append("    private String k").append(k).append(";\n");
+        code.append("\n    @Override\n    public void init(JoinHashTable[] tables, Object[] constants, boolean[] outputTypes,\n");
+        code.append("                     StringDictionary[] outputDictionaries, String outputName) {\n");
+        code.append("        super.init(tables, constants, outputTypes, outputDictionaries, outputName);\n");
+        for (int k = 0; k < this.constants.size(); k++)
+            code.append("        this.k").append(k).append(" = (String) constants[").append(k).append("];\n");
+        code.append("    }\n\n");
+        code.append(filter).append(consume).append("}\n");
+        return code.toString();
+    }
+
+    /**
+     * Declare a local variable for each column of an atom, e.g. {@code int[] v0_1 = b0.getIntColumn(1);}.
+     */
+    private void declareColumns(StringBuilder code, String indent, int atom, String prefix, String batch) {
+        boolean[] types = this.columnTypes.get(atom);
+        for (int c = 0; c < types.length; c++) {
+            code.append(indent).append(types[c] ? "int[] " : "String[] ").append(prefix).append(c).append(" = ").append(batch)
+                    .append(types[c] ? ".getIntColumn(" : ".getStringColumn(").append(c).append(");\n");
+        }
+    }
+
+    /**
+     * @return the expression of a variable in the probe pipeline, read from the column array of the first atom
+     *         or from the batch of the matched build row.
+     */
+    private String variable(String name) {
+        int[] binding = this.bindings.get(name);
+        if (binding[0] == 0)
+            return "v0_" + binding[1] + "[r0]";
+        return "b" + binding[0] + (this.isInt(name) ? ".getIntColumn(" : ".getStringColumn(") + binding[1] + ")[r" + binding[0] + "]";
+    }
+
+    private static List<String> variablesOf(RelationalAtom atom) {
+        List<String> variables = new ArrayList<>();
+        for (Term term : atom.getTerms())
+            variables.add(((Variable) term).getName());
+        return variables;
+    }
+
+    /**
+     * @return {@code true} if the variable is stored in an int column (an 'int' value, or an encoded string).
+     */
+    private boolean isInt(String name) {
+        int[] binding = this.bindings.get(name);
+        return this.columnTypes.get(binding[0])[binding[1]];
+    }
+
+    /**
+     * @return {@code true} if the variable holds 'int' values.
+     */
+    private boolean isIntValue(String name) {
+        int[] binding = this.bindings.get(name);
+        return this.dbc.getSchema(this.atoms.get(binding[0]).getName()).get(binding[1]).equals("int");
+    }
+
+    private int[] bindingOf(Term term) {
+        return term instanceof Variable ? this.bindings.get(((Variable) term).getName()) : null;
+    }
+
+    /**
+     * @param variable the expression of each variable.
+     * @param isIntVariable the type of each variable, {@code true} for 'int' values.
+     * @return the Java expression of a conjunction of conditions, or {@code null} if there is no condition.
+     */
+    private String conjunction(List<ComparisonAtom> conditions, Function<String, String> variable, Predicate<String> isIntVariable) {
+        if (conditions.isEmpty())
+            return null;
+        StringJoiner expression = new StringJoiner(" && ");
+        for (ComparisonAtom cAtom : conditions)
+            expression.add(this.condition(cAtom, variable, isIntVariable));
+        return expression.toString();
+    }
+
+    /**
+     * @param variable the expression of each variable.
+     * @param isIntVariable the type of each variable, {@code true} for 'int' values.
+     * @return the Java expression of a condition, specialized for the types of the operands
+     *         (the encoded string variables are compared by their codes, see {@link #encodedCondition}).
+     */
+    private String condition(ComparisonAtom cAtom, Function<String, String> variable, Predicate<String> isIntVariable) {
+        String[] operands = new String[2];
+        boolean[] isInt = new boolean[2];
+        Term[] terms = {cAtom.getTerm1(), cAtom.getTerm2()};
+        if (this.dictionary != null && (terms[0] instanceof Variable || terms[1] instanceof Variable)
+                && isStringOperand(terms[0], isIntVariable) && isStringOperand(terms[1], isIntVariable))
+            return this.encodedCondition(terms, cAtom.getOp(), variable);
+        for (int t = 0; t < 2; t++) {
+            if (terms[t] instanceof Variable) {
+                operands[t] = variable.apply(((Variable) terms[t]).getName());
+                isInt[t] = isIntVariable.test(((Variable) terms[t]).getName());
+            } else if (terms[t] instanceof IntegerConstant) {
+                operands[t] = "(" + ((IntegerConstant) terms[t]).getValue() + ")";
+                isInt[t] = true;
+            } else {
+                String value = ((StringConstant) terms[t]).getValue();
+                if (!this.constants.contains(value))
+                    this.constants.add(value);
+                operands[t] = "this.k" + this.constants.indexOf(value);
+                isInt[t] = false;
+            }
+        }
+        ComparisonOperator op = cAtom.getOp();
+        if (isInt[0] != isInt[1])
+            return op == ComparisonOperator.NEQ ? "true" : "false"; // values of different types are never equal
+        if (isInt[0])
+            return "(" + operands[0] + " " + (op == ComparisonOperator.EQ ? "==" : op.toString()) + " " + operands[1] + ")";
+        if (op == ComparisonOperator.EQ)
+            return operands[0] + ".equals(" + operands[1] + ")";
+        if (op == ComparisonOperator.NEQ)
+            return "!" + operands[0] + ".equals(" + operands[1] + ")";
+        return "(" + operands[0] + ".compareTo(" + operands[1] + ") " + op + " 0)";
+    }
+
+    private static boolean isStringOperand(Term term, Predicate<String> isIntVariable) {
+        if (term instanceof Variable)
+            return !isIntVariable.test(((Variable) term).getName());
+        return term instanceof StringConstant;
+    }
+
+    /**
+     * A condition between encoded string variables is a comparison of their codes,
+     * and a condition between an encoded string variable and a string constant is translated into a comparison
+     * with the code of the constant (see {@link SelectPredicate#encodedConstant}).
+     * @return the Java expression of a condition between a string variable and another string variable or constant.
+     */
+    private String encodedCondition(Term[] terms, ComparisonOperator op, Function<String, String> variable) {
+        if (terms[0] instanceof Variable && terms[1] instanceof Variable)
+            return "(" + variable.apply(((Variable) terms[0]).getName()) + " " + (op == ComparisonOperator.EQ ? "==" : op.toString())
+                    + " " + variable.apply(((Variable) terms[1]).getName()) + ")";
+        // as "variable op constant"
+        boolean constantFirst = terms[0] instanceof StringConstant;
+        String operand = variable.apply(((Variable) terms[constantFirst ? 1 : 0]).getName());
+        String constant = ((StringConstant) terms[constantFirst ? 0 : 1]).getValue();
+        if (constantFirst)
+            op = mirror(op);
+        if (op == ComparisonOperator.EQ || op == ComparisonOperator.NEQ) {
+            int code = this.dictionary.encode(constant);
+            if (code < 0)
+                return op == ComparisonOperator.NEQ ? "true" : "false";
+            return "(" + operand + " " + (op == ComparisonOperator.EQ ? "==" : "!=") + " " + code + ")";
+        }
+        boolean below = op == ComparisonOperator.LT || op == ComparisonOperator.LEQ;
+        return "(" + operand + (below ? " < " : " >= ") + this.dictionary.codeBound(op, constant) + ")";
+    }
+
+    private static ComparisonOperator mirror(ComparisonOperator op) {
+        switch (op) {
+            case GT:
+                return ComparisonOperator.LT;
+            case GEQ:
+                return ComparisonOperator.LEQ;
+            case LT:
+                return ComparisonOperator.GT;
+            case LEQ:
+                return ComparisonOperator.GEQ;
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * Compile a generated source in memory, and load the class by a new class loader.
+     * @param className the binary name of the class.
+     * @param source the Java source.
+     * @return the loaded class, or {@code null} if no compiler is available or the source can not be compiled.
+     */
+    private static Class<?> load(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return null;
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> classBytes = new HashMap<>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(
+                compiler.getStandardFileManager(diagnostics, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classBytes.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject sourceFile = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-proc:none");
+        boolean compiled = compiler.getTask(null, fileManager, diagnostics, options, null, Collections.singletonList(sourceFile)).call();
+        if (!compiled) {
+            System.err.println("Failed to compile the generated pipeline, the query is interpreted instead: " + diagnostics.getDiagnostics());
+            return null;
+        }
+
+        ClassLoader loader = new ClassLoader(CompiledPipeline.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classBytes.get(name);
+                if (bytes == null)
+                    throw new ClassNotFoundException(name);
+                return this.defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            }
+        };
+        try {
+            return loader.loadClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("The generated pipeline is not found after compilation: " + className, e);
+        }
+    }
+
+    /**
+     * Unit test of PipelineCompiler: evaluate a query by the interpreted operators and by the compiled pipelines,
+     * and compare the results (the interpreter is the reference).
+     * With a memory limit, the query is also evaluated under that limit, where the relations that do not fit are joined
+     * by sort-merge joins and the others by hash joins above them (a mixed plan, interpreted since it is not compiled).
+     * @param args the database directory and the query file, e.g. "data/evaluation/db data/evaluation/input/query1.txt",
+     *             optionally followed by the memory limit in bytes of the mixed plan.
+     */
+    public static void main(String[] args) throws IOException {
+        DBCatalog dbc = new DBCatalog(args[0]);
+        List<String> expected = evaluate(dbc, args[1]);
+        dbc.setCodeGeneration(true);
+        List<String> compiled = evaluate(dbc, args[1]);
+        System.out.println(expected.equals(compiled) ? "MATCH (" + compiled.size() + " rows)" : "MISMATCH\n" + expected + "\n" + compiled);
+        if (args.length > 2) {
+            dbc.setMemoryLimit(Long.parseLong(args[2]));
+            List<String> mixed = evaluate(dbc, args[1]);
+            System.out.println(expected.equals(mixed) ? "MATCH mixed plan (" + mixed.size() + " rows)" : "MISMATCH mixed plan\n" + expected + "\n" + mixed);
+        }
+    }
+
+    /**
+     * Evaluate a query into a temporary file, used by {@link #main(String[])}.
+     * @return the sorted output lines.
+     */
+    private static List<String> evaluate(DBCatalog dbc, String queryFile) throws IOException {
+        Path output = Files.createTempFile("minibase-output", ".csv");
+        Minibase.evaluateCQ(dbc, queryFile, output.toString());
+        List<String> lines = new ArrayList<>(Files.readAllLines(output));
+        Collections.sort(lines);
+        Files.delete(output);
+        return lines;
+    }
+}
@@ -2,11 +2,21 @@ package ed.inf.adbs.minibase.operator;
 
 import ed.inf.adbs.minibase.base.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
 /**
  * Implements the project operation: select some or all columns and may re-order the columns from the child relation.
+ * The output follows set semantics, the duplicated rows are eliminated by a {@link RowHashSet} of the reported rows.
+ * When the set grows beyond the memory limit in {@link DBCatalog}, it stops growing:
+ *      (1) the rows found in the set are still dropped, the other rows are written into {@link #PARTITION_COUNT}
+ *          temporary files, partitioned by their hash (so the equal rows always go to the same partition);
+ *      (2) after the child is exhausted, the set is released, and each partition is deduplicated on its own
+ *          (a partition that is still too large is partitioned again, with another hash seed).
  * Notice: if the query head contains aggregation operations,
  * {@link SumOperator} will be applied in replace of this class.
  */
@@ -15,69 +25,248 @@ public class ProjectOperator extends Operator {
     private Operator child;
     private String projectionName;
 
-    private List<Integer> projectIndices = new ArrayList<>();
+    private int[] projectIndices;
     // a map from fields in new relation to child relation, indicates where to find the projection column in child tuple
     // e.g. projectIndices[0] = 2 means the first column after projection is the third column in original relation
 
-    private List<String> reportBuffer = new ArrayList<>();
-    // a buffer of all the reported tuples, used for duplication check
+    public static final int PARTITION_COUNT = 16;
+    private static final int MAX_PARTITION_LEVEL = 8;
+    // a partition at this depth is deduplicated in memory regardless of the limit (the hashes no longer split it)
+
+    private boolean[] columnTypes = null;
+    private StringDictionary[] columnDictionaries = null;
+    // the types and the dictionaries of projected columns, recorded from the first child batch
+
+    private RowHashSet reportedRows = null;
+    // the rows reported so far, used for duplication check
+
+    private final long memoryLimit;
+    // the estimated size of reportedRows above which the unreported rows are partitioned to disk
+
+    private boolean childFinished = false;
+    private SpillFile[] partitions = null;
+    // the partition files of the rows not in reportedRows, created when reportedRows reaches the memory limit
+    private int partitionLevel = 0;
+    // the depth of the partitions being written: 0 for the partitions of child output, n for those of a level n-1 partition
+
+    private final Deque<SpillFile> pendingPartitions = new ArrayDeque<>();
+    private final Deque<Integer> pendingLevels = new ArrayDeque<>();
+    private SpillFile.Reader partitionReader = null;
+    private SpillFile currentPartition = null;
+    private TupleBatch partitionRow = null;
+    private TupleBatch outputBatch = null;
+    // the state of deduplicating the partitions after the child is exhausted
 
     /**
      * Initialise. Extract the target variable mask from query head,
      * build a mapping relation from indices after projection to corresponding indices before projection.
      * @param childOperator the child operator.
      * @param queryHead the query head, whose term list indicates the projection requirements.
+     * @param memoryLimit the memory limit of the duplicate elimination, in bytes (see {@link DBCatalog#getMemoryLimit()}).
      */
-    public ProjectOperator(Operator childOperator, RelationalAtom queryHead) {
+    public ProjectOperator(Operator childOperator, RelationalAtom queryHead, long memoryLimit) {
         this.child = childOperator;
+        this.memoryLimit = memoryLimit;
         List<String> childVariableMask = childOperator.getVariableMask(); // the variableMask before projection
         this.projectionName = queryHead.getName();
         // for each variable in the relational atom of query head, find the corresponding position in child relation,
         // and build a mapping relation from the target index (after projection) to original index
+        this.projectIndices = new int[queryHead.getTerms().size()];
         for (int i = 0; i < queryHead.getTerms().size(); i++) {
             String varName = ((Variable) queryHead.getTerms().get(i)).getName();
             int idx = childVariableMask.indexOf(varName);
-            this.projectIndices.add(idx);
+            this.projectIndices[i] = idx;
             this.variableMask.add(varName); // this.variableMask will record the variable positions after projection
         }
 //        System.out.println(childVariableMask + "- -> " + this.variableMask + "(" + this.projectIndices + ")");
     }
 
     /**
-     * Reset the child operator, and also clean the report buffer.
+     * Reset the child operator, and also clean the reported rows and the partition files.
      */
     @Override
     public void reset() {
+        this.resetBatchAdapter();
         this.child.reset();
-        this.reportBuffer = new ArrayList<>();
+        this.reportedRows = this.columnTypes == null ? null : new RowHashSet(this.columnTypes);
+        this.childFinished = false;
+        this.closePartitionReader();
+        if (this.partitions != null)
+            for (SpillFile partition : this.partitions)
+                partition.delete();
+        for (SpillFile partition : this.pendingPartitions)
+            partition.delete();
+        this.partitions = null;
+        this.partitionLevel = 0;
+        this.pendingPartitions.clear();
+        this.pendingLevels.clear();
     }
 
     /**
-     * Get the next output tuple from child operator,
-     * use {@code this.projectIndices} to map the original tuple to the projected tuple,
-     * check duplication using {@code this.reportBuffer} before returning.
+     * Get the next projected tuple, taken from the batches produced by {@link #getNextBatch()}.
      * @return the next projected tuple (without duplication).
      */
     @Override
     public Tuple getNextTuple() {
-        Tuple childOutput = this.child.getNextTuple();
-        while (childOutput != null) {
-            // use the map to construct projected tuple from original tuple by aligning indices
-            List<Term> termList = new ArrayList<>();
-            for (int pi : this.projectIndices) {
-                termList.add(childOutput.getTerms().get(pi));
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * Get the next batch from child operator,
+     * use {@code this.projectIndices} to build a view over the projected columns (no value is copied),
+     * check duplication using {@code this.reportedRows}, and keep only the new rows in the selection vector.
+     * After the child operator reaches the end, the rows of the partition files (if any) are deduplicated and returned.
+     * @return the next batch of projected rows (without duplication), or {@code null} if all the rows are returned.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (this.childFinished)
+            return this.nextPartitionBatch();
+
+        TupleBatch childBatch = this.child.getNextBatch();
+        while (childBatch != null) {
+            TupleBatch batch = childBatch.project(this.projectIndices, this.projectionName);
+            if (this.reportedRows == null) {
+                this.columnTypes = batch.getColumnTypes();
+                this.columnDictionaries = batch.getDictionaries();
+                this.reportedRows = new RowHashSet(this.columnTypes);
+            }
+            int reported = 0;
+            for (int i = 0; i < batch.getSelectedCount(); i++) {
+                int row = batch.getSelected(i);
+                if (this.partitions == null) {
+                    if (this.reportedRows.add(batch, row))
+                        batch.setSelected(reported++, row);
+                    if (this.isOverLimit())
+                        this.partitions = createPartitions();
+                } else if (!this.reportedRows.contains(batch, row)) {
+                    this.writePartition(batch, row);
+                }
+            }
+            batch.setSelectedCount(reported);
+            if (reported > 0)
+                return batch;
+            // if all the rows duplicate with some previous reported tuple, move to the next child batch
+            childBatch = this.child.getNextBatch();
+        }
+
+        // the rows in the partitions are not in reportedRows, so the set is no longer needed
+        this.childFinished = true;
+        this.reportedRows = null;
+        this.finishPartitions();
+        return this.nextPartitionBatch();
+    }
+
+    /**
+     * Deduplicate the pending partitions one by one, each with a new set.
+     * @return the next batch of new rows from the partitions, or {@code null} if all the partitions are processed.
+     */
+    private TupleBatch nextPartitionBatch() {
+        if (this.columnTypes == null)
+            return null;
+        if (this.outputBatch == null) {
+            this.outputBatch = new TupleBatch(this.projectionName, this.columnTypes, this.columnDictionaries, TupleBatch.DEFAULT_CAPACITY);
+            this.partitionRow = new TupleBatch(this.projectionName, this.columnTypes, this.columnDictionaries, 1);
+        }
+        this.outputBatch.clear();
+
+        try {
+            while (!this.outputBatch.isFull()) {
+                if (this.partitionReader == null) {
+                    if (this.pendingPartitions.isEmpty())
+                        break;
+                    this.currentPartition = this.pendingPartitions.poll();
+                    this.partitionLevel = this.pendingLevels.poll();
+                    this.partitionReader = this.currentPartition.openReader();
+                    this.reportedRows = new RowHashSet(this.columnTypes);
+                }
+
+                Tuple tuple = this.partitionReader.read(this.projectionName);
+                if (tuple == null) {
+                    this.closePartitionReader();
+                    this.finishPartitions();
+                    continue;
+                }
+                this.partitionRow.clear();
+                this.partitionRow.addTuple(tuple);
+                if (this.partitions == null) {
+                    if (this.reportedRows.add(this.partitionRow, 0))
+                        this.outputBatch.addTuple(tuple);
+                    if (this.isOverLimit() && this.partitionLevel < MAX_PARTITION_LEVEL)
+                        this.partitions = createPartitions();
+                } else if (!this.reportedRows.contains(this.partitionRow, 0)) {
+                    this.writePartition(this.partitionRow, 0);
+                }
             }
-            // construct a new tuple and checks duplication
-            Tuple newTuple = new Tuple(this.projectionName, termList);
-            if (!this.reportBuffer.contains(newTuple.toString())) {
-                this.reportBuffer.add(newTuple.toString());
-                return newTuple;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read partition file", e);
+        }
+        return this.outputBatch.getSelectedCount() > 0 ? this.outputBatch : null;
+    }
+
+    /**
+     * A set holding less than a batch of rows is never spilled, as partitioning it would not save memory.
+     */
+    private boolean isOverLimit() {
+        return this.reportedRows.size() >= TupleBatch.DEFAULT_CAPACITY && this.reportedRows.getEstimatedSize() > this.memoryLimit;
+    }
+
+    private static SpillFile[] createPartitions() {
+        SpillFile[] partitions = new SpillFile[PARTITION_COUNT];
+        try {
+            for (int p = 0; p < PARTITION_COUNT; p++)
+                partitions[p] = new SpillFile("distinct");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create partition file", e);
+        }
+        return partitions;
+    }
+
+    /**
+     * Write a row into its partition, chosen by a hash whose seed depends on the partition level.
+     */
+    private void writePartition(TupleBatch batch, int row) {
+        int hash = RowHashSet.hashRow(batch, row, this.partitionLevel + 1);
+        try {
+            this.partitions[(hash & Integer.MAX_VALUE) % PARTITION_COUNT].write(batch.getTuple(row));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write partition file", e);
+        }
+    }
+
+    /**
+     * Close the partitions being written, and queue the non-empty ones to be deduplicated.
+     */
+    private void finishPartitions() {
+        if (this.partitions == null)
+            return;
+        try {
+            for (SpillFile partition : this.partitions) {
+                partition.finishWrite();
+                if (partition.getTupleCount() == 0) {
+                    partition.delete();
+                } else {
+                    this.pendingPartitions.add(partition);
+                    this.pendingLevels.add(this.partitionLevel + 1);
+                }
             }
-            // if this new tuple duplicates with some previous reported tuple,
-            // iterate to the next child output tuple
-            childOutput = this.child.getNextTuple();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write partition file", e);
+        }
+        this.partitions = null;
+    }
+
+    private void closePartitionReader() {
+        if (this.partitionReader == null)
+            return;
+        try {
+            this.partitionReader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close partition file", e);
         }
-        return null;
+        this.currentPartition.delete();
+        this.partitionReader = null;
+        this.currentPartition = null;
     }
 
     /**
@@ -85,8 +274,7 @@ public class ProjectOperator extends Operator {
      * @param args Command line inputs, can be empty.
      */
     public static void main(String[] args) {
-        DBCatalog dbc = DBCatalog.getInstance();
-        dbc.init("data/evaluation/db");
+        DBCatalog dbc = new DBCatalog("data/evaluation/db");
 
         List<Term> queryAtomTerms = new ArrayList<>();
         queryAtomTerms.add( new Variable("x"));
@@ -95,7 +283,7 @@ public class ProjectOperator extends Operator {
         RelationalAtom queryBodyAtom = new RelationalAtom("R", queryAtomTerms); // R:(x, y, z)
         System.out.println("Query relational atom: " + queryBodyAtom);
 
-        ScanOperator scanOp = new ScanOperator(queryBodyAtom);
+        ScanOperator scanOp = new ScanOperator(dbc, queryBodyAtom);
 
         List<ComparisonAtom> compAtomList = new ArrayList<>();
         ComparisonAtom compAtom1 = new ComparisonAtom(
@@ -117,7 +305,7 @@ public class ProjectOperator extends Operator {
         RelationalAtom queryHeadAtom = new RelationalAtom("Q", queryHeadTerms);
         System.out.println(queryHeadAtom);
 
-        ProjectOperator projOp = new ProjectOperator(seleOp, queryHeadAtom);
+        ProjectOperator projOp = new ProjectOperator(seleOp, queryHeadAtom, dbc.getMemoryLimit());
         projOp.dump(null);
 
     }
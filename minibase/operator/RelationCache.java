@@ -0,0 +1,200 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache of relations loaded into memory as {@link RelationTable}, owned by {@link DBCatalog}.
+ * The total estimated size of the cached tables is bounded by a capacity,
+ * the least recently used tables are evicted when a newly loaded table does not fit.
+ * A table larger than the whole capacity is returned to the caller but not cached.
+ * The numbers of hits, misses and evictions are recorded, and can be queried for monitoring.
+ * A relation is loaded without holding the lock of the cache, so the other threads keep reading the cached tables;
+ * the threads asking for a relation which is being loaded wait for that load instead of reading the file again.
+ */
+public class RelationCache {
+
+    private final DBCatalog dbc;
+    // the catalog of the database the relations are loaded from
+    private final long capacity;
+    private long usedSize = 0;
+
+    private final LinkedHashMap<String, RelationTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+    // <relation name : loaded table>, iterated from the least recently used one (access-order)
+    private final Map<String, CompletableFuture<RelationTable>> loading = new HashMap<>();
+    // <relation name : table being loaded by another thread>
+    private final ReentrantLock lock = new ReentrantLock();
+    // guards the tables, the loads in progress and the counters
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param dbc the catalog of the database the relations are loaded from.
+     * @param capacity the maximum total estimated size (in bytes) of the cached tables.
+     */
+    public RelationCache(DBCatalog dbc, long capacity) {
+        this.dbc = dbc;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Return the table of a relation, load it from the relation file if it is not cached.
+     * @param relationName the name of relation.
+     * @return the in-memory table of the relation.
+     */
+    public RelationTable get(String relationName) {
+        CompletableFuture<RelationTable> load;
+        boolean loadedByThisThread = false;
+        this.lock.lock();
+        try {
+            RelationTable table = this.tables.get(relationName);
+            if (table != null) {
+                this.hits++;
+                return table;
+            }
+            load = this.loading.get(relationName);
+            if (load == null) {
+                this.misses++;
+                load = new CompletableFuture<>();
+                this.loading.put(relationName, load);
+                loadedByThisThread = true;
+            } else {
+                this.hits++;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (!loadedByThisThread)
+            return await(load, relationName);
+
+        RelationTable table;
+        try {
+            table = RelationTable.load(this.dbc, relationName);
+        } catch (IOException e) {
+            this.abandon(relationName, load, e);
+            throw new UncheckedIOException("Failed to load relation into cache: " + relationName, e);
+        } catch (RuntimeException | Error e) {
+            this.abandon(relationName, load, e);
+            throw e;
+        }
+
+        this.lock.lock();
+        try {
+            this.loading.remove(relationName);
+            if (table.getEstimatedSize() <= this.capacity) {
+                // evict the least recently used tables until the new table fits
+                Iterator<Map.Entry<String, RelationTable>> iterator = this.tables.entrySet().iterator();
+                while (this.usedSize + table.getEstimatedSize() > this.capacity && iterator.hasNext()) {
+                    this.usedSize -= iterator.next().getValue().getEstimatedSize();
+                    iterator.remove();
+                    this.evictions++;
+                }
+                this.tables.put(relationName, table);
+                this.usedSize += table.getEstimatedSize();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        load.complete(table);
+        return table;
+    }
+
+    /**
+     * Give up a failed load, the threads waiting for it fail as well.
+     */
+    private void abandon(String relationName, CompletableFuture<RelationTable> load, Throwable failure) {
+        this.lock.lock();
+        try {
+            this.loading.remove(relationName);
+        } finally {
+            this.lock.unlock();
+        }
+        load.completeExceptionally(failure);
+    }
+
+    /**
+     * Wait for a relation being loaded by another thread.
+     */
+    private static RelationTable await(CompletableFuture<RelationTable> load, String relationName) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw new UncheckedIOException("Failed to load relation into cache: " + relationName, (IOException) e.getCause());
+            throw new IllegalStateException("Failed to load relation into cache: " + relationName, e.getCause());
+        }
+    }
+
+    /**
+     * Drop all the cached tables, e.g. after the relation files are modified. The counters are kept.
+     */
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.tables.clear();
+            this.usedSize = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    public long getUsedSize() {
+        this.lock.lock();
+        try {
+            return this.usedSize;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        this.lock.lock();
+        try {
+            return this.hits;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getMisses() {
+        this.lock.lock();
+        try {
+            return this.misses;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getEvictions() {
+        this.lock.lock();
+        try {
+            return this.evictions;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        this.lock.lock();
+        try {
+            return "RelationCache{cached=" + this.tables.keySet() + ", used=" + this.usedSize + "/" + this.capacity
+                    + ", hits=" + this.hits + ", misses=" + this.misses + ", evictions=" + this.evictions + "}";
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
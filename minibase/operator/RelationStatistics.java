@@ -0,0 +1,186 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.*;
+
+/**
+ * The statistics of a relation: its row count and a {@link ColumnStatistics} for each column.
+ * They are collected by an ANALYZE pass ({@link #collect(String, long)}, triggered by {@link DBCatalog#analyze(String)})
+ * in a single scan of the relation:
+ *      (1) the row count, minimum and maximum values are exact;
+ *      (2) the distinct count of each column is estimated by a {@link HyperLogLog} sketch;
+ *      (3) the equi-depth histogram is built on a uniform reservoir sample of {@link #SAMPLE_SIZE} rows.
+ *
+ * The statistics of all relations are saved in the file 'stats.txt' next to 'schema.txt', one line for each relation:
+ *      R rowCount lastModified | distinct min max bound_0 ... bound_k | ... (one segment for each column)
+ * where {@code lastModified} is the modification time of 'R.csv' when R was analyzed
+ * (the statistics are ignored once the data file changes), and the segment of a column in an empty relation is just "0".
+ */
+public class RelationStatistics {
+
+    public static final int SAMPLE_SIZE = 10000;
+    public static final int HISTOGRAM_BUCKETS = 20;
+
+    private final String relationName;
+    private final long rowCount;
+    private final long lastModified;
+    private final List<ColumnStatistics> columns;
+
+    public RelationStatistics(String relationName, long rowCount, long lastModified, List<ColumnStatistics> columns) {
+        this.relationName = relationName;
+        this.rowCount = rowCount;
+        this.lastModified = lastModified;
+        this.columns = columns;
+    }
+
+    public String getRelationName() {
+        return this.relationName;
+    }
+
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * @return the modification time of the '.csv' data file when the statistics were collected.
+     */
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    public List<ColumnStatistics> getColumns() {
+        return this.columns;
+    }
+
+    public ColumnStatistics getColumn(int column) {
+        return this.columns.get(column);
+    }
+
+    /**
+     * Scan a relation (in its current storage format) once, and collect its statistics.
+     * @param dbc the catalog of the database.
+     * @param relationName the name of relation.
+     * @param lastModified the modification time of the '.csv' data file, recorded with the statistics.
+     * @return the statistics of the relation.
+     */
+    public static RelationStatistics collect(DBCatalog dbc, String relationName, long lastModified) {
+        int columnCount = dbc.getSchema(relationName).size();
+        List<Term> scanTerms = new ArrayList<>();
+        for (int c = 0; c < columnCount; c++)
+            scanTerms.add(new Variable("c" + c));
+        RelationalAtom scanAtom = new RelationalAtom(relationName, scanTerms);
+        Operator scan = dbc.getStorageFormat(relationName) == DBCatalog.StorageFormat.COLUMNAR
+                ? new ColumnarScanOperator(dbc, scanAtom) : new ScanOperator(dbc, scanAtom);
+
+        boolean[] isIntColumn = TupleBatch.typesOf(dbc.getSchema(relationName));
+        HyperLogLog[] sketches = new HyperLogLog[columnCount];
+        Term[] min = new Term[columnCount];
+        Term[] max = new Term[columnCount];
+        for (int c = 0; c < columnCount; c++)
+            sketches[c] = new HyperLogLog();
+        List<Term[]> sample = new ArrayList<>();
+        Random random = new Random(0);
+        long rowCount = 0;
+
+        TupleBatch batch = scan.getNextBatch();
+        while (batch != null) {
+            for (int i = 0; i < batch.getSelectedCount(); i++) {
+                int row = batch.getSelected(i);
+                Term[] values = new Term[columnCount];
+                for (int c = 0; c < columnCount; c++) {
+                    if (isIntColumn[c])
+                        sketches[c].add(batch.getIntColumn(c)[row]);
+                    else
+                        sketches[c].add(batch.getString(row, c));
+                    values[c] = batch.getTerm(row, c);
+                    if (min[c] == null || TupleComparator.compareTerms(values[c], min[c]) < 0)
+                        min[c] = values[c];
+                    if (max[c] == null || TupleComparator.compareTerms(values[c], max[c]) > 0)
+                        max[c] = values[c];
+                }
+                // reservoir sampling: the n-th row replaces a random sampled row with probability SAMPLE_SIZE / n
+                rowCount++;
+                if (sample.size() < SAMPLE_SIZE)
+                    sample.add(values);
+                else {
+                    long slot = (long) (random.nextDouble() * rowCount);
+                    if (slot < SAMPLE_SIZE)
+                        sample.set((int) slot, values);
+                }
+            }
+            batch = scan.getNextBatch();
+        }
+
+        List<ColumnStatistics> columns = new ArrayList<>();
+        for (int c = 0; c < columnCount; c++) {
+            List<Term> values = new ArrayList<>();
+            for (Term[] sampledRow : sample)
+                values.add(sampledRow[c]);
+            values.sort(TupleComparator::compareTerms);
+            int buckets = Math.min(HISTOGRAM_BUCKETS, Math.max(values.size() - 1, 0));
+            Term[] bounds = new Term[values.isEmpty() ? 0 : buckets + 1];
+            for (int b = 0; b < bounds.length; b++)
+                bounds[b] = values.get(buckets == 0 ? 0 : (int) ((long) b * (values.size() - 1) / buckets));
+            if (bounds.length > 0) {
+                // the sample may miss the extreme values
+                bounds[0] = min[c];
+                bounds[bounds.length - 1] = max[c];
+            }
+            long distinct = Math.max(rowCount == 0 ? 0 : 1, Math.min(rowCount, sketches[c].estimate()));
+            columns.add(new ColumnStatistics(isIntColumn[c], distinct, min[c], max[c], bounds));
+        }
+        return new RelationStatistics(relationName, rowCount, lastModified, columns);
+    }
+
+    /**
+     * @return the line representing this relation in the statistics file.
+     */
+    public String toLine() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.relationName).append(' ').append(this.rowCount).append(' ').append(this.lastModified);
+        for (ColumnStatistics column : this.columns) {
+            sb.append(" | ").append(column.getDistinctCount());
+            if (column.getMin() == null)
+                continue;
+            sb.append(' ').append(valueOf(column.getMin())).append(' ').append(valueOf(column.getMax()));
+            for (Term bound : column.getHistogramBounds())
+                sb.append(' ').append(valueOf(bound));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse a line of the statistics file.
+     * @param line a line written by {@link #toLine()}.
+     * @param schema the data types of the relation's columns, to interpret the values.
+     * @return the statistics of the relation.
+     */
+    public static RelationStatistics parseLine(String line, List<String> schema) {
+        String[] segments = line.trim().split("\\s*\\|\\s*");
+        String[] header = segments[0].split("\\s+");
+        List<ColumnStatistics> columns = new ArrayList<>();
+        for (int c = 0; c < schema.size(); c++) {
+            boolean isInt = schema.get(c).equals("int");
+            String[] values = segments[c + 1].split("\\s+");
+            long distinct = Long.parseLong(values[0]);
+            if (values.length < 3) {
+                columns.add(new ColumnStatistics(isInt, distinct, null, null, new Term[0]));
+                continue;
+            }
+            Term[] bounds = new Term[values.length - 3];
+            for (int b = 0; b < bounds.length; b++)
+                bounds[b] = termOf(values[b + 3], isInt);
+            columns.add(new ColumnStatistics(isInt, distinct, termOf(values[1], isInt), termOf(values[2], isInt), bounds));
+        }
+        return new RelationStatistics(header[0], Long.parseLong(header[1]), Long.parseLong(header[2]), columns);
+    }
+
+    private static String valueOf(Term term) {
+        return term instanceof IntegerConstant ? String.valueOf(((IntegerConstant) term).getValue()) : ((StringConstant) term).getValue();
+    }
+
+    private static Term termOf(String value, boolean isInt) {
+        return isInt ? new IntegerConstant(Integer.parseInt(value)) : new StringConstant(value);
+    }
+}
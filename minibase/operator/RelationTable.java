@@ -0,0 +1,248 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A compact in-memory copy of a relation, held by {@link RelationCache}.
+ * Each column is stored as a primitive {@code int[]} or a {@code String[]} (equal strings in a column share one object),
+ * so a table is much smaller than the list of {@link Tuple} instances with the same content.
+ * When the database has a dictionary (see {@link DBCatalog#getDictionary()}), the string columns are stored as its codes,
+ * in the same way as the batches of the other scans.
+ */
+public class RelationTable {
+
+    private final String relationName;
+    private final int rowCount;
+    private final int[][] intColumns;
+    private final String[][] stringColumns;
+    // for each column, exactly one of intColumns[c] and stringColumns[c] is not null
+    private final StringDictionary[] dictionaries;
+    // the dictionary of each encoded string column (stored in intColumns[c]), null for the other columns
+    private final long estimatedSize;
+    private Term[][] zoneMinimums = null;
+    private Term[][] zoneMaximums = null;
+    // the smallest and the largest value of each column in each block of ColumnarFile.ZONE_ROWS rows, computed on first use
+    private final ReentrantLock zoneMapLock = new ReentrantLock();
+    // guards the computation of the zone maps
+
+    private RelationTable(String relationName, int rowCount, int[][] intColumns, String[][] stringColumns,
+                          StringDictionary[] dictionaries, long estimatedSize) {
+        this.relationName = relationName;
+        this.rowCount = rowCount;
+        this.intColumns = intColumns;
+        this.stringColumns = stringColumns;
+        this.dictionaries = dictionaries;
+        this.estimatedSize = estimatedSize;
+    }
+
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    public int[][] getIntColumns() {
+        return this.intColumns;
+    }
+
+    public String[][] getStringColumns() {
+        return this.stringColumns;
+    }
+
+    public StringDictionary[] getDictionaries() {
+        return this.dictionaries;
+    }
+
+    /**
+     * @return the estimated heap footprint of this table in bytes.
+     */
+    public long getEstimatedSize() {
+        return this.estimatedSize;
+    }
+
+    /**
+     * Check the zone maps of a range of rows against the pushed-down conditions of a scan (see {@link ScanFilter}).
+     * The zone maps are computed on the first call, in one pass over the columns.
+     * @param from the first row of the range.
+     * @param to the end (exclusive) of the range.
+     * @param filter the conditions of the scan.
+     * @return {@code false} if no row in the range satisfies the conditions, {@code true} if some row may satisfy them.
+     */
+    public boolean mayMatch(int from, int to, ScanFilter filter) {
+        if (from >= to)
+            return true;
+        this.computeZoneMaps();
+        for (int zone = from / ColumnarFile.ZONE_ROWS; zone <= (to - 1) / ColumnarFile.ZONE_ROWS; zone++)
+            if (filter.mayMatch(this.zoneMinimums[zone], this.zoneMaximums[zone]))
+                return true;
+        return false;
+    }
+
+    private void computeZoneMaps() {
+        this.zoneMapLock.lock();
+        try {
+            if (this.zoneMinimums != null)
+                return;
+            int zoneCount = (this.rowCount + ColumnarFile.ZONE_ROWS - 1) / ColumnarFile.ZONE_ROWS;
+            Term[][] minimums = new Term[zoneCount][this.intColumns.length];
+            Term[][] maximums = new Term[zoneCount][this.intColumns.length];
+            for (int zone = 0; zone < zoneCount; zone++) {
+                int from = zone * ColumnarFile.ZONE_ROWS;
+                int to = Math.min(from + ColumnarFile.ZONE_ROWS, this.rowCount);
+                for (int c = 0; c < this.intColumns.length; c++) {
+                    if (this.intColumns[c] != null) {
+                        int min = this.intColumns[c][from];
+                        int max = min;
+                        for (int r = from + 1; r < to; r++) {
+                            min = Math.min(min, this.intColumns[c][r]);
+                            max = Math.max(max, this.intColumns[c][r]);
+                        }
+                        // the codes of an encoded column compare as the strings
+                        minimums[zone][c] = this.termOf(c, min);
+                        maximums[zone][c] = this.termOf(c, max);
+                    } else {
+                        String min = this.stringColumns[c][from];
+                        String max = min;
+                        for (int r = from + 1; r < to; r++) {
+                            if (this.stringColumns[c][r].compareTo(min) < 0)
+                                min = this.stringColumns[c][r];
+                            if (this.stringColumns[c][r].compareTo(max) > 0)
+                                max = this.stringColumns[c][r];
+                        }
+                        minimums[zone][c] = new StringConstant(min);
+                        maximums[zone][c] = new StringConstant(max);
+                    }
+                }
+            }
+            this.zoneMaximums = maximums;
+            this.zoneMinimums = minimums;
+        } finally {
+            this.zoneMapLock.unlock();
+        }
+    }
+
+    /**
+     * Construct a tuple from a row of the table.
+     * @param row the row index.
+     * @return a {@link Tuple} instance with the values of that row.
+     */
+    public Tuple getTuple(int row) {
+        int[] ints = new int[this.intColumns.length];
+        String[] strings = new String[this.intColumns.length];
+        for (int c = 0; c < this.intColumns.length; c++) {
+            if (this.dictionaries[c] != null)
+                strings[c] = this.dictionaries[c].decode(this.intColumns[c][row]);
+            else if (this.intColumns[c] != null)
+                ints[c] = this.intColumns[c][row];
+            else
+                strings[c] = this.stringColumns[c][row];
+        }
+        return new Tuple(this.relationName, ints, strings);
+    }
+
+    /**
+     * @return the term of a value stored in an int column, decoded if the column is encoded.
+     */
+    private Term termOf(int column, int value) {
+        if (this.dictionaries[column] != null)
+            return new StringConstant(this.dictionaries[column].decode(value));
+        return new IntegerConstant(value);
+    }
+
+    /**
+     * Read a relation from its storage (chosen by {@link DBCatalog#getStorageFormat(String)}) into a table.
+     * @param dbc the catalog of the database.
+     * @param relationName the name of relation.
+     * @return the loaded table.
+     * @throws IOException if the relation file can not be read.
+     */
+    public static RelationTable load(DBCatalog dbc, String relationName) throws IOException {
+        List<String> schema = dbc.getSchema(relationName);
+        int columnCount = schema.size();
+        int[][] intColumns = new int[columnCount][];
+        String[][] stringColumns = new String[columnCount][];
+        List<Map<String, String>> stringPools = new ArrayList<>();
+        int rowCount = 0;
+
+        StringDictionary[] dictionaries = TupleBatch.dictionariesOf(schema, dbc.getDictionary());
+
+        if (dbc.getStorageFormat(relationName) == DBCatalog.StorageFormat.COLUMNAR) {
+            // read the whole file as one batch, so the columns are encoded (or decoded) in the same way as by the scans
+            ColumnarFile file = new ColumnarFile(dbc.getColumnarPath(relationName));
+            rowCount = file.getRowCount();
+            TupleBatch batch = TupleBatch.forSchema(relationName, schema, dbc.getDictionary(), Math.max(1, rowCount));
+            file.readRows(0, rowCount, batch);
+            for (int c = 0; c < columnCount; c++) {
+                stringPools.add(new HashMap<>());
+                intColumns[c] = batch.getIntColumn(c);
+                stringColumns[c] = batch.getStringColumn(c);
+                if (stringColumns[c] != null)
+                    for (int r = 0; r < rowCount; r++)
+                        stringColumns[c][r] = pooled(stringPools.get(c), stringColumns[c][r]);
+            }
+        } else {
+            int capacity = 1024;
+            for (int c = 0; c < columnCount; c++) {
+                stringPools.add(new HashMap<>());
+                if (schema.get(c).equals("int"))
+                    intColumns[c] = new int[capacity];
+                else
+                    stringColumns[c] = new String[capacity];
+            }
+            try (Scanner scanner = new Scanner(new File(dbc.getRelationPath(relationName)))) {
+                while (scanner.hasNextLine()) {
+                    String line = scanner.nextLine();
+                    if (line.trim().isEmpty())
+                        continue;
+                    if (rowCount == capacity) {
+                        capacity *= 2;
+                        for (int c = 0; c < columnCount; c++) {
+                            if (intColumns[c] != null)
+                                intColumns[c] = Arrays.copyOf(intColumns[c], capacity);
+                            else
+                                stringColumns[c] = Arrays.copyOf(stringColumns[c], capacity);
+                        }
+                    }
+                    List<Term> terms = ScanOperator.parseLine(line, schema);
+                    for (int c = 0; c < columnCount; c++) {
+                        if (intColumns[c] != null)
+                            intColumns[c][rowCount] = ((IntegerConstant) terms.get(c)).getValue();
+                        else
+                            stringColumns[c][rowCount] = pooled(stringPools.get(c), ((StringConstant) terms.get(c)).getValue());
+                    }
+                    rowCount++;
+                }
+            }
+            for (int c = 0; c < columnCount; c++) {
+                if (intColumns[c] != null) {
+                    intColumns[c] = Arrays.copyOf(intColumns[c], rowCount);
+                } else if (dictionaries[c] != null) {
+                    intColumns[c] = new int[rowCount];
+                    for (int r = 0; r < rowCount; r++)
+                        intColumns[c][r] = TupleBatch.encode(dictionaries[c], stringColumns[c][r]);
+                    stringColumns[c] = null;
+                    stringPools.get(c).clear();
+                } else {
+                    stringColumns[c] = Arrays.copyOf(stringColumns[c], rowCount);
+                }
+            }
+        }
+
+        // array payloads, plus the distinct string objects of each column (the dictionary is shared by all the tables)
+        long estimatedSize = 64;
+        for (int c = 0; c < columnCount; c++) {
+            estimatedSize += 16 + (intColumns[c] != null ? 4L : 8L) * rowCount;
+            for (String value : stringPools.get(c).keySet())
+                estimatedSize += 40 + 2L * value.length();
+        }
+        return new RelationTable(relationName, rowCount, intColumns, stringColumns, dictionaries, estimatedSize);
+    }
+
+    private static String pooled(Map<String, String> pool, String value) {
+        String existing = pool.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+}
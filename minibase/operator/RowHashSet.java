@@ -0,0 +1,180 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash set of rows with fixed column types, used by {@link ProjectOperator} for duplicate elimination.
+ * The rows are copied into primitive columns ({@code int[]} for int columns, {@code String[]} for string columns),
+ * so no {@link Tuple} or key object is created for a row:
+ *      (1) the hash of a row combines the mixed bits of its int values and the (cached) hash codes of its strings;
+ *      (2) the table holds the row ids, probed linearly from the slot of the hash, and resized at half load;
+ *      (3) the hash of each stored row is kept, so most mismatches are rejected before comparing the values.
+ */
+public class RowHashSet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final boolean[] isIntColumn;
+    private final int[][] intValues;
+    private final String[][] stringValues;
+    private int[] hashes;
+    // the columns and the hash of each stored row, indexed by row id
+
+    private int[] table;
+    // the row id in each slot, -1 for an empty slot
+    private int size = 0;
+    private long estimatedSize;
+
+    /**
+     * Create an empty set.
+     * @param isIntColumn the type of each column, {@code true} for int columns and {@code false} for string columns.
+     */
+    public RowHashSet(boolean[] isIntColumn) {
+        this.isIntColumn = isIntColumn;
+        this.intValues = new int[isIntColumn.length][];
+        this.stringValues = new String[isIntColumn.length][];
+        for (int c = 0; c < isIntColumn.length; c++) {
+            if (isIntColumn[c])
+                this.intValues[c] = new int[INITIAL_CAPACITY];
+            else
+                this.stringValues[c] = new String[INITIAL_CAPACITY];
+        }
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.table = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(this.table, -1);
+        this.estimatedSize = 64 + 4L * this.table.length;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the estimated heap footprint of the stored rows and the table in bytes.
+     */
+    public long getEstimatedSize() {
+        return this.estimatedSize;
+    }
+
+    /**
+     * Compute the hash of a row.
+     * @param batch the batch containing the row, whose columns match the column types of this set.
+     * @param row the physical row index.
+     * @param seed a seed mixed into the hash, different seeds give independent hashes (e.g. to partition the rows).
+     * @return the hash of the row.
+     */
+    public static int hashRow(TupleBatch batch, int row, int seed) {
+        int hash = seed;
+        for (int c = 0; c < batch.getColumnCount(); c++) {
+            int value = batch.isIntColumn(c) ? batch.getIntColumn(c)[row] : batch.getStringColumn(c)[row].hashCode();
+            hash = hash * 31 + mix(value);
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @param batch the batch containing the row.
+     * @param row the physical row index.
+     * @return {@code true} if an equal row is in the set.
+     */
+    public boolean contains(TupleBatch batch, int row) {
+        int hash = hashRow(batch, row, 0);
+        return this.table[this.findSlot(batch, row, hash)] >= 0;
+    }
+
+    /**
+     * Copy a row into the set, if no equal row is stored.
+     * @param batch the batch containing the row.
+     * @param row the physical row index.
+     * @return {@code true} if the row is added, {@code false} if it duplicates a stored row.
+     */
+    public boolean add(TupleBatch batch, int row) {
+        int hash = hashRow(batch, row, 0);
+        int slot = this.findSlot(batch, row, hash);
+        if (this.table[slot] >= 0)
+            return false;
+
+        if (this.size == this.hashes.length)
+            this.growRows();
+        int id = this.size++;
+        this.hashes[id] = hash;
+        this.estimatedSize += 4;
+        for (int c = 0; c < this.isIntColumn.length; c++) {
+            if (this.isIntColumn[c]) {
+                this.intValues[c][id] = batch.getIntColumn(c)[row];
+                this.estimatedSize += 4;
+            } else {
+                String value = batch.getStringColumn(c)[row];
+                this.stringValues[c][id] = value;
+                this.estimatedSize += 8 + 40 + 2L * value.length();
+            }
+        }
+        this.table[slot] = id;
+        if (this.size * 2 > this.table.length)
+            this.growTable();
+        return true;
+    }
+
+    /**
+     * Probe from the slot of the hash, until an empty slot or a slot holding an equal row.
+     */
+    private int findSlot(TupleBatch batch, int row, int hash) {
+        int mask = this.table.length - 1;
+        int slot = hash & mask;
+        while (this.table[slot] >= 0) {
+            int id = this.table[slot];
+            if (this.hashes[id] == hash && this.rowEquals(id, batch, row))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean rowEquals(int id, TupleBatch batch, int row) {
+        for (int c = 0; c < this.isIntColumn.length; c++) {
+            if (this.isIntColumn[c]) {
+                if (this.intValues[c][id] != batch.getIntColumn(c)[row])
+                    return false;
+            } else if (!this.stringValues[c][id].equals(batch.getStringColumn(c)[row])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growRows() {
+        int capacity = this.hashes.length * 2;
+        this.hashes = Arrays.copyOf(this.hashes, capacity);
+        for (int c = 0; c < this.isIntColumn.length; c++) {
+            if (this.isIntColumn[c])
+                this.intValues[c] = Arrays.copyOf(this.intValues[c], capacity);
+            else
+                this.stringValues[c] = Arrays.copyOf(this.stringValues[c], capacity);
+        }
+    }
+
+    private void growTable() {
+        this.estimatedSize += 4L * this.table.length;
+        this.table = new int[this.table.length * 2];
+        Arrays.fill(this.table, -1);
+        int mask = this.table.length - 1;
+        for (int id = 0; id < this.size; id++) {
+            int slot = this.hashes[id] & mask;
+            while (this.table[slot] >= 0)
+                slot = (slot + 1) & mask;
+            this.table[slot] = id;
+        }
+    }
+
+    /**
+     * The finalizer of MurmurHash3 (fmix32), spreads the bits of an int over the whole word.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,98 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The select conditions pushed down into a scan operator (see {@link Operator#pushDownConditions(List)}),
+ * so the rows are filtered while they are read, instead of by a {@link SelectOperator} above the scan.
+ * The scans use it in two ways:
+ *      (1) late materialization: only the columns read by the conditions ({@link #getFilterColumns()}) are decoded
+ *          for every row, the other columns ({@link #getOtherColumns()}) only for the rows that pass {@link #filter(TupleBatch)};
+ *      (2) block skipping: a block of rows whose value range in each column (its zone map) can not satisfy
+ *          some condition is not read at all (see {@link #mayMatch(Term[], Term[])}).
+ */
+public class ScanFilter {
+
+    private final List<SelectCondition> conditions = new ArrayList<>();
+    private final int[] filterColumns;
+    private final int[] otherColumns;
+    private SelectPredicate predicate = null;
+    // the conditions compiled for the column types of the scanned batches, created on the first batch
+
+    /**
+     * @param conditions the select conditions on the variables of the scanned relation.
+     * @param variableMask the variable mask of the scan operator.
+     */
+    public ScanFilter(List<ComparisonAtom> conditions, List<String> variableMask) {
+        boolean[] isFilterColumn = new boolean[variableMask.size()];
+        for (ComparisonAtom comparisonAtom : conditions) {
+            SelectCondition condition = new SelectCondition(comparisonAtom, variableMask);
+            this.conditions.add(condition);
+            for (int column : condition.getColumns())
+                isFilterColumn[column] = true;
+        }
+        List<Integer> filter = new ArrayList<>();
+        List<Integer> other = new ArrayList<>();
+        for (int c = 0; c < isFilterColumn.length; c++)
+            (isFilterColumn[c] ? filter : other).add(c);
+        this.filterColumns = filter.stream().mapToInt(Integer::intValue).toArray();
+        this.otherColumns = other.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the columns read by the conditions, in ascending order.
+     */
+    public int[] getFilterColumns() {
+        return this.filterColumns;
+    }
+
+    /**
+     * @return the columns not read by the conditions, in ascending order.
+     */
+    public int[] getOtherColumns() {
+        return this.otherColumns;
+    }
+
+    /**
+     * @param outputColumns the columns returned by the scan, {@code null} if all the columns are returned.
+     * @return the returned columns not read by the conditions, in ascending order.
+     */
+    public int[] getOtherColumns(int[] outputColumns) {
+        if (outputColumns == null)
+            return this.otherColumns;
+        return Arrays.stream(this.otherColumns)
+                .filter(c -> Arrays.stream(outputColumns).anyMatch(output -> output == c))
+                .toArray();
+    }
+
+    /**
+     * Keep only the active rows of a batch that satisfy all the conditions.
+     * @param batch a scanned batch, at least the filter columns of its active rows are filled.
+     * @return the number of active rows after filtering.
+     */
+    public int filter(TupleBatch batch) {
+        if (this.predicate == null) {
+            List<SelectPredicate> predicates = new ArrayList<>();
+            for (SelectCondition condition : this.conditions)
+                predicates.add(condition.compile(batch));
+            this.predicate = SelectPredicate.and(predicates);
+        }
+        return this.predicate.filter(batch);
+    }
+
+    /**
+     * @param minimums the smallest value of each column in a block of rows.
+     * @param maximums the largest value of each column in the block.
+     * @return {@code false} if no row of the block satisfies all the conditions, {@code true} if some row may satisfy them.
+     */
+    public boolean mayMatch(Term[] minimums, Term[] maximums) {
+        for (SelectCondition condition : this.conditions)
+            if (!condition.mayMatch(minimums, maximums))
+                return false;
+        return true;
+    }
+}
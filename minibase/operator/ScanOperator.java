@@ -7,26 +7,42 @@ import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
 
 /**
  * This class implements the SCAN operation, reading data from data file and return them as {@link Tuple} instances.
  * Each {@link RelationalAtom} will be interpreted as a {@link ScanOperator} in query plan.
  * This operator will always be the leaf node of the query plan,
- * the selection and join conditions will be implemented in the parent nodes of this operator.
+ * the selection and join conditions will be implemented in the parent nodes of this operator,
+ * unless the select conditions are pushed down into it (see {@link ScanFilter}): then each line is split,
+ * but only the columns read by the conditions are parsed, the other columns only for the lines that satisfy them.
+ * The columns pruned from the output (see {@link #pruneColumns(Set)}) are not parsed at all.
  */
 public class ScanOperator extends Operator {
 
+    private final DBCatalog dbc;
     private final String relationName;
     private Scanner relationScanner;
     private final List<String> relationSchema;
+    private TupleBatch batch = null;
+    // the batch returned by getNextBatch(), reused for each call
+    private ScanFilter filter = null;
+    private String[][] fields = null;
+    // the pushed-down select conditions (null if the rows are not filtered), and the split fields of each row in the batch
+    private int[] outputColumns = null;
+    private int[] earlyColumns = null;
+    private int[] lateColumns = null;
+    // the columns returned after pruning (null if all the columns are returned), the columns parsed for every line,
+    // and the returned columns parsed only for the lines satisfying the conditions
 
     /**
      * Initialize the file reader, make connection to {@link DBCatalog}.
      * Use the relation name to load corresponding schema.
      * Use the terms in the relational atom to build the variable mask
+     * @param dbc the catalog of the database.
      * @param baseQueryAtom a relational atom in query body, providing information like relation name and variable mask.
      */
-    public ScanOperator(RelationalAtom baseQueryAtom) {
+    public ScanOperator(DBCatalog dbc, RelationalAtom baseQueryAtom) {
         for (Term term : baseQueryAtom.getTerms()) {
             if (term instanceof Variable)
                 this.variableMask.add(((Variable) term).getName());
@@ -34,8 +50,8 @@ public class ScanOperator extends Operator {
                 this.variableMask.add(null);
         }
 
+        this.dbc = dbc;
         this.relationName = baseQueryAtom.getName();
-        DBCatalog dbc = DBCatalog.getInstance();
         this.relationSchema = dbc.getSchema(relationName);
         this.reset();
     }
@@ -53,15 +69,35 @@ public class ScanOperator extends Operator {
      */
     @Override
     public void reset() {
-        DBCatalog dbc = DBCatalog.getInstance();
+        this.resetBatchAdapter();
         try {
-            this.relationScanner = new Scanner(new File(dbc.getRelationPath(relationName)));
+            this.relationScanner = new Scanner(new File(this.dbc.getRelationPath(relationName)));
         } catch (FileNotFoundException e) {
-            System.out.println("Relation data file not found: " + dbc.getRelationPath(relationName));
+            System.out.println("Relation data file not found: " + this.dbc.getRelationPath(relationName));
             e.printStackTrace();
         }
     }
 
+    /**
+     * Filter the rows while parsing them.
+     * @param conditions the select conditions on the variables of this scan.
+     * @return {@code true}, the conditions are always applied.
+     */
+    @Override
+    public boolean pushDownConditions(List<ComparisonAtom> conditions) {
+        this.filter = new ScanFilter(conditions, this.variableMask);
+        return true;
+    }
+
+    /**
+     * Return only the columns of the given variables, the other fields of each line are not parsed.
+     * @param variables the variables read by the operators above this scan.
+     */
+    @Override
+    public void pruneColumns(Set<String> variables) {
+        this.outputColumns = this.retainVariables(variables);
+    }
+
     /**
      * Read the next line of relation file, return it as a {@link Tuple} instance.
      * The schema information stored in {@link DBCatalog} indicates
@@ -70,20 +106,111 @@ public class ScanOperator extends Operator {
      */
     @Override
     public Tuple getNextTuple() {
-        if (this.relationScanner.hasNextLine()) {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * Read the next lines of relation file into a batch, the int columns are parsed directly into primitive values.
+     * With pushed-down conditions or pruned columns, the lines are parsed by {@link #nextPartiallyParsedBatch()}.
+     * @return a batch of up to {@link TupleBatch#DEFAULT_CAPACITY} rows, or {@code null} if reaches the end of file.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        checkInterrupted();
+        if (this.batch == null) {
+            this.batch = TupleBatch.forSchema(this.relationName, this.relationSchema, this.dbc.getDictionary(), TupleBatch.DEFAULT_CAPACITY);
+            if (this.filter != null || this.outputColumns != null) {
+                this.fields = new String[TupleBatch.DEFAULT_CAPACITY][];
+                this.earlyColumns = this.filter != null ? this.filter.getFilterColumns() : new int[0];
+                this.lateColumns = this.filter != null ? this.filter.getOtherColumns(this.outputColumns) : this.outputColumns;
+            }
+        }
+        if (this.fields != null)
+            return this.nextPartiallyParsedBatch();
+        this.batch.clear();
+
+        while (!this.batch.isFull() && this.relationScanner.hasNextLine()) {
             String line = this.relationScanner.nextLine();
-            String[] raw_data = line.split("[^a-zA-Z0-9]+");
-            ArrayList<Term> terms = new ArrayList<>();
-            for (int i = 0; i < raw_data.length; i++) {
-                if (this.relationSchema.get(i).equals("int")) {
-                    terms.add(new IntegerConstant(Integer.parseInt(raw_data[i])));
-                } else {
-                    terms.add(new StringConstant(raw_data[i]));
-                }
+            if (line.trim().isEmpty())
+                continue;
+            parseLine(line, this.batch);
+        }
+        return this.batch.getSelectedCount() > 0 ? this.batch : null;
+    }
+
+    /**
+     * Read the next lines into a batch with only the filter columns parsed, filter it,
+     * then parse the other returned columns of the rows that pass. The batches in which no row passes are skipped.
+     * With pruned columns, the batch is returned as a view of the kept columns.
+     * @return a batch of the rows satisfying the pushed-down conditions, or {@code null} if reaches the end of file.
+     */
+    private TupleBatch nextPartiallyParsedBatch() {
+        while (this.relationScanner.hasNextLine()) {
+            this.batch.clear();
+            while (!this.batch.isFull() && this.relationScanner.hasNextLine()) {
+                String line = this.relationScanner.nextLine();
+                if (line.trim().isEmpty())
+                    continue;
+                int row = this.batch.addRow();
+                this.fields[row] = line.split("[^a-zA-Z0-9]+");
+                parseFields(this.fields[row], row, this.earlyColumns, this.batch);
+            }
+            if (this.batch.getSelectedCount() == 0 || (this.filter != null && this.filter.filter(this.batch) == 0))
+                continue;
+            for (int i = 0; i < this.batch.getSelectedCount(); i++) {
+                int row = this.batch.getSelected(i);
+                parseFields(this.fields[row], row, this.lateColumns, this.batch);
             }
-            return new Tuple(this.relationName, terms);
-        } else {
-            return null;
+            return this.outputColumns == null ? this.batch : this.batch.project(this.outputColumns, this.relationName);
+        }
+        return null;
+    }
+
+    /**
+     * Parse some fields of a split line into a row of a batch.
+     */
+    private static void parseFields(String[] fields, int row, int[] columns, TupleBatch batch) {
+        for (int c : columns) {
+            if (!batch.isStringColumn(c))
+                batch.setInt(row, c, Integer.parseInt(fields[c]));
+            else
+                batch.setString(row, c, fields[c]);
+        }
+    }
+
+    /**
+     * Parse a line of the relation data file into a list of constants.
+     * The schema indicates whether a column should be interpreted as Integer or String.
+     * @param line a line of data file, e.g. "1, 9, 'adbs'".
+     * @param relationSchema the data types of columns ('int' or 'string').
+     * @return a list of {@link IntegerConstant} and {@link StringConstant}, one for each column.
+     */
+    public static List<Term> parseLine(String line, List<String> relationSchema) {
+        String[] raw_data = line.split("[^a-zA-Z0-9]+");
+        ArrayList<Term> terms = new ArrayList<>();
+        for (int i = 0; i < raw_data.length; i++) {
+            if (relationSchema.get(i).equals("int")) {
+                terms.add(new IntegerConstant(Integer.parseInt(raw_data[i])));
+            } else {
+                terms.add(new StringConstant(raw_data[i]));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Parse a line of the relation data file into a new row of a batch, the int columns are parsed into primitive values.
+     * @param line a non-empty line of data file, e.g. "1, 9, 'adbs'".
+     * @param batch the batch to append the row to, whose column types follow the relation schema (the strings may be encoded).
+     */
+    public static void parseLine(String line, TupleBatch batch) {
+        String[] raw_data = line.split("[^a-zA-Z0-9]+");
+        int row = batch.addRow();
+        for (int i = 0; i < raw_data.length; i++) {
+            if (!batch.isStringColumn(i))
+                batch.setInt(row, i, Integer.parseInt(raw_data[i]));
+            else
+                batch.setString(row, i, raw_data[i]);
         }
     }
 
@@ -92,15 +219,14 @@ public class ScanOperator extends Operator {
      * @param args Command line inputs, can be empty.
      */
     public static void main(String[] args) {
-        DBCatalog dbc = DBCatalog.getInstance();
-        dbc.init("data/evaluation/db");
+        DBCatalog dbc = new DBCatalog("data/evaluation/db");
 
         List<Term> queryAtomTerms = new ArrayList<>();
         queryAtomTerms.add( new IntegerConstant(9));
         queryAtomTerms.add( new Variable("x"));
         queryAtomTerms.add( new Variable("y"));
         RelationalAtom queryAtom = new RelationalAtom("R", queryAtomTerms); // R:(9, x, y)
-        ScanOperator scanOp = new ScanOperator(queryAtom);
+        ScanOperator scanOp = new ScanOperator(dbc, queryAtom);
         System.out.println(scanOp.getVariableMask());
 
         scanOp.dump(null);
@@ -49,33 +49,239 @@ public class SelectCondition {
      */
     public boolean check(Tuple tuple) {
         // get the variable operand from input tuple, get the Constant operand from stored Term instances
-        Term operand1 = this.term1 == null ? tuple.getTerms().get(term1Idx) : this.term1;
-        Term operand2 = this.term2 == null ? tuple.getTerms().get(term2Idx) : this.term2;
-
-        // interpret the string comparison operator and inspect the input tuple
-        if (this.op.equals("=")) {
-            return operand1.equals(operand2);
-        } else if (this.op.equals("!=")) {
-            return (!operand1.equals(operand2));
-        } else if (this.op.equals(">")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() > ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) > 0;
-        } else if (this.op.equals(">=")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() >= ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) >= 0;
-        } else if (this.op.equals("<")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() < ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) < 0;
-        } else if (this.op.equals("<=")) {
-            if (operand1 instanceof IntegerConstant)
-                return ((IntegerConstant) operand1).getValue() <= ((IntegerConstant) operand2).getValue();
-            return ((StringConstant) operand1).getValue().compareTo(((StringConstant) operand2).getValue()) <= 0;
+        boolean isString1 = this.term1 == null ? tuple.isString(this.term1Idx) : this.term1 instanceof StringConstant;
+        boolean isString2 = this.term2 == null ? tuple.isString(this.term2Idx) : this.term2 instanceof StringConstant;
+        if (isString1 != isString2)
+            return this.op.equals("!="); // values of different types are never equal
+        int comparison;
+        if (!isString1) {
+            int value1 = this.term1 == null ? tuple.getInt(this.term1Idx) : ((IntegerConstant) this.term1).getValue();
+            int value2 = this.term2 == null ? tuple.getInt(this.term2Idx) : ((IntegerConstant) this.term2).getValue();
+            comparison = Integer.compare(value1, value2);
+        } else {
+            String value1 = this.term1 == null ? tuple.getString(this.term1Idx) : ((StringConstant) this.term1).getValue();
+            String value2 = this.term2 == null ? tuple.getString(this.term2Idx) : ((StringConstant) this.term2).getValue();
+            comparison = value1.compareTo(value2);
+        }
+        return satisfies(this.op, comparison);
+    }
+
+    /**
+     * Check whether a row of a {@link TupleBatch} satisfies the select condition.
+     * The variable operands are read from the primitive columns of the batch, without constructing a tuple.
+     * @param batch the batch to be checked, whose columns are aligned with the variable mask given in the constructor.
+     * @param row the physical index of the row.
+     * @return {@code true} if it satisfies the condition; {@code false} otherwise.
+     */
+    public boolean check(TupleBatch batch, int row) {
+        boolean isString1 = this.term1 == null ? batch.isStringColumn(this.term1Idx) : this.term1 instanceof StringConstant;
+        boolean isString2 = this.term2 == null ? batch.isStringColumn(this.term2Idx) : this.term2 instanceof StringConstant;
+        if (isString1 != isString2)
+            return this.op.equals("!="); // values of different types are never equal
+        int comparison;
+        if (!isString1) {
+            int value1 = this.term1 == null ? batch.getIntColumn(this.term1Idx)[row] : ((IntegerConstant) this.term1).getValue();
+            int value2 = this.term2 == null ? batch.getIntColumn(this.term2Idx)[row] : ((IntegerConstant) this.term2).getValue();
+            comparison = Integer.compare(value1, value2);
+        } else {
+            String value1 = this.term1 == null ? batch.getString(row, this.term1Idx) : ((StringConstant) this.term1).getValue();
+            String value2 = this.term2 == null ? batch.getString(row, this.term2Idx) : ((StringConstant) this.term2).getValue();
+            comparison = value1.compareTo(value2);
+        }
+        return satisfies(this.op, comparison);
+    }
+
+    /**
+     * Compile the condition into an evaluator specialized for its operand types and comparison operator
+     * (see {@link SelectPredicate}). A constant operand is moved to the right side, and the conditions
+     * whose result does not depend on the row (between two constants, or between values of different types)
+     * are evaluated once here. The encoded string columns are compared by their codes.
+     * @param batch a batch from the child operator, providing the column types.
+     * @return the compiled predicate.
+     */
+    public SelectPredicate compile(TupleBatch batch) {
+        if (this.term1 != null && this.term2 != null)
+            return SelectPredicate.constant(this.check(batch, -1));
+        if (this.term1 == null && this.term2 == null) {
+            ComparisonOperator operator = ComparisonOperator.fromString(this.op);
+            if (batch.isStringColumn(this.term1Idx) != batch.isStringColumn(this.term2Idx))
+                return SelectPredicate.constant(operator == ComparisonOperator.NEQ);
+            if (!batch.isStringColumn(this.term1Idx))
+                return SelectPredicate.intColumns(this.term1Idx, operator, this.term2Idx);
+            StringDictionary dictionary = batch.getDictionary(this.term1Idx);
+            if (dictionary == null && batch.getDictionary(this.term2Idx) == null)
+                return SelectPredicate.stringColumns(this.term1Idx, operator, this.term2Idx);
+            if (dictionary != null && dictionary == batch.getDictionary(this.term2Idx))
+                return SelectPredicate.intColumns(this.term1Idx, operator, this.term2Idx);
+            return SelectPredicate.rowByRow(this);
+        }
+
+        // a column compared with a constant, as "column op constant"
+        int column = this.term1 == null ? this.term1Idx : this.term2Idx;
+        Term constant = this.term1 == null ? this.term2 : this.term1;
+        ComparisonOperator operator = ComparisonOperator.fromString(this.term1 == null ? this.op : mirror(this.op));
+        if (batch.isStringColumn(column) != constant instanceof StringConstant)
+            return SelectPredicate.constant(operator == ComparisonOperator.NEQ);
+        if (!batch.isStringColumn(column))
+            return SelectPredicate.intConstant(column, operator, ((IntegerConstant) constant).getValue());
+        if (batch.isEncodedColumn(column))
+            return SelectPredicate.encodedConstant(column, operator, batch.getDictionary(column), ((StringConstant) constant).getValue());
+        return SelectPredicate.stringConstant(column, operator, ((StringConstant) constant).getValue());
+    }
+
+    /**
+     * @return the columns read by the condition (the indices of its variable operands in the variable mask).
+     */
+    public int[] getColumns() {
+        if (this.term1 == null && this.term2 == null)
+            return new int[] {this.term1Idx, this.term2Idx};
+        if (this.term1 == null)
+            return new int[] {this.term1Idx};
+        if (this.term2 == null)
+            return new int[] {this.term2Idx};
+        return new int[0];
+    }
+
+    /**
+     * @return the column compared with a constant, or -1 if the condition is not between a column and a constant.
+     */
+    public int getConstantColumn() {
+        if ((this.term1 == null) == (this.term2 == null))
+            return -1;
+        return this.term1 == null ? this.term1Idx : this.term2Idx;
+    }
+
+    /**
+     * @return the constant compared with a column, or {@code null} if the condition is not between a column and a constant.
+     */
+    public Term getConstant() {
+        if ((this.term1 == null) == (this.term2 == null))
+            return null;
+        return this.term1 == null ? this.term2 : this.term1;
+    }
+
+    /**
+     * @return the comparison operator of a condition between a column and a constant, written as "column op constant".
+     */
+    public String getConstantOp() {
+        return this.term1 == null ? this.op : mirror(this.op);
+    }
+
+    /**
+     * Check whether some row of a block of rows may satisfy the condition, knowing only the smallest and the largest
+     * value of each column in the block (a zone map). A condition between two columns may always be satisfied.
+     * @param minimums the smallest value of each column in the block, aligned with the variable mask.
+     * @param maximums the largest value of each column in the block, aligned with the variable mask.
+     * @return {@code false} if no row of the block satisfies the condition, {@code true} if some row may satisfy it.
+     */
+    public boolean mayMatch(Term[] minimums, Term[] maximums) {
+        if (this.term1 != null && this.term2 != null)
+            return this.check(null, -1);
+        if (this.term1 == null && this.term2 == null)
+            return true;
+
+        // a column compared with a constant, as "column op constant"
+        int column = this.term1 == null ? this.term1Idx : this.term2Idx;
+        Term constant = this.term1 == null ? this.term2 : this.term1;
+        String op = this.term1 == null ? this.op : mirror(this.op);
+        if ((minimums[column] instanceof IntegerConstant) != (constant instanceof IntegerConstant))
+            return op.equals("!=");
+        int minComparison = TupleComparator.compareTerms(minimums[column], constant);
+        int maxComparison = TupleComparator.compareTerms(maximums[column], constant);
+        switch (op) {
+            case "=":
+                return minComparison <= 0 && maxComparison >= 0;
+            case "!=":
+                return minComparison != 0 || maxComparison != 0;
+            case "<":
+                return minComparison < 0;
+            case "<=":
+                return minComparison <= 0;
+            case ">":
+                return maxComparison > 0;
+            default:
+                return maxComparison >= 0;
+        }
+    }
+
+    /**
+     * Estimate the fraction of tuples that satisfy the select condition, using the statistics of the columns.
+     * A condition between a column and a constant is estimated by {@link ColumnStatistics#estimateSelectivity(String, Term)},
+     * an equality between two columns keeps {@code 1/max(distinct)} of the tuples.
+     * Without statistics, the default selectivities are used (0.1 for '=', 0.9 for '!=', 1/3 for a range).
+     * @param columnStatistics the statistics of the columns, aligned with the variable mask given in the constructor
+     *                         (an entry is {@code null} if the statistics of that column are unknown).
+     * @return the estimated selectivity, in [0, 1].
+     */
+    public double estimateSelectivity(List<ColumnStatistics> columnStatistics) {
+        if (this.term1 != null && this.term2 != null)
+            return 1; // a condition between two constants does not depend on the tuples
+        if (this.term2 != null) {
+            ColumnStatistics stats = columnStatistics.get(this.term1Idx);
+            return stats == null ? defaultSelectivity(this.op) : stats.estimateSelectivity(this.op, this.term2);
+        }
+        if (this.term1 != null) {
+            ColumnStatistics stats = columnStatistics.get(this.term2Idx);
+            return stats == null ? defaultSelectivity(this.op) : stats.estimateSelectivity(mirror(this.op), this.term1);
+        }
+        ColumnStatistics stats1 = columnStatistics.get(this.term1Idx);
+        ColumnStatistics stats2 = columnStatistics.get(this.term2Idx);
+        if (stats1 != null && stats2 != null && (this.op.equals("=") || this.op.equals("!="))) {
+            double equal = 1.0 / Math.max(1, Math.max(stats1.getDistinctCount(), stats2.getDistinctCount()));
+            return this.op.equals("=") ? equal : 1 - equal;
+        }
+        return defaultSelectivity(this.op);
+    }
+
+    private static double defaultSelectivity(String op) {
+        if (op.equals("="))
+            return 0.1;
+        if (op.equals("!="))
+            return 0.9;
+        return 1.0 / 3;
+    }
+
+    /**
+     * @return the operator with the operands swapped, e.g. '<' for '>' (so {@code c > x} becomes {@code x < c}).
+     */
+    private static String mirror(String op) {
+        switch (op) {
+            case ">":
+                return "<";
+            case ">=":
+                return "<=";
+            case "<":
+                return ">";
+            case "<=":
+                return ">=";
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * Interpret the comparison operator on the result of comparing two operands.
+     * @param op the comparison operator, e.g. '=', '>'.
+     * @param comparison a negative integer, zero, or a positive integer as the first operand is less than, equal to,
+     *                   or greater than the second operand.
+     * @return whether the comparison satisfies the operator.
+     */
+    static boolean satisfies(String op, int comparison) {
+        if (op.equals("=")) {
+            return comparison == 0;
+        } else if (op.equals("!=")) {
+            return comparison != 0;
+        } else if (op.equals(">")) {
+            return comparison > 0;
+        } else if (op.equals(">=")) {
+            return comparison >= 0;
+        } else if (op.equals("<")) {
+            return comparison < 0;
+        } else if (op.equals("<=")) {
+            return comparison <= 0;
         } else {
             System.out.println("!!!! None of the if-branches is evoked in the Selection Operator !!!!");
             return false;
         }
     }
-}
\ No newline at end of file
+}
@@ -13,12 +13,15 @@ import java.util.List;
  *         which provides a {@link SelectCondition#check(Tuple)} method to check whether a tuple satisfy a condition.
  *         (2) The input {@code ComparisonAtom} list will be converted into a {@code SelectCondition} list,
  *         then the select conditions are checked by travelling through this list and calling the {@code check()} method.
+ *         (3) The batches are filtered by a {@link SelectPredicate}, into which the conditions are compiled and fused.
  * @see SelectCondition
  */
 public class SelectOperator extends Operator {
 
     private Operator child;
     private List<SelectCondition> conditions = new ArrayList<>();
+    private SelectPredicate predicate = null;
+    // the conditions compiled for the column types of the child batches, created on the first batch
 
     /**
      * Initialisation. Copy the variable mask from child operator, since it will not be changed in select operation.
@@ -34,48 +37,66 @@ public class SelectOperator extends Operator {
         }
     }
 
+    /**
+     * @return the child operator, whose rows are filtered.
+     */
+    public Operator getChild() {
+        return this.child;
+    }
+
     /**
      * Reset the operator status.
      * No state in this operator needs to be reset, but its child operator needs to be reset.
      */
     @Override
     public void reset() {
+        this.resetBatchAdapter();
         this.child.reset();
     }
 
     /**
      * Get and return the next tuple that satisfies the SELECT conditions.
-     * This method iteratively fetch next tuple from its child operator
-     * until a fetched tuple satisfies all the SELECT conditions (and this tuple will be returned).
+     * The tuples are taken from the batches filtered by {@link #getNextBatch()}.
      * In this function, the check of SELECT conditions are encapsulated in the class {@link SelectCondition}.
      * @return the next {@link Tuple}, or {@code null} if the child operator reaches the end
      */
     @Override
     public Tuple getNextTuple() {
-        Tuple nextTuple = this.child.getNextTuple();
-        while (nextTuple != null) {
-            boolean pass = true;
-            for (SelectCondition condition : this.conditions) {
-                if (!condition.check(nextTuple)) {
-                    pass = false;
-                    break;
-                }
-            }
-            if (pass)
-                return nextTuple;
-            else
-                nextTuple = this.child.getNextTuple();
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * Get the next batch from child operator, and shrink its selection vector to the rows that satisfy all the SELECT conditions.
+     * On the first batch the conditions are compiled into one {@link SelectPredicate}, specialized for the column types.
+     * The batches in which no row passes are skipped.
+     * @return the filtered batch, or {@code null} if the child operator reaches the end
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        TupleBatch batch = this.child.getNextBatch();
+        while (batch != null) {
+            if (this.predicate == null)
+                this.predicate = this.compile(batch);
+            if (this.predicate.filter(batch) > 0)
+                return batch;
+            batch = this.child.getNextBatch();
         }
         return null;
     }
 
+    private SelectPredicate compile(TupleBatch batch) {
+        List<SelectPredicate> predicates = new ArrayList<>();
+        for (SelectCondition condition : this.conditions)
+            predicates.add(condition.compile(batch));
+        return SelectPredicate.and(predicates);
+    }
+
     /**
      * Unit test of SelectOperator, output is printed to the console.
      * @param args Command line inputs, can be empty.
      */
     public static void main(String[] args) {
-        DBCatalog dbc = DBCatalog.getInstance();
-        dbc.init("data/evaluation/db");
+        DBCatalog dbc = new DBCatalog("data/evaluation/db");
 
         List<Term> queryAtomTerms = new ArrayList<>();
         queryAtomTerms.add( new IntegerConstant(9));
@@ -84,7 +105,7 @@ public class SelectOperator extends Operator {
         RelationalAtom queryAtom = new RelationalAtom("R", queryAtomTerms); // R:(9, x, y)
         System.out.println("Query relational atom: " + queryAtom);
 
-        ScanOperator scanOp = new ScanOperator(queryAtom);
+        ScanOperator scanOp = new ScanOperator(dbc, queryAtom);
 
         List<ComparisonAtom> compAtomList = new ArrayList<>();
         ComparisonAtom compAtom1 = new ComparisonAtom(
@@ -0,0 +1,344 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.ComparisonOperator;
+
+import java.util.List;
+
+/**
+ * A compiled form of the select conditions of a {@link SelectOperator}, which filters the selection vector of a batch.
+ * A {@link SelectCondition} is compiled (see {@link SelectCondition#compile(TupleBatch)}) once the column types are known,
+ * into an evaluator specialized for its operand kinds (int column vs constant, int column vs int column,
+ * string column vs constant, string column vs string column) and for its comparison operator
+ * (a string column encoded by a dictionary is compared as an int column, see {@link #encodedConstant}):
+ * each evaluator has one loop per operator, so the loop over the rows only reads a primitive column and compares.
+ * The conditions of an operator are fused by {@link #and(List)} into one evaluator,
+ * which applies them in turn on the shrinking selection vector.
+ */
+public abstract class SelectPredicate {
+
+    /**
+     * Keep only the active rows of a batch that satisfy the predicate, in the same order.
+     * @param batch the batch to be filtered, whose columns are aligned with the variable mask of the conditions.
+     * @return the number of active rows after filtering.
+     */
+    public abstract int filter(TupleBatch batch);
+
+    /**
+     * @return a predicate on an int column and an int constant, i.e. {@code column op constant}.
+     */
+    public static SelectPredicate intConstant(int column, ComparisonOperator op, int constant) {
+        return new IntConstant(column, op, constant);
+    }
+
+    /**
+     * @return a predicate on a string column and a string constant, i.e. {@code column op constant}.
+     */
+    public static SelectPredicate stringConstant(int column, ComparisonOperator op, String constant) {
+        return new StringConstant(column, op, constant);
+    }
+
+    /**
+     * Translate a comparison between an encoded string column and a string constant into a comparison of the codes:
+     * the dictionary preserves the order, so a range of strings is a range of codes, bounded by the rank of the constant
+     * (which does not have to be in the dictionary, see {@link StringDictionary#codeBound(ComparisonOperator, String)}).
+     * @return a predicate on an encoded string column and a string constant, i.e. {@code column op constant}.
+     */
+    public static SelectPredicate encodedConstant(int column, ComparisonOperator op, StringDictionary dictionary, String constant) {
+        if (op == ComparisonOperator.EQ || op == ComparisonOperator.NEQ) {
+            int code = dictionary.encode(constant);
+            return code < 0 ? constant(op == ComparisonOperator.NEQ) : intConstant(column, op, code);
+        }
+        int bound = dictionary.codeBound(op, constant);
+        boolean below = op == ComparisonOperator.LT || op == ComparisonOperator.LEQ;
+        return intConstant(column, below ? ComparisonOperator.LT : ComparisonOperator.GEQ, bound);
+    }
+
+    /**
+     * @return a predicate on two int columns, i.e. {@code column1 op column2}.
+     */
+    public static SelectPredicate intColumns(int column1, ComparisonOperator op, int column2) {
+        return new IntColumns(column1, op, column2);
+    }
+
+    /**
+     * @return a predicate on two string columns, i.e. {@code column1 op column2}.
+     */
+    public static SelectPredicate stringColumns(int column1, ComparisonOperator op, int column2) {
+        return new StringColumns(column1, op, column2);
+    }
+
+    /**
+     * @return a predicate checking the condition on each row by {@link SelectCondition#check(TupleBatch, int)},
+     *         for the operands without a specialized evaluator (a string column encoded by a dictionary and one which is not).
+     */
+    public static SelectPredicate rowByRow(SelectCondition condition) {
+        return new RowByRow(condition);
+    }
+
+    /**
+     * @return a predicate with the same result for every row (e.g. a condition between two constants).
+     */
+    public static SelectPredicate constant(boolean result) {
+        return new Constant(result);
+    }
+
+    /**
+     * Fuse a conjunction of predicates into one, the predicates with a constant {@code true} result are dropped.
+     * @param predicates the predicates to be satisfied together.
+     * @return the fused predicate.
+     */
+    public static SelectPredicate and(List<SelectPredicate> predicates) {
+        SelectPredicate[] terms = predicates.stream()
+                .filter(p -> !(p instanceof Constant && ((Constant) p).result))
+                .toArray(SelectPredicate[]::new);
+        if (terms.length == 0)
+            return constant(true);
+        if (terms.length == 1)
+            return terms[0];
+        return new Conjunction(terms);
+    }
+
+    private static final class IntConstant extends SelectPredicate {
+        private final int column;
+        private final ComparisonOperator op;
+        private final int constant;
+
+        private IntConstant(int column, ComparisonOperator op, int constant) {
+            this.column = column;
+            this.op = op;
+            this.constant = constant;
+        }
+
+        @Override
+        public int filter(TupleBatch batch) {
+            int[] values = batch.getIntColumn(this.column);
+            int count = batch.getSelectedCount();
+            int c = this.constant;
+            int passed = 0;
+            switch (this.op) {
+                case EQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row] == c) batch.setSelected(passed++, row); }
+                    break;
+                case NEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row] != c) batch.setSelected(passed++, row); }
+                    break;
+                case GT:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row] > c) batch.setSelected(passed++, row); }
+                    break;
+                case GEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row] >= c) batch.setSelected(passed++, row); }
+                    break;
+                case LT:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row] < c) batch.setSelected(passed++, row); }
+                    break;
+                case LEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row] <= c) batch.setSelected(passed++, row); }
+                    break;
+            }
+            batch.setSelectedCount(passed);
+            return passed;
+        }
+    }
+
+    private static final class IntColumns extends SelectPredicate {
+        private final int column1;
+        private final ComparisonOperator op;
+        private final int column2;
+
+        private IntColumns(int column1, ComparisonOperator op, int column2) {
+            this.column1 = column1;
+            this.op = op;
+            this.column2 = column2;
+        }
+
+        @Override
+        public int filter(TupleBatch batch) {
+            int[] values1 = batch.getIntColumn(this.column1);
+            int[] values2 = batch.getIntColumn(this.column2);
+            int count = batch.getSelectedCount();
+            int passed = 0;
+            switch (this.op) {
+                case EQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row] == values2[row]) batch.setSelected(passed++, row); }
+                    break;
+                case NEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row] != values2[row]) batch.setSelected(passed++, row); }
+                    break;
+                case GT:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row] > values2[row]) batch.setSelected(passed++, row); }
+                    break;
+                case GEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row] >= values2[row]) batch.setSelected(passed++, row); }
+                    break;
+                case LT:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row] < values2[row]) batch.setSelected(passed++, row); }
+                    break;
+                case LEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row] <= values2[row]) batch.setSelected(passed++, row); }
+                    break;
+            }
+            batch.setSelectedCount(passed);
+            return passed;
+        }
+    }
+
+    private static final class StringConstant extends SelectPredicate {
+        private final int column;
+        private final ComparisonOperator op;
+        private final String constant;
+
+        private StringConstant(int column, ComparisonOperator op, String constant) {
+            this.column = column;
+            this.op = op;
+            this.constant = constant;
+        }
+
+        @Override
+        public int filter(TupleBatch batch) {
+            String[] values = batch.getStringColumn(this.column);
+            int count = batch.getSelectedCount();
+            String c = this.constant;
+            int passed = 0;
+            switch (this.op) {
+                case EQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (c.equals(values[row])) batch.setSelected(passed++, row); }
+                    break;
+                case NEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (!c.equals(values[row])) batch.setSelected(passed++, row); }
+                    break;
+                case GT:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row].compareTo(c) > 0) batch.setSelected(passed++, row); }
+                    break;
+                case GEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row].compareTo(c) >= 0) batch.setSelected(passed++, row); }
+                    break;
+                case LT:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row].compareTo(c) < 0) batch.setSelected(passed++, row); }
+                    break;
+                case LEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values[row].compareTo(c) <= 0) batch.setSelected(passed++, row); }
+                    break;
+            }
+            batch.setSelectedCount(passed);
+            return passed;
+        }
+    }
+
+    private static final class StringColumns extends SelectPredicate {
+        private final int column1;
+        private final ComparisonOperator op;
+        private final int column2;
+
+        private StringColumns(int column1, ComparisonOperator op, int column2) {
+            this.column1 = column1;
+            this.op = op;
+            this.column2 = column2;
+        }
+
+        @Override
+        public int filter(TupleBatch batch) {
+            String[] values1 = batch.getStringColumn(this.column1);
+            String[] values2 = batch.getStringColumn(this.column2);
+            int count = batch.getSelectedCount();
+            int passed = 0;
+            switch (this.op) {
+                case EQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row].equals(values2[row])) batch.setSelected(passed++, row); }
+                    break;
+                case NEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (!values1[row].equals(values2[row])) batch.setSelected(passed++, row); }
+                    break;
+                case GT:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row].compareTo(values2[row]) > 0) batch.setSelected(passed++, row); }
+                    break;
+                case GEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row].compareTo(values2[row]) >= 0) batch.setSelected(passed++, row); }
+                    break;
+                case LT:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row].compareTo(values2[row]) < 0) batch.setSelected(passed++, row); }
+                    break;
+                case LEQ:
+                    for (int i = 0; i < count; i++) { int row = batch.getSelected(i); if (values1[row].compareTo(values2[row]) <= 0) batch.setSelected(passed++, row); }
+                    break;
+            }
+            batch.setSelectedCount(passed);
+            return passed;
+        }
+    }
+
+    private static final class RowByRow extends SelectPredicate {
+        private final SelectCondition condition;
+
+        private RowByRow(SelectCondition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public int filter(TupleBatch batch) {
+            int count = batch.getSelectedCount();
+            int passed = 0;
+            for (int i = 0; i < count; i++) {
+                int row = batch.getSelected(i);
+                if (this.condition.check(batch, row))
+                    batch.setSelected(passed++, row);
+            }
+            batch.setSelectedCount(passed);
+            return passed;
+        }
+    }
+
+    private static final class Constant extends SelectPredicate {
+        private final boolean result;
+
+        private Constant(boolean result) {
+            this.result = result;
+        }
+
+        @Override
+        public int filter(TupleBatch batch) {
+            if (!this.result)
+                batch.setSelectedCount(0);
+            return batch.getSelectedCount();
+        }
+    }
+
+    private static final class Conjunction extends SelectPredicate {
+        private final SelectPredicate[] terms;
+
+        private Conjunction(SelectPredicate[] terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        public int filter(TupleBatch batch) {
+            int passed = batch.getSelectedCount();
+            for (int t = 0; t < this.terms.length && passed > 0; t++)
+                passed = this.terms[t].filter(batch);
+            return passed;
+        }
+    }
+
+    /**
+     * Interpret a comparison operator on the result of comparing two operands.
+     * @param op the comparison operator.
+     * @param comparison a negative integer, zero, or a positive integer as the first operand is less than, equal to,
+     *                   or greater than the second operand.
+     * @return whether the comparison satisfies the operator.
+     */
+    static boolean satisfies(ComparisonOperator op, int comparison) {
+        switch (op) {
+            case EQ:
+                return comparison == 0;
+            case NEQ:
+                return comparison != 0;
+            case GT:
+                return comparison > 0;
+            case GEQ:
+                return comparison >= 0;
+            case LT:
+                return comparison < 0;
+            default:
+                return comparison <= 0;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remove the dangling tuples of the body atoms of an acyclic query before they are joined,
+ * by the semi-join passes of the Yannakakis algorithm over a join tree of the atoms (see {@code Hypergraph#joinTree}).
+ *      (1) The output of each input operator (the filtered scan of an atom) is materialized.
+ *      (2) Bottom-up: each parent keeps only the rows that match some row of each child on their shared variables,
+ *          children before parents, so the root is reduced by the whole tree.
+ *      (3) Top-down: each child keeps only the rows that match some row of its (reduced) parent, parents before children.
+ * After the two passes every remaining row takes part in the join result, so joining the reduced relations
+ * in the order of the join tree builds no intermediate result larger than the output.
+ * A semi-join hashes the key values of the filtering side into a {@link RowHashSet},
+ * and shrinks the selection vectors of the batches of the filtered side.
+ */
+public class SemiJoinReducer {
+
+    private final List<Operator> inputs;
+    private final int[] parents;
+    private List<List<TupleBatch>> relations = null;
+    // the reduced batches of each input, materialized on the first read of a reduced input
+
+    /**
+     * @param inputs the operator of each atom, whose variable masks hold only variables.
+     * @param parents the parent of each input in the join tree (-1 for the root), every parent comes before its children.
+     */
+    public SemiJoinReducer(List<Operator> inputs, int[] parents) {
+        this.inputs = inputs;
+        this.parents = parents;
+    }
+
+    /**
+     * @param input the index of an input.
+     * @return an operator returning the rows of that input which are not dangling, with the same variable mask.
+     */
+    public Operator getReducedInput(int input) {
+        return new ReducedInputOperator(input);
+    }
+
+    /**
+     * Materialize the inputs and run the two semi-join passes.
+     */
+    private void reduce() {
+        this.relations = new ArrayList<>();
+        for (Operator input : this.inputs) {
+            List<TupleBatch> batches = new ArrayList<>();
+            TupleBatch batch = input.getNextBatch();
+            while (batch != null) {
+                batches.add(batch.copy());
+                batch = input.getNextBatch();
+            }
+            this.relations.add(batches);
+        }
+        for (int i = this.inputs.size() - 1; i >= 0; i--)
+            if (this.parents[i] >= 0)
+                this.semiJoin(this.parents[i], i);
+        for (int i = 0; i < this.inputs.size(); i++)
+            if (this.parents[i] >= 0)
+                this.semiJoin(i, this.parents[i]);
+    }
+
+    /**
+     * Keep the rows of an input that match some row of another input on their shared variables.
+     * @param target the input to be reduced.
+     * @param filter the input whose rows are matched.
+     */
+    private void semiJoin(int target, int filter) {
+        List<String> targetMask = this.inputs.get(target).getVariableMask();
+        List<String> filterMask = this.inputs.get(filter).getVariableMask();
+        List<Integer> targetKeys = new ArrayList<>();
+        List<Integer> filterKeys = new ArrayList<>();
+        for (int c = 0; c < targetMask.size(); c++) {
+            String var = targetMask.get(c);
+            if (filterMask.contains(var) && targetMask.indexOf(var) == c) {
+                targetKeys.add(c);
+                filterKeys.add(filterMask.indexOf(var));
+            }
+        }
+        List<TupleBatch> targetBatches = this.relations.get(target);
+        List<TupleBatch> filterBatches = this.relations.get(filter);
+        if (filterBatches.isEmpty()) {
+            // no row matches an empty relation, even without a shared variable
+            targetBatches.clear();
+            return;
+        }
+        if (targetKeys.isEmpty() || targetBatches.isEmpty())
+            return;
+
+        int[] targetColumns = targetKeys.stream().mapToInt(Integer::intValue).toArray();
+        int[] filterColumns = filterKeys.stream().mapToInt(Integer::intValue).toArray();
+        TupleBatch firstFilterKeys = filterBatches.get(0).project(filterColumns, "Key");
+        TupleBatch firstTargetKeys = targetBatches.get(0).project(targetColumns, "Key");
+        for (int k = 0; k < targetColumns.length; k++) {
+            if (firstFilterKeys.isStringColumn(k) != firstTargetKeys.isStringColumn(k)) {
+                // a shared variable with different types in the two relations can not be matched
+                targetBatches.clear();
+                return;
+            }
+        }
+
+        RowHashSet keys = new RowHashSet(firstFilterKeys.getColumnTypes());
+        for (TupleBatch batch : filterBatches) {
+            TupleBatch keyBatch = batch.project(filterColumns, "Key");
+            for (int i = 0; i < keyBatch.getSelectedCount(); i++)
+                keys.add(keyBatch, keyBatch.getSelected(i));
+        }
+        List<TupleBatch> reduced = new ArrayList<>();
+        for (TupleBatch batch : targetBatches) {
+            TupleBatch keyBatch = batch.project(targetColumns, "Key");
+            int passed = 0;
+            for (int i = 0; i < batch.getSelectedCount(); i++) {
+                int row = batch.getSelected(i);
+                if (keys.contains(keyBatch, row))
+                    batch.setSelected(passed++, row);
+            }
+            batch.setSelectedCount(passed);
+            if (passed > 0)
+                reduced.add(batch);
+        }
+        targetBatches.clear();
+        targetBatches.addAll(reduced);
+    }
+
+    /**
+     * Scan the reduced batches of an input. Each batch is returned as a view with its own selection vector,
+     * so the consumers may filter it without changing the reduced relation.
+     */
+    private final class ReducedInputOperator extends Operator {
+        private final int input;
+        private int position = 0;
+
+        private ReducedInputOperator(int input) {
+            this.input = input;
+            this.variableMask = SemiJoinReducer.this.inputs.get(input).getVariableMask();
+        }
+
+        @Override
+        public void reset() {
+            this.resetBatchAdapter();
+            this.position = 0;
+        }
+
+        @Override
+        public Tuple getNextTuple() {
+            return this.nextTupleFromBatch();
+        }
+
+        @Override
+        public TupleBatch getNextBatch() {
+            if (SemiJoinReducer.this.relations == null)
+                SemiJoinReducer.this.reduce();
+            List<TupleBatch> batches = SemiJoinReducer.this.relations.get(this.input);
+            if (this.position >= batches.size())
+                return null;
+            TupleBatch batch = batches.get(this.position++);
+            int[] allColumns = new int[batch.getColumnCount()];
+            for (int c = 0; c < allColumns.length; c++)
+                allColumns[c] = c;
+            return batch.project(allColumns, batch.getName());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One scan of a relation shared by the plans of several queries evaluated together (see {@code Minibase.evaluateBatch}).
+ * The relation is read once, in morsels of {@link TupleBatch#DEFAULT_CAPACITY} rows from a {@link MorselSource},
+ * and each plan reads the morsels through its own {@link Cursor} (the leaf of a {@link SharedScanOperator}).
+ * A morsel is kept in a window until every cursor has passed it, so the plans that read the relation at about the same time
+ * share each read; the window holds at most the memory limit of one operator in {@link DBCatalog}.
+ * When the window is full, its oldest morsel is dropped even if some cursor has not read it yet:
+ * that cursor is detached, and reads the rest of the relation from a source of its own
+ * (skipping the morsels it has already read). So a plan consuming its inputs in a different order than the others,
+ * e.g. building a hash table on this relation while another plan is blocked on a different relation,
+ * never waits for the other plans, it only loses the sharing.
+ */
+public class SharedScan {
+
+    private final DBCatalog dbc;
+    private final String relationName;
+    private MorselSource source = null;
+    // opened by the first read, so a shared scan that is never read does not hold the file
+    private final int windowSize;
+    // the maximum number of morsels in the window
+
+    private final List<TupleBatch> window = new ArrayList<>();
+    private int windowStart = 0;
+    private int firstMorsel = 0;
+    // the morsels in window[windowStart..) (the dropped ones are removed from the list in chunks), and the index of the oldest one
+    private boolean exhausted = false;
+    private final List<Cursor> cursors = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // guards the source, the window and the positions of the cursors
+
+    private long morselsRead = 0;
+    private long morselsShared = 0;
+
+    /**
+     * @param dbc the catalog of the database.
+     * @param relationName the name of relation.
+     */
+    public SharedScan(DBCatalog dbc, String relationName) {
+        this.dbc = dbc;
+        this.relationName = relationName;
+        long morselSize = (long) TupleBatch.DEFAULT_CAPACITY * Tuple.estimateSize(dbc.getSchema(relationName).size());
+        this.windowSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE, dbc.getMemoryLimit() / morselSize));
+    }
+
+    /**
+     * Add a reader of the relation, positioned at the first morsel.
+     * The cursors should be created before any of them is read, so the first morsels are kept for all of them.
+     * @return the new cursor.
+     */
+    public Cursor newCursor() {
+        this.lock.lock();
+        try {
+            Cursor cursor = new Cursor();
+            this.cursors.add(cursor);
+            return cursor;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public String getRelationName() {
+        return this.relationName;
+    }
+
+    /**
+     * @return the number of morsels read from the relation by the shared source.
+     */
+    public long getMorselsRead() {
+        this.lock.lock();
+        try {
+            return this.morselsRead;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of times a cursor has found its next morsel already read by another cursor.
+     */
+    public long getMorselsShared() {
+        this.lock.lock();
+        try {
+            return this.morselsShared;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the oldest morsels of the window that every attached cursor has read, or that do not fit in the window.
+     */
+    private void trimWindow() {
+        while (this.windowStart < this.window.size()) {
+            boolean needed = false;
+            for (Cursor cursor : this.cursors)
+                needed |= !cursor.detached && cursor.position == this.firstMorsel;
+            if (needed && this.window.size() - this.windowStart <= this.windowSize)
+                break;
+            this.window.set(this.windowStart++, null);
+            this.firstMorsel++;
+        }
+        if (this.windowStart > this.window.size() / 2) {
+            this.window.subList(0, this.windowStart).clear();
+            this.windowStart = 0;
+        }
+    }
+
+    /**
+     * The position of one reader in the shared scan.
+     */
+    public final class Cursor {
+        private int position = 0;
+        // the index of the next morsel to be read
+        private boolean detached = false;
+        private MorselSource detachedSource = null;
+        private TupleBatch detachedBatch = null;
+        // whether the next morsel of this cursor has been dropped from the window, then the source of this cursor and its last morsel
+        // (the position of a detached cursor is only used by its own thread)
+
+        private Cursor() {
+        }
+
+        /**
+         * @return the next morsel of the relation, which must not be modified (its rows are shared with the other cursors),
+         *         or {@code null} if the relation reaches the end.
+         */
+        public TupleBatch next() {
+            if (this.detachedSource != null)
+                return this.nextDetached();
+            SharedScan scan = SharedScan.this;
+            scan.lock.lock();
+            try {
+                if (this.position < scan.firstMorsel) {
+                    this.detached = true;
+                } else if (this.position < scan.firstMorsel + scan.window.size() - scan.windowStart) {
+                    scan.morselsShared++;
+                } else {
+                    if (scan.exhausted)
+                        return null;
+                    if (scan.source == null)
+                        scan.source = MorselSource.open(scan.dbc, scan.relationName);
+                    TupleBatch morsel = scan.source.nextMorsel(null);
+                    if (morsel == null) {
+                        scan.exhausted = true;
+                        return null;
+                    }
+                    scan.window.add(morsel);
+                    scan.morselsRead++;
+                }
+                if (!this.detached) {
+                    TupleBatch morsel = scan.window.get(scan.windowStart + this.position - scan.firstMorsel);
+                    this.position++;
+                    scan.trimWindow();
+                    return morsel;
+                }
+            } finally {
+                scan.lock.unlock();
+            }
+            // the next morsel has been dropped from the window, it is read again without the lock
+            this.detach();
+            return this.nextDetached();
+        }
+
+        /**
+         * Rewind to the first morsel, which is read from the window again if it is still there.
+         */
+        public void reset() {
+            SharedScan.this.lock.lock();
+            try {
+                this.position = 0;
+                this.detached = false;
+                this.detachedSource = null;
+                this.detachedBatch = null;
+            } finally {
+                SharedScan.this.lock.unlock();
+            }
+        }
+
+        /**
+         * Open a source of its own, and skip the morsels already read (the morsels of a relation are the same in every source).
+         */
+        private void detach() {
+            this.detachedSource = MorselSource.open(SharedScan.this.dbc, SharedScan.this.relationName);
+            for (int i = 0; i < this.position; i++)
+                this.detachedBatch = this.detachedSource.nextMorsel(this.detachedBatch);
+        }
+
+        private TupleBatch nextDetached() {
+            this.detachedBatch = this.detachedSource.nextMorsel(this.detachedBatch);
+            if (this.detachedBatch != null)
+                this.position++;
+            return this.detachedBatch;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class implements the SCAN operation of a plan evaluated together with other plans reading the same relation.
+ * It plays the same role as {@link ScanOperator} (a leaf node of the query plan, with the same variable mask),
+ * but its rows are the morsels read by a {@link SharedScan}, through a cursor of its own.
+ * A morsel is shared with the other plans, so it is never modified: each batch returned is a view over the morsel,
+ * with its own selection vector for the pushed-down conditions (see {@link ScanFilter}) and its own pruned columns.
+ */
+public class SharedScanOperator extends Operator {
+
+    private final String relationName;
+    private final SharedScan.Cursor cursor;
+    private final int[] allColumns;
+    private ScanFilter filter = null;
+    // the pushed-down select conditions, null if the rows are not filtered
+    private int[] outputColumns = null;
+    // the columns returned after pruning, null if all the columns are returned
+
+    /**
+     * Open a cursor on the shared scan, and use the terms in the relational atom to build the variable mask.
+     * @param baseQueryAtom a relational atom in query body, providing information like relation name and variable mask.
+     * @param sharedScan the shared scan of the relation.
+     */
+    public SharedScanOperator(RelationalAtom baseQueryAtom, SharedScan sharedScan) {
+        for (Term term : baseQueryAtom.getTerms()) {
+            if (term instanceof Variable)
+                this.variableMask.add(((Variable) term).getName());
+            else
+                this.variableMask.add(null);
+        }
+
+        this.relationName = baseQueryAtom.getName();
+        this.cursor = sharedScan.newCursor();
+        this.allColumns = new int[this.variableMask.size()];
+        for (int c = 0; c < this.allColumns.length; c++)
+            this.allColumns[c] = c;
+    }
+
+    /**
+     * Reset the operator state, the following reads will start from the first row.
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.cursor.reset();
+    }
+
+    /**
+     * Filter the rows while reading them.
+     * @param conditions the select conditions on the variables of this scan.
+     * @return {@code true}, the conditions are always applied.
+     */
+    @Override
+    public boolean pushDownConditions(List<ComparisonAtom> conditions) {
+        this.filter = new ScanFilter(conditions, this.variableMask);
+        return true;
+    }
+
+    /**
+     * Return only the columns of the given variables.
+     * @param variables the variables read by the operators above this scan.
+     */
+    @Override
+    public void pruneColumns(Set<String> variables) {
+        this.outputColumns = this.retainVariables(variables);
+    }
+
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * With pushed-down conditions, the morsels in which no row passes are skipped.
+     * @return a batch over the next morsel of the shared scan (the column arrays are shared, not copied),
+     *         or {@code null} if reaches the end.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        checkInterrupted();
+        TupleBatch morsel = this.cursor.next();
+        while (morsel != null) {
+            if (this.filter == null)
+                return morsel.project(this.outputColumns == null ? this.allColumns : this.outputColumns, this.relationName);
+            TupleBatch batch = morsel.project(this.allColumns, this.relationName);
+            if (this.filter.filter(batch) > 0)
+                return this.outputColumns == null ? batch : batch.project(this.outputColumns, this.relationName);
+            morsel = this.cursor.next();
+        }
+        return null;
+    }
+
+}
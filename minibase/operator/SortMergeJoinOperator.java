@@ -0,0 +1,223 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.Minibase;
+import ed.inf.adbs.minibase.base.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Apply an equi-JOIN on the output tuple sets of two child operators, using a sort-merge join.
+ * This is designed for the inputs that are too large to be held in a hash table ({@link HashJoinOperator}).
+ * The variable mask, key columns and residual conditions are handled by {@link JoinOperator}.
+ * Both children are wrapped by {@link ExternalSortOperator} on their key columns,
+ * then the two sorted streams are merged:
+ *      (1) The right stream is advanced until its key is not smaller than the key of current left tuple.
+ *      (2) All the right tuples with that key are buffered as a group,
+ *          so the duplicate keys on the right side can be joined with every left tuple having the same key.
+ *      (3) The consecutive left tuples with the same key (duplicates on the left side) reuse the buffered group.
+ * Only one group of right tuples (those sharing a single key value) is held in memory at a time.
+ */
+public class SortMergeJoinOperator extends JoinOperator {
+
+    private final ExternalSortOperator sortedLeft;
+    private final ExternalSortOperator sortedRight;
+    private final StringDictionary dictionary;
+
+    private boolean started = false;
+    private Tuple nextRightTuple = null;
+    // the first right tuple that has not been put into a group
+
+    private List<Tuple> rightGroup = null;
+    private int rightGroupIndex = 0;
+    // the right tuples sharing the key with current left tuple, and the position of next one to be checked
+
+    /**
+     * Initialise the operator, and wrap both children by sort operators on their equi-join key columns.
+     * @param leftChild left child operator.
+     * @param rightChild right child operator.
+     * @param comparisonAtoms the explicit join conditions provided by {@link ComparisonAtom} in query body.
+     * @param runSize the maximum number of tuples held in memory by each sort operator.
+     * @param dictionary the dictionary of the database (see {@link DBCatalog#getDictionary()}), or {@code null} if the strings are not encoded.
+     */
+    public SortMergeJoinOperator(Operator leftChild, Operator rightChild, List<ComparisonAtom> comparisonAtoms, int runSize,
+                                 StringDictionary dictionary) {
+        super(leftChild, rightChild, comparisonAtoms);
+        this.sortedLeft = new ExternalSortOperator(leftChild, this.leftKeyIndices, runSize, dictionary);
+        this.sortedRight = new ExternalSortOperator(rightChild, this.rightKeyIndices, runSize, dictionary);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Restart the merge from the beginning, the sorted runs of both sides are reused.
+     */
+    @Override
+    public void reset() {
+        this.sortedLeft.reset();
+        this.sortedRight.reset();
+        this.leftTuple = null;
+        this.started = false;
+        this.nextRightTuple = null;
+        this.rightGroup = null;
+        this.rightGroupIndex = 0;
+    }
+
+    /**
+     * Get the next joined tuple by merging the two sorted streams.
+     * @return the next joined tuple that satisfies the join conditions.
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (!this.started) {
+            this.started = true;
+            this.nextRightTuple = this.sortedRight.getNextTuple();
+        }
+
+        while (true) {
+            // continue with the right group of current left tuple
+            if (this.leftTuple != null && this.rightGroup != null) {
+                while (this.rightGroupIndex < this.rightGroup.size()) {
+                    Tuple rightTuple = this.rightGroup.get(this.rightGroupIndex++);
+                    if (this.satisfyResidualConditions(this.leftTuple, rightTuple))
+                        return this.joinTuples(this.leftTuple, rightTuple);
+                }
+            }
+
+            // move to the next left tuple
+            this.leftTuple = this.sortedLeft.getNextTuple();
+            this.rightGroupIndex = 0;
+            if (this.leftTuple == null)
+                return null;
+            // a left tuple with the same key as the previous one reuses the group
+            if (this.rightGroup != null && this.compareWithRight(this.rightGroup.get(0)) == 0)
+                continue;
+
+            this.rightGroup = null;
+            while (this.nextRightTuple != null && this.compareWithRight(this.nextRightTuple) > 0)
+                this.nextRightTuple = this.sortedRight.getNextTuple();
+            if (this.nextRightTuple == null)
+                return null; // no more right tuples can be matched
+            if (this.compareWithRight(this.nextRightTuple) == 0) {
+                // collect all the right tuples with the same key
+                this.rightGroup = new ArrayList<>();
+                this.rightGroup.add(this.nextRightTuple);
+                this.nextRightTuple = this.sortedRight.getNextTuple();
+                while (this.nextRightTuple != null && this.compareWithRight(this.nextRightTuple) == 0) {
+                    this.rightGroup.add(this.nextRightTuple);
+                    this.nextRightTuple = this.sortedRight.getNextTuple();
+                }
+            }
+        }
+    }
+
+    /**
+     * The merge is implemented on tuples, so the batches are packed from {@link #getNextTuple()}.
+     * The string columns are encoded again by the database dictionary, as in the batches of the scans,
+     * so the operators above (e.g. a {@link HashJoinOperator} keyed by the codes) see the same layout on both sides.
+     * @return the next batch of joined rows, or {@code null} if the join is complete.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        return this.batchFromTuples(this.dictionary);
+    }
+
+    /**
+     * Compare the key of current left tuple with the key of a right tuple.
+     */
+    private int compareWithRight(Tuple rightTuple) {
+        return TupleComparator.compareKeys(this.leftTuple, this.leftKeyIndices, rightTuple, this.rightKeyIndices);
+    }
+
+    /**
+     * Unit test of SortMergeJoinOperator. First, the operator is built directly on keys of different types
+     * (R, S and U as in the sample database), which never match, and on string keys, checked against a hash join;
+     * the sorted runs hold two tuples, so the merge reads from many spilled runs.
+     * Then some queries are evaluated with the default memory limit (hash joins)
+     * and with a memory limit small enough to plan sort-merge joins, and the outputs are checked to be the same.
+     * The built-in queries also join the keys of different types; more query files can be given after the database directory.
+     * @param args the database directory, followed by optional query files.
+     */
+    public static void main(String[] args) {
+        DBCatalog dbc = new DBCatalog(args[0]);
+        RelationalAtom r = testAtom("R", "x", "y", "z");
+        RelationalAtom s = testAtom("S", "u", "v", "w");
+        RelationalAtom u = testAtom("U", "a", "b");
+        checkMerge(dbc, r, s, testCondition("x", "v"), 0);
+        checkMerge(dbc, s, r, testCondition("v", "x"), 0);
+        checkMerge(dbc, s, r, testCondition("v", "y"), 0);
+        int expected = 0;
+        Operator hashJoin = new HashJoinOperator(new ScanOperator(dbc, s), new ScanOperator(dbc, u), List.of(testCondition("v", "b")));
+        while (hashJoin.getNextTuple() != null)
+            expected++;
+        checkMerge(dbc, s, u, testCondition("v", "b"), expected);
+
+        List<String> queries = new ArrayList<>(List.of(
+                "Q(x) :- R(x, y, z), S(u, v, w), x = v",
+                "Q(x) :- R(x, y, z), S(u, v, w), y = v",
+                "Q(u) :- S(u, v, w), T(a, b), v = a"));
+        try {
+            for (int i = 1; i < args.length; i++)
+                queries.add(Files.readString(Path.of(args[i])).trim());
+
+            for (String query : queries) {
+                Path queryFile = Files.createTempFile("minibase-query", ".txt");
+                Files.writeString(queryFile, query);
+                DBCatalog queryCatalog = new DBCatalog(args[0]);
+                List<String> hashed = evaluate(queryCatalog, queryFile.toString());
+                queryCatalog.setMemoryLimit(2000);
+                List<String> merged = evaluate(queryCatalog, queryFile.toString());
+                Files.delete(queryFile);
+                System.out.println((hashed.equals(merged) ? "MATCH (" + merged.size() + " rows) " : "MISMATCH ") + query);
+                if (!hashed.equals(merged))
+                    System.out.println(hashed + "\n" + merged);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to evaluate the test queries", e);
+        }
+    }
+
+    /**
+     * Join two relations by a sort-merge join on one condition and check the number of output tuples,
+     * used by {@link #main(String[])}.
+     */
+    private static void checkMerge(DBCatalog dbc, RelationalAtom left, RelationalAtom right, ComparisonAtom condition,
+                                   int expected) {
+        Operator join = new SortMergeJoinOperator(new ScanOperator(dbc, left), new ScanOperator(dbc, right),
+                List.of(condition), 2, dbc.getDictionary());
+        int count = 0;
+        while (join.getNextTuple() != null)
+            count++;
+        String test = left + ", " + right + ", " + condition;
+        System.out.println(count == expected ? "MATCH (" + count + " rows) " + test
+                : "MISMATCH " + test + ": " + count + " rows, expected " + expected);
+    }
+
+    private static RelationalAtom testAtom(String name, String... variables) {
+        List<Term> terms = new ArrayList<>();
+        for (String variable : variables)
+            terms.add(new Variable(variable));
+        return new RelationalAtom(name, terms);
+    }
+
+    private static ComparisonAtom testCondition(String variable1, String variable2) {
+        return new ComparisonAtom(new Variable(variable1), new Variable(variable2), ComparisonOperator.fromString("="));
+    }
+
+    /**
+     * Evaluate a query into a temporary file, used by {@link #main(String[])}.
+     * @return the sorted output lines.
+     */
+    private static List<String> evaluate(DBCatalog dbc, String queryFile) throws IOException {
+        Path output = Files.createTempFile("minibase-output", ".csv");
+        Minibase.evaluateCQ(dbc, queryFile, output.toString());
+        List<String> lines = new ArrayList<>(Files.readAllLines(output));
+        Collections.sort(lines);
+        Files.delete(output);
+        return lines;
+    }
+}
@@ -0,0 +1,125 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.io.*;
+
+/**
+ * A temporary file for the operators which need to spill tuples out of memory (e.g. {@link ExternalSortOperator}).
+ * Tuples are written in a compact binary format: the number of columns, followed by each column as
+ * a type tag and its value ({@code int} for an int column, modified UTF-8 for a string column).
+ * The file is deleted when the JVM exits.
+ */
+public class SpillFile {
+
+    private static final byte INT_TAG = 0;
+    private static final byte STRING_TAG = 1;
+
+    private final File file;
+    private DataOutputStream writer = null;
+    private int tupleCount = 0;
+
+    /**
+     * Create an empty temporary file.
+     * @param prefix the prefix of the file name, helps to identify which operator created it.
+     * @throws IOException if the file can not be created.
+     */
+    public SpillFile(String prefix) throws IOException {
+        this.file = File.createTempFile("minibase-" + prefix + "-", ".spill");
+        this.file.deleteOnExit();
+    }
+
+    /**
+     * Append a tuple to the end of file.
+     * @param tuple the tuple to be written.
+     * @throws IOException if the write fails.
+     */
+    public void write(Tuple tuple) throws IOException {
+        if (this.writer == null)
+            this.writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+        this.writer.writeShort(tuple.size());
+        for (int c = 0; c < tuple.size(); c++) {
+            if (!tuple.isString(c)) {
+                this.writer.writeByte(INT_TAG);
+                this.writer.writeInt(tuple.getInt(c));
+            } else {
+                this.writer.writeByte(STRING_TAG);
+                this.writer.writeUTF(tuple.getString(c));
+            }
+        }
+        this.tupleCount++;
+    }
+
+    /**
+     * Flush and close the writer, the file is ready to be read after this call.
+     * @throws IOException if the flush fails.
+     */
+    public void finishWrite() throws IOException {
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    /**
+     * @return the number of tuples written into this file.
+     */
+    public int getTupleCount() {
+        return this.tupleCount;
+    }
+
+    /**
+     * Open a new reader from the beginning of file, {@link #finishWrite()} should be called before.
+     * @return a reader over the tuples in this file.
+     * @throws IOException if the file can not be opened.
+     */
+    public Reader openReader() throws IOException {
+        return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(this.file))), this.tupleCount);
+    }
+
+    /**
+     * Remove the file from disk.
+     */
+    public void delete() {
+        this.file.delete();
+    }
+
+    /**
+     * A sequential reader over the tuples in a {@link SpillFile}.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream input;
+        private int remaining;
+
+        private Reader(DataInputStream input, int tupleCount) {
+            this.input = input;
+            this.remaining = tupleCount;
+        }
+
+        /**
+         * @param relationName the relation name of the constructed tuples.
+         * @return the next tuple in the file, or {@code null} if reaches the end (the reader will be closed).
+         * @throws IOException if the read fails.
+         */
+        public Tuple read(String relationName) throws IOException {
+            if (this.remaining == 0) {
+                this.close();
+                return null;
+            }
+            this.remaining--;
+            int size = this.input.readShort();
+            int[] ints = new int[size];
+            String[] strings = new String[size];
+            for (int i = 0; i < size; i++) {
+                if (this.input.readByte() == INT_TAG)
+                    ints[i] = this.input.readInt();
+                else
+                    strings[i] = this.input.readUTF();
+            }
+            return new Tuple(relationName, ints, strings);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.input.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The result of a subplan shared by the plans of several queries evaluated together (a common subexpression,
+ * see {@code Minibase.evaluateBatch}). The subplan is evaluated once, by the first plan reading it,
+ * and its output batches are materialized in memory; every plan reads them through a {@link SpoolOperator} of its own.
+ * The plans asking for the result while it is evaluated wait for it. If the evaluation fails, every reader fails.
+ */
+public class Spool {
+
+    private final Operator subplan;
+    private List<TupleBatch> batches = null;
+    private RuntimeException failure = null;
+    // the materialized output of the subplan, or the reason it could not be evaluated
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param subplan the root of the shared subplan, not read yet.
+     */
+    public Spool(Operator subplan) {
+        this.subplan = subplan;
+    }
+
+    /**
+     * @return the variables of the output columns of the subplan.
+     */
+    public List<String> getVariableMask() {
+        return this.subplan.getVariableMask();
+    }
+
+    /**
+     * Return the output of the subplan, evaluate it on the first call.
+     * @return the output batches, which must not be modified (they are shared by all the readers).
+     */
+    List<TupleBatch> getBatches() {
+        this.lock.lock();
+        try {
+            if (this.failure != null)
+                throw new IllegalStateException("Failed to evaluate the shared subplan", this.failure);
+            if (this.batches == null) {
+                List<TupleBatch> output = new ArrayList<>();
+                try {
+                    TupleBatch batch = this.subplan.getNextBatch();
+                    while (batch != null) {
+                        output.add(batch.copy());
+                        batch = this.subplan.getNextBatch();
+                    }
+                } catch (RuntimeException e) {
+                    this.failure = e;
+                    throw e;
+                }
+                this.batches = output;
+            }
+            return this.batches;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ed.inf.adbs.minibase.operator;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class implements the read of a shared subplan by the plan of one query (see {@link Spool}).
+ * It is a leaf node of the query plan, outputting the join of the atoms of the subplan: the first call of
+ * {@link #getNextBatch()} evaluates the subplan if no other plan has done it yet, then the materialized batches are returned.
+ * The subplan is written over its own variables, each output column is renamed to the variable of this query.
+ */
+public class SpoolOperator extends Operator {
+
+    private final Spool spool;
+    private List<TupleBatch> batches = null;
+    private int nextBatch = 0;
+    private int[] outputColumns;
+    // the columns of the spooled batches returned, all of them unless some are pruned
+
+    /**
+     * @param spool the result of the shared subplan.
+     * @param variables the variable of this query for each output column of the subplan (see {@link Spool#getVariableMask()}).
+     */
+    public SpoolOperator(Spool spool, List<String> variables) {
+        this.spool = spool;
+        this.variableMask.addAll(variables);
+        this.outputColumns = new int[variables.size()];
+        for (int c = 0; c < this.outputColumns.length; c++)
+            this.outputColumns[c] = c;
+    }
+
+    /**
+     * Reset the operator state, the following reads will start from the first batch (the subplan is not evaluated again).
+     */
+    @Override
+    public void reset() {
+        this.resetBatchAdapter();
+        this.nextBatch = 0;
+    }
+
+    /**
+     * Return only the columns of the given variables.
+     * @param variables the variables read by the operators above this one.
+     */
+    @Override
+    public void pruneColumns(Set<String> variables) {
+        int[] retained = this.retainVariables(variables);
+        for (int i = 0; i < retained.length; i++)
+            retained[i] = this.outputColumns[retained[i]];
+        this.outputColumns = retained;
+    }
+
+    @Override
+    public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * @return a view over the next materialized batch of the subplan, or {@code null} if reaches the end.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        checkInterrupted();
+        if (this.batches == null)
+            this.batches = this.spool.getBatches();
+        if (this.nextBatch >= this.batches.size())
+            return null;
+        TupleBatch batch = this.batches.get(this.nextBatch++);
+        return batch.project(this.outputColumns, batch.getName());
+    }
+}
@@ -0,0 +1,156 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.ComparisonOperator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An order-preserving dictionary of strings: the distinct values are sorted, and each value is encoded as its rank.
+ * So two codes compare (and are equal) exactly as the strings they encode, and a string column can be
+ * filtered, joined, grouped and sorted on its int codes; the text is only needed to output the values.
+ * A comparison with a string that is not in the dictionary is translated into a comparison with the rank
+ * where it would be inserted (see {@link #lowerBound(String)} and {@link #upperBound(String)}).
+ *
+ * The database dictionary (see {@link DBCatalog#getDictionary()}) holds the strings of all the relations,
+ * so the codes of different columns can be compared; each string column of a {@link ColumnarFile} also has its own dictionary.
+ *
+ * File layout (all numbers are big-endian): magic number, version, number of values, then each value in order,
+ * as its length and its UTF-8 bytes.
+ */
+public class StringDictionary {
+
+    public static final int MAGIC = 0x4D424443; // "MBDC"
+    public static final int VERSION = 1;
+
+    private final String[] values;
+    private volatile Map<String, Integer> codes = null;
+    private final ReentrantLock codesLock = new ReentrantLock();
+    // the code of each value, built on the first call of encode()
+
+    /**
+     * @param values the distinct values, in ascending order.
+     */
+    public StringDictionary(String[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Build the dictionary of some strings.
+     * @param strings the strings to be encoded, in any order, possibly with duplicates.
+     * @return the dictionary of their distinct values.
+     */
+    public static StringDictionary build(Collection<String> strings) {
+        return new StringDictionary(new TreeSet<>(strings).toArray(new String[0]));
+    }
+
+    public int size() {
+        return this.values.length;
+    }
+
+    /**
+     * @param code the code of a value.
+     * @return the value.
+     */
+    public String decode(int code) {
+        return this.values[code];
+    }
+
+    /**
+     * @param value a string.
+     * @return the code of the string, or -1 if it is not in the dictionary.
+     */
+    public int encode(String value) {
+        if (this.codes == null) {
+            this.codesLock.lock();
+            try {
+                if (this.codes == null) {
+                    Map<String, Integer> codes = new HashMap<>(this.values.length * 2);
+                    for (int code = 0; code < this.values.length; code++)
+                        codes.put(this.values[code], code);
+                    this.codes = codes;
+                }
+            } finally {
+                this.codesLock.unlock();
+            }
+        }
+        Integer code = this.codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @param value a string.
+     * @return the code of the first value that is not less than the string, {@link #size()} if there is none.
+     */
+    public int lowerBound(String value) {
+        int index = Arrays.binarySearch(this.values, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @param value a string.
+     * @return the code of the first value that is greater than the string, {@link #size()} if there is none.
+     */
+    public int upperBound(String value) {
+        int index = Arrays.binarySearch(this.values, value);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Translate a range comparison with a string into a comparison with a code:
+     * {@code value op constant} holds exactly when {@code code < bound} for '<' and '<=',
+     * and when {@code code >= bound} for '>' and '>='.
+     * @param op a range comparison operator, with the compared value as the first operand.
+     * @param constant the string compared with, which does not have to be in the dictionary.
+     * @return the bound of the codes.
+     */
+    public int codeBound(ComparisonOperator op, String constant) {
+        if (op == ComparisonOperator.LT || op == ComparisonOperator.GEQ)
+            return this.lowerBound(constant);
+        return this.upperBound(constant);
+    }
+
+    /**
+     * Read a dictionary file.
+     * @param path the path to the dictionary file.
+     * @return the dictionary.
+     * @throws IOException if the file can not be read, or it is not a dictionary file.
+     */
+    public static StringDictionary read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a dictionary file: " + path);
+            String[] values = new String[in.readInt()];
+            for (int code = 0; code < values.length; code++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                values[code] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new StringDictionary(values);
+        }
+    }
+
+    /**
+     * Write the dictionary into a file.
+     * @param path the path to the dictionary file to be written.
+     * @throws IOException if the file can not be written.
+     */
+    public void write(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.values.length);
+            for (String value : this.values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+}
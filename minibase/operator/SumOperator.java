@@ -1,6 +1,16 @@
 package ed.inf.adbs.minibase.operator;
 
-import ed.inf.adbs.minibase.base.RelationalAtom;
+import ed.inf.adbs.minibase.base.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class implements a project operation with an SUM term at the end of the query head term list.
@@ -17,24 +27,99 @@ public class SumOperator extends AggregateOperator {
         super(childOperator, queryHead);
     }
 
+    private int outputIndex = 0;
+    // the id of next group in the aggregation table to be returned
+
     /**
-     * First call {@link #aggregate()} to iterate over all child operator tuples and do aggregation.
-     * After the blocking operation travel through all the child output tuples,
-     * each call of this method will remove and return the first output tuple from the buffer.
-     * Notice: the aggregation operation and output tuple construction is implemented in {@link AggBuffer}.
+     * Reset the aggregation state and the output position.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        this.outputIndex = 0;
+    }
+
+    /**
+     * Get the next output tuple, taken from the batches produced by {@link #getNextBatch()}.
      * @return a tuple after projection and aggregation.
+     * @throws ArithmeticException if the sum is out of the range of integer constants, which a {@link Tuple} cannot hold.
      */
     @Override
     public Tuple getNextTuple() {
+        return this.nextTupleFromBatch();
+    }
+
+    /**
+     * First call {@link #aggregate()} to iterate over all child operator batches and do aggregation.
+     * After the blocking operation travel through all the child output rows,
+     * each call of this method will return the next block of groups in the table as a batch
+     * (the group columns followed by the sum).
+     * The sums are accumulated as {@code long} and output in a {@code long} column, so a sum out of the range of
+     * {@code int} constants is still printed in full (only {@link #getNextTuple()} cannot hold it in a {@link Tuple}).
+     * @return a batch of tuples after projection and aggregation, or {@code null} if all groups are returned.
+     */
+    @Override
+    public TupleBatch getNextBatch() {
         // do aggregation, after the first call of this function, this will do no updates
         this.aggregate();
-        // after all the output tuples from child operator are processed,
-        // return the top tuple in buffer for each call of this method.
-        if (this.outputBuffer.size() > 0) {
-            // add the aggregation term into term list, return the generated Tuple
-            return this.outputBuffer.remove(0).getSumTuple();
-        } else {
+        if (this.outputIndex >= this.groups.getGroupCount())
             return null;
+
+        boolean[] types = new boolean[this.aggIndex + 1];
+        StringDictionary[] dictionaries = new StringDictionary[this.aggIndex + 1];
+        for (int c = 0; c < this.aggIndex; c++) {
+            types[c] = this.groups.isIntColumn(c);
+            dictionaries[c] = this.groups.getDictionary(c);
+        }
+        boolean[] isLongColumn = new boolean[this.aggIndex + 1];
+        isLongColumn[this.aggIndex] = true;
+        TupleBatch batch = new TupleBatch(this.projectionName, types, isLongColumn, dictionaries, TupleBatch.DEFAULT_CAPACITY);
+        while (!batch.isFull() && this.outputIndex < this.groups.getGroupCount()) {
+            // add the aggregation term after the group terms
+            int group = this.outputIndex++;
+            int row = batch.addRow();
+            for (int c = 0; c < this.aggIndex; c++) {
+                if (types[c])
+                    batch.setInt(row, c, this.groups.getIntKey(group, c));
+                else
+                    batch.setString(row, c, this.groups.getStringKey(group, c));
+            }
+            batch.setLong(row, this.aggIndex, this.groups.getSum(group));
+        }
+        return batch;
+    }
+
+    /**
+     * Unit test of SumOperator: the sums of a group-by in a temporary database are out of the range of int,
+     * and should be printed in full.
+     * @param args Command line inputs, can be empty.
+     */
+    public static void main(String[] args) {
+        try {
+            Path db = Files.createTempDirectory("minibase-db");
+            Files.createDirectory(db.resolve("files"));
+            Files.writeString(db.resolve("schema.txt"), "R int int\n");
+            Files.writeString(db.resolve("files").resolve("R.csv"),
+                    "1, 2000000000\n1, 2000000000\n1, 147483648\n2, 5\n2, 2147483647\n2, 2147483647\n");
+            DBCatalog dbc = new DBCatalog(db.toString());
+
+            // Q(x, SUM(y)) :- R(x, y)
+            RelationalAtom body = new RelationalAtom("R", new ArrayList<>(List.of(new Variable("x"), new Variable("y"))));
+            RelationalAtom head = new RelationalAtom("Q", new ArrayList<>(List.of(new Variable("x"), new Sum("y"))));
+            SumOperator sumOp = new SumOperator(new ScanOperator(dbc, body), head);
+            StringWriter output = new StringWriter();
+            sumOp.stream(new PrintWriter(output));
+            String[] lines = output.toString().trim().split("\\R");
+            Arrays.sort(lines);
+            List<String> expected = List.of("1, 4147483648", "2, 4294967299");
+            System.out.println(expected.equals(List.of(lines)) ? "MATCH " + expected : "MISMATCH " + Arrays.toString(lines));
+
+            Files.delete(db.resolve("files").resolve("R.csv"));
+            Files.delete(db.resolve("files"));
+            Files.delete(db.resolve("schema.txt"));
+            Files.delete(db);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create the test database", e);
         }
     }
 }
@@ -1,36 +1,151 @@
 package ed.inf.adbs.minibase.operator;
 
-import ed.inf.adbs.minibase.Utils;
+import ed.inf.adbs.minibase.base.IntegerConstant;
+import ed.inf.adbs.minibase.base.StringConstant;
 import ed.inf.adbs.minibase.base.Term;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * A class for storing a row/record from a relation in database.
+ * The values are packed into two arrays instead of a list of boxed constants:
+ * an int slot per column, and a string reference per column which is {@code null} for the int columns.
+ * So a tuple is three objects whatever its number of columns (the strings are shared with the data they are read from),
+ * and the {@link Term} instances are only created by {@link #getTerm(int)} when a caller asks for them.
  */
 public class Tuple {
-    private String relationName;
-    private List<Term> terms;
+    private final String relationName;
+    private final int[] ints;
+    private final String[] strings;
+    // the value of each column: strings[c] for a string column, ints[c] for an int column (where strings[c] is null)
 
-    public Tuple(String relationName, List<Term> terms) {
+    /**
+     * @param relationName the relation name of the tuple.
+     * @param ints the values of the int columns, the slots of the string columns are ignored.
+     * @param strings the values of the string columns, {@code null} for the int columns.
+     */
+    public Tuple(String relationName, int[] ints, String[] strings) {
         this.relationName = relationName;
-        this.terms = terms;
+        this.ints = ints;
+        this.strings = strings;
+    }
+
+    /**
+     * Pack a list of constants into a tuple.
+     * @param relationName the relation name of the tuple.
+     * @param terms a list of {@link IntegerConstant} and {@link StringConstant}, one for each column.
+     */
+    public Tuple(String relationName, List<Term> terms) {
+        this(relationName, new int[terms.size()], new String[terms.size()]);
+        for (int c = 0; c < terms.size(); c++) {
+            if (terms.get(c) instanceof IntegerConstant)
+                this.ints[c] = ((IntegerConstant) terms.get(c)).getValue();
+            else
+                this.strings[c] = ((StringConstant) terms.get(c)).getValue();
+        }
     }
 
     public String getName() {
         return relationName;
     }
 
+    /**
+     * @return the number of columns.
+     */
+    public int size() {
+        return this.ints.length;
+    }
+
+    /**
+     * @param column a column index.
+     * @return {@code true} if the column holds a string, {@code false} if it holds an int.
+     */
+    public boolean isString(int column) {
+        return this.strings[column] != null;
+    }
+
+    /**
+     * @param column the index of an int column.
+     * @return the value of the column.
+     */
+    public int getInt(int column) {
+        return this.ints[column];
+    }
+
+    /**
+     * @param column the index of a string column.
+     * @return the value of the column.
+     */
+    public String getString(int column) {
+        return this.strings[column];
+    }
+
+    /**
+     * @param column a column index.
+     * @return the value as a new constant term.
+     */
+    public Term getTerm(int column) {
+        if (this.strings[column] != null)
+            return new StringConstant(this.strings[column]);
+        return new IntegerConstant(this.ints[column]);
+    }
+
+    /**
+     * @return the values as a new list of constant terms, one for each column.
+     */
     public List<Term> getTerms() {
+        List<Term> terms = new ArrayList<>(this.ints.length);
+        for (int c = 0; c < this.ints.length; c++)
+            terms.add(this.getTerm(c));
         return terms;
     }
 
+    /**
+     * Compare a column of this tuple with a column of another tuple.
+     * Int values are compared numerically, strings by {@link String#compareTo(String)}.
+     * Values of different types are never equal, the ints are ordered before the strings.
+     * @param column a column of this tuple.
+     * @param other the other tuple.
+     * @param otherColumn a column of the other tuple.
+     * @return a negative integer, zero, or a positive integer as the value of this tuple is
+     *         less than, equal to, or greater than the value of the other tuple.
+     */
+    public int compareColumn(int column, Tuple other, int otherColumn) {
+        boolean isString = this.strings[column] != null;
+        if (isString != (other.strings[otherColumn] != null))
+            return isString ? 1 : -1;
+        if (isString)
+            return this.strings[column].compareTo(other.strings[otherColumn]);
+        return Integer.compare(this.ints[column], other.ints[otherColumn]);
+    }
+
+    /**
+     * Estimate the heap footprint of a tuple, i.e. the tuple object and its two slot arrays
+     * (the strings are not counted, they are shared with the data the tuple is read from).
+     * This is a rough number used by the planner to decide whether some input fits in the memory limit.
+     * @param columns the number of columns in the tuple.
+     * @return the estimated size in bytes.
+     */
+    public static long estimateSize(int columns) {
+        return 56 + 8L * columns;
+    }
+
     /**
      * Convert the tuple instance into print style
      * @return a String represent this tuple, columns split by ', '
      */
     @Override
     public String toString() {
-        return Utils.join(terms, ", ");
+        StringBuilder builder = new StringBuilder();
+        for (int c = 0; c < this.ints.length; c++) {
+            if (c > 0)
+                builder.append(", ");
+            if (this.strings[c] != null)
+                builder.append('\'').append(this.strings[c]).append('\'');
+            else
+                builder.append(this.ints[c]);
+        }
+        return builder.toString();
     }
 }
@@ -0,0 +1,517 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A column-oriented block of rows, the unit of data passed by {@link Operator#getNextBatch()}.
+ * Each column is stored either as a primitive {@code int[]} (for 'int' columns) or a {@code String[]} (for 'string' columns).
+ * A 'string' column may also be encoded: stored in an {@code int[]} as the codes of an order-preserving {@link StringDictionary}
+ * (the database dictionary, when the relations are scanned with one, see {@link #forSchema(String, List, StringDictionary, int)}).
+ * An encoded column is an int column for the operators which only move, hash or order the values
+ * ({@link #isIntColumn(int)}), so they run on the codes; the comparisons check {@link #isStringColumn(int)} for the type of values,
+ * and the codes are only decoded when the rows are converted into terms or text.
+ * A selection vector lists the physical rows that are still active, so a filter can drop rows
+ * by shrinking the selection instead of copying the surviving rows.
+ *
+ * A batch can also be a view over the column arrays of another batch (see {@link #project(int[], String)}),
+ * and is only valid until the next call of {@code getNextBatch()} or {@code reset()} on the operator which produced it.
+ */
+public class TupleBatch {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final String name;
+    private final int capacity;
+    private final int[][] intColumns;
+    private final String[][] stringColumns;
+    private final long[][] longColumns;
+    // for each column, exactly one of intColumns[c], stringColumns[c] and longColumns[c] is not null
+    // (the long columns only hold the sums output by SumOperator)
+    private final StringDictionary[] dictionaries;
+    // the dictionary of each encoded string column (stored in intColumns[c]), null for the other columns
+
+    private int size = 0;
+    // the number of physical rows
+
+    private int[] selection;
+    private int selectedCount = 0;
+    // selection[0..selectedCount) are the indices of active physical rows, in ascending order
+
+    /**
+     * Create an empty batch.
+     * @param name the name of the relation the rows belong to, used for the {@link Tuple} constructed from this batch.
+     * @param isIntColumn the data type of each column, {@code true} for 'int' and {@code false} for 'string'.
+     * @param capacity the maximum number of physical rows.
+     */
+    public TupleBatch(String name, boolean[] isIntColumn, int capacity) {
+        this(name, isIntColumn, new StringDictionary[isIntColumn.length], capacity);
+    }
+
+    /**
+     * Create an empty batch, with some encoded string columns.
+     * @param name the name of the relation the rows belong to, used for the {@link Tuple} constructed from this batch.
+     * @param isIntColumn the storage type of each column, {@code true} for 'int' and the encoded 'string' columns.
+     * @param dictionaries the dictionary of each encoded column, {@code null} for the other columns.
+     * @param capacity the maximum number of physical rows.
+     */
+    public TupleBatch(String name, boolean[] isIntColumn, StringDictionary[] dictionaries, int capacity) {
+        this(name, isIntColumn, new boolean[isIntColumn.length], dictionaries, capacity);
+    }
+
+    /**
+     * Create an empty batch, with some encoded string columns and some {@code long} columns (e.g. the sums of a group-by).
+     * @param name the name of the relation the rows belong to, used for the {@link Tuple} constructed from this batch.
+     * @param isIntColumn the storage type of each column, {@code true} for 'int' and the encoded 'string' columns.
+     * @param isLongColumn {@code true} for the 'int' columns whose values are stored as {@code long}, overrides {@code isIntColumn}.
+     * @param dictionaries the dictionary of each encoded column, {@code null} for the other columns.
+     * @param capacity the maximum number of physical rows.
+     */
+    public TupleBatch(String name, boolean[] isIntColumn, boolean[] isLongColumn, StringDictionary[] dictionaries, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+        this.intColumns = new int[isIntColumn.length][];
+        this.stringColumns = new String[isIntColumn.length][];
+        this.longColumns = new long[isIntColumn.length][];
+        this.dictionaries = dictionaries.clone();
+        for (int c = 0; c < isIntColumn.length; c++) {
+            if (isLongColumn[c])
+                this.longColumns[c] = new long[capacity];
+            else if (isIntColumn[c])
+                this.intColumns[c] = new int[capacity];
+            else
+                this.stringColumns[c] = new String[capacity];
+        }
+        this.selection = new int[capacity];
+    }
+
+    private TupleBatch(String name, int capacity, int[][] intColumns, String[][] stringColumns, long[][] longColumns,
+                       StringDictionary[] dictionaries, int size, int[] selection, int selectedCount) {
+        this.name = name;
+        this.capacity = capacity;
+        this.intColumns = intColumns;
+        this.stringColumns = stringColumns;
+        this.longColumns = longColumns;
+        this.dictionaries = dictionaries;
+        this.size = size;
+        this.selection = selection;
+        this.selectedCount = selectedCount;
+    }
+
+    /**
+     * Create a batch over the same column arrays, with the columns re-ordered or reduced.
+     * No value is copied, the new batch has its own selection vector (initialised as a copy of this one).
+     * @param columns the column of this batch for each column of the new batch.
+     * @param name the relation name of the new batch.
+     * @return a view over this batch.
+     */
+    public TupleBatch project(int[] columns, String name) {
+        int[][] ints = new int[columns.length][];
+        String[][] strings = new String[columns.length][];
+        long[][] longs = new long[columns.length][];
+        StringDictionary[] projectedDictionaries = new StringDictionary[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = this.intColumns[columns[i]];
+            strings[i] = this.stringColumns[columns[i]];
+            longs[i] = this.longColumns[columns[i]];
+            projectedDictionaries[i] = this.dictionaries[columns[i]];
+        }
+        int[] newSelection = new int[this.selection.length];
+        System.arraycopy(this.selection, 0, newSelection, 0, this.selectedCount);
+        return new TupleBatch(name, this.capacity, ints, strings, longs, projectedDictionaries, this.size, newSelection,
+                this.selectedCount);
+    }
+
+    /**
+     * Create a batch over a range of rows in existing column arrays (e.g. the columns of a {@link RelationTable}),
+     * no value is copied. The rows in [from, to) are active.
+     * @param name the relation name of the batch.
+     * @param intColumns the int columns (and the encoded string columns), {@code null} for the other string columns.
+     * @param stringColumns the string columns, {@code null} for the int columns and the encoded string columns.
+     * @param dictionaries the dictionary of each encoded string column, {@code null} for the other columns.
+     * @param from the first row of the range.
+     * @param to the end (exclusive) of the range.
+     * @return a view over the column arrays.
+     */
+    public static TupleBatch wrap(String name, int[][] intColumns, String[][] stringColumns, StringDictionary[] dictionaries,
+                                  int from, int to) {
+        int[] selection = new int[to - from];
+        for (int i = 0; i < selection.length; i++)
+            selection[i] = from + i;
+        return new TupleBatch(name, to - from, intColumns, stringColumns, new long[intColumns.length][], dictionaries, to,
+                selection, selection.length);
+    }
+
+    /**
+     * Create an empty batch for the rows of a relation.
+     * If the database has a dictionary (see {@link DBCatalog#getDictionary()}), the string columns are encoded by it.
+     * @param name the name of relation.
+     * @param relationSchema the data types of columns ('int' or 'string').
+     * @param dictionary the dictionary of the database, or {@code null} if the strings are not encoded.
+     * @param capacity the maximum number of physical rows.
+     * @return the batch.
+     */
+    public static TupleBatch forSchema(String name, List<String> relationSchema, StringDictionary dictionary, int capacity) {
+        StringDictionary[] dictionaries = dictionariesOf(relationSchema, dictionary);
+        boolean[] types = typesOf(relationSchema);
+        for (int c = 0; c < types.length; c++)
+            types[c] |= dictionaries[c] != null;
+        return new TupleBatch(name, types, dictionaries, capacity);
+    }
+
+    /**
+     * @param relationSchema the data types of columns ('int' or 'string').
+     * @param dictionary the dictionary of the database, or {@code null} if the strings are not encoded.
+     * @return the dictionary encoding each column in the batches of {@link #forSchema(String, List, StringDictionary, int)},
+     *         {@code null} for the columns which are not encoded.
+     */
+    public static StringDictionary[] dictionariesOf(List<String> relationSchema, StringDictionary dictionary) {
+        StringDictionary[] dictionaries = new StringDictionary[relationSchema.size()];
+        for (int c = 0; c < dictionaries.length; c++)
+            if (!relationSchema.get(c).equals("int"))
+                dictionaries[c] = dictionary;
+        return dictionaries;
+    }
+
+    /**
+     * Copy the active rows into a new compact batch, which stays valid after the producer of this batch moves on.
+     * @return a new batch with the same name and column types, holding only the active rows.
+     */
+    public TupleBatch copy() {
+        boolean[] isLongColumn = new boolean[this.longColumns.length];
+        for (int c = 0; c < isLongColumn.length; c++)
+            isLongColumn[c] = this.longColumns[c] != null;
+        TupleBatch copy = new TupleBatch(this.name, this.getColumnTypes(), isLongColumn, this.dictionaries,
+                Math.max(1, this.selectedCount));
+        int[] allColumns = new int[this.intColumns.length];
+        for (int c = 0; c < allColumns.length; c++)
+            allColumns[c] = c;
+        for (int i = 0; i < this.selectedCount; i++)
+            copy.copyRow(copy.addRow(), 0, this, this.selection[i], allColumns);
+        return copy;
+    }
+
+    /**
+     * Remove all the rows, the column arrays are kept for reuse.
+     */
+    public void clear() {
+        this.size = 0;
+        this.selectedCount = 0;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getColumnCount() {
+        return this.intColumns.length;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public boolean isFull() {
+        return this.size >= this.capacity;
+    }
+
+    /**
+     * @param column a column index.
+     * @return {@code true} if the column is stored in an {@code int[]}: an 'int' column, or an encoded 'string' column.
+     */
+    public boolean isIntColumn(int column) {
+        return this.intColumns[column] != null;
+    }
+
+    /**
+     * @param column a column index.
+     * @return {@code true} if the column holds 'int' values stored in a {@code long[]}.
+     */
+    public boolean isLongColumn(int column) {
+        return this.longColumns[column] != null;
+    }
+
+    /**
+     * @param column a column index.
+     * @return {@code true} if the column holds 'string' values, stored in a {@code String[]} or encoded.
+     */
+    public boolean isStringColumn(int column) {
+        return this.stringColumns[column] != null || this.dictionaries[column] != null;
+    }
+
+    /**
+     * @param column a column index.
+     * @return {@code true} if the column is a 'string' column encoded by a dictionary, stored in an {@code int[]}.
+     */
+    public boolean isEncodedColumn(int column) {
+        return this.dictionaries[column] != null;
+    }
+
+    /**
+     * @param column a column index.
+     * @return the dictionary of an encoded string column, {@code null} for the other columns.
+     */
+    public StringDictionary getDictionary(int column) {
+        return this.dictionaries[column];
+    }
+
+    /**
+     * @return the dictionary of each column, {@code null} for the columns which are not encoded.
+     */
+    public StringDictionary[] getDictionaries() {
+        return this.dictionaries.clone();
+    }
+
+    /**
+     * @return the storage type of each column, {@code true} for 'int' (and the encoded 'string' columns) and {@code false} for 'string',
+     *         the {@code long} columns are 'int' columns (see {@link #isLongColumn(int)}).
+     */
+    public boolean[] getColumnTypes() {
+        boolean[] types = new boolean[this.intColumns.length];
+        for (int c = 0; c < types.length; c++)
+            types[c] = this.intColumns[c] != null || this.longColumns[c] != null;
+        return types;
+    }
+
+    public int[] getIntColumn(int column) {
+        return this.intColumns[column];
+    }
+
+    public String[] getStringColumn(int column) {
+        return this.stringColumns[column];
+    }
+
+    public long[] getLongColumn(int column) {
+        return this.longColumns[column];
+    }
+
+    /**
+     * @param row the physical index of the row.
+     * @param column a string column, encoded or not.
+     * @return the value of the column in the row, decoded if the column is encoded.
+     */
+    public String getString(int row, int column) {
+        if (this.dictionaries[column] != null)
+            return this.dictionaries[column].decode(this.intColumns[column][row]);
+        return this.stringColumns[column][row];
+    }
+
+    /**
+     * @return the number of active rows.
+     */
+    public int getSelectedCount() {
+        return this.selectedCount;
+    }
+
+    /**
+     * @param i a position in the selection vector, in range [0, {@link #getSelectedCount()}).
+     * @return the physical row index of the i-th active row.
+     */
+    public int getSelected(int i) {
+        return this.selection[i];
+    }
+
+    /**
+     * Keep only the first {@code count} positions of the selection vector.
+     * A filter writes the surviving row indices at the head of the vector (in the same order), then calls this method.
+     * @param count the number of active rows after filtering.
+     */
+    public void setSelectedCount(int count) {
+        this.selectedCount = count;
+    }
+
+    /**
+     * Overwrite a position of the selection vector, used by filters together with {@link #setSelectedCount(int)}.
+     * @param i a position in the selection vector.
+     * @param row the physical row index.
+     */
+    public void setSelected(int i, int row) {
+        this.selection[i] = row;
+    }
+
+    /**
+     * Append a new active row, its values should be filled by {@link #setInt} / {@link #setString}.
+     * @return the physical index of the new row.
+     */
+    public int addRow() {
+        int row = this.size++;
+        this.selection[this.selectedCount++] = row;
+        return row;
+    }
+
+    public void setInt(int row, int column, int value) {
+        this.intColumns[column][row] = value;
+    }
+
+    public void setLong(int row, int column, long value) {
+        this.longColumns[column][row] = value;
+    }
+
+    /**
+     * Set the value of a string column, an encoded column stores the code of the value.
+     * @throws IllegalStateException if the column is encoded but the value is not in its dictionary.
+     */
+    public void setString(int row, int column, String value) {
+        if (this.dictionaries[column] != null)
+            this.intColumns[column][row] = encode(this.dictionaries[column], value);
+        else
+            this.stringColumns[column][row] = value;
+    }
+
+    /**
+     * @param dictionary the dictionary of a column.
+     * @param value a value of the column.
+     * @return the code of the value.
+     * @throws IllegalStateException if the value is not in the dictionary.
+     */
+    public static int encode(StringDictionary dictionary, String value) {
+        int code = dictionary.encode(value);
+        if (code < 0)
+            throw new IllegalStateException("String '" + value + "' is not in the dictionary, the dictionary should be built again");
+        return code;
+    }
+
+    /**
+     * Copy the values of a row from another batch into some columns of a row of this batch.
+     * @param row the physical row of this batch.
+     * @param firstColumn the first column of this batch to be written.
+     * @param source the batch to be copied from.
+     * @param sourceRow the physical row of the source batch.
+     * @param sourceColumns the columns of the source batch to be copied, in order.
+     */
+    public void copyRow(int row, int firstColumn, TupleBatch source, int sourceRow, int[] sourceColumns) {
+        for (int i = 0; i < sourceColumns.length; i++) {
+            int c = sourceColumns[i];
+            if (source.intColumns[c] != null)
+                this.intColumns[firstColumn + i][row] = source.intColumns[c][sourceRow];
+            else if (source.longColumns[c] != null)
+                this.longColumns[firstColumn + i][row] = source.longColumns[c][sourceRow];
+            else
+                this.stringColumns[firstColumn + i][row] = source.stringColumns[c][sourceRow];
+        }
+    }
+
+    /**
+     * Append a tuple as a new active row, the tuple should match the column types of this batch.
+     * @param tuple the tuple to be appended.
+     */
+    public void addTuple(Tuple tuple) {
+        int row = this.addRow();
+        for (int c = 0; c < tuple.size(); c++) {
+            if (tuple.isString(c))
+                this.setString(row, c, tuple.getString(c));
+            else
+                this.intColumns[c][row] = tuple.getInt(c);
+        }
+    }
+
+    /**
+     * @param row a physical row index.
+     * @param column a column index.
+     * @return the value as a constant term.
+     * @throws ArithmeticException if the value of a {@code long} column is out of the range of integer constants.
+     */
+    public Term getTerm(int row, int column) {
+        if (this.dictionaries[column] != null)
+            return new StringConstant(this.dictionaries[column].decode(this.intColumns[column][row]));
+        if (this.intColumns[column] != null)
+            return new IntegerConstant(this.intColumns[column][row]);
+        if (this.longColumns[column] != null)
+            return new IntegerConstant(this.getLongAsInt(row, column));
+        return new StringConstant(this.stringColumns[column][row]);
+    }
+
+    /**
+     * Construct a tuple from a physical row.
+     * @param row a physical row index.
+     * @return a {@link Tuple} instance with the values of that row.
+     * @throws ArithmeticException if the value of a {@code long} column is out of the range of integer constants.
+     */
+    public Tuple getTuple(int row) {
+        int[] ints = new int[this.intColumns.length];
+        String[] strings = new String[this.intColumns.length];
+        for (int c = 0; c < this.intColumns.length; c++) {
+            if (this.dictionaries[c] != null)
+                strings[c] = this.dictionaries[c].decode(this.intColumns[c][row]);
+            else if (this.intColumns[c] != null)
+                ints[c] = this.intColumns[c][row];
+            else if (this.longColumns[c] != null)
+                ints[c] = this.getLongAsInt(row, c);
+            else
+                strings[c] = this.stringColumns[c][row];
+        }
+        return new Tuple(this.name, ints, strings);
+    }
+
+    /**
+     * Narrow the value of a {@code long} column for a {@link Tuple} or a term, which only hold {@code int} values.
+     */
+    private int getLongAsInt(int row, int column) {
+        long value = this.longColumns[column][row];
+        if (value != (int) value)
+            throw new ArithmeticException(value + " in column " + column + " of " + this.name
+                    + " is out of the range of integer constants");
+        return (int) value;
+    }
+
+    /**
+     * Convert a physical row into print style, the same as {@link Tuple#toString()}.
+     * The values of the {@code long} columns are printed in full.
+     * @param row a physical row index.
+     * @return a String represent this row, columns split by ', '
+     */
+    public String rowToString(int row) {
+        StringBuilder builder = new StringBuilder();
+        for (int c = 0; c < this.intColumns.length; c++) {
+            if (c > 0)
+                builder.append(", ");
+            if (this.dictionaries[c] != null)
+                builder.append('\'').append(this.dictionaries[c].decode(this.intColumns[c][row])).append('\'');
+            else if (this.intColumns[c] != null)
+                builder.append(this.intColumns[c][row]);
+            else if (this.longColumns[c] != null)
+                builder.append(this.longColumns[c][row]);
+            else
+                builder.append('\'').append(this.stringColumns[c][row]).append('\'');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Infer the column types of a tuple.
+     * @param tuple a tuple.
+     * @return the data type of each column, {@code true} for 'int' and {@code false} for 'string'.
+     */
+    public static boolean[] typesOf(Tuple tuple) {
+        boolean[] types = new boolean[tuple.size()];
+        for (int c = 0; c < types.length; c++)
+            types[c] = !tuple.isString(c);
+        return types;
+    }
+
+    /**
+     * Infer the relation schema of a tuple.
+     * @param tuple a tuple.
+     * @return the data type of each column ('int' or 'string').
+     */
+    public static List<String> schemaOf(Tuple tuple) {
+        List<String> schema = new ArrayList<>();
+        for (int c = 0; c < tuple.size(); c++)
+            schema.add(tuple.isString(c) ? "string" : "int");
+        return schema;
+    }
+
+    /**
+     * Convert a relation schema into column types.
+     * @param relationSchema the data types of columns ('int' or 'string').
+     * @return the data type of each column, {@code true} for 'int' and {@code false} for 'string'.
+     */
+    public static boolean[] typesOf(List<String> relationSchema) {
+        boolean[] types = new boolean[relationSchema.size()];
+        for (int c = 0; c < types.length; c++)
+            types[c] = relationSchema.get(c).equals("int");
+        return types;
+    }
+}
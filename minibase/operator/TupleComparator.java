@@ -0,0 +1,63 @@
+package ed.inf.adbs.minibase.operator;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compare tuples by the values in a list of key columns, in lexicographic order of the key columns.
+ * Int values are compared numerically, strings by {@link String#compareTo(String)},
+ * and the ints are ordered before the strings (see {@link Tuple#compareColumn(int, Tuple, int)}).
+ * Used by {@link ExternalSortOperator} and {@link SortMergeJoinOperator}.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+
+    private final List<Integer> keyIndices;
+
+    /**
+     * @param keyIndices the indices of key columns in the tuples to be compared.
+     */
+    public TupleComparator(List<Integer> keyIndices) {
+        this.keyIndices = keyIndices;
+    }
+
+    @Override
+    public int compare(Tuple tuple1, Tuple tuple2) {
+        return compareKeys(tuple1, this.keyIndices, tuple2, this.keyIndices);
+    }
+
+    /**
+     * Compare two tuples (may come from different relations) on their own key columns.
+     * @param tuple1 the first tuple.
+     * @param keyIndices1 the key columns of the first tuple.
+     * @param tuple2 the second tuple.
+     * @param keyIndices2 the key columns of the second tuple, aligned with {@code keyIndices1}.
+     * @return a negative integer, zero, or a positive integer as the key of first tuple is
+     *         less than, equal to, or greater than the key of second tuple.
+     */
+    public static int compareKeys(Tuple tuple1, List<Integer> keyIndices1, Tuple tuple2, List<Integer> keyIndices2) {
+        for (int i = 0; i < keyIndices1.size(); i++) {
+            int result = tuple1.compareColumn(keyIndices1.get(i), tuple2, keyIndices2.get(i));
+            if (result != 0)
+                return result;
+        }
+        return 0;
+    }
+
+    /**
+     * Compare two constant terms in the same order as the tuple columns ({@link Tuple#compareColumn(int, Tuple, int)}):
+     * constants of different types are never equal, the ints are ordered before the strings.
+     * @param term1 an {@link IntegerConstant} or {@link StringConstant}.
+     * @param term2 an {@link IntegerConstant} or {@link StringConstant}.
+     * @return the comparison result.
+     */
+    public static int compareTerms(Term term1, Term term2) {
+        boolean isInt = term1 instanceof IntegerConstant;
+        if (isInt != (term2 instanceof IntegerConstant))
+            return isInt ? -1 : 1;
+        if (isInt)
+            return Integer.compare(((IntegerConstant) term1).getValue(), ((IntegerConstant) term2).getValue());
+        return ((StringConstant) term1).getValue().compareTo(((StringConstant) term2).getValue());
+    }
+}
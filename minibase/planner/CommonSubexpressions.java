@@ -0,0 +1,365 @@
+package ed.inf.adbs.minibase.planner;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.operator.DBCatalog;
+import ed.inf.adbs.minibase.operator.Tuple;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Find the subplans shared by the queries of a batch (common subexpressions), so each of them is evaluated once
+ * for all the queries containing it (see {@code Minibase.evaluateBatch}).
+ * The relational atoms are expected to contain only variables
+ * (the constants are replaced by variables and '=' conditions before planning, see {@code Minibase.buildQueryPlan}).
+ *
+ * A subplan of a query is a connected set of its relational atoms (at least two, sharing variables),
+ * together with all the conditions of the body on their variables only, e.g. {@code R(x, y), S(y, z), y > 10}.
+ * Two subplans are equivalent if they are equal up to a renaming of their variables. Each subplan is normalized into
+ * a canonical form: its atoms are sorted by relation name and by the pattern of repeated variables within each atom,
+ * the variables are renamed in the order they first appear ({@code v0, v1, ...}), and the renamed conditions
+ * (each written in the orientation which comes first, e.g. {@code v1 > 10} rather than {@code 10 < v1}) are sorted.
+ * The atoms that can not be told apart by their sort key are tried in every order, and the smallest form is kept,
+ * so equivalent subplans have the same form whatever the order of their atoms and the names of their variables.
+ * A subplan whose atoms have more than {@link #MAX_ORDERS} such orders is not normalized, and never shared.
+ *
+ * The shared subplans are chosen greedily, the subplans with the most atoms first, and then those contained in the most queries.
+ * Each query reads at most one shared subplan (its atoms are joined first in the plan of the query, see
+ * {@link JoinOrderOptimizer#order(DBCatalog, List, List, List)}), and a subplan is only shared
+ * if its result is estimated to fit in the memory limit of one operator, since it is materialized for its readers.
+ */
+public class CommonSubexpressions {
+
+    public static final int MAX_ORDERS = 720;
+    // the largest number of atom orders tried to normalize a subplan
+
+    /**
+     * A subplan shared by several queries, over canonical variables.
+     */
+    public static final class SharedSubplan {
+        private final List<RelationalAtom> atoms;
+        private final List<ComparisonAtom> conditions;
+        private final List<Reader> readers = new ArrayList<>();
+
+        private SharedSubplan(List<RelationalAtom> atoms, List<ComparisonAtom> conditions) {
+            this.atoms = atoms;
+            this.conditions = conditions;
+        }
+
+        /**
+         * @return the relational atoms of the subplan, over the canonical variables.
+         */
+        public List<RelationalAtom> getAtoms() {
+            return this.atoms;
+        }
+
+        /**
+         * @return the conditions of the subplan, over the canonical variables.
+         */
+        public List<ComparisonAtom> getConditions() {
+            return this.conditions;
+        }
+
+        /**
+         * @return the queries reading the subplan, in the order of the queries.
+         */
+        public List<Reader> getReaders() {
+            return this.readers;
+        }
+    }
+
+    /**
+     * A query reading a shared subplan.
+     */
+    public static final class Reader {
+        private final int query;
+        private final List<Integer> atoms;
+        private final Map<String, String> variables;
+
+        private Reader(int query, List<Integer> atoms, Map<String, String> variables) {
+            this.query = query;
+            this.atoms = atoms;
+            this.variables = variables;
+        }
+
+        /**
+         * @return the index of the query in the batch.
+         */
+        public int getQuery() {
+            return this.query;
+        }
+
+        /**
+         * @return the indices of the relational atoms of the query computed by the subplan, in the order of the subplan atoms.
+         */
+        public List<Integer> getAtoms() {
+            return this.atoms;
+        }
+
+        /**
+         * @return the variable of the query for each canonical variable of the subplan.
+         */
+        public Map<String, String> getVariables() {
+            return this.variables;
+        }
+    }
+
+    /**
+     * A subplan of one query, in canonical form.
+     */
+    private static final class Occurrence {
+        private final int query;
+        private final String form;
+        private final List<Integer> atoms;
+        private final Map<String, String> renaming;
+        // the atoms of the query in the canonical order, and the canonical variable of each variable of the query
+
+        private Occurrence(int query, String form, List<Integer> atoms, Map<String, String> renaming) {
+            this.query = query;
+            this.form = form;
+            this.atoms = atoms;
+            this.renaming = renaming;
+        }
+    }
+
+    /**
+     * Find the subplans shared by the queries of a batch.
+     * @param dbc the catalog of the database, providing the estimates.
+     * @param bodies the relational atoms of each query (containing only variables), {@code null} for a query not to be shared.
+     * @param conditions the comparison atoms of each query.
+     * @return the shared subplans, each read by at least two queries, and no query reading two of them.
+     */
+    public static List<SharedSubplan> find(DBCatalog dbc, List<List<RelationalAtom>> bodies, List<List<ComparisonAtom>> conditions) {
+        Map<String, List<Occurrence>> forms = new HashMap<>();
+        for (int q = 0; q < bodies.size(); q++) {
+            List<RelationalAtom> atoms = bodies.get(q);
+            if (atoms == null || atoms.size() > JoinOrderOptimizer.DP_MAX_ATOMS)
+                continue;
+            for (int mask = 1; mask < (1 << atoms.size()); mask++) {
+                if (Integer.bitCount(mask) < 2 || !isConnected(atoms, mask))
+                    continue;
+                Occurrence occurrence = normalize(q, atoms, conditions.get(q), mask);
+                if (occurrence != null)
+                    forms.computeIfAbsent(occurrence.form, form -> new ArrayList<>()).add(occurrence);
+            }
+        }
+
+        // the candidates with the most atoms first, then with the most queries
+        List<List<Occurrence>> candidates = new ArrayList<>();
+        for (List<Occurrence> occurrences : forms.values())
+            if (countQueries(occurrences) > 1)
+                candidates.add(occurrences);
+        candidates.sort(Comparator.<List<Occurrence>>comparingInt(occurrences -> -occurrences.get(0).atoms.size())
+                .thenComparingInt(occurrences -> -countQueries(occurrences))
+                .thenComparing(occurrences -> occurrences.get(0).form));
+
+        List<SharedSubplan> subplans = new ArrayList<>();
+        Set<Integer> readingQueries = new HashSet<>();
+        for (List<Occurrence> occurrences : candidates) {
+            Map<Integer, Occurrence> readers = new TreeMap<>();
+            for (Occurrence occurrence : occurrences)
+                if (!readingQueries.contains(occurrence.query))
+                    readers.putIfAbsent(occurrence.query, occurrence);
+            if (readers.size() < 2)
+                continue;
+            Occurrence first = readers.values().iterator().next();
+            SharedSubplan subplan = new SharedSubplan(
+                    rename(first.atoms, bodies.get(first.query), first.renaming),
+                    rename(localConditions(bodies.get(first.query), conditions.get(first.query), first.atoms), first.renaming));
+            double[] sizes = JoinOrderOptimizer.estimateSizes(dbc, subplan.atoms, subplan.conditions);
+            if (sizes[sizes.length - 1] * Tuple.estimateSize(first.renaming.size()) > dbc.getMemoryLimit())
+                continue;
+            for (Occurrence occurrence : readers.values()) {
+                Map<String, String> variables = new HashMap<>();
+                for (Map.Entry<String, String> entry : occurrence.renaming.entrySet())
+                    variables.put(entry.getValue(), entry.getKey());
+                subplan.readers.add(new Reader(occurrence.query, occurrence.atoms, variables));
+                readingQueries.add(occurrence.query);
+            }
+            subplans.add(subplan);
+        }
+        return subplans;
+    }
+
+    private static int countQueries(List<Occurrence> occurrences) {
+        Set<Integer> queries = new HashSet<>();
+        for (Occurrence occurrence : occurrences)
+            queries.add(occurrence.query);
+        return queries.size();
+    }
+
+    /**
+     * Check whether the atoms of a subset are connected by their shared variables.
+     */
+    private static boolean isConnected(List<RelationalAtom> atoms, int mask) {
+        int reached = Integer.lowestOneBit(mask);
+        Set<String> variables = variablesOf(atoms.get(Integer.numberOfTrailingZeros(mask)));
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (int i = 0; i < atoms.size(); i++) {
+                if ((mask & (1 << i)) == 0 || (reached & (1 << i)) != 0 || Collections.disjoint(variables, variablesOf(atoms.get(i))))
+                    continue;
+                reached |= 1 << i;
+                variables.addAll(variablesOf(atoms.get(i)));
+                grown = true;
+            }
+        }
+        return reached == mask;
+    }
+
+    /**
+     * Normalize the subplan of a query made of a subset of its atoms, by trying the orders of the atoms with the same sort key.
+     * @return the subplan in canonical form, or {@code null} if its atoms have too many orders.
+     */
+    private static Occurrence normalize(int query, List<RelationalAtom> atoms, List<ComparisonAtom> conditions, int mask) {
+        List<Integer> members = new ArrayList<>();
+        for (int i = 0; i < atoms.size(); i++)
+            if ((mask & (1 << i)) != 0)
+                members.add(i);
+        members.sort(Comparator.comparing(i -> atomKey(atoms.get(i))));
+        long orders = 1;
+        for (int i = 0, tied = 1; i < members.size(); i++) {
+            tied = i > 0 && atomKey(atoms.get(members.get(i))).equals(atomKey(atoms.get(members.get(i - 1)))) ? tied + 1 : 1;
+            orders *= tied;
+        }
+        if (orders > MAX_ORDERS)
+            return null;
+
+        List<Integer> atomIndices = new ArrayList<>();
+        for (int i : members)
+            atomIndices.add(i);
+        List<ComparisonAtom> local = localConditions(atoms, conditions, atomIndices);
+        Occurrence[] best = new Occurrence[1];
+        permute(atoms, members, 0, order -> {
+            Map<String, String> renaming = new LinkedHashMap<>();
+            StringBuilder form = new StringBuilder();
+            for (int i : order) {
+                form.append(atoms.get(i).getName()).append('(');
+                for (Term term : atoms.get(i).getTerms()) {
+                    String name = ((Variable) term).getName();
+                    renaming.putIfAbsent(name, "v" + renaming.size());
+                    form.append(renaming.get(name)).append(',');
+                }
+                form.append(')');
+            }
+            Set<String> sortedConditions = new TreeSet<>();
+            for (ComparisonAtom cAtom : local)
+                sortedConditions.add(conditionForm(cAtom, renaming));
+            form.append(" | ").append(String.join(", ", sortedConditions));
+            if (best[0] == null || form.toString().compareTo(best[0].form) < 0)
+                best[0] = new Occurrence(query, form.toString(), new ArrayList<>(order), renaming);
+        });
+        return best[0];
+    }
+
+    /**
+     * Call the action on each order of the members in which the sort keys stay sorted, i.e. the tied atoms in every order.
+     */
+    private static void permute(List<RelationalAtom> atoms, List<Integer> members, int position,
+                                Consumer<List<Integer>> action) {
+        if (position == members.size()) {
+            action.accept(members);
+            return;
+        }
+        String key = atomKey(atoms.get(members.get(position)));
+        for (int i = position; i < members.size() && atomKey(atoms.get(members.get(i))).equals(key); i++) {
+            Collections.swap(members, position, i);
+            permute(atoms, members, position + 1, action);
+            Collections.swap(members, position, i);
+        }
+    }
+
+    /**
+     * The key of an atom that does not depend on the names of its variables:
+     * the relation name, and the position where each variable first appears in the atom, e.g. {@code R/0,1,0} for {@code R(x, y, x)}.
+     */
+    private static String atomKey(RelationalAtom atom) {
+        List<String> names = new ArrayList<>();
+        StringBuilder key = new StringBuilder(atom.getName()).append('/');
+        for (Term term : atom.getTerms()) {
+            String name = ((Variable) term).getName();
+            if (!names.contains(name))
+                names.add(name);
+            key.append(names.indexOf(name)).append(',');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Write a condition over the canonical variables, in the orientation which comes first.
+     */
+    private static String conditionForm(ComparisonAtom cAtom, Map<String, String> renaming) {
+        String term1 = termForm(cAtom.getTerm1(), renaming);
+        String term2 = termForm(cAtom.getTerm2(), renaming);
+        String form = term1 + " " + cAtom.getOp() + " " + term2;
+        String mirrored = term2 + " " + mirror(cAtom.getOp()) + " " + term1;
+        return form.compareTo(mirrored) <= 0 ? form : mirrored;
+    }
+
+    private static String termForm(Term term, Map<String, String> renaming) {
+        return term instanceof Variable ? renaming.get(((Variable) term).getName()) : term.toString();
+    }
+
+    /**
+     * @return the operator with the operands swapped, e.g. '>' for '<'.
+     */
+    private static ComparisonOperator mirror(ComparisonOperator op) {
+        switch (op) {
+            case GT:
+                return ComparisonOperator.LT;
+            case GEQ:
+                return ComparisonOperator.LEQ;
+            case LT:
+                return ComparisonOperator.GT;
+            case LEQ:
+                return ComparisonOperator.GEQ;
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * @return the conditions of a query body on the variables of some of its atoms only.
+     */
+    private static List<ComparisonAtom> localConditions(List<RelationalAtom> atoms, List<ComparisonAtom> conditions, List<Integer> subset) {
+        Set<String> variables = new HashSet<>();
+        for (int i : subset)
+            variables.addAll(variablesOf(atoms.get(i)));
+        List<ComparisonAtom> local = new ArrayList<>();
+        for (ComparisonAtom cAtom : conditions)
+            if ((!(cAtom.getTerm1() instanceof Variable) || variables.contains(((Variable) cAtom.getTerm1()).getName()))
+                    && (!(cAtom.getTerm2() instanceof Variable) || variables.contains(((Variable) cAtom.getTerm2()).getName())))
+                local.add(cAtom);
+        return local;
+    }
+
+    private static List<RelationalAtom> rename(List<Integer> subset, List<RelationalAtom> atoms, Map<String, String> renaming) {
+        List<RelationalAtom> renamed = new ArrayList<>();
+        for (int i : subset) {
+            List<Term> terms = new ArrayList<>();
+            for (Term term : atoms.get(i).getTerms())
+                terms.add(new Variable(renaming.get(((Variable) term).getName())));
+            renamed.add(new RelationalAtom(atoms.get(i).getName(), terms));
+        }
+        return renamed;
+    }
+
+    private static List<ComparisonAtom> rename(List<ComparisonAtom> conditions, Map<String, String> renaming) {
+        List<ComparisonAtom> renamed = new ArrayList<>();
+        for (ComparisonAtom cAtom : conditions)
+            renamed.add(new ComparisonAtom(renameTerm(cAtom.getTerm1(), renaming), renameTerm(cAtom.getTerm2(), renaming), cAtom.getOp()));
+        return renamed;
+    }
+
+    private static Term renameTerm(Term term, Map<String, String> renaming) {
+        return term instanceof Variable ? new Variable(renaming.get(((Variable) term).getName())) : term;
+    }
+
+    private static Set<String> variablesOf(RelationalAtom rAtom) {
+        Set<String> vars = new HashSet<>();
+        for (Term term : rAtom.getTerms())
+            vars.add(((Variable) term).getName());
+        return vars;
+    }
+}
@@ -0,0 +1,145 @@
+package ed.inf.adbs.minibase.planner;
+
+import ed.inf.adbs.minibase.base.*;
+
+import java.util.*;
+
+/**
+ * The hypergraph of a query body: a vertex for each variable, and a hyperedge for each relational atom
+ * (the set of variables appeared in the atom).
+ * The relational atoms are expected to contain only variables
+ * (the constants are replaced by variables and '=' conditions before planning, see {@code Minibase.buildQueryPlan}).
+ *
+ * A body is (alpha-)acyclic if its hyperedges can be removed one by one by the GYO reduction,
+ * where a hyperedge can be removed (as an "ear") if its variables shared with the remaining hyperedges
+ * are all contained in one other remaining hyperedge (its parent in the join tree).
+ * The parents found by the reduction form a join tree: for each variable, the atoms containing it are connected in the tree.
+ * Acyclic bodies are joined well by a tree of binary joins (after a semi-join reduction along the join tree);
+ * the cyclic ones (e.g. the triangle {@code R(a, b), S(b, c), T(c, a)}) may produce intermediate results
+ * much larger than the output in any binary plan.
+ */
+public class Hypergraph {
+
+    /**
+     * @param atoms the relational atoms of a query body.
+     * @return {@code true} if the hypergraph of the atoms is acyclic, {@code false} otherwise.
+     */
+    public static boolean isAcyclic(List<RelationalAtom> atoms) {
+        return joinTree(atoms) != null;
+    }
+
+    /**
+     * Build a join tree of the atoms by the GYO reduction, rooted at the first atom.
+     * @param atoms the relational atoms of a query body.
+     * @return the parent of each atom in the join tree (as an index in {@code atoms}, -1 for the root),
+     *         or {@code null} if the hypergraph is cyclic.
+     */
+    public static int[] joinTree(List<RelationalAtom> atoms) {
+        List<Set<String>> edges = new ArrayList<>();
+        for (RelationalAtom atom : atoms)
+            edges.add(variablesOf(atom));
+
+        // the tree is found as an undirected graph, then rooted at the first atom
+        List<List<Integer>> neighbours = new ArrayList<>();
+        for (int i = 0; i < atoms.size(); i++)
+            neighbours.add(new ArrayList<>());
+        boolean[] removed = new boolean[atoms.size()];
+        int remaining = atoms.size();
+        while (remaining > 1) {
+            int ear = -1;
+            int parent = -1;
+            for (int e = 0; e < edges.size() && ear < 0; e++) {
+                if (removed[e])
+                    continue;
+                Set<String> shared = new HashSet<>();
+                for (int f = 0; f < edges.size(); f++)
+                    if (f != e && !removed[f])
+                        for (String var : edges.get(f))
+                            if (edges.get(e).contains(var))
+                                shared.add(var);
+                for (int f = 0; f < edges.size(); f++) {
+                    if (f != e && !removed[f] && edges.get(f).containsAll(shared)) {
+                        ear = e;
+                        parent = f;
+                        break;
+                    }
+                }
+            }
+            if (ear < 0)
+                return null;
+            removed[ear] = true;
+            remaining--;
+            neighbours.get(ear).add(parent);
+            neighbours.get(parent).add(ear);
+        }
+
+        int[] parents = new int[atoms.size()];
+        Arrays.fill(parents, -1);
+        if (atoms.isEmpty())
+            return parents;
+        boolean[] visited = new boolean[atoms.size()];
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        visited[0] = true;
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int neighbour : neighbours.get(node)) {
+                if (!visited[neighbour]) {
+                    visited[neighbour] = true;
+                    parents[neighbour] = node;
+                    queue.add(neighbour);
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Order the atoms of a join tree so that each atom comes after its parent,
+     * the children of an atom are taken in their order in the tree (breadth first from the root).
+     * Joining the atoms in this order, each atom is joined on the variables it shares with its parent.
+     * @param parents the parent of each atom, as returned by {@link #joinTree(List)}.
+     * @return the indices of the atoms in the new order.
+     */
+    public static List<Integer> treeOrder(int[] parents) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < parents.length; i++)
+            if (parents[i] < 0)
+                order.add(i);
+        for (int next = 0; next < order.size(); next++)
+            for (int i = 0; i < parents.length; i++)
+                if (parents[i] == order.get(next))
+                    order.add(i);
+        return order;
+    }
+
+    /**
+     * Choose the order in which a variable-at-a-time join binds the variables of a query body.
+     * The variables shared by more atoms come first, since each binding of them intersects more relations;
+     * the ties are broken by the order of the atoms (e.g. the join order, which starts from the selective atoms).
+     * @param atoms the relational atoms of a query body.
+     * @return all the variables of the atoms, in binding order.
+     */
+    public static List<String> variableOrder(List<RelationalAtom> atoms) {
+        List<String> variables = new ArrayList<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (RelationalAtom atom : atoms) {
+            for (String var : variablesOf(atom)) {
+                if (!occurrences.containsKey(var))
+                    variables.add(var);
+                occurrences.merge(var, 1, Integer::sum);
+            }
+        }
+        // a stable sort, the first appearance is kept between the variables of the same degree
+        variables.sort(Comparator.comparing(var -> -occurrences.get(var)));
+        return variables;
+    }
+
+    private static Set<String> variablesOf(RelationalAtom atom) {
+        Set<String> variables = new LinkedHashSet<>();
+        for (Term term : atom.getTerms())
+            if (term instanceof Variable)
+                variables.add(((Variable) term).getName());
+        return variables;
+    }
+}
@@ -0,0 +1,445 @@
+package ed.inf.adbs.minibase.planner;
+
+import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.operator.DBCatalog;
+import ed.inf.adbs.minibase.operator.IndexFile;
+import ed.inf.adbs.minibase.operator.RelationStatistics;
+import ed.inf.adbs.minibase.operator.SelectCondition;
+
+import java.util.*;
+
+/**
+ * Choose the order in which the relational atoms of a query body are joined into a left-deep tree.
+ * The relational atoms are expected to contain only variables
+ * (the constants are replaced by variables and '=' conditions before planning, see {@code Minibase.buildQueryPlan}).
+ *
+ * Each order is costed by the sum of the estimated sizes of its intermediate join results,
+ * plus the cost of reading each relation: its rows, and for the relations on the right (build) side of a join,
+ * the size of the hash table built on them. If the right relation has an index on an equi-join column,
+ * probing it for each left tuple ({@link #indexJoinCost(RelationalAtom, int, double)}) replaces these costs when it is cheaper,
+ * so a small left side followed by an indexed relation is favoured.
+ * The estimates are derived from the relation cardinalities and column distinct counts in {@link DBCatalog}:
+ *      (1) a relation is filtered by the conditions on its own variables, estimated by
+ *          {@link SelectCondition#estimateSelectivity(List)} on the column histograms if the relation has been analyzed
+ *          (otherwise '=' a constant keeps {@code 1/distinct} of it, a range keeps {@link #RANGE_SELECTIVITY} of it);
+ *      (2) a join on a shared variable (or a '=' condition) keeps {@code 1/max(distinct)} of the cross product.
+ * Bodies with at most {@link #DP_MAX_ATOMS} relational atoms are optimised by dynamic programming over the subsets of atoms,
+ * larger bodies are ordered greedily (always joining the atom that gives the smallest intermediate result).
+ * In both cases, an atom that is not connected to the joined atoms (by a shared variable or a join condition)
+ * is only chosen when no connected atom remains, so a cross product never precedes a connected join.
+ */
+public class JoinOrderOptimizer {
+
+    public static final int DP_MAX_ATOMS = 10;
+    // the largest number of atoms to be optimised by dynamic programming
+
+    private static final double RANGE_SELECTIVITY = 1.0 / 3;
+    // the fraction of tuples assumed to satisfy a '<', '<=', '>' or '>=' condition
+
+    public static final double INDEX_FETCH_COST = 4;
+    // the cost of looking up a key in an index, or fetching one row by its position, relative to reading one row in a full scan
+
+    private final DBCatalog dbc;
+    private final List<RelationalAtom> atoms;
+    private final List<ComparisonAtom> conditions;
+    private final List<Set<String>> atomVariables = new ArrayList<>();
+    private final List<PartialPlan> atomPlans = new ArrayList<>();
+    // the variables of each atom, and the single-atom plan of each atom (after its own conditions are applied)
+    private final List<boolean[]> indexedColumns = new ArrayList<>();
+    // the columns of each atom with an index supporting '=' lookups
+
+    private JoinOrderOptimizer(DBCatalog dbc, List<RelationalAtom> atoms, List<ComparisonAtom> conditions) {
+        this.dbc = dbc;
+        this.atoms = atoms;
+        this.conditions = conditions;
+        for (int i = 0; i < atoms.size(); i++) {
+            this.atomVariables.add(variablesOf(atoms.get(i)));
+            this.atomPlans.add(this.scanPlan(i));
+            this.indexedColumns.add(indexedColumnsOf(dbc, atoms.get(i)));
+        }
+    }
+
+    /**
+     * Reorder the relational atoms of a query body for the left-deep join tree.
+     * @param dbc the catalog of the database, providing the estimates.
+     * @param relationalAtoms the relational atoms in the query body (containing only variables).
+     * @param conditions all the comparison atoms in the query body.
+     * @return a new list of the same atoms, in the order they should be joined.
+     */
+    public static List<RelationalAtom> order(DBCatalog dbc, List<RelationalAtom> relationalAtoms, List<ComparisonAtom> conditions) {
+        if (relationalAtoms.size() <= 1)
+            return new ArrayList<>(relationalAtoms);
+        JoinOrderOptimizer optimizer = new JoinOrderOptimizer(dbc, relationalAtoms, conditions);
+        PartialPlan plan = relationalAtoms.size() <= DP_MAX_ATOMS ? optimizer.dynamicProgramming(null) : optimizer.greedy(null);
+        List<RelationalAtom> ordered = new ArrayList<>();
+        for (int i : plan.order)
+            ordered.add(relationalAtoms.get(i));
+        return ordered;
+    }
+
+    /**
+     * Reorder the relational atoms of a query body for the left-deep join tree, some atoms being joined first in a given order,
+     * e.g. because their join is read from a subplan shared with other queries (see {@code Minibase.evaluateBatch}).
+     * The other atoms are ordered as by {@link #order(DBCatalog, List, List)}, from the join of the first atoms.
+     * @param dbc the catalog of the database, providing the estimates.
+     * @param firstAtoms the relational atoms joined first, in their join order (containing only variables).
+     * @param otherAtoms the other relational atoms in the query body (containing only variables).
+     * @param conditions all the comparison atoms in the query body.
+     * @return a new list of all the atoms, starting with {@code firstAtoms}, in the order they should be joined.
+     */
+    public static List<RelationalAtom> order(DBCatalog dbc, List<RelationalAtom> firstAtoms, List<RelationalAtom> otherAtoms,
+                                             List<ComparisonAtom> conditions) {
+        List<RelationalAtom> relationalAtoms = new ArrayList<>(firstAtoms);
+        relationalAtoms.addAll(otherAtoms);
+        if (otherAtoms.isEmpty())
+            return relationalAtoms;
+        JoinOrderOptimizer optimizer = new JoinOrderOptimizer(dbc, relationalAtoms, conditions);
+        PartialPlan start = optimizer.atomPlans.get(0);
+        for (int i = 1; i < firstAtoms.size(); i++)
+            start = optimizer.join(start, i);
+        PartialPlan plan = relationalAtoms.size() <= DP_MAX_ATOMS ? optimizer.dynamicProgramming(start) : optimizer.greedy(start);
+        List<RelationalAtom> ordered = new ArrayList<>();
+        for (int i : plan.order)
+            ordered.add(relationalAtoms.get(i));
+        return ordered;
+    }
+
+    /**
+     * Estimate the intermediate results of joining the atoms in a given order.
+     * @param dbc the catalog of the database, providing the estimates.
+     * @param orderedAtoms the relational atoms in join order (containing only variables).
+     * @param conditions all the comparison atoms in the query body.
+     * @return the estimated number of tuples after the filtered scan of the first atom,
+     *         and after each join of the next atom (the last one is the size of the join result).
+     */
+    public static double[] estimateSizes(DBCatalog dbc, List<RelationalAtom> orderedAtoms, List<ComparisonAtom> conditions) {
+        JoinOrderOptimizer optimizer = new JoinOrderOptimizer(dbc, orderedAtoms, conditions);
+        double[] sizes = new double[orderedAtoms.size()];
+        PartialPlan plan = null;
+        for (int i = 0; i < orderedAtoms.size(); i++) {
+            plan = i == 0 ? optimizer.atomPlans.get(0) : optimizer.join(plan, i);
+            sizes[i] = plan.cardinality;
+        }
+        return sizes;
+    }
+
+    /**
+     * Find the cheapest left-deep order: the best plan of each subset of atoms is built
+     * from the best plans of its subsets with one atom less.
+     * @param start the plan of the atoms joined first, or {@code null} to start from any atom.
+     */
+    private PartialPlan dynamicProgramming(PartialPlan start) {
+        int n = this.atoms.size();
+        PartialPlan[] best = new PartialPlan[1 << n];
+        if (start != null) {
+            best[(int) start.atoms.toLongArray()[0]] = start;
+        } else {
+            for (int i = 0; i < n; i++)
+                best[1 << i] = this.atomPlans.get(i);
+        }
+
+        for (int mask = 1; mask < (1 << n); mask++) {
+            PartialPlan plan = best[mask];
+            if (plan == null)
+                continue;
+            for (int i = 0; i < n; i++) {
+                if ((mask & (1 << i)) != 0 || !this.canJoin(plan, i))
+                    continue;
+                PartialPlan candidate = this.join(plan, i);
+                int newMask = mask | (1 << i);
+                if (best[newMask] == null || candidate.cost < best[newMask].cost)
+                    best[newMask] = candidate;
+            }
+        }
+        return best[(1 << n) - 1];
+    }
+
+    /**
+     * Start from the smallest atom, then repeatedly join the atom that gives the smallest intermediate result.
+     * @param start the plan of the atoms joined first, or {@code null} to start from the smallest atom.
+     */
+    private PartialPlan greedy(PartialPlan start) {
+        PartialPlan plan = start;
+        if (plan == null)
+            for (PartialPlan atomPlan : this.atomPlans)
+                if (plan == null || atomPlan.cardinality < plan.cardinality)
+                    plan = atomPlan;
+
+        while (plan.order.size() < this.atoms.size()) {
+            PartialPlan next = null;
+            for (int i = 0; i < this.atoms.size(); i++) {
+                if (plan.atoms.get(i) || !this.canJoin(plan, i))
+                    continue;
+                PartialPlan candidate = this.join(plan, i);
+                if (next == null || candidate.cardinality < next.cardinality)
+                    next = candidate;
+            }
+            plan = next;
+        }
+        return plan;
+    }
+
+    /**
+     * An atom can be joined to a plan if they are connected,
+     * or if none of the remaining atoms is connected to the plan (so the cross product is unavoidable).
+     */
+    private boolean canJoin(PartialPlan plan, int atom) {
+        if (this.isConnected(plan, atom))
+            return true;
+        for (int i = 0; i < this.atoms.size(); i++)
+            if (!plan.atoms.get(i) && this.isConnected(plan, i))
+                return false;
+        return true;
+    }
+
+    private boolean isConnected(PartialPlan plan, int atom) {
+        for (String var : this.atomVariables.get(atom))
+            if (plan.variables.contains(var))
+                return true;
+        for (ComparisonAtom cAtom : this.conditions)
+            if (this.isJoinCondition(cAtom, plan.variables, this.atomVariables.get(atom)))
+                return true;
+        return false;
+    }
+
+    /**
+     * Check whether a condition is applied by the join of two sides, i.e. its variables are covered by the two sides together,
+     * but not by either side alone.
+     */
+    private boolean isJoinCondition(ComparisonAtom cAtom, Set<String> leftVariables, Set<String> rightVariables) {
+        Set<String> vars = variablesOf(cAtom);
+        boolean inLeft = leftVariables.containsAll(vars);
+        boolean inRight = rightVariables.containsAll(vars);
+        if (inLeft || inRight)
+            return false;
+        for (String var : vars)
+            if (!leftVariables.contains(var) && !rightVariables.contains(var))
+                return false;
+        return true;
+    }
+
+    /**
+     * Estimate the scan of an atom, filtered by the conditions on its own variables.
+     */
+    private PartialPlan scanPlan(int atom) {
+        RelationalAtom rAtom = this.atoms.get(atom);
+        double cardinality = this.dbc.estimateRowCount(rAtom.getName());
+        Map<String, Double> distinct = new HashMap<>();
+        for (int c = 0; c < rAtom.getTerms().size(); c++) {
+            Term term = rAtom.getTerms().get(c);
+            if (!(term instanceof Variable))
+                continue;
+            String var = ((Variable) term).getName();
+            double count = this.dbc.estimateDistinctCount(rAtom.getName(), c);
+            if (distinct.containsKey(var)) {
+                // a variable repeated in the atom, the two columns must be equal
+                cardinality /= Math.max(count, distinct.get(var));
+                count = Math.min(count, distinct.get(var));
+            }
+            distinct.put(var, count);
+        }
+
+        // with the statistics of the relation, the selectivities are estimated on the histograms of the columns
+        RelationStatistics statistics = this.dbc.getStatistics(rAtom.getName());
+        List<String> variableMask = new ArrayList<>();
+        for (Term term : rAtom.getTerms())
+            variableMask.add(term instanceof Variable ? ((Variable) term).getName() : null);
+
+        for (ComparisonAtom cAtom : this.conditions) {
+            Set<String> vars = variablesOf(cAtom);
+            if (vars.isEmpty() || !this.atomVariables.get(atom).containsAll(vars))
+                continue;
+            double selectivity = applyCondition(cAtom, distinct);
+            if (statistics != null)
+                selectivity = new SelectCondition(cAtom, variableMask).estimateSelectivity(statistics.getColumns());
+            cardinality *= selectivity;
+        }
+
+        BitSet atoms = new BitSet();
+        atoms.set(atom);
+        return new PartialPlan(atoms, Collections.singletonList(atom), distinct, cardinality, this.dbc.estimateRowCount(rAtom.getName()));
+    }
+
+    /**
+     * Estimate the result of joining an atom to the right side of a plan.
+     */
+    private PartialPlan join(PartialPlan plan, int atom) {
+        PartialPlan right = this.atomPlans.get(atom);
+        double cardinality = plan.cardinality * right.cardinality;
+        Map<String, Double> distinct = new HashMap<>(plan.distinct);
+        for (Map.Entry<String, Double> entry : right.distinct.entrySet()) {
+            Double leftCount = distinct.get(entry.getKey());
+            if (leftCount != null) {
+                cardinality /= Math.max(leftCount, entry.getValue());
+                distinct.put(entry.getKey(), Math.min(leftCount, entry.getValue()));
+            } else {
+                distinct.put(entry.getKey(), entry.getValue());
+            }
+        }
+        List<ComparisonAtom> joinConditions = new ArrayList<>();
+        for (ComparisonAtom cAtom : this.conditions)
+            if (this.isJoinCondition(cAtom, plan.variables, this.atomVariables.get(atom)))
+                joinConditions.add(cAtom);
+        for (ComparisonAtom cAtom : joinConditions)
+            cardinality *= applyCondition(cAtom, distinct);
+
+        BitSet atoms = (BitSet) plan.atoms.clone();
+        atoms.set(atom);
+        List<Integer> order = new ArrayList<>(plan.order);
+        order.add(atom);
+        RelationalAtom rAtom = this.atoms.get(atom);
+        double rightCost = right.cost + right.cardinality;
+        int indexColumn = findJoinIndexColumn(this.dbc, rAtom, this.indexedColumns.get(atom), plan.variables, joinConditions);
+        if (indexColumn >= 0)
+            rightCost = Math.min(rightCost, indexJoinCost(this.dbc, rAtom, indexColumn, plan.cardinality));
+        double cost = plan.cost + cardinality + rightCost;
+        return new PartialPlan(atoms, order, distinct, cardinality, cost);
+    }
+
+    /**
+     * Find an index of the right relation of a join that can be probed by an index nested-loop join:
+     * an index supporting '=' lookups, on a column whose variable is an equi-join key with the left side
+     * (a variable of the left side, or compared by '=' with one in a join condition).
+     * If several columns qualify, the one with the most distinct values is chosen, which fetches the fewest rows per probe.
+     * @param dbc the catalog of the database.
+     * @param rAtom the right atom of the join (containing only variables).
+     * @param leftVariables the variables of the left side.
+     * @param joinConditions the join conditions between the two sides.
+     * @return the index of the column, or -1 if there is no such index.
+     */
+    public static int findJoinIndexColumn(DBCatalog dbc, RelationalAtom rAtom, Collection<String> leftVariables, List<ComparisonAtom> joinConditions) {
+        return findJoinIndexColumn(dbc, rAtom, indexedColumnsOf(dbc, rAtom), leftVariables, joinConditions);
+    }
+
+    private static int findJoinIndexColumn(DBCatalog dbc, RelationalAtom rAtom, boolean[] indexedColumns, Collection<String> leftVariables,
+                                           List<ComparisonAtom> joinConditions) {
+        int bestColumn = -1;
+        for (int column = 0; column < indexedColumns.length; column++) {
+            if (!indexedColumns[column])
+                continue;
+            String variable = ((Variable) rAtom.getTerms().get(column)).getName();
+            boolean isKey = leftVariables.contains(variable);
+            for (ComparisonAtom cAtom : joinConditions) {
+                if (cAtom.getOp() != ComparisonOperator.EQ
+                        || !(cAtom.getTerm1() instanceof Variable) || !(cAtom.getTerm2() instanceof Variable))
+                    continue;
+                String name1 = ((Variable) cAtom.getTerm1()).getName();
+                String name2 = ((Variable) cAtom.getTerm2()).getName();
+                if ((name1.equals(variable) && leftVariables.contains(name2)) || (name2.equals(variable) && leftVariables.contains(name1)))
+                    isKey = true;
+            }
+            if (isKey && (bestColumn < 0
+                    || dbc.estimateDistinctCount(rAtom.getName(), column) > dbc.estimateDistinctCount(rAtom.getName(), bestColumn)))
+                bestColumn = column;
+        }
+        return bestColumn;
+    }
+
+    private static boolean[] indexedColumnsOf(DBCatalog dbc, RelationalAtom rAtom) {
+        boolean[] indexed = new boolean[rAtom.getTerms().size()];
+        for (int column = 0; column < indexed.length; column++)
+            indexed[column] = rAtom.getTerms().get(column) instanceof Variable && findEqualityIndex(dbc, rAtom.getName(), column) != null;
+        return indexed;
+    }
+
+    /**
+     * @param dbc the catalog of the database.
+     * @param relationName the name of relation.
+     * @param column the index of column.
+     * @return the type of an index on the column supporting '=' lookups (a hash index is preferred), or {@code null} if there is none.
+     */
+    public static DBCatalog.IndexType findEqualityIndex(DBCatalog dbc, String relationName, int column) {
+        for (DBCatalog.IndexType type : DBCatalog.IndexType.values()) {
+            IndexFile index = dbc.getIndex(relationName, column, type);
+            if (index != null && index.supports("="))
+                return type;
+        }
+        return null;
+    }
+
+    /**
+     * Estimate the cost of an index nested-loop join, in the rows read by a full scan:
+     * each left tuple looks up its key in the index, and fetches the rows holding it (as many as the rows per distinct value),
+     * each lookup and each fetched row costing {@link #INDEX_FETCH_COST}.
+     * @param dbc the catalog of the database.
+     * @param rAtom the right atom of the join.
+     * @param column the probed column.
+     * @param leftRows the estimated number of left tuples.
+     * @return the estimated cost.
+     */
+    public static double indexJoinCost(DBCatalog dbc, RelationalAtom rAtom, int column, double leftRows) {
+        double rowsPerKey = (double) dbc.estimateRowCount(rAtom.getName()) / dbc.estimateDistinctCount(rAtom.getName(), column);
+        return leftRows * INDEX_FETCH_COST * (1 + rowsPerKey);
+    }
+
+    /**
+     * Estimate the selectivity of a condition, and update the distinct counts of its variables
+     * (a variable equal to a constant has only one value left, two equal variables share the smaller count).
+     * @param cAtom the condition.
+     * @param distinct the distinct counts of the variables, updated in place.
+     * @return the fraction of tuples that satisfy the condition.
+     */
+    private static double applyCondition(ComparisonAtom cAtom, Map<String, Double> distinct) {
+        Double count1 = cAtom.getTerm1() instanceof Variable ? distinct.get(((Variable) cAtom.getTerm1()).getName()) : null;
+        Double count2 = cAtom.getTerm2() instanceof Variable ? distinct.get(((Variable) cAtom.getTerm2()).getName()) : null;
+        if (count1 == null && count2 == null)
+            return 1;
+        double count = Math.max(count1 == null ? 1 : count1, count2 == null ? 1 : count2);
+
+        switch (cAtom.getOp()) {
+            case EQ:
+                double equalCount = Math.min(count1 == null ? 1 : count1, count2 == null ? 1 : count2);
+                if (count1 != null)
+                    distinct.put(((Variable) cAtom.getTerm1()).getName(), equalCount);
+                if (count2 != null)
+                    distinct.put(((Variable) cAtom.getTerm2()).getName(), equalCount);
+                return 1 / count;
+            case NEQ:
+                return 1 - 1 / count;
+            default:
+                return RANGE_SELECTIVITY;
+        }
+    }
+
+    private static Set<String> variablesOf(RelationalAtom rAtom) {
+        Set<String> vars = new HashSet<>();
+        for (Term term : rAtom.getTerms())
+            if (term instanceof Variable)
+                vars.add(((Variable) term).getName());
+        return vars;
+    }
+
+    private static Set<String> variablesOf(ComparisonAtom cAtom) {
+        Set<String> vars = new HashSet<>();
+        if (cAtom.getTerm1() instanceof Variable)
+            vars.add(((Variable) cAtom.getTerm1()).getName());
+        if (cAtom.getTerm2() instanceof Variable)
+            vars.add(((Variable) cAtom.getTerm2()).getName());
+        return vars;
+    }
+
+    /**
+     * A left-deep join of some atoms, with its estimated size and cost.
+     */
+    private static final class PartialPlan {
+        private final BitSet atoms;
+        private final List<Integer> order;
+        private final Set<String> variables;
+        private final Map<String, Double> distinct;
+        // the estimated number of distinct values of each variable in the result
+        private final double cardinality;
+        private final double cost;
+
+        private PartialPlan(BitSet atoms, List<Integer> order, Map<String, Double> distinct, double cardinality, double cost) {
+            this.atoms = atoms;
+            this.order = order;
+            this.variables = distinct.keySet();
+            this.cardinality = Math.max(1, cardinality);
+            this.cost = cost;
+            // no variable can have more distinct values than the result has tuples
+            for (Map.Entry<String, Double> entry : distinct.entrySet())
+                entry.setValue(Math.min(entry.getValue(), this.cardinality));
+            this.distinct = distinct;
+        }
+    }
+}